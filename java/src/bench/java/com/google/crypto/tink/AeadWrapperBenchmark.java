@@ -0,0 +1,108 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.aead.AeadFactory;
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.config.TinkConfig;
+import com.google.crypto.tink.subtle.Random;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of the {@link Aead} that {@link AeadFactory} returns for a keyset, compared
+ * to the primitive of its primary key alone ({@code subtle*}).
+ *
+ * <p>The keysets have {@code keys} AES128-GCM keys, of which the first {@code rawPercent} percent
+ * are RAW and the others have output prefix type {@code prefixType}, and the primary key is the
+ * {@code primaryPosition} key. Decryption uses a ciphertext of the primary key, so with a RAW
+ * primary at the end, all RAW keys are tried. See doc/BENCHMARKS.md for baseline numbers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AeadWrapperBenchmark {
+  @Param({"1", "10", "100"})
+  public int keys;
+
+  @Param({"0", "50", "100"})
+  public int rawPercent;
+
+  @Param({"TINK", "LEGACY"})
+  public String prefixType;
+
+  @Param({"FIRST", "LAST"})
+  public String primaryPosition;
+
+  @Param({"16", "4096"})
+  public int size;
+
+  private Aead subtle;
+  private Aead wrapped;
+  private byte[] plaintext;
+  private byte[] associatedData;
+  private byte[] subtleCiphertext;
+  private byte[] ciphertext;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    Config.register(TinkConfig.TINK_1_0_0);
+    KeysetHandle handle =
+        BenchmarkKeysets.create(
+            AeadKeyTemplates.AES128_GCM, keys, rawPercent, prefixType, primaryPosition);
+    subtle = Registry.getPrimitive(BenchmarkKeysets.primaryKeyData(handle));
+    wrapped = AeadFactory.getPrimitive(handle);
+    plaintext = Random.randBytes(size);
+    associatedData = Random.randBytes(16);
+    subtleCiphertext = subtle.encrypt(plaintext, associatedData);
+    ciphertext = wrapped.encrypt(plaintext, associatedData);
+  }
+
+  @Benchmark
+  public byte[] subtleEncrypt() throws GeneralSecurityException {
+    return subtle.encrypt(plaintext, associatedData);
+  }
+
+  @Benchmark
+  public byte[] encrypt() throws GeneralSecurityException {
+    return wrapped.encrypt(plaintext, associatedData);
+  }
+
+  @Benchmark
+  public byte[] subtleDecrypt() throws GeneralSecurityException {
+    return subtle.decrypt(subtleCiphertext, associatedData);
+  }
+
+  @Benchmark
+  public byte[] decrypt() throws GeneralSecurityException {
+    return wrapped.decrypt(ciphertext, associatedData);
+  }
+}
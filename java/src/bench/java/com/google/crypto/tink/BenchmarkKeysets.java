@@ -0,0 +1,74 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.proto.KeyData;
+import com.google.crypto.tink.proto.KeyTemplate;
+import com.google.crypto.tink.proto.Keyset;
+import com.google.crypto.tink.proto.OutputPrefixType;
+import java.security.GeneralSecurityException;
+
+/** Creates the keysets used by the wrapper benchmarks. */
+final class BenchmarkKeysets {
+  private BenchmarkKeysets() {}
+
+  /**
+   * Creates a keyset of {@code keys} keys from {@code template}. The first {@code rawPercent}
+   * percent of the keys have output prefix type RAW and the others {@code prefixType}. The primary
+   * key is the first key if {@code primaryPosition} is "FIRST", and the last one if it is "LAST".
+   *
+   * <p>With RAW keys in front of a non-RAW primary, decrypting or verifying with the primary key
+   * finds it by its prefix; with a RAW primary at the end, every RAW key before it is tried first.
+   */
+  static KeysetHandle create(
+      KeyTemplate template, int keys, int rawPercent, String prefixType, String primaryPosition)
+      throws GeneralSecurityException {
+    int rawKeys = (keys * rawPercent + 50) / 100;
+    KeyTemplate raw = template.toBuilder().setOutputPrefixType(OutputPrefixType.RAW).build();
+    KeyTemplate prefixed =
+        template.toBuilder().setOutputPrefixType(OutputPrefixType.valueOf(prefixType)).build();
+    KeysetManager manager = KeysetManager.withEmptyKeyset();
+    for (int i = 0; i < keys; i++) {
+      manager.add(i < rawKeys ? raw : prefixed);
+    }
+    Keyset keyset = manager.getKeysetHandle().getKeyset();
+    int primary;
+    switch (primaryPosition) {
+      case "FIRST":
+        primary = 0;
+        break;
+      case "LAST":
+        primary = keys - 1;
+        break;
+      default:
+        throw new IllegalArgumentException("unknown primary position " + primaryPosition);
+    }
+    manager.promote(keyset.getKey(primary).getKeyId());
+    return manager.getKeysetHandle();
+  }
+
+  /** @return the key data of the primary key of {@code handle}. */
+  static KeyData primaryKeyData(KeysetHandle handle) {
+    Keyset keyset = handle.getKeyset();
+    for (Keyset.Key key : keyset.getKeyList()) {
+      if (key.getKeyId() == keyset.getPrimaryKeyId()) {
+        return key.getKeyData();
+      }
+    }
+    throw new IllegalStateException("keyset has no primary key");
+  }
+}
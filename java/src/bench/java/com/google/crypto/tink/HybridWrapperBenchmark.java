@@ -0,0 +1,116 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.config.TinkConfig;
+import com.google.crypto.tink.hybrid.HybridDecryptFactory;
+import com.google.crypto.tink.hybrid.HybridEncryptFactory;
+import com.google.crypto.tink.hybrid.HybridKeyTemplates;
+import com.google.crypto.tink.subtle.Random;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of the primitives that {@link HybridEncryptFactory} and {@link
+ * HybridDecryptFactory} return for a keyset of ECIES-P256-HKDF-HMAC-SHA256-AES128-GCM keys,
+ * compared to the primitives of its primary key alone ({@code subtle*}).
+ *
+ * <p>See {@link AeadWrapperBenchmark} for the parameters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HybridWrapperBenchmark {
+  @Param({"1", "10", "100"})
+  public int keys;
+
+  @Param({"0", "50", "100"})
+  public int rawPercent;
+
+  @Param({"TINK", "LEGACY"})
+  public String prefixType;
+
+  @Param({"FIRST", "LAST"})
+  public String primaryPosition;
+
+  @Param({"16", "4096"})
+  public int size;
+
+  private HybridEncrypt subtleEncrypter;
+  private HybridDecrypt subtleDecrypter;
+  private HybridEncrypt encrypter;
+  private HybridDecrypt decrypter;
+  private byte[] plaintext;
+  private byte[] contextInfo;
+  private byte[] subtleCiphertext;
+  private byte[] ciphertext;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    Config.register(TinkConfig.TINK_1_0_0);
+    KeysetHandle privateHandle =
+        BenchmarkKeysets.create(
+            HybridKeyTemplates.ECIES_P256_HKDF_HMAC_SHA256_AES128_GCM,
+            keys,
+            rawPercent,
+            prefixType,
+            primaryPosition);
+    KeysetHandle publicHandle = privateHandle.getPublicKeysetHandle();
+    subtleEncrypter = Registry.getPrimitive(BenchmarkKeysets.primaryKeyData(publicHandle));
+    subtleDecrypter = Registry.getPrimitive(BenchmarkKeysets.primaryKeyData(privateHandle));
+    encrypter = HybridEncryptFactory.getPrimitive(publicHandle);
+    decrypter = HybridDecryptFactory.getPrimitive(privateHandle);
+    plaintext = Random.randBytes(size);
+    contextInfo = Random.randBytes(16);
+    subtleCiphertext = subtleEncrypter.encrypt(plaintext, contextInfo);
+    ciphertext = encrypter.encrypt(plaintext, contextInfo);
+  }
+
+  @Benchmark
+  public byte[] subtleEncrypt() throws GeneralSecurityException {
+    return subtleEncrypter.encrypt(plaintext, contextInfo);
+  }
+
+  @Benchmark
+  public byte[] encrypt() throws GeneralSecurityException {
+    return encrypter.encrypt(plaintext, contextInfo);
+  }
+
+  @Benchmark
+  public byte[] subtleDecrypt() throws GeneralSecurityException {
+    return subtleDecrypter.decrypt(subtleCiphertext, contextInfo);
+  }
+
+  @Benchmark
+  public byte[] decrypt() throws GeneralSecurityException {
+    return decrypter.decrypt(ciphertext, contextInfo);
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.aead.AeadFactory;
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.config.TinkConfig;
+import com.google.crypto.tink.subtle.Random;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time from a serialized keyset to the first encryption: parsing the keyset,
+ * instantiating the primitives of all keys with {@link AeadFactory}, and encrypting once.
+ *
+ * <p>Every iteration is a single shot in an already warm JVM. For the time in a cold JVM, run with
+ * e.g. {@code -wi 0 -i 1 -f 20}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 50)
+@Measurement(iterations = 200)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeysetLoadBenchmark {
+  @Param({"1", "10", "100"})
+  public int keys;
+
+  @Param({"0", "100"})
+  public int rawPercent;
+
+  private byte[] serializedKeyset;
+  private byte[] plaintext;
+  private byte[] associatedData;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException, IOException {
+    Config.register(TinkConfig.TINK_1_0_0);
+    KeysetHandle handle =
+        BenchmarkKeysets.create(AeadKeyTemplates.AES128_GCM, keys, rawPercent, "TINK", "LAST");
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    CleartextKeysetHandle.write(handle, BinaryKeysetWriter.withOutputStream(outputStream));
+    serializedKeyset = outputStream.toByteArray();
+    plaintext = Random.randBytes(16);
+    associatedData = Random.randBytes(16);
+  }
+
+  @Benchmark
+  public byte[] loadAndEncrypt() throws GeneralSecurityException, IOException {
+    KeysetHandle handle =
+        CleartextKeysetHandle.read(BinaryKeysetReader.withBytes(serializedKeyset));
+    return AeadFactory.getPrimitive(handle).encrypt(plaintext, associatedData);
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.config.TinkConfig;
+import com.google.crypto.tink.mac.MacFactory;
+import com.google.crypto.tink.mac.MacKeyTemplates;
+import com.google.crypto.tink.subtle.Random;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of the {@link Mac} that {@link MacFactory} returns for a keyset of
+ * HMAC-SHA256 keys, compared to the primitive of its primary key alone ({@code subtle*}).
+ *
+ * <p>See {@link AeadWrapperBenchmark} for the parameters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MacWrapperBenchmark {
+  @Param({"1", "10", "100"})
+  public int keys;
+
+  @Param({"0", "50", "100"})
+  public int rawPercent;
+
+  @Param({"TINK", "LEGACY"})
+  public String prefixType;
+
+  @Param({"FIRST", "LAST"})
+  public String primaryPosition;
+
+  @Param({"16", "4096"})
+  public int size;
+
+  private Mac subtle;
+  private Mac wrapped;
+  private byte[] data;
+  private byte[] subtleTag;
+  private byte[] tag;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    Config.register(TinkConfig.TINK_1_0_0);
+    KeysetHandle handle =
+        BenchmarkKeysets.create(
+            MacKeyTemplates.HMAC_SHA256_128BITTAG, keys, rawPercent, prefixType, primaryPosition);
+    subtle = Registry.getPrimitive(BenchmarkKeysets.primaryKeyData(handle));
+    wrapped = MacFactory.getPrimitive(handle);
+    data = Random.randBytes(size);
+    subtleTag = subtle.computeMac(data);
+    tag = wrapped.computeMac(data);
+  }
+
+  @Benchmark
+  public byte[] subtleComputeMac() throws GeneralSecurityException {
+    return subtle.computeMac(data);
+  }
+
+  @Benchmark
+  public byte[] computeMac() throws GeneralSecurityException {
+    return wrapped.computeMac(data);
+  }
+
+  @Benchmark
+  public void subtleVerifyMac() throws GeneralSecurityException {
+    subtle.verifyMac(subtleTag, data);
+  }
+
+  @Benchmark
+  public void verifyMac() throws GeneralSecurityException {
+    wrapped.verifyMac(tag, data);
+  }
+}
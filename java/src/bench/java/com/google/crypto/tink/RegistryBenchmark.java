@@ -0,0 +1,67 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.aead.AeadConfig;
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.config.TinkConfig;
+import com.google.crypto.tink.proto.KeyData;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of {@link Registry} lookups under contention.
+ *
+ * <p>Run with one thread count at a time, e.g., {@code -t 1}, {@code -t 8} and {@code -t 64}. The
+ * {@code getKeyManager} benchmark isolates the lookup, whereas {@code getPrimitive} includes
+ * parsing the key and instantiating the primitive.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistryBenchmark {
+  private KeyData keyData;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    Config.register(TinkConfig.TINK_1_0_0);
+    keyData = Registry.newKeyData(AeadKeyTemplates.AES128_GCM);
+  }
+
+  @Benchmark
+  public KeyManager<Aead> getKeyManager() throws GeneralSecurityException {
+    return Registry.getKeyManager(AeadConfig.AES_GCM_TYPE_URL);
+  }
+
+  @Benchmark
+  public Aead getPrimitive() throws GeneralSecurityException {
+    return Registry.getPrimitive(keyData);
+  }
+}
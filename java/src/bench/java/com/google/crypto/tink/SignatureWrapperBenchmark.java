@@ -0,0 +1,110 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.config.TinkConfig;
+import com.google.crypto.tink.signature.PublicKeySignFactory;
+import com.google.crypto.tink.signature.PublicKeyVerifyFactory;
+import com.google.crypto.tink.signature.SignatureKeyTemplates;
+import com.google.crypto.tink.subtle.Random;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of the primitives that {@link PublicKeySignFactory} and {@link
+ * PublicKeyVerifyFactory} return for a keyset of Ed25519 keys, compared to the primitives of its
+ * primary key alone ({@code subtle*}).
+ *
+ * <p>See {@link AeadWrapperBenchmark} for the parameters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignatureWrapperBenchmark {
+  @Param({"1", "10", "100"})
+  public int keys;
+
+  @Param({"0", "50", "100"})
+  public int rawPercent;
+
+  @Param({"TINK", "LEGACY"})
+  public String prefixType;
+
+  @Param({"FIRST", "LAST"})
+  public String primaryPosition;
+
+  @Param({"16", "4096"})
+  public int size;
+
+  private PublicKeySign subtleSigner;
+  private PublicKeyVerify subtleVerifier;
+  private PublicKeySign signer;
+  private PublicKeyVerify verifier;
+  private byte[] data;
+  private byte[] subtleSignature;
+  private byte[] signature;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    Config.register(TinkConfig.TINK_1_0_0);
+    KeysetHandle privateHandle =
+        BenchmarkKeysets.create(
+            SignatureKeyTemplates.ED25519, keys, rawPercent, prefixType, primaryPosition);
+    KeysetHandle publicHandle = privateHandle.getPublicKeysetHandle();
+    subtleSigner = Registry.getPrimitive(BenchmarkKeysets.primaryKeyData(privateHandle));
+    subtleVerifier = Registry.getPrimitive(BenchmarkKeysets.primaryKeyData(publicHandle));
+    signer = PublicKeySignFactory.getPrimitive(privateHandle);
+    verifier = PublicKeyVerifyFactory.getPrimitive(publicHandle);
+    data = Random.randBytes(size);
+    subtleSignature = subtleSigner.sign(data);
+    signature = signer.sign(data);
+  }
+
+  @Benchmark
+  public byte[] subtleSign() throws GeneralSecurityException {
+    return subtleSigner.sign(data);
+  }
+
+  @Benchmark
+  public byte[] sign() throws GeneralSecurityException {
+    return signer.sign(data);
+  }
+
+  @Benchmark
+  public void subtleVerify() throws GeneralSecurityException {
+    subtleVerifier.verify(subtleSignature, data);
+  }
+
+  @Benchmark
+  public void verify() throws GeneralSecurityException {
+    verifier.verify(signature, data);
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import com.google.crypto.tink.Aead;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link Aead} implementations of this package, for messages from 16 bytes to 16 MB.
+ *
+ * <p>Reports operations per second and the average time per operation; the throughput in bytes is
+ * the number of operations times {@code size}. Add {@code -prof gc} to the JMH arguments to also
+ * report the bytes allocated per operation ({@code gc.alloc.rate.norm}), and e.g. {@code -p
+ * size=1024} to measure a single size.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AeadBenchmark {
+  @Param({
+    "AES128_GCM",
+    "AES128_CTR_HMAC_SHA256",
+    "AES128_EAX",
+    "CHACHA20_POLY1305",
+    "XCHACHA20_POLY1305",
+    "XSALSA20_POLY1305"
+  })
+  public String algorithm;
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  public int size;
+
+  private Aead aead;
+  private byte[] plaintext;
+  private byte[] associatedData;
+  private byte[] ciphertext;
+
+  static Aead newAead(String algorithm) throws GeneralSecurityException {
+    switch (algorithm) {
+      case "AES128_GCM":
+        return new AesGcmJce(Random.randBytes(16));
+      case "AES128_CTR_HMAC_SHA256":
+        return new EncryptThenAuthenticate(
+            new AesCtrJceCipher(Random.randBytes(16), 16),
+            new MacJce("HMACSHA256", new SecretKeySpec(Random.randBytes(32), "HMAC"), 16),
+            16);
+      case "AES128_EAX":
+        return new AesEaxJce(Random.randBytes(16), 16);
+      case "CHACHA20_POLY1305":
+        return DjbCipherPoly1305.constructChaCha20Poly1305Ietf(Random.randBytes(32));
+      case "XCHACHA20_POLY1305":
+        return DjbCipherPoly1305.constructXChaCha20Poly1305Ietf(Random.randBytes(32));
+      case "XSALSA20_POLY1305":
+        return DjbCipherPoly1305.constructXSalsa20Poly1305Nacl(Random.randBytes(32));
+      default:
+        throw new IllegalArgumentException("unknown algorithm " + algorithm);
+    }
+  }
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    aead = newAead(algorithm);
+    plaintext = Random.randBytes(size);
+    associatedData = Random.randBytes(16);
+    ciphertext = aead.encrypt(plaintext, associatedData);
+  }
+
+  @Benchmark
+  public byte[] encrypt() throws GeneralSecurityException {
+    return aead.encrypt(plaintext, associatedData);
+  }
+
+  @Benchmark
+  public byte[] decrypt() throws GeneralSecurityException {
+    return aead.decrypt(ciphertext, associatedData);
+  }
+}
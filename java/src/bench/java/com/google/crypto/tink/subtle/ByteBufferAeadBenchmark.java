@@ -0,0 +1,96 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import com.google.crypto.tink.ByteBufferAead;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link ByteBufferAead} implementations of this package with heap and with direct
+ * buffers, for messages from 64 bytes to 1 MB. The input and output buffers are reused across
+ * operations.
+ *
+ * <p>See {@link AeadBenchmark} for how to read the results and how to report allocations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ByteBufferAeadBenchmark {
+  @Param({"AES128_GCM", "AES128_EAX", "CHACHA20_POLY1305"})
+  public String algorithm;
+
+  @Param({"false", "true"})
+  public boolean direct;
+
+  @Param({"64", "1024", "65536", "1048576"})
+  public int size;
+
+  private ByteBufferAead aead;
+  private ByteBuffer plaintext;
+  private ByteBuffer associatedData;
+  private ByteBuffer ciphertext;
+  private ByteBuffer output;
+
+  private ByteBuffer allocate(int capacity) {
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    aead = (ByteBufferAead) AeadBenchmark.newAead(algorithm);
+    plaintext = allocate(size);
+    plaintext.put(Random.randBytes(size));
+    plaintext.flip();
+    associatedData = allocate(16);
+    associatedData.put(Random.randBytes(16));
+    associatedData.flip();
+    ciphertext = allocate(aead.ciphertextSize(size));
+    aead.encrypt(plaintext.duplicate(), associatedData.duplicate(), ciphertext);
+    ciphertext.flip();
+    output = allocate(aead.ciphertextSize(size));
+  }
+
+  @Benchmark
+  public ByteBuffer encrypt() throws GeneralSecurityException {
+    output.clear();
+    aead.encrypt(plaintext.duplicate(), associatedData.duplicate(), output);
+    return output;
+  }
+
+  @Benchmark
+  public ByteBuffer decrypt() throws GeneralSecurityException {
+    output.clear();
+    aead.decrypt(ciphertext.duplicate(), associatedData.duplicate(), output);
+    return output;
+  }
+}
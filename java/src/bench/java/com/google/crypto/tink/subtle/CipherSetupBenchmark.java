@@ -0,0 +1,147 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of setting up {@link AesGcmJce} and {@link AesCtrJceCipher} for small
+ * messages, where it dominates the cost of the encryption itself.
+ *
+ * <p>{@code encrypt} uses the primitives, which keep a cipher per thread and primitive, so that each
+ * cipher only ever sees one key. The other benchmarks do the same work directly with a cipher per
+ * thread that is shared by all keys ({@code threadLocalCipherEncrypt}), and with a new {@link
+ * Cipher} per message ({@code newCipherEncrypt}). With {@code keys} greater than 1, the messages
+ * are encrypted with that many keys in turn. Every message initializes the cipher with its key, and
+ * whether that repeats the AES key expansion is up to the provider. SunJCE skips it for an
+ * unchanged key, which the ciphers of {@code encrypt} always have, but not the shared ciphers of
+ * {@code threadLocalCipherEncrypt} with 16 keys. Compare {@code keys} 1 and 16 on each provider of
+ * interest. The throughput is per thread; run with one thread count at a time, e.g., {@code -t
+ * 1} and {@code -t 4}, to see how it scales with the number of cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CipherSetupBenchmark {
+  @Param({"AES128_GCM", "AES128_CTR"})
+  public String algorithm;
+
+  @Param({"16", "100", "1024"})
+  public int size;
+
+  @Param({"1", "16"})
+  public int keys;
+
+  private SecretKeySpec[] keySpecs;
+  private AesGcmJce[] gcm;
+  private AesCtrJceCipher[] ctr;
+  private byte[] plaintext;
+  private byte[] associatedData;
+
+  /** The index of the next key, per thread. */
+  @State(Scope.Thread)
+  public static class KeyIndex {
+    int next;
+
+    int next(int keys) {
+      int index = next;
+      next = (index + 1) % keys;
+      return index;
+    }
+  }
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    keySpecs = new SecretKeySpec[keys];
+    gcm = new AesGcmJce[keys];
+    ctr = new AesCtrJceCipher[keys];
+    for (int i = 0; i < keys; i++) {
+      byte[] key = Random.randBytes(16);
+      keySpecs[i] = new SecretKeySpec(key, "AES");
+      gcm[i] = new AesGcmJce(key);
+      ctr[i] = new AesCtrJceCipher(key, 16);
+    }
+    plaintext = Random.randBytes(size);
+    associatedData = Random.randBytes(16);
+  }
+
+  @Benchmark
+  public byte[] encrypt(KeyIndex index) throws GeneralSecurityException {
+    int i = index.next(keys);
+    if (algorithm.equals("AES128_GCM")) {
+      return gcm[i].encrypt(plaintext, associatedData);
+    }
+    return ctr[i].encrypt(plaintext);
+  }
+
+  /** A cipher per thread, which is shared by all keys. */
+  @State(Scope.Thread)
+  public static class SharedCipher {
+    Cipher cipher;
+
+    @Setup
+    public void setUp(CipherSetupBenchmark benchmark) throws GeneralSecurityException {
+      cipher = EngineFactory.CIPHER.getInstance(benchmark.cipherAlgorithm());
+    }
+  }
+
+  @Benchmark
+  public byte[] threadLocalCipherEncrypt(SharedCipher shared, KeyIndex index)
+      throws GeneralSecurityException {
+    return encryptWith(shared.cipher, index);
+  }
+
+  @Benchmark
+  public byte[] newCipherEncrypt(KeyIndex index) throws GeneralSecurityException {
+    return encryptWith(EngineFactory.CIPHER.getInstance(cipherAlgorithm()), index);
+  }
+
+  private String cipherAlgorithm() {
+    return algorithm.equals("AES128_GCM") ? "AES/GCM/NoPadding" : "AES/CTR/NoPadding";
+  }
+
+  private byte[] encryptWith(Cipher cipher, KeyIndex index) throws GeneralSecurityException {
+    int i = index.next(keys);
+    if (algorithm.equals("AES128_GCM")) {
+      cipher.init(
+          Cipher.ENCRYPT_MODE, keySpecs[i], new GCMParameterSpec(128, Random.randBytes(12)));
+      cipher.updateAAD(associatedData);
+    } else {
+      cipher.init(Cipher.ENCRYPT_MODE, keySpecs[i], new IvParameterSpec(Random.randBytes(16)));
+    }
+    return cipher.doFinal(plaintext);
+  }
+}
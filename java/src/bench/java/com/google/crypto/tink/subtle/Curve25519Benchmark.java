@@ -0,0 +1,62 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Curve25519#x25519}, i.e., one Diffie-Hellman key agreement, and the computation
+ * of a public value from a private key.
+ *
+ * <p>See {@link AeadBenchmark} for how to read the results and how to report allocations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Curve25519Benchmark {
+  private byte[] privateKey;
+  private byte[] peersPublicValue;
+
+  @Setup
+  public void setUp() {
+    privateKey = Curve25519.generatePrivateKey();
+    peersPublicValue = Curve25519.x25519PublicFromPrivate(Curve25519.generatePrivateKey());
+  }
+
+  @Benchmark
+  public byte[] x25519() {
+    return Curve25519.x25519(privateKey, peersPublicValue);
+  }
+
+  @Benchmark
+  public byte[] x25519PublicFromPrivate() {
+    return Curve25519.x25519PublicFromPrivate(privateKey);
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of {@link Random} under contention, compared to one {@link SecureRandom}
+ * shared by all threads, which is how {@link Random} used to work.
+ *
+ * <p>Run with one thread count at a time, e.g., {@code -t 1}, {@code -t 4}, {@code -t 16} and
+ * {@code -t 64}. The default size is that of an AES-GCM IV.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RandomBenchmark {
+  @Param({"12", "32", "1024"})
+  public int size;
+
+  private final SecureRandom shared = new SecureRandom();
+
+  /** The output array of {@code randBytesAtOffset}, one per thread. */
+  @State(Scope.Thread)
+  public static class Output {
+    byte[] buffer;
+
+    @Setup
+    public void setUp(RandomBenchmark benchmark) {
+      buffer = new byte[benchmark.size + 16];
+    }
+  }
+
+  @Benchmark
+  public byte[] randBytes() {
+    return Random.randBytes(size);
+  }
+
+  @Benchmark
+  public byte[] randBytesAtOffset(Output output) {
+    Random.randBytes(output.buffer, 16, size);
+    return output.buffer;
+  }
+
+  @Benchmark
+  public byte[] sharedSecureRandom() {
+    byte[] rand = new byte[size];
+    shared.nextBytes(rand);
+    return rand;
+  }
+}
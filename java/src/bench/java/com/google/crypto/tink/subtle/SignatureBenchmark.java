@@ -0,0 +1,102 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import com.google.crypto.tink.PublicKeySign;
+import com.google.crypto.tink.PublicKeyVerify;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Ed25519Sign}, {@link Ed25519Verify}, {@link EcdsaSignJce} and {@link
+ * EcdsaVerifyJce}, for messages from 16 bytes to 16 MB.
+ *
+ * <p>See {@link AeadBenchmark} for how to read the results and how to report allocations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignatureBenchmark {
+  @Param({"ED25519", "ECDSA_P256_SHA256", "ECDSA_P384_SHA512", "ECDSA_P521_SHA512"})
+  public String algorithm;
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  public int size;
+
+  private PublicKeySign signer;
+  private PublicKeyVerify verifier;
+  private byte[] data;
+  private byte[] signature;
+
+  private void setUpEcdsa(EllipticCurves.CurveType curve, String signatureAlgorithm)
+      throws GeneralSecurityException {
+    KeyPair keyPair = EllipticCurves.generateKeyPair(curve);
+    signer = new EcdsaSignJce((ECPrivateKey) keyPair.getPrivate(), signatureAlgorithm);
+    verifier = new EcdsaVerifyJce((ECPublicKey) keyPair.getPublic(), signatureAlgorithm);
+  }
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    switch (algorithm) {
+      case "ED25519":
+        Ed25519Sign.KeyPair keyPair = Ed25519Sign.KeyPair.newKeyPair();
+        signer = new Ed25519Sign(keyPair.getPrivateKey());
+        verifier = new Ed25519Verify(keyPair.getPublicKey());
+        break;
+      case "ECDSA_P256_SHA256":
+        setUpEcdsa(EllipticCurves.CurveType.NIST_P256, "SHA256WithECDSA");
+        break;
+      case "ECDSA_P384_SHA512":
+        setUpEcdsa(EllipticCurves.CurveType.NIST_P384, "SHA512WithECDSA");
+        break;
+      case "ECDSA_P521_SHA512":
+        setUpEcdsa(EllipticCurves.CurveType.NIST_P521, "SHA512WithECDSA");
+        break;
+      default:
+        throw new IllegalArgumentException("unknown algorithm " + algorithm);
+    }
+    data = Random.randBytes(size);
+    signature = signer.sign(data);
+  }
+
+  @Benchmark
+  public byte[] sign() throws GeneralSecurityException {
+    return signer.sign(data);
+  }
+
+  @Benchmark
+  public void verify() throws GeneralSecurityException {
+    verifier.verify(signature, data);
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+
+/**
+ * An extension of {@link Aead} that encrypts or decrypts many independent messages in one call.
+ *
+ * <p>The messages are split into chunks that are processed in parallel, either on a
+ * caller-supplied {@link Executor} or on a shared pool with one thread per processor. The results
+ * are stored in a single {@link BatchResult}, in the order of the inputs. Each ciphertext is the
+ * same as if it was produced by {@link Aead#encrypt}.
+ */
+@Alpha
+public interface BatchAead extends Aead {
+  /**
+   * Encrypts {@code plaintexts[i]} with {@code associatedData[i]} as associated authenticated data,
+   * for each {@code i}, on the shared pool.
+   *
+   * @return the ciphertexts
+   */
+  BatchResult encryptBatch(byte[][] plaintexts, byte[][] associatedData)
+      throws GeneralSecurityException;
+
+  /**
+   * Encrypts {@code plaintexts[i]} with {@code associatedData[i]} as associated authenticated data,
+   * for each {@code i}, on {@code executor}.
+   *
+   * @return the ciphertexts
+   */
+  BatchResult encryptBatch(byte[][] plaintexts, byte[][] associatedData, Executor executor)
+      throws GeneralSecurityException;
+
+  /**
+   * Decrypts {@code ciphertexts[i]} with {@code associatedData[i]} as associated authenticated
+   * data, for each {@code i}, on the shared pool.
+   *
+   * @return the plaintexts
+   * @throws GeneralSecurityException if any of the ciphertexts cannot be decrypted
+   */
+  BatchResult decryptBatch(byte[][] ciphertexts, byte[][] associatedData)
+      throws GeneralSecurityException;
+
+  /**
+   * Decrypts {@code ciphertexts[i]} with {@code associatedData[i]} as associated authenticated
+   * data, for each {@code i}, on {@code executor}.
+   *
+   * @return the plaintexts
+   * @throws GeneralSecurityException if any of the ciphertexts cannot be decrypted
+   */
+  BatchResult decryptBatch(byte[][] ciphertexts, byte[][] associatedData, Executor executor)
+      throws GeneralSecurityException;
+}
@@ -0,0 +1,63 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+
+/**
+ * An extension of {@link Mac} that computes or verifies the MACs of many independent messages in
+ * one call.
+ *
+ * <p>The messages are split into chunks that are processed in parallel, either on a
+ * caller-supplied {@link Executor} or on a shared pool with one thread per processor. Each MAC is
+ * the same as if it was produced by {@link Mac#computeMac}.
+ */
+@Alpha
+public interface BatchMac extends Mac {
+  /**
+   * Computes the MAC of {@code data[i]}, for each {@code i}, on the shared pool.
+   *
+   * @return the MACs, in the order of {@code data}
+   */
+  BatchResult computeMacBatch(byte[][] data) throws GeneralSecurityException;
+
+  /**
+   * Computes the MAC of {@code data[i]}, for each {@code i}, on {@code executor}.
+   *
+   * @return the MACs, in the order of {@code data}
+   */
+  BatchResult computeMacBatch(byte[][] data, Executor executor) throws GeneralSecurityException;
+
+  /**
+   * Verifies that {@code macs[i]} is a correct MAC of {@code data[i]}, for each {@code i}, on the
+   * shared pool.
+   *
+   * @throws GeneralSecurityException if any of the MACs is invalid
+   */
+  void verifyMacBatch(byte[][] macs, byte[][] data) throws GeneralSecurityException;
+
+  /**
+   * Verifies that {@code macs[i]} is a correct MAC of {@code data[i]}, for each {@code i}, on
+   * {@code executor}.
+   *
+   * @throws GeneralSecurityException if any of the MACs is invalid
+   */
+  void verifyMacBatch(byte[][] macs, byte[][] data, Executor executor)
+      throws GeneralSecurityException;
+}
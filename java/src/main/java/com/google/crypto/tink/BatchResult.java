@@ -0,0 +1,94 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * The outputs of a batch operation, e.g., {@link BatchAead#encryptBatch}, stored back to back in a
+ * single array.
+ *
+ * <p>The output for the {@code i}-th input occupies {@code getLength(i)} bytes of {@link
+ * #getBuffer} starting at {@code getOffset(i)}. The outputs appear in the order of the inputs, but
+ * there may be unused bytes between them.
+ */
+@Alpha
+public final class BatchResult {
+  private final byte[] buffer;
+  private final int[] offsets;
+  private final int[] lengths;
+
+  /**
+   * Creates a result whose {@code i}-th output is stored at {@code buffer[offsets[i]]} to {@code
+   * buffer[offsets[i] + lengths[i] - 1]}. The arrays are not copied.
+   */
+  public BatchResult(byte[] buffer, int[] offsets, int[] lengths) {
+    if (offsets.length != lengths.length) {
+      throw new IllegalArgumentException("offsets and lengths must have the same size");
+    }
+    this.buffer = buffer;
+    this.offsets = offsets;
+    this.lengths = lengths;
+  }
+
+  /** @return a result that holds the concatenation of {@code outputs}. */
+  public static BatchResult concat(byte[][] outputs) throws GeneralSecurityException {
+    int[] offsets = new int[outputs.length];
+    int[] lengths = new int[outputs.length];
+    long total = 0;
+    for (int i = 0; i < outputs.length; i++) {
+      offsets[i] = (int) total;
+      lengths[i] = outputs[i].length;
+      total += outputs[i].length;
+      if (total > Integer.MAX_VALUE) {
+        throw new GeneralSecurityException("batch output too large");
+      }
+    }
+    byte[] buffer = new byte[(int) total];
+    for (int i = 0; i < outputs.length; i++) {
+      System.arraycopy(outputs[i], 0, buffer, offsets[i], lengths[i]);
+    }
+    return new BatchResult(buffer, offsets, lengths);
+  }
+
+  /** @return the number of outputs. */
+  public int size() {
+    return offsets.length;
+  }
+
+  /** @return the array holding all outputs. It is not copied. */
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  /** @return the position of the {@code i}-th output in {@link #getBuffer}. */
+  public int getOffset(int i) {
+    return offsets[i];
+  }
+
+  /** @return the length of the {@code i}-th output. */
+  public int getLength(int i) {
+    return lengths[i];
+  }
+
+  /** @return a copy of the {@code i}-th output. */
+  public byte[] get(int i) {
+    return Arrays.copyOfRange(buffer, offsets[i], offsets[i] + lengths[i]);
+  }
+}
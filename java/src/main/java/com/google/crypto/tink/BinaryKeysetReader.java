@@ -18,11 +18,15 @@ package com.google.crypto.tink;
 
 import com.google.crypto.tink.proto.EncryptedKeyset;
 import com.google.crypto.tink.proto.Keyset;
+import com.google.protobuf.CodedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A {@link KeysetReader} that can read from some source cleartext or encrypted keysets in <a
@@ -30,6 +34,7 @@ import java.io.InputStream;
  */
 public final class BinaryKeysetReader implements KeysetReader {
   private final InputStream inputStream;
+  private final ByteBuffer buffer;
 
   public static KeysetReader withInputStream(InputStream stream) {
     return new BinaryKeysetReader(stream);
@@ -43,17 +48,117 @@ public final class BinaryKeysetReader implements KeysetReader {
     return new BinaryKeysetReader(new FileInputStream(file));
   }
 
+  /**
+   * @return a {@link KeysetReader} that parses the remaining bytes of {@code buffer}, which can be
+   *     a direct buffer, without copying them into an intermediate array. The position of {@code
+   *     buffer} is not changed.
+   */
+  public static KeysetReader withByteBuffer(ByteBuffer buffer) {
+    return new BinaryKeysetReader(buffer.duplicate());
+  }
+
+  /**
+   * @return a {@link KeysetReader} that parses {@code file} directly from a read-only memory
+   *     mapping, which avoids reading large keysets into the heap before parsing them.
+   */
+  public static KeysetReader withMappedFile(File file) throws IOException {
+    return new BinaryKeysetReader(map(file));
+  }
+
   private BinaryKeysetReader(InputStream stream) {
     inputStream = stream;
+    buffer = null;
+  }
+
+  private BinaryKeysetReader(ByteBuffer buffer) {
+    inputStream = null;
+    this.buffer = buffer;
   }
 
   @Override
   public Keyset read() throws IOException {
+    if (buffer != null) {
+      return Keyset.parseFrom(newCodedInputStream(buffer));
+    }
     return Keyset.parseFrom(inputStream);
   }
 
   @Override
   public EncryptedKeyset readEncrypted() throws IOException {
+    if (buffer != null) {
+      return EncryptedKeyset.parseFrom(newCodedInputStream(buffer));
+    }
     return EncryptedKeyset.parseFrom(inputStream);
   }
+
+  /** @return a read-only memory mapping of the whole {@code file}. */
+  static ByteBuffer map(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      // The mapping stays valid after the channel is closed.
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * @return a {@link CodedInputStream} over the remaining bytes of {@code buffer}, without the
+   *     default 64 MB size limit, which only protects against unbounded streams.
+   */
+  static CodedInputStream newCodedInputStream(ByteBuffer buffer) {
+    CodedInputStream input;
+    if (buffer.hasArray()) {
+      input =
+          CodedInputStream.newInstance(
+              buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    } else {
+      // CodedInputStream.newInstance(ByteBuffer) reads direct buffers through sun.misc.Unsafe at
+      // an address it derives from JDK internals, which is not reliable across JDK versions.
+      // Direct and mapped buffers are instead read in small chunks, so they are never copied to
+      // the heap as a whole either.
+      input = CodedInputStream.newInstance(new ByteBufferInputStream(buffer.duplicate()));
+    }
+    input.setSizeLimit(Integer.MAX_VALUE);
+    return input;
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
 }
@@ -0,0 +1,81 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * An extension of {@link Aead} that reads its inputs from and writes its outputs to caller-supplied
+ * {@link ByteBuffer}s.
+ *
+ * <p>The ciphertexts are the same as those of {@link Aead#encrypt}, i.e., the two interfaces can
+ * be used interchangeably with the same key. Both heap and direct buffers are supported; where the
+ * underlying implementation allows it, the data is processed without being copied to intermediate
+ * arrays.
+ *
+ * <p>The buffers are used like in {@link javax.crypto.Cipher#doFinal(ByteBuffer, ByteBuffer)}: the
+ * input buffers (including the associated data) are consumed from their position to their limit,
+ * and the output is written starting at the position of the output buffer, whose position is
+ * advanced by the number of bytes written. If an operation fails, the position of the output buffer
+ * is unchanged, and no unauthenticated plaintext is written to it. Input and output must not
+ * overlap.
+ */
+@Alpha
+public interface ByteBufferAead extends Aead {
+  /**
+   * @return the size of the ciphertext of a plaintext of {@code plaintextSize} bytes, i.e., the
+   *     number of bytes {@link #encrypt(ByteBuffer, ByteBuffer, ByteBuffer)} writes to its output.
+   */
+  int ciphertextSize(int plaintextSize);
+
+  /**
+   * Encrypts the remaining bytes of {@code plaintext} with the remaining bytes of {@code
+   * associatedData} as associated authenticated data, and writes the ciphertext to {@code
+   * ciphertext}.
+   *
+   * @throws GeneralSecurityException if {@code ciphertext} has less than {@link
+   *     #ciphertextSize(int)} bytes remaining
+   */
+  void encrypt(ByteBuffer plaintext, ByteBuffer associatedData, ByteBuffer ciphertext)
+      throws GeneralSecurityException;
+
+  /**
+   * Encrypts the concatenation of the remaining bytes of the buffers in {@code plaintext} with the
+   * remaining bytes of {@code associatedData} as associated authenticated data, and writes the
+   * ciphertext to {@code ciphertext}. The result is the same as encrypting the concatenated
+   * plaintext with {@link #encrypt(ByteBuffer, ByteBuffer, ByteBuffer)}.
+   *
+   * @throws GeneralSecurityException if {@code ciphertext} has less than {@link
+   *     #ciphertextSize(int)} bytes remaining
+   */
+  void encrypt(ByteBuffer[] plaintext, ByteBuffer associatedData, ByteBuffer ciphertext)
+      throws GeneralSecurityException;
+
+  /**
+   * Decrypts the remaining bytes of {@code ciphertext} with the remaining bytes of {@code
+   * associatedData} as associated authenticated data, and writes the plaintext to {@code
+   * plaintext}. A {@code plaintext} buffer with as many bytes remaining as {@code ciphertext} is
+   * always large enough.
+   *
+   * @throws GeneralSecurityException if the ciphertext is invalid, or if {@code plaintext} is too
+   *     small
+   */
+  void decrypt(ByteBuffer ciphertext, ByteBuffer associatedData, ByteBuffer plaintext)
+      throws GeneralSecurityException;
+}
@@ -42,6 +42,8 @@ import org.json.JSONObject;
 /**
  * A {@link KeysetReader} that can read from source source cleartext or encrypted keysets in proto
  * JSON format.
+ *
+ * <p>See {@link StreamingJsonKeysetReader} for a reader that parses large inputs incrementally.
  */
 public final class JsonKeysetReader implements KeysetReader {
   private final JSONObject json;
@@ -191,7 +193,7 @@ public final class JsonKeysetReader implements KeysetReader {
         .build();
   }
 
-  private KeyStatusType getStatus(String status) throws JSONException {
+  static KeyStatusType getStatus(String status) throws JSONException {
     if (status.equals("ENABLED")) {
       return KeyStatusType.ENABLED;
     } else if (status.equals("DISABLED")) {
@@ -200,7 +202,7 @@ public final class JsonKeysetReader implements KeysetReader {
     throw new JSONException("unknown status: " + status);
   }
 
-  private OutputPrefixType getOutputPrefixType(String type) throws JSONException {
+  static OutputPrefixType getOutputPrefixType(String type) throws JSONException {
     if (type.equals("TINK")) {
       return OutputPrefixType.TINK;
     } else if (type.equals("RAW")) {
@@ -213,7 +215,7 @@ public final class JsonKeysetReader implements KeysetReader {
     throw new JSONException("unknown output prefix type: " + type);
   }
 
-  private KeyMaterialType getKeyMaterialType(String type) throws JSONException {
+  static KeyMaterialType getKeyMaterialType(String type) throws JSONException {
     if (type.equals("SYMMETRIC")) {
       return KeyMaterialType.SYMMETRIC;
     } else if (type.equals("ASYMMETRIC_PRIVATE")) {
@@ -37,6 +37,8 @@ import org.json.JSONObject;
 /**
  * A {@link KeysetWriter} that can write to some source cleartext or encrypted keysets in proto JSON
  * format.
+ *
+ * <p>See {@link StreamingJsonKeysetWriter} for a writer that does not build the output in memory.
  */
 public final class JsonKeysetWriter implements KeysetWriter {
   private final OutputStream outputStream;
@@ -0,0 +1,381 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.crypto.tink.subtle.Base64;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A pull parser for UTF-8 encoded JSON that reads its input incrementally, used by {@link
+ * StreamingJsonKeysetReader}.
+ *
+ * <p>The caller walks the document in the order in which it appears, e.g., {@link #beginObject},
+ * then {@link #nextName} and a value while {@link #hasNext}, then {@link #endObject}. Any value
+ * that is not needed can be skipped with {@link #skipValue}.
+ */
+final class JsonTokenizer {
+  private static final int BUFFER_SIZE = 8192;
+  // Bounds the recursion in skipValue.
+  private static final int MAX_DEPTH = 64;
+
+  private final InputStream input;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position = 0;
+  private int limit = 0;
+
+  // The bytes of the last string read, after unescaping.
+  private byte[] scratch = new byte[64];
+  private int scratchLength;
+
+  // For each open object or array, and the document itself at index 0, whether a value has been
+  // read, i.e., whether the next value must be preceded by a comma.
+  private boolean[] needsComma = new boolean[8];
+  private int depth = 0;
+
+  JsonTokenizer(InputStream input) {
+    this.input = input;
+  }
+
+  void beginObject() throws IOException {
+    expect('{');
+    push();
+  }
+
+  void endObject() throws IOException {
+    expect('}');
+    pop();
+  }
+
+  void beginArray() throws IOException {
+    expect('[');
+    push();
+  }
+
+  void endArray() throws IOException {
+    expect(']');
+    pop();
+  }
+
+  /** @return true if the current object or array has another element. */
+  boolean hasNext() throws IOException {
+    int c = peekNonWhitespace();
+    if (needsComma[depth]) {
+      if (c != ',') {
+        return false;
+      }
+      position++;
+      needsComma[depth] = false;
+      c = peekNonWhitespace();
+      if (c == '}' || c == ']') {
+        throw syntaxError("trailing comma");
+      }
+      return true;
+    }
+    return c != '}' && c != ']' && c != -1;
+  }
+
+  /** Reads the name of the next member of the current object, and the colon after it. */
+  String nextName() throws IOException {
+    readStringBytes();
+    expect(':');
+    return new String(scratch, 0, scratchLength, UTF_8);
+  }
+
+  String nextString() throws IOException {
+    readStringBytes();
+    valueRead();
+    return new String(scratch, 0, scratchLength, UTF_8);
+  }
+
+  /**
+   * Reads a string value that contains base64 encoded data, and decodes it without creating an
+   * intermediate {@link String}.
+   */
+  byte[] nextBase64(int flags) throws IOException {
+    readStringBytes();
+    valueRead();
+    try {
+      return Base64.decode(scratch, 0, scratchLength, flags);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("invalid base64 value", e);
+    }
+  }
+
+  /**
+   * Reads an integer value in the range of {@code uint32}, either as a number or as a string, and
+   * returns it as the {@code int} with the same bits. Negative values down to {@link
+   * Integer#MIN_VALUE} are accepted as well, because {@link JsonKeysetWriter} writes key ids as
+   * signed ints.
+   */
+  int nextUInt32() throws IOException {
+    long value;
+    if (peekNonWhitespace() == '"') {
+      readStringBytes();
+      value = parseLong(scratch, scratchLength);
+    } else {
+      scratchLength = 0;
+      int c;
+      while ((c = peek()) == '-' || (c >= '0' && c <= '9')) {
+        appendScratch(c);
+        position++;
+      }
+      value = parseLong(scratch, scratchLength);
+    }
+    // Values above Integer.MAX_VALUE are mapped to the negative ints with the same bits.
+    if (value < Integer.MIN_VALUE || value > 0xffffffffL) {
+      throw syntaxError("integer out of range");
+    }
+    valueRead();
+    return (int) value;
+  }
+
+  /** Skips the next value, including nested objects and arrays. */
+  void skipValue() throws IOException {
+    int c = peekNonWhitespace();
+    if (c == '{' || c == '[') {
+      if (depth >= MAX_DEPTH) {
+        throw syntaxError("too deeply nested");
+      }
+      boolean isObject = c == '{';
+      position++;
+      push();
+      while (hasNext()) {
+        if (isObject) {
+          nextName();
+        }
+        skipValue();
+      }
+      expect(isObject ? '}' : ']');
+      pop();
+    } else if (c == '"') {
+      readStringBytes();
+      valueRead();
+    } else {
+      // A number, true, false or null.
+      int length = 0;
+      while ((c = peek()) != -1 && c > ' ' && c != ',' && c != '}' && c != ']') {
+        position++;
+        length++;
+      }
+      if (length == 0) {
+        throw syntaxError("expected a value");
+      }
+      valueRead();
+    }
+  }
+
+  /** Verifies that there is nothing but whitespace left in the input. */
+  void endDocument() throws IOException {
+    if (peekNonWhitespace() != -1) {
+      throw syntaxError("unexpected data after the end of the document");
+    }
+  }
+
+  private void push() {
+    depth++;
+    if (depth == needsComma.length) {
+      needsComma = Arrays.copyOf(needsComma, 2 * depth);
+    }
+    needsComma[depth] = false;
+  }
+
+  private void pop() {
+    depth--;
+    valueRead();
+  }
+
+  private void valueRead() {
+    needsComma[depth] = true;
+  }
+
+  private void expect(char expected) throws IOException {
+    int c = peekNonWhitespace();
+    if (c != expected) {
+      throw syntaxError("expected '" + expected + "'");
+    }
+    position++;
+  }
+
+  /** Reads a string, including the quotes, into {@code scratch}, resolving all escapes. */
+  private void readStringBytes() throws IOException {
+    expect('"');
+    scratchLength = 0;
+    while (true) {
+      int c = read();
+      if (c == '"') {
+        return;
+      } else if (c == '\\') {
+        readEscape();
+      } else if (c == -1) {
+        throw syntaxError("unterminated string");
+      } else if (c < ' ') {
+        throw syntaxError("unescaped control character in string");
+      } else {
+        appendScratch(c);
+      }
+    }
+  }
+
+  private void readEscape() throws IOException {
+    int c = read();
+    switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+        appendScratch(c);
+        return;
+      case 'b':
+        appendScratch('\b');
+        return;
+      case 'f':
+        appendScratch('\f');
+        return;
+      case 'n':
+        appendScratch('\n');
+        return;
+      case 'r':
+        appendScratch('\r');
+        return;
+      case 't':
+        appendScratch('\t');
+        return;
+      case 'u':
+        int codePoint = readHex4();
+        if (Character.isHighSurrogate((char) codePoint)) {
+          if (read() != '\\' || read() != 'u') {
+            throw syntaxError("unpaired surrogate");
+          }
+          int low = readHex4();
+          if (!Character.isLowSurrogate((char) low)) {
+            throw syntaxError("unpaired surrogate");
+          }
+          codePoint = Character.toCodePoint((char) codePoint, (char) low);
+        } else if (Character.isLowSurrogate((char) codePoint)) {
+          throw syntaxError("unpaired surrogate");
+        }
+        appendUtf8(codePoint);
+        return;
+      default:
+        throw syntaxError("invalid escape sequence");
+    }
+  }
+
+  private int readHex4() throws IOException {
+    int value = 0;
+    for (int i = 0; i < 4; i++) {
+      int digit = Character.digit(read(), 16);
+      if (digit < 0) {
+        throw syntaxError("invalid unicode escape");
+      }
+      value = (value << 4) | digit;
+    }
+    return value;
+  }
+
+  private void appendUtf8(int codePoint) {
+    if (codePoint < 0x80) {
+      appendScratch(codePoint);
+    } else if (codePoint < 0x800) {
+      appendScratch(0xc0 | (codePoint >> 6));
+      appendScratch(0x80 | (codePoint & 0x3f));
+    } else if (codePoint < 0x10000) {
+      appendScratch(0xe0 | (codePoint >> 12));
+      appendScratch(0x80 | ((codePoint >> 6) & 0x3f));
+      appendScratch(0x80 | (codePoint & 0x3f));
+    } else {
+      appendScratch(0xf0 | (codePoint >> 18));
+      appendScratch(0x80 | ((codePoint >> 12) & 0x3f));
+      appendScratch(0x80 | ((codePoint >> 6) & 0x3f));
+      appendScratch(0x80 | (codePoint & 0x3f));
+    }
+  }
+
+  private void appendScratch(int b) {
+    if (scratchLength == scratch.length) {
+      scratch = Arrays.copyOf(scratch, 2 * scratchLength);
+    }
+    scratch[scratchLength++] = (byte) b;
+  }
+
+  private long parseLong(byte[] digits, int length) throws IOException {
+    // At most 10 digits and a sign, which cannot overflow a long.
+    if (length == 0 || length > 11) {
+      throw syntaxError("invalid integer");
+    }
+    boolean negative = digits[0] == '-';
+    int i = negative ? 1 : 0;
+    if (i == length) {
+      throw syntaxError("invalid integer");
+    }
+    long value = 0;
+    for (; i < length; i++) {
+      int digit = digits[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw syntaxError("invalid integer");
+      }
+      value = 10 * value + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  private int peekNonWhitespace() throws IOException {
+    while (true) {
+      int c = peek();
+      if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+        position++;
+      } else {
+        return c;
+      }
+    }
+  }
+
+  private int peek() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position] & 0xff;
+  }
+
+  private int read() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position++] & 0xff;
+  }
+
+  private boolean fill() throws IOException {
+    int count = input.read(buffer, 0, buffer.length);
+    while (count == 0) {
+      count = input.read(buffer, 0, buffer.length);
+    }
+    if (count < 0) {
+      position = limit = 0;
+      return false;
+    }
+    position = 0;
+    limit = count;
+    return true;
+  }
+
+  private IOException syntaxError(String message) {
+    return new IOException("invalid JSON: " + message);
+  }
+}
@@ -21,6 +21,7 @@ import com.google.crypto.tink.proto.KeyData;
 import com.google.crypto.tink.proto.KeyTemplate;
 import com.google.crypto.tink.proto.Keyset;
 import com.google.crypto.tink.proto.KeysetInfo;
+import com.google.crypto.tink.subtle.EngineFactory;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import java.io.IOException;
@@ -36,6 +37,8 @@ import java.security.GeneralSecurityException;
  */
 public final class KeysetHandle {
   private Keyset keyset;
+  // The SHA-256 digest of the serialized keyset, or null if it has not been computed yet.
+  private volatile byte[] keysetDigest;
 
   private KeysetHandle(Keyset keyset) {
     this.keyset = keyset;
@@ -55,6 +58,20 @@ public final class KeysetHandle {
     return keyset;
   }
 
+  /**
+   * @return the SHA-256 digest of the serialized keyset, which identifies its content. It is
+   *     computed once per handle. The returned array must not be modified.
+   */
+  byte[] getKeysetDigest() throws GeneralSecurityException {
+    byte[] digest = keysetDigest;
+    if (digest == null) {
+      digest =
+          EngineFactory.MESSAGE_DIGEST.getInstance("SHA-256").digest(keyset.toByteArray());
+      keysetDigest = digest;
+    }
+    return digest;
+  }
+
   /**
    * @return the {@link com.google.crypto.tink.proto.KeysetInfo} that doesn't contain actual key
    *     material.
@@ -0,0 +1,195 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.proto.EncryptedKeyset;
+import com.google.crypto.tink.proto.Keyset;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An index of the keys in a cleartext keyset in <a
+ * href="https://developers.google.com/protocol-buffers/docs/encoding">proto binary wire format</a>,
+ * which allows reading single keys by their key id without parsing the whole {@link Keyset}.
+ *
+ * <p>This is meant for very large keysets, e.g., keysets with one key per tenant. Building the
+ * index only reads the key ids and skips over the key material; {@link #getKeys} then parses only
+ * the requested keys. The keyset is read from a {@link ByteBuffer}, typically a memory mapping of
+ * a file created by {@link #withMappedFile}, which must not be modified while the index is in use.
+ *
+ * <p>As with any cleartext keyset, a {@link KeysetHandle} can be obtained with {@link
+ * CleartextKeysetHandle#read} from the {@link KeysetReader} returned by {@link #readerForKey}.
+ */
+@Alpha
+public final class KeysetIndex {
+  private static final int PRIMARY_KEY_ID_TAG =
+      makeTag(Keyset.PRIMARY_KEY_ID_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+  private static final int KEY_TAG =
+      makeTag(Keyset.KEY_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  private static final int KEY_ID_TAG =
+      makeTag(Keyset.Key.KEY_ID_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+
+  private static int makeTag(int fieldNumber, int wireType) {
+    return (fieldNumber << 3) | wireType;
+  }
+
+  private final ByteBuffer buffer;
+  private final int primaryKeyId;
+  // The unsigned key id in the upper 32 bits and the position of the key in the keyset in the
+  // lower 32 bits, sorted, i.e., sorted by key id and, for equal key ids, by position.
+  private final long[] sortedKeys;
+  // Offset and length of the encoded keys relative to the position of buffer, by position.
+  private final int[] offsets;
+  private final int[] lengths;
+
+  /**
+   * @return an index of the keyset in the remaining bytes of {@code buffer}. The position of
+   *     {@code buffer} is not changed.
+   */
+  public static KeysetIndex withByteBuffer(ByteBuffer buffer) throws IOException {
+    return new KeysetIndex(buffer.slice());
+  }
+
+  /** @return an index of the keyset in {@code file}, which is read from a memory mapping. */
+  public static KeysetIndex withMappedFile(File file) throws IOException {
+    return new KeysetIndex(BinaryKeysetReader.map(file));
+  }
+
+  private KeysetIndex(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    CodedInputStream input = BinaryKeysetReader.newCodedInputStream(buffer);
+    int primary = 0;
+    int count = 0;
+    long[] keys = new long[16];
+    int[] keyOffsets = new int[16];
+    int[] keyLengths = new int[16];
+    while (true) {
+      int tag = input.readTag();
+      if (tag == 0) {
+        break;
+      } else if (tag == PRIMARY_KEY_ID_TAG) {
+        primary = input.readUInt32();
+      } else if (tag == KEY_TAG) {
+        int length = input.readRawVarint32();
+        int offset = input.getTotalBytesRead();
+        int oldLimit = input.pushLimit(length);
+        int keyId = readKeyId(input);
+        input.popLimit(oldLimit);
+        if (count == keys.length) {
+          keys = Arrays.copyOf(keys, 2 * count);
+          keyOffsets = Arrays.copyOf(keyOffsets, 2 * count);
+          keyLengths = Arrays.copyOf(keyLengths, 2 * count);
+        }
+        keys[count] = ((keyId & 0xffffffffL) << 32) | count;
+        keyOffsets[count] = offset;
+        keyLengths[count] = length;
+        count++;
+      } else if (!input.skipField(tag)) {
+        break;
+      }
+    }
+    this.primaryKeyId = primary;
+    this.sortedKeys = Arrays.copyOf(keys, count);
+    Arrays.sort(sortedKeys);
+    this.offsets = Arrays.copyOf(keyOffsets, count);
+    this.lengths = Arrays.copyOf(keyLengths, count);
+  }
+
+  /** Reads the key id of a {@link Keyset.Key}, skipping over all other fields. */
+  private static int readKeyId(CodedInputStream input) throws IOException {
+    int keyId = 0;
+    while (true) {
+      int tag = input.readTag();
+      if (tag == 0) {
+        return keyId;
+      } else if (tag == KEY_ID_TAG) {
+        keyId = input.readUInt32();
+      } else if (!input.skipField(tag)) {
+        return keyId;
+      }
+    }
+  }
+
+  /** @return the id of the primary key of the keyset. */
+  public int getPrimaryKeyId() {
+    return primaryKeyId;
+  }
+
+  /** @return the number of keys in the keyset. */
+  public int size() {
+    return sortedKeys.length;
+  }
+
+  /**
+   * @return the keys with id {@code keyId}, in the order in which they appear in the keyset, or an
+   *     empty list if there are none.
+   */
+  public List<Keyset.Key> getKeys(int keyId) throws IOException {
+    long id = (keyId & 0xffffffffL) << 32;
+    int i = Arrays.binarySearch(sortedKeys, id);
+    // There is no entry with position 0 for this key id, so i is the insertion point.
+    if (i < 0) {
+      i = -i - 1;
+    }
+    if (i == sortedKeys.length || (sortedKeys[i] & 0xffffffff00000000L) != id) {
+      return Collections.emptyList();
+    }
+    List<Keyset.Key> keys = new ArrayList<Keyset.Key>(1);
+    for (; i < sortedKeys.length && (sortedKeys[i] & 0xffffffff00000000L) == id; i++) {
+      keys.add(parseKey((int) sortedKeys[i]));
+    }
+    return keys;
+  }
+
+  private Keyset.Key parseKey(int position) throws IOException {
+    ByteBuffer key = buffer.duplicate();
+    key.position(offsets[position]);
+    key.limit(offsets[position] + lengths[position]);
+    return Keyset.Key.parseFrom(BinaryKeysetReader.newCodedInputStream(key));
+  }
+
+  /**
+   * @return a {@link KeysetReader} of a keyset that consists of the keys with id {@code keyId},
+   *     with {@code keyId} as primary key id. Its {@link KeysetReader#read} throws an {@link
+   *     IOException} if there is no such key.
+   */
+  public KeysetReader readerForKey(final int keyId) {
+    return new KeysetReader() {
+      @Override
+      public Keyset read() throws IOException {
+        List<Keyset.Key> keys = getKeys(keyId);
+        if (keys.isEmpty()) {
+          throw new IOException("keyset has no key with id " + keyId);
+        }
+        return Keyset.newBuilder().setPrimaryKeyId(keyId).addAllKey(keys).build();
+      }
+
+      @Override
+      public EncryptedKeyset readEncrypted() throws IOException {
+        throw new IOException("KeysetIndex only supports cleartext keysets");
+      }
+    };
+  }
+}
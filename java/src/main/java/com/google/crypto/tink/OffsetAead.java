@@ -0,0 +1,77 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
+
+/**
+ * An extension of {@link Aead} that encrypts into an array in which room is left for a prefix, so
+ * that callers which prepend a header to the ciphertext, like the primitives of keysets, do not
+ * have to copy the ciphertext to do so. It also encrypts and decrypts into caller-supplied arrays,
+ * e.g., the single output array of a batch.
+ */
+@Alpha
+public interface OffsetAead extends Aead {
+  /**
+   * Encrypts {@code plaintext} with {@code associatedData} as associated authenticated data.
+   *
+   * @return an array of {@code offset} bytes followed by the same ciphertext as that of {@link
+   *     Aead#encrypt}. The first {@code offset} bytes are zero, and can be overwritten by the
+   *     caller.
+   */
+  byte[] encrypt(final byte[] plaintext, final byte[] associatedData, int offset)
+      throws GeneralSecurityException;
+
+  /**
+   * @return the size of the ciphertext of a plaintext of {@code plaintextSize} bytes, or -1 if it
+   *     is only known once the plaintext is encrypted.
+   */
+  int ciphertextSize(int plaintextSize);
+
+  /**
+   * Encrypts {@code plaintext} like {@link Aead#encrypt}, but writes the ciphertext to {@code
+   * output}, starting at {@code outputOffset}, rather than to a new array.
+   *
+   * @return the number of bytes written, i.e., the size of the ciphertext.
+   * @throws GeneralSecurityException if the ciphertext does not fit in {@code output} starting at
+   *     {@code outputOffset}
+   */
+  int encrypt(
+      final byte[] plaintext, final byte[] associatedData, byte[] output, int outputOffset)
+      throws GeneralSecurityException;
+
+  /**
+   * Decrypts the {@code length} bytes of {@code ciphertext} at {@code offset} like {@link
+   * Aead#decrypt}, but writes the plaintext to {@code output}, starting at {@code outputOffset},
+   * rather than to a new array. If decryption fails, the bytes of {@code output} after {@code
+   * outputOffset} are unspecified.
+   *
+   * @return the size of the plaintext.
+   * @throws GeneralSecurityException if the ciphertext is invalid, or if the plaintext does not
+   *     fit in {@code output}
+   */
+  int decrypt(
+      final byte[] ciphertext,
+      int offset,
+      int length,
+      final byte[] associatedData,
+      byte[] output,
+      int outputOffset)
+      throws GeneralSecurityException;
+}
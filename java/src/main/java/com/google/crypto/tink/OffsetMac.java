@@ -0,0 +1,41 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
+
+/**
+ * An extension of {@link Mac} that writes MACs into caller-supplied arrays, e.g., the single output
+ * array of a batch, rather than into new arrays.
+ */
+@Alpha
+public interface OffsetMac extends Mac {
+  /** @return the size of the MACs computed by this primitive. */
+  int macSize();
+
+  /**
+   * Computes the MAC of {@code data} like {@link Mac#computeMac}, but writes it to {@code output},
+   * starting at {@code outputOffset}.
+   *
+   * @return the number of bytes written, i.e., {@link #macSize}.
+   * @throws GeneralSecurityException if {@code output} has less than {@link #macSize} bytes
+   *     starting at {@code outputOffset}
+   */
+  int computeMac(final byte[] data, byte[] output, int outputOffset)
+      throws GeneralSecurityException;
+}
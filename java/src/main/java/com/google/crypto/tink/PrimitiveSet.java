@@ -16,18 +16,17 @@
 
 package com.google.crypto.tink;
 
+import com.google.crypto.tink.monitoring.KeyUsageCounter;
+import com.google.crypto.tink.monitoring.KeyUsageReport;
 import com.google.crypto.tink.proto.KeyStatusType;
 import com.google.crypto.tink.proto.Keyset;
 import com.google.crypto.tink.proto.OutputPrefixType;
-import com.google.errorprone.annotations.Immutable;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * A container class for a set of primitives -- implementations of cryptographic primitives offered
@@ -45,25 +44,47 @@ import java.util.concurrent.ConcurrentMap;
  * set.
  *
  * <p>PrimitiveSet is a public class to allow its use in implementations of custom primitives.
+ *
+ * <p>A set is populated with {@link #addPrimitive} and {@link #setPrimary}, and frozen by the
+ * first lookup, e.g., {@link #getPrimary} or {@link #getPrimitive(byte[])}, so that lookups do not
+ * need to lock. Once a set is frozen, {@link #addPrimitive} and {@link #setPrimary} throw {@link
+ * IllegalStateException}: custom code that builds a set must add all its entries before it looks
+ * any of them up.
+ *
+ * <p>Entries are looked up by the output prefixes of Tink, see {@link CryptoFormat}: an identifier
+ * is either empty, for {@link OutputPrefixType#RAW} keys, or {@link
+ * CryptoFormat#NON_RAW_PREFIX_SIZE} bytes long. {@link #getPrimitive(byte[])} returns an empty
+ * list for identifiers of any other length.
  */
 public final class PrimitiveSet<P> {
-  private static final Charset UTF_8 = Charset.forName("UTF-8");
   /**
    * A single entry in the set. In addition to the actual primitive it holds also some extra
    * information about the primitive.
+   *
+   * <p>Entries are thread-safe. Except for the primitive of a lazily instantiated entry, which is
+   * created on first use, they do not change after construction.
    */
-  @Immutable(containerOf = {"P"})
   public static final class Entry<P> {
-    // The actual primitive.
-    private final P primitive;
+    // The actual primitive. For lazily instantiated entries it is null until first use.
+    private volatile P primitive;
+    // Whether the primitive is instantiated on first use.
+    private final boolean lazy;
+    // For lazily instantiated entries, the manager that instantiates the primitive and the key it
+    // is created from. They are guarded by this, and cleared once the primitive has been created,
+    // so that entries do not keep key material beyond the primitive itself.
+    private KeyManager<P> lazyManager;
+    private Keyset.Key lazyKey;
     // Identifies the primitive within the set.
     // It is the ciphertext prefix of the correponding key.
-    @SuppressWarnings("Immutable")
     private final byte[] identifier;
     // The status of the key represented by the primitive.
     private final KeyStatusType status;
     // The output prefix type of the key represented by the primitive.
     private final OutputPrefixType outputPrefixType;
+    // The id of the key represented by the primitive.
+    private final int keyId;
+    // Counts the successful operations of the primitive.
+    private final KeyUsageCounter usage;
 
     public Entry(
         P primitive,
@@ -74,10 +95,67 @@ public final class PrimitiveSet<P> {
       this.identifier = Arrays.copyOf(identifier, identifier.length);
       this.status = status;
       this.outputPrefixType = outputPrefixType;
+      this.lazy = false;
+      this.keyId = keyIdFromIdentifier(identifier);
+      this.usage = new KeyUsageCounter(keyId);
     }
 
+    /**
+     * Creates an entry for {@code key}. If {@code primitive} is null, the primitive is created by
+     * {@code manager} on first use.
+     */
+    Entry(P primitive, KeyManager<P> manager, Keyset.Key key) throws GeneralSecurityException {
+      this.primitive = primitive;
+      this.identifier = CryptoFormat.getOutputPrefix(key);
+      this.status = key.getStatus();
+      this.outputPrefixType = key.getOutputPrefixType();
+      this.keyId = key.getKeyId();
+      this.usage = new KeyUsageCounter(keyId);
+      this.lazy = primitive == null && manager != null;
+      this.lazyManager = lazy ? manager : null;
+      this.lazyKey = lazy ? key : null;
+    }
+
+    /**
+     * @return the primitive of this entry.
+     * @throws IllegalStateException if the entry is instantiated lazily (see {@link
+     *     Registry#setLazyInstantiation}) and the key manager fails to create the primitive
+     */
     public P getPrimitive() {
-      return this.primitive;
+      try {
+        return getPrimitiveOrThrow();
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e.getMessage(), e);
+      }
+    }
+
+    /**
+     * Like {@link #getPrimitive}, but throws a {@link GeneralSecurityException} if the entry is
+     * instantiated lazily and the key manager fails to create the primitive. Primitives that try
+     * several entries in turn, e.g., to decrypt, use this to skip such an entry like one whose key
+     * does not match.
+     */
+    public P getPrimitiveOrThrow() throws GeneralSecurityException {
+      P result = primitive;
+      if (result == null && lazy) {
+        result = instantiate();
+      }
+      return result;
+    }
+
+    private synchronized P instantiate() throws GeneralSecurityException {
+      P result = primitive;
+      if (result == null) {
+        try {
+          result = lazyManager.getPrimitive(lazyKey.getKeyData().getValue());
+        } catch (GeneralSecurityException e) {
+          throw new GeneralSecurityException("cannot instantiate the primitive of key " + keyId, e);
+        }
+        primitive = result;
+        lazyManager = null;
+        lazyKey = null;
+      }
+      return result;
     }
 
     public KeyStatusType getStatus() {
@@ -88,6 +166,22 @@ public final class PrimitiveSet<P> {
       return outputPrefixType;
     }
 
+    /**
+     * @return the id of the key represented by the primitive, or 0 if it is not known, i.e., for a
+     *     {@link OutputPrefixType#RAW} key in an entry that was not created from a keyset.
+     */
+    public int getKeyId() {
+      return keyId;
+    }
+
+    /**
+     * @return the counter of the successful operations of the primitive, which the primitive
+     *     factories update.
+     */
+    public KeyUsageCounter getUsage() {
+      return usage;
+    }
+
     public final byte[] getIdentifier() {
       if (identifier == null) {
         return null;
@@ -95,34 +189,220 @@ public final class PrimitiveSet<P> {
         return Arrays.copyOf(identifier, identifier.length);
       }
     }
+
+    /** @return the length of the identifier, i.e., of the output prefix of the key. */
+    public int getIdentifierLength() {
+      return identifier == null ? 0 : identifier.length;
+    }
+
+    /**
+     * Copies the identifier to {@code output} at {@code offset}. Unlike {@link #getIdentifier},
+     * this does not allocate a copy of the identifier.
+     */
+    public void copyIdentifierTo(byte[] output, int offset) {
+      if (identifier != null) {
+        System.arraycopy(identifier, 0, output, offset, identifier.length);
+      }
+    }
+
+    /**
+     * Writes the identifier to {@code output} at its position, and advances the position past it.
+     * Unlike {@link #getIdentifier}, this does not allocate a copy of the identifier.
+     */
+    public void copyIdentifierTo(ByteBuffer output) {
+      if (identifier != null) {
+        output.put(identifier);
+      }
+    }
+
+    private static int keyIdFromIdentifier(byte[] identifier) {
+      if (identifier.length != CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        return 0;
+      }
+      return ByteBuffer.wrap(identifier, 1, 4).getInt();
+    }
   }
 
   /** @return the entry with the primary primitive. */
   public Entry<P> getPrimary() {
-    return primary;
+    return index().primary;
   }
 
   /** @return all primitives using RAW prefix. */
   public List<Entry<P>> getRawPrimitives() throws GeneralSecurityException {
-    return getPrimitive(CryptoFormat.RAW_PREFIX);
+    return index().rawPrimitives;
   }
 
-  /** @return the entries with primitive identifed by {@code identifier}. */
+  /**
+   * @return the usage of the keys of this set, as counted by the primitive factories. Entries that
+   *     are shared with other sets, e.g., by a {@link ReloadingKeysetHandle}, count the operations
+   *     of all of them.
+   */
+  public KeyUsageReport getKeyUsageReport() {
+    Index<P> index = index();
+    List<KeyUsageCounter> counters = new ArrayList<KeyUsageCounter>();
+    for (Object entries : index.entries) {
+      if (entries != null) {
+        @SuppressWarnings("unchecked")
+        List<Entry<P>> list = (List<Entry<P>>) entries;
+        for (Entry<P> entry : list) {
+          counters.add(entry.getUsage());
+        }
+      }
+    }
+    for (Entry<P> entry : index.rawPrimitives) {
+      counters.add(entry.getUsage());
+    }
+    return KeyUsageReport.fromCounters(counters);
+  }
+
+  /**
+   * @return the entries with primitive identifed by {@code identifier}, i.e., the RAW entries for
+   *     an empty identifier, and an empty list if the length of {@code identifier} is neither 0 nor
+   *     {@link CryptoFormat#NON_RAW_PREFIX_SIZE}.
+   */
   public List<Entry<P>> getPrimitive(final byte[] identifier) throws GeneralSecurityException {
-    List<Entry<P>> found = primitives.get(new String(identifier, UTF_8));
-    return found != null ? found : Collections.<Entry<P>>emptyList();
+    if (identifier.length == CryptoFormat.RAW_PREFIX_SIZE) {
+      return index().rawPrimitives;
+    }
+    if (identifier.length != CryptoFormat.NON_RAW_PREFIX_SIZE) {
+      return Collections.<Entry<P>>emptyList();
+    }
+    return getPrimitiveWithOutputPrefix(identifier);
+  }
+
+  /**
+   * Returns the entries whose non-RAW identifier matches the first {@link
+   * CryptoFormat#NON_RAW_PREFIX_SIZE} bytes of {@code output}, e.g., of a ciphertext, a MAC or a
+   * signature. Unlike {@link #getPrimitive(byte[])}, the caller does not need to copy the prefix
+   * out of {@code output} first, and the lookup does not allocate.
+   *
+   * @return the matching entries, or an empty list if {@code output} is too short or no key
+   *     matches its prefix.
+   */
+  public List<Entry<P>> getPrimitiveWithOutputPrefix(final byte[] output) {
+    if (output.length < CryptoFormat.NON_RAW_PREFIX_SIZE) {
+      return Collections.<Entry<P>>emptyList();
+    }
+    int keyId =
+        ((output[1] & 0xff) << 24)
+            | ((output[2] & 0xff) << 16)
+            | ((output[3] & 0xff) << 8)
+            | (output[4] & 0xff);
+    return getPrimitive(output[0], keyId);
+  }
+
+  /**
+   * Same as {@link #getPrimitiveWithOutputPrefix(byte[])}, but reads the prefix from the remaining
+   * bytes of {@code output}. The position of {@code output} is not changed.
+   */
+  public List<Entry<P>> getPrimitiveWithOutputPrefix(final ByteBuffer output) {
+    if (output.remaining() < CryptoFormat.NON_RAW_PREFIX_SIZE) {
+      return Collections.<Entry<P>>emptyList();
+    }
+    int pos = output.position();
+    int keyId =
+        ((output.get(pos + 1) & 0xff) << 24)
+            | ((output.get(pos + 2) & 0xff) << 16)
+            | ((output.get(pos + 3) & 0xff) << 8)
+            | (output.get(pos + 4) & 0xff);
+    return getPrimitive(output.get(pos), keyId);
+  }
+
+  /**
+   * @return the entries whose identifier consists of the 1-byte prefix type {@code startByte}
+   *     followed by {@code keyId}.
+   */
+  public List<Entry<P>> getPrimitive(byte startByte, int keyId) {
+    long code = encode(startByte, keyId);
+    Index<P> index = index();
+    long[] codes = index.codes;
+    int mask = codes.length - 1;
+    for (int i = mix(code) & mask; ; i = (i + 1) & mask) {
+      if (codes[i] == code) {
+        @SuppressWarnings("unchecked")
+        List<Entry<P>> found = (List<Entry<P>>) index.entries[i];
+        return found;
+      }
+      if (codes[i] == EMPTY) {
+        return Collections.<Entry<P>>emptyList();
+      }
+    }
   }
 
+  private static final long EMPTY = -1L;
+
+  private static final int INITIAL_CAPACITY = 8;
+
   /**
-   * The primitives are stored in a hash map of (ciphertext prefix, list of primivies sharing the
-   * prefix). This allows quickly retrieving the list of primitives sharing some particular prefix.
-   * Because all RAW keys are using an empty prefix, this also quickly allows retrieving them.
+   * The lookup tables of a frozen set. The non-RAW primitives are stored in an open-addressing hash
+   * table keyed by (prefix type byte, key id), packed into a single long. This allows retrieving
+   * the list of primitives sharing some particular prefix without allocating, and avoids converting
+   * prefixes to strings. RAW primitives all share the empty prefix, and are kept in a separate
+   * list.
+   *
+   * <p>All fields are final and the arrays are not modified after construction, so an index can be
+   * read by any thread that obtains a reference to it.
    */
-  private ConcurrentMap<java.lang.String, List<Entry<P>>> primitives =
-      new ConcurrentHashMap<java.lang.String, List<Entry<P>>>();
+  private static final class Index<P> {
+    final long[] codes;
+    final Object[] entries;
+    final List<Entry<P>> rawPrimitives;
+    final Entry<P> primary;
+
+    Index(long[] codes, Object[] entries, List<Entry<P>> rawPrimitives, Entry<P> primary) {
+      this.codes = codes;
+      this.entries = entries;
+      this.rawPrimitives = rawPrimitives;
+      this.primary = primary;
+    }
+  }
+
+  // The index, once the set is frozen. The set is frozen by the first lookup, or explicitly with
+  // freeze() by the code that populates it; afterwards it cannot be modified anymore.
+  private volatile Index<P> index;
+
+  // The tables being built, guarded by this. They are handed over to the index when the set is
+  // frozen.
+  private long[] indexCodes = newCodes(INITIAL_CAPACITY);
+
+  private Object[] indexEntries = new Object[INITIAL_CAPACITY];
+
+  private int indexSize = 0;
+
+  private List<Entry<P>> rawPrimitives = Collections.<Entry<P>>emptyList();
 
   private Entry<P> primary;
 
+  private Index<P> index() {
+    Index<P> result = index;
+    if (result == null) {
+      freeze();
+      result = index;
+    }
+    return result;
+  }
+
+  /**
+   * Freezes the set: publishes its entries for lookups from any thread. Afterwards, adding entries
+   * or setting the primary throws {@link IllegalStateException}.
+   */
+  synchronized void freeze() {
+    if (index == null) {
+      index = new Index<P>(indexCodes, indexEntries, rawPrimitives, primary);
+      indexCodes = null;
+      indexEntries = null;
+      rawPrimitives = null;
+      primary = null;
+    }
+  }
+
+  private void checkNotFrozen() {
+    if (index != null) {
+      throw new IllegalStateException("the primitive set is frozen and cannot be modified");
+    }
+  }
+
   protected static <P> PrimitiveSet<P> newPrimitiveSet() {
     return new PrimitiveSet<P>();
   }
@@ -132,8 +412,13 @@ public final class PrimitiveSet<P> {
     return getPrimitive(CryptoFormat.getOutputPrefix(key));
   }
 
-  /** Sets given Entry {@code primary} as the primary one. */
-  protected void setPrimary(final Entry<P> primary) {
+  /**
+   * Sets given Entry {@code primary} as the primary one.
+   *
+   * @throws IllegalStateException if the set is frozen
+   */
+  protected synchronized void setPrimary(final Entry<P> primary) {
+    checkNotFrozen();
     this.primary = primary;
   }
 
@@ -141,26 +426,100 @@ public final class PrimitiveSet<P> {
    * Creates an entry in the primitive table.
    *
    * @return the added entry
+   * @throws IllegalStateException if the set is frozen
    */
   protected Entry<P> addPrimitive(final P primitive, Keyset.Key key)
       throws GeneralSecurityException {
-    Entry<P> entry =
-        new Entry<P>(
-            primitive,
-            CryptoFormat.getOutputPrefix(key),
-            key.getStatus(),
-            key.getOutputPrefixType());
-    List<Entry<P>> list = new ArrayList<Entry<P>>();
-    list.add(entry);
-    // Cannot use [] as keys in hash map, convert to string.
-    String identifier = new String(entry.getIdentifier(), UTF_8);
-    List<Entry<P>> existing = primitives.put(identifier, Collections.unmodifiableList(list));
-    if (existing != null) {
-      List<Entry<P>> newList = new ArrayList<Entry<P>>();
-      newList.addAll(existing);
-      newList.add(entry);
-      primitives.put(identifier, Collections.unmodifiableList(newList));
+    return addEntry(new Entry<P>(primitive, /* manager= */ null, key), key);
+  }
+
+  /**
+   * Creates an entry in the primitive table, whose primitive is created by {@code manager} when it
+   * is first used.
+   *
+   * @return the added entry
+   */
+  Entry<P> addLazyPrimitive(KeyManager<P> manager, Keyset.Key key)
+      throws GeneralSecurityException {
+    return addEntry(new Entry<P>(/* primitive= */ null, manager, key), key);
+  }
+
+  /**
+   * Adds {@code entry}, which was created for {@code key}, e.g., by another primitive set. Entries
+   * can be shared between sets because they are thread-safe and do not depend on the set.
+   *
+   * @return the added entry
+   */
+  synchronized Entry<P> addEntry(Entry<P> entry, Keyset.Key key) {
+    checkNotFrozen();
+    if (key.getOutputPrefixType() == OutputPrefixType.RAW) {
+      rawPrimitives = append(rawPrimitives, entry);
+      return entry;
+    }
+    byte[] identifier = entry.getIdentifier();
+    long code = encode(identifier[0], key.getKeyId());
+    int mask = indexCodes.length - 1;
+    int i = mix(code) & mask;
+    while (indexCodes[i] != EMPTY && indexCodes[i] != code) {
+      i = (i + 1) & mask;
+    }
+    if (indexCodes[i] == code) {
+      @SuppressWarnings("unchecked")
+      List<Entry<P>> existing = (List<Entry<P>>) indexEntries[i];
+      indexEntries[i] = append(existing, entry);
+      return entry;
+    }
+    indexCodes[i] = code;
+    indexEntries[i] = append(Collections.<Entry<P>>emptyList(), entry);
+    indexSize++;
+    // Keep the load factor at or below 1/2, so that probe sequences stay short.
+    if (2 * indexSize > indexCodes.length) {
+      resize(2 * indexCodes.length);
     }
     return entry;
   }
+
+  private void resize(int capacity) {
+    long[] oldCodes = indexCodes;
+    Object[] oldEntries = indexEntries;
+    long[] codes = newCodes(capacity);
+    Object[] entries = new Object[capacity];
+    int mask = capacity - 1;
+    for (int j = 0; j < oldCodes.length; j++) {
+      if (oldCodes[j] != EMPTY) {
+        int i = mix(oldCodes[j]) & mask;
+        while (codes[i] != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        codes[i] = oldCodes[j];
+        entries[i] = oldEntries[j];
+      }
+    }
+    indexCodes = codes;
+    indexEntries = entries;
+  }
+
+  private static <P> List<Entry<P>> append(List<Entry<P>> list, Entry<P> entry) {
+    List<Entry<P>> newList = new ArrayList<Entry<P>>(list.size() + 1);
+    newList.addAll(list);
+    newList.add(entry);
+    return Collections.unmodifiableList(newList);
+  }
+
+  private static long[] newCodes(int capacity) {
+    long[] codes = new long[capacity];
+    Arrays.fill(codes, EMPTY);
+    return codes;
+  }
+
+  private static long encode(byte startByte, int keyId) {
+    // The upper 24 bits are always zero, so a valid code never equals EMPTY.
+    return ((startByte & 0xffL) << 32) | (keyId & 0xffffffffL);
+  }
+
+  private static int mix(long code) {
+    // Key ids are random, but the prefix type byte is not; fold it in and spread the bits.
+    long h = code * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
 }
@@ -0,0 +1,288 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the {@link PrimitiveSet}s built by {@link Registry#getPrimitives}.
+ *
+ * <p>Entries are keyed by the SHA-256 digest of the serialized keyset, which is computed once per
+ * {@link KeysetHandle}, the identity of the custom key manager (if any), the class of the
+ * primitives (if known), and whether non-primary primitives are instantiated lazily. When the
+ * cache is full, it is shrunk by evicting approximately the least recently used entries, by an
+ * eighth of its size at a time for large caches; entries are also evicted once they are older than
+ * the configured lifetime.
+ *
+ * <p>Lookups do not lock, so that threads which get the primitives of the same keysets do not
+ * contend. Only the eviction from a full cache takes a lock.
+ *
+ * <p>The cache is enabled with {@link Registry#enablePrimitiveSetCache}. Its statistics are
+ * available via {@link Registry#getPrimitiveSetCacheStats}.
+ */
+@Alpha
+public final class PrimitiveSetCache {
+  /** A snapshot of the statistics of a {@link PrimitiveSetCache}. */
+  public static final class Stats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final int size;
+
+    Stats(long hitCount, long missCount, long evictionCount, int size) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.size = size;
+    }
+
+    /** @return the number of lookups that returned a cached primitive set. */
+    public long getHitCount() {
+      return hitCount;
+    }
+
+    /** @return the number of lookups that had to build a new primitive set. */
+    public long getMissCount() {
+      return missCount;
+    }
+
+    /** @return the number of entries evicted because the cache was full or they expired. */
+    public long getEvictionCount() {
+      return evictionCount;
+    }
+
+    /** @return the number of entries in the cache. */
+    public int getSize() {
+      return size;
+    }
+
+    /** @return the ratio of hits to lookups, or 1.0 if there were no lookups. */
+    public double getHitRate() {
+      long lookups = hitCount + missCount;
+      return lookups == 0 ? 1.0 : (double) hitCount / lookups;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "hits=%d, misses=%d, evictions=%d, size=%d", hitCount, missCount, evictionCount, size);
+    }
+  }
+
+  /**
+   * Identifies a keyset, the custom key manager and class of primitives it is instantiated with,
+   * and whether non-primary primitives are instantiated lazily.
+   */
+  static final class Key {
+    private final byte[] digest;
+    private final KeyManager<?> customManager;
+    private final Class<?> primitiveClass;
+    private final boolean lazy;
+
+    private Key(byte[] digest, KeyManager<?> customManager, Class<?> primitiveClass, boolean lazy) {
+      this.digest = digest;
+      this.customManager = customManager;
+      this.primitiveClass = primitiveClass;
+      this.lazy = lazy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return Arrays.equals(digest, other.digest)
+          && customManager == other.customManager
+          && primitiveClass == other.primitiveClass
+          && lazy == other.lazy;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = Arrays.hashCode(digest);
+      result = 31 * result + System.identityHashCode(customManager);
+      result = 31 * result + System.identityHashCode(primitiveClass);
+      return 31 * result + (lazy ? 1 : 0);
+    }
+  }
+
+  private static final class CachedEntry {
+    final PrimitiveSet<?> primitives;
+    final long createdNanos;
+    // Written without synchronization on every hit, so the eviction order is approximate.
+    volatile long lastAccessNanos;
+
+    CachedEntry(PrimitiveSet<?> primitives, long createdNanos) {
+      this.primitives = primitives;
+      this.createdNanos = createdNanos;
+      this.lastAccessNanos = createdNanos;
+    }
+  }
+
+  /**
+   * An entry considered for eviction, with its last access time read once, so that concurrent hits
+   * do not change the order while the candidates are sorted.
+   */
+  private static final class EvictionCandidate {
+    final Key key;
+    final CachedEntry entry;
+    final long lastAccessNanos;
+
+    EvictionCandidate(Key key, CachedEntry entry) {
+      this.key = key;
+      this.entry = entry;
+      this.lastAccessNanos = entry.lastAccessNanos;
+    }
+  }
+
+  private final int maximumSize;
+  private final long expireAfterNanos;
+  private final ConcurrentHashMap<Key, CachedEntry> entries =
+      new ConcurrentHashMap<Key, CachedEntry>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  // Only one thread evicts at a time, so that concurrent misses do not each scan the cache.
+  private final Object evictionLock = new Object();
+
+  PrimitiveSetCache(int maximumSize, long expireAfterWriteMillis) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be positive");
+    }
+    if (expireAfterWriteMillis <= 0) {
+      throw new IllegalArgumentException("expireAfterWriteMillis must be positive");
+    }
+    this.maximumSize = maximumSize;
+    this.expireAfterNanos = TimeUnit.MILLISECONDS.toNanos(expireAfterWriteMillis);
+  }
+
+  /**
+   * @return the cache key of the keyset of {@code handle} instantiated with {@code customManager}
+   *     as primitives of {@code primitiveClass}, which may be null if it is not known.
+   */
+  static Key keyFor(
+      KeysetHandle handle, KeyManager<?> customManager, Class<?> primitiveClass, boolean lazy)
+      throws GeneralSecurityException {
+    return new Key(handle.getKeysetDigest(), customManager, primitiveClass, lazy);
+  }
+
+  /** @return the cached primitive set for {@code key}, or null if there is none. */
+  PrimitiveSet<?> get(Key key) {
+    CachedEntry entry = entries.get(key);
+    long now = System.nanoTime();
+    if (entry != null && isExpired(entry, now)) {
+      if (entries.remove(key, entry)) {
+        evictionCount.incrementAndGet();
+      }
+      entry = null;
+    }
+    if (entry == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    entry.lastAccessNanos = now;
+    hitCount.incrementAndGet();
+    return entry.primitives;
+  }
+
+  /**
+   * Caches {@code primitives} under {@code key}. If the cache is then over its size, expired
+   * entries and approximately the least recently used ones are evicted.
+   */
+  void put(Key key, PrimitiveSet<?> primitives) {
+    long now = System.nanoTime();
+    entries.put(key, new CachedEntry(primitives, now));
+    if (entries.size() <= maximumSize) {
+      return;
+    }
+    synchronized (evictionLock) {
+      // Another thread may have made room while this one waited for the lock.
+      if (entries.size() > maximumSize) {
+        evict(now);
+      }
+    }
+  }
+
+  /**
+   * Evicts the expired entries, and then the least recently used ones until the cache is at {@link
+   * #evictionTarget}. This scans and sorts the whole cache, but since it evicts at least an eighth
+   * of a large cache at a time, it only runs once per that many new keysets.
+   */
+  private void evict(long now) {
+    List<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>(entries.size());
+    for (Map.Entry<Key, CachedEntry> e : entries.entrySet()) {
+      CachedEntry entry = e.getValue();
+      if (isExpired(entry, now)) {
+        if (entries.remove(e.getKey(), entry)) {
+          evictionCount.incrementAndGet();
+        }
+      } else {
+        candidates.add(new EvictionCandidate(e.getKey(), entry));
+      }
+    }
+    int excess = candidates.size() - evictionTarget();
+    if (excess <= 0) {
+      return;
+    }
+    Collections.sort(
+        candidates,
+        new Comparator<EvictionCandidate>() {
+          @Override
+          public int compare(EvictionCandidate a, EvictionCandidate b) {
+            // System.nanoTime may overflow, so only the difference is meaningful.
+            long diff = a.lastAccessNanos - b.lastAccessNanos;
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+          }
+        });
+    for (int i = 0; i < excess; i++) {
+      EvictionCandidate candidate = candidates.get(i);
+      if (entries.remove(candidate.key, candidate.entry)) {
+        evictionCount.incrementAndGet();
+      }
+    }
+  }
+
+  /** @return the size to which a full cache is shrunk, which leaves room for new keysets. */
+  private int evictionTarget() {
+    return maximumSize - maximumSize / 8;
+  }
+
+  /** Removes all entries. The statistics are kept. */
+  void clear() {
+    entries.clear();
+  }
+
+  /** @return a snapshot of the statistics of this cache. */
+  public Stats stats() {
+    return new Stats(hitCount.get(), missCount.get(), evictionCount.get(), entries.size());
+  }
+
+  private boolean isExpired(CachedEntry entry, long now) {
+    return now - entry.createdNanos >= expireAfterNanos;
+  }
+}
@@ -0,0 +1,34 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
+
+/**
+ * Combines the primitives of a keyset, given as a {@link PrimitiveSet}, into a single primitive,
+ * e.g., an {@link Aead} that encrypts with the primary key and decrypts with any key in the set.
+ *
+ * <p>The primitive factories provide the wrappers that they use, e.g., {@link
+ * com.google.crypto.tink.aead.AeadFactory#getWrapper}. Wrappers allow building the primitive set
+ * separately, e.g., incrementally in {@link ReloadingKeysetHandle}.
+ */
+@Alpha
+public interface PrimitiveWrapper<P> {
+  /** @return a primitive that uses the primitives in {@code primitives}. */
+  P wrap(PrimitiveSet<P> primitives) throws GeneralSecurityException;
+}
@@ -16,6 +16,7 @@
 
 package com.google.crypto.tink;
 
+import com.google.crypto.tink.annotations.Alpha;
 import com.google.crypto.tink.proto.KeyData;
 import com.google.crypto.tink.proto.KeyStatusType;
 import com.google.crypto.tink.proto.KeyTemplate;
@@ -23,8 +24,11 @@ import com.google.crypto.tink.proto.Keyset;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.MessageLite;
 import java.security.GeneralSecurityException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -65,19 +69,73 @@ import java.util.logging.Logger;
  * Aead aead = AeadFactory.getPrimitive(keysetHandle);
  * }</pre>
  */
-// TODO(przydatek): make the read only methods, e.g., getKeyManager, getCatalogue, etc.
-// thread-safe.
 public final class Registry {
   private static final Logger logger = Logger.getLogger(Registry.class.getName());
 
-  @SuppressWarnings("rawtypes")
-  private static final ConcurrentMap<String, KeyManager> keyManagerMap =
-      new ConcurrentHashMap<String, KeyManager>(); // typeUrl -> KeyManager mapping
+  /** A registered key manager, and whether it may be used to generate new keys. */
+  private static final class KeyManagerEntry {
+    @SuppressWarnings("rawtypes")
+    final KeyManager manager;
+
+    final boolean newKeyAllowed;
+
+    KeyManagerEntry(KeyManager<?> manager, boolean newKeyAllowed) {
+      this.manager = manager;
+      this.newKeyAllowed = newKeyAllowed;
+    }
+  }
+
+  /**
+   * An immutable view of the registered key managers and catalogues. Every change creates a new
+   * snapshot, so that lookups need neither locks nor more than one map access.
+   */
+  private static final class Snapshot {
+    static final Snapshot EMPTY =
+        new Snapshot(
+            Collections.<String, KeyManagerEntry>emptyMap(),
+            Collections.<String, Catalogue>emptyMap());
+
+    final Map<String, KeyManagerEntry> keyManagers; // typeUrl -> KeyManagerEntry mapping
+    final Map<String, Catalogue> catalogues; // name -> catalogue mapping
+
+    private Snapshot(Map<String, KeyManagerEntry> keyManagers, Map<String, Catalogue> catalogues) {
+      this.keyManagers = keyManagers;
+      this.catalogues = catalogues;
+    }
+
+    Snapshot withKeyManager(String typeUrl, KeyManagerEntry entry) {
+      Map<String, KeyManagerEntry> newKeyManagers =
+          new HashMap<String, KeyManagerEntry>(keyManagers);
+      newKeyManagers.put(typeUrl, entry);
+      return new Snapshot(Collections.unmodifiableMap(newKeyManagers), catalogues);
+    }
+
+    Snapshot withCatalogue(String name, Catalogue catalogue) {
+      Map<String, Catalogue> newCatalogues = new HashMap<String, Catalogue>(catalogues);
+      newCatalogues.put(name, catalogue);
+      return new Snapshot(keyManagers, Collections.unmodifiableMap(newCatalogues));
+    }
+
+    KeyManagerEntry getKeyManagerEntry(String typeUrl) throws GeneralSecurityException {
+      KeyManagerEntry entry = keyManagers.get(typeUrl);
+      if (entry == null) {
+        throw new GeneralSecurityException(
+            "No key manager found for key type: "
+                + typeUrl
+                + ".  Check the configuration of the registry.");
+      }
+      return entry;
+    }
+  }
+
+  // Replaced, never modified, by the synchronized methods that change the registry.
+  private static volatile Snapshot snapshot = Snapshot.EMPTY;
+
+  // null if caching of primitive sets is disabled.
+  private static volatile PrimitiveSetCache primitiveSetCache = null;
+
+  private static volatile boolean lazyInstantiation = false;
 
-  private static final ConcurrentMap<String, Boolean> newKeyAllowedMap =
-      new ConcurrentHashMap<String, Boolean>(); // typeUrl -> newKeyAllowed mapping
-  private static final ConcurrentMap<String, Catalogue> catalogueMap =
-      new ConcurrentHashMap<String, Catalogue>(); //  name -> catalogue mapping
   /**
    * Resets the registry.
    *
@@ -87,9 +145,65 @@ public final class Registry {
    * <p>This method is intended for testing.
    */
   static synchronized void reset() {
-    keyManagerMap.clear();
-    newKeyAllowedMap.clear();
-    catalogueMap.clear();
+    snapshot = Snapshot.EMPTY;
+    primitiveSetCache = null;
+    lazyInstantiation = false;
+  }
+
+  /**
+   * Sets whether {@link #getPrimitives} instantiates the primitives of non-primary keys lazily.
+   *
+   * <p>By default, the primitives of all enabled keys in a keyset are created up front. Keysets
+   * with many old keys, e.g., ECDSA or ECIES keys whose public keys have to be validated, are
+   * faster to load and use less memory if only the primary primitive is created up front, and the
+   * others when they are first used, e.g., to decrypt a ciphertext with the corresponding prefix.
+   *
+   * <p>With lazy instantiation, invalid non-primary keys are not detected when the keyset is
+   * loaded. Instead, {@link PrimitiveSet.Entry#getPrimitive} throws an {@link
+   * IllegalStateException} when such a key is used.
+   */
+  @Alpha
+  public static void setLazyInstantiation(boolean lazy) {
+    lazyInstantiation = lazy;
+  }
+
+  /**
+   * Enables caching of the primitive sets returned by {@link #getPrimitives}, replacing the
+   * current cache (if any).
+   *
+   * <p>Instantiating the primitives of a keyset requires parsing each key and running key
+   * managers, which can dominate the cost of applications that call {@code
+   * XyzFactory.getPrimitive} for every request. With the cache enabled, keysets with the same
+   * content share a single primitive set. At most {@code maximumSize} primitive sets are kept,
+   * each for at most {@code expireAfterWriteMillis} milliseconds.
+   *
+   * <p>Note that cached primitive sets keep key material in memory after the caller has released
+   * its {@link KeysetHandle}, until they are evicted.
+   */
+  @Alpha
+  public static synchronized void enablePrimitiveSetCache(
+      int maximumSize, long expireAfterWriteMillis) {
+    primitiveSetCache = new PrimitiveSetCache(maximumSize, expireAfterWriteMillis);
+  }
+
+  /** Disables caching of primitive sets, and drops all cached primitive sets. */
+  @Alpha
+  public static synchronized void disablePrimitiveSetCache() {
+    PrimitiveSetCache cache = primitiveSetCache;
+    primitiveSetCache = null;
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * @return the statistics of the cache enabled by {@link #enablePrimitiveSetCache}, or null if
+   *     the cache is disabled.
+   */
+  @Alpha
+  public static PrimitiveSetCache.Stats getPrimitiveSetCacheStats() {
+    PrimitiveSetCache cache = primitiveSetCache;
+    return cache == null ? null : cache.stats();
   }
 
   /**
@@ -110,8 +224,8 @@ public final class Registry {
     if (catalogue == null) {
       throw new IllegalArgumentException("catalogue must be non-null.");
     }
-    if (catalogueMap.containsKey(catalogueName.toLowerCase())) {
-      Catalogue existing = catalogueMap.get(catalogueName.toLowerCase());
+    Catalogue existing = snapshot.catalogues.get(catalogueName.toLowerCase());
+    if (existing != null) {
       if (!catalogue.getClass().equals(existing.getClass())) {
         logger.warning(
             "Attempted overwrite of a catalogueName catalogue for name " + catalogueName);
@@ -119,7 +233,7 @@ public final class Registry {
             "catalogue for name " + catalogueName + " has been already registered");
       }
     }
-    catalogueMap.put(catalogueName.toLowerCase(), catalogue);
+    snapshot = snapshot.withCatalogue(catalogueName.toLowerCase(), catalogue);
   }
 
   /**
@@ -131,7 +245,7 @@ public final class Registry {
     if (catalogueName == null) {
       throw new IllegalArgumentException("catalogueName must be non-null.");
     }
-    Catalogue catalogue = catalogueMap.get(catalogueName.toLowerCase());
+    Catalogue catalogue = snapshot.catalogues.get(catalogueName.toLowerCase());
     if (catalogue == null) {
       String error = String.format("no catalogue found for %s. ", catalogueName);
       if (catalogueName.toLowerCase().startsWith("tinkaead")) {
@@ -175,16 +289,16 @@ public final class Registry {
    * @throws GeneralSecurityException if there's an existing key manager is not an instance of the
    *     class of {@code manager}
    */
-  @SuppressWarnings("unchecked")
   public static synchronized <P> void registerKeyManager(
       String typeUrl, final KeyManager<P> manager, boolean newKeyAllowed)
       throws GeneralSecurityException {
     if (manager == null) {
       throw new IllegalArgumentException("key manager must be non-null.");
     }
-    if (keyManagerMap.containsKey(typeUrl)) {
-      KeyManager<P> existingManager = getKeyManager(typeUrl);
-      boolean existingNewKeyAllowed = newKeyAllowedMap.get(typeUrl).booleanValue();
+    KeyManagerEntry existing = snapshot.keyManagers.get(typeUrl);
+    if (existing != null) {
+      KeyManager<?> existingManager = existing.manager;
+      boolean existingNewKeyAllowed = existing.newKeyAllowed;
       if (!manager.getClass().equals(existingManager.getClass())
           // Disallow changing newKeyAllow from false to true.
           || (!existingNewKeyAllowed && newKeyAllowed)) {
@@ -195,8 +309,7 @@ public final class Registry {
                 typeUrl, existingManager.getClass().getName(), manager.getClass().getName()));
       }
     }
-    keyManagerMap.put(typeUrl, manager);
-    newKeyAllowedMap.put(typeUrl, Boolean.valueOf(newKeyAllowed));
+    snapshot = snapshot.withKeyManager(typeUrl, new KeyManagerEntry(manager, newKeyAllowed));
   }
 
   /**
@@ -205,14 +318,7 @@ public final class Registry {
    */
   @SuppressWarnings("unchecked")
   public static <P> KeyManager<P> getKeyManager(String typeUrl) throws GeneralSecurityException {
-    KeyManager<P> manager = keyManagerMap.get(typeUrl);
-    if (manager == null) {
-      throw new GeneralSecurityException(
-          "No key manager found for key type: "
-              + typeUrl
-              + ".  Check the configuration of the registry.");
-    }
-    return manager;
+    return snapshot.getKeyManagerEntry(typeUrl).manager;
   }
 
   /**
@@ -226,9 +332,9 @@ public final class Registry {
    * @return a new {@link KeyData}
    */
   public static <P> KeyData newKeyData(KeyTemplate keyTemplate) throws GeneralSecurityException {
-    KeyManager<P> manager = getKeyManager(keyTemplate.getTypeUrl());
-    if (newKeyAllowedMap.get(keyTemplate.getTypeUrl()).booleanValue()) {
-      return manager.newKeyData(keyTemplate.getValue());
+    KeyManagerEntry entry = snapshot.getKeyManagerEntry(keyTemplate.getTypeUrl());
+    if (entry.newKeyAllowed) {
+      return entry.manager.newKeyData(keyTemplate.getValue());
     } else {
       throw new GeneralSecurityException(
           "newKey-operation not permitted for key type " + keyTemplate.getTypeUrl());
@@ -244,9 +350,9 @@ public final class Registry {
    * @return a new key
    */
   public static <P> MessageLite newKey(KeyTemplate keyTemplate) throws GeneralSecurityException {
-    KeyManager<P> manager = getKeyManager(keyTemplate.getTypeUrl());
-    if (newKeyAllowedMap.get(keyTemplate.getTypeUrl()).booleanValue()) {
-      return manager.newKey(keyTemplate.getValue());
+    KeyManagerEntry entry = snapshot.getKeyManagerEntry(keyTemplate.getTypeUrl());
+    if (entry.newKeyAllowed) {
+      return entry.manager.newKey(keyTemplate.getValue());
     } else {
       throw new GeneralSecurityException(
           "newKey-operation not permitted for key type " + keyTemplate.getTypeUrl());
@@ -263,9 +369,9 @@ public final class Registry {
    */
   public static <P> MessageLite newKey(String typeUrl, MessageLite format)
       throws GeneralSecurityException {
-    KeyManager<P> manager = getKeyManager(typeUrl);
-    if (newKeyAllowedMap.get(typeUrl).booleanValue()) {
-      return manager.newKey(format);
+    KeyManagerEntry entry = snapshot.getKeyManagerEntry(typeUrl);
+    if (entry.newKeyAllowed) {
+      return entry.manager.newKey(format);
     } else {
       throw new GeneralSecurityException("newKey-operation not permitted for key type " + typeUrl);
     }
@@ -372,27 +478,133 @@ public final class Registry {
    * <p>The returned set is usually later "wrapped" into a class that implements the corresponding
    * Primitive-interface.
    *
+   * <p>If {@link #enablePrimitiveSetCache} has been called, the returned set may be shared with
+   * earlier calls for a keyset with the same content and the same {@code customManager}.
+   *
    * @return a PrimitiveSet with all instantiated primitives
    */
   public static <P> PrimitiveSet<P> getPrimitives(
       KeysetHandle keysetHandle, final KeyManager<P> customManager)
       throws GeneralSecurityException {
+    return getPrimitives(keysetHandle, customManager, /* primitiveClass= */ (Class<P>) null);
+  }
+
+  /**
+   * Like {@link #getPrimitives(KeysetHandle, KeyManager)}, for callers that know the class of the
+   * primitives, like the {@code XyzFactory} classes. With {@link #enablePrimitiveSetCache}, the
+   * returned set is only shared with earlier calls for the same {@code primitiveClass}.
+   *
+   * @return a PrimitiveSet with all instantiated primitives
+   */
+  @Alpha
+  @SuppressWarnings("unchecked")
+  public static <P> PrimitiveSet<P> getPrimitives(
+      KeysetHandle keysetHandle, final KeyManager<P> customManager, Class<P> primitiveClass)
+      throws GeneralSecurityException {
+    boolean lazy = lazyInstantiation;
+    PrimitiveSetCache cache = primitiveSetCache;
+    if (cache == null) {
+      return newPrimitives(keysetHandle, customManager, /* reusable= */ null, lazy);
+    }
+    PrimitiveSetCache.Key key =
+        PrimitiveSetCache.keyFor(keysetHandle, customManager, primitiveClass, lazy);
+    // Each key type maps to a single key manager, so the content of the keyset determines P.
+    PrimitiveSet<P> primitives = (PrimitiveSet<P>) cache.get(key);
+    if (primitives == null) {
+      primitives = newPrimitives(keysetHandle, customManager, /* reusable= */ null, lazy);
+      cache.put(key, primitives);
+    }
+    return primitives;
+  }
+
+  /**
+   * Like {@link #getPrimitives(KeysetHandle, KeyManager)}, but reuses the entries of {@code
+   * previous}, which was created for {@code previousHandle}, an earlier version of the keyset,
+   * with the same {@code customManager}, for keys that have not changed. Only the primitives of new
+   * or modified keys are instantiated. If {@code previousHandle} is null, all are.
+   */
+  static <P> PrimitiveSet<P> getPrimitives(
+      KeysetHandle keysetHandle,
+      final KeyManager<P> customManager,
+      KeysetHandle previousHandle,
+      PrimitiveSet<P> previous)
+      throws GeneralSecurityException {
+    Map<Keyset.Key, PrimitiveSet.Entry<P>> reusable =
+        previousHandle == null ? null : entriesByKey(previousHandle.getKeyset(), previous);
+    return newPrimitives(keysetHandle, customManager, reusable, lazyInstantiation);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <P> PrimitiveSet<P> newPrimitives(
+      KeysetHandle keysetHandle,
+      final KeyManager<P> customManager,
+      Map<Keyset.Key, PrimitiveSet.Entry<P>> reusable,
+      boolean lazy)
+      throws GeneralSecurityException {
     Util.validateKeyset(keysetHandle.getKeyset());
+    // All keys are instantiated with the key managers of the same snapshot.
+    Snapshot current = snapshot;
+    int primaryKeyId = keysetHandle.getKeyset().getPrimaryKeyId();
     PrimitiveSet<P> primitives = PrimitiveSet.newPrimitiveSet();
     for (Keyset.Key key : keysetHandle.getKeyset().getKeyList()) {
       if (key.getStatus() == KeyStatusType.ENABLED) {
-        P primitive;
+        PrimitiveSet.Entry<P> reused = reusable == null ? null : reusable.get(key);
+        if (reused != null) {
+          primitives.addEntry(reused, key);
+          if (key.getKeyId() == primaryKeyId) {
+            // The primary primitive is always instantiated up front.
+            reused.getPrimitiveOrThrow();
+            primitives.setPrimary(reused);
+          }
+          continue;
+        }
+        KeyManager<P> manager;
         if (customManager != null && customManager.doesSupport(key.getKeyData().getTypeUrl())) {
-          primitive = customManager.getPrimitive(key.getKeyData().getValue());
+          manager = customManager;
         } else {
-          primitive = getPrimitive(key.getKeyData().getTypeUrl(), key.getKeyData().getValue());
+          manager = current.getKeyManagerEntry(key.getKeyData().getTypeUrl()).manager;
+        }
+        if (lazy && key.getKeyId() != primaryKeyId) {
+          primitives.addLazyPrimitive(manager, key);
+          continue;
         }
-        PrimitiveSet.Entry<P> entry = primitives.addPrimitive(primitive, key);
-        if (key.getKeyId() == keysetHandle.getKeyset().getPrimaryKeyId()) {
+        PrimitiveSet.Entry<P> entry =
+            primitives.addPrimitive(manager.getPrimitive(key.getKeyData().getValue()), key);
+        if (key.getKeyId() == primaryKeyId) {
           primitives.setPrimary(entry);
         }
       }
     }
+    primitives.freeze();
     return primitives;
   }
+
+  /**
+   * @return the entries of {@code primitives}, which was created for {@code keyset}, by the key
+   *     they were created for. Entries do not keep their key, and several keys of a keyset may have
+   *     the same output prefix, so the entries of each prefix are matched to the keys with that
+   *     prefix in the order in which they were added.
+   */
+  private static <P> Map<Keyset.Key, PrimitiveSet.Entry<P>> entriesByKey(
+      Keyset keyset, PrimitiveSet<P> primitives) throws GeneralSecurityException {
+    Map<Keyset.Key, PrimitiveSet.Entry<P>> entries =
+        new HashMap<Keyset.Key, PrimitiveSet.Entry<P>>();
+    // The number of keys seen so far per list of entries, i.e., per output prefix.
+    Map<List<PrimitiveSet.Entry<P>>, Integer> seen =
+        new IdentityHashMap<List<PrimitiveSet.Entry<P>>, Integer>();
+    for (Keyset.Key key : keyset.getKeyList()) {
+      if (key.getStatus() != KeyStatusType.ENABLED) {
+        continue;
+      }
+      List<PrimitiveSet.Entry<P>> sameOutputPrefix =
+          primitives.getPrimitive(CryptoFormat.getOutputPrefix(key));
+      Integer count = seen.get(sameOutputPrefix);
+      int index = count == null ? 0 : count;
+      if (index < sameOutputPrefix.size()) {
+        entries.put(key, sameOutputPrefix.get(index));
+      }
+      seen.put(sameOutputPrefix, index + 1);
+    }
+    return entries;
+  }
 }
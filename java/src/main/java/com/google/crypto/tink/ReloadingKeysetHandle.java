@@ -0,0 +1,287 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.proto.Keyset;
+import com.google.crypto.tink.subtle.Bytes;
+import com.google.crypto.tink.subtle.EngineFactory;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A holder of a {@link KeysetHandle} that can be reloaded, e.g., after a key rotation, while the
+ * primitives obtained from it are in use.
+ *
+ * <p>Primitives are obtained with {@link #newPrimitive}, which returns a {@link
+ * ReloadingPrimitive} whose {@link ReloadingPrimitive#get} always returns the primitive for the
+ * latest loaded keyset. On {@link #reload}, the new keyset is compared with the previous one, and
+ * only the primitives of keys that were added or modified are instantiated; the primitives of
+ * unchanged keys are reused and those of removed keys are dropped. The new primitives replace the
+ * old ones only once all of them have been built, so callers never block on a reload and never see
+ * a partially updated keyset. If the new keyset cannot be loaded, the old primitives remain in use.
+ *
+ * <p>Example:
+ *
+ * <pre>{@code
+ * ReloadingKeysetHandle handle =
+ *     ReloadingKeysetHandle.withJsonFile(new File("keyset.json"), masterKey);
+ * ReloadingKeysetHandle.ReloadingPrimitive<Aead> aead =
+ *     handle.newPrimitive(AeadFactory.getWrapper());
+ * handle.startPolling(1, TimeUnit.MINUTES);
+ * byte[] ciphertext = aead.get().encrypt(plaintext, associatedData);
+ * }</pre>
+ */
+@Alpha
+public final class ReloadingKeysetHandle implements Closeable {
+  private static final Logger logger = Logger.getLogger(ReloadingKeysetHandle.class.getName());
+
+  /** Loads the current version of a keyset. */
+  public interface Loader {
+    /**
+     * @return the current version of the keyset, or null if it has not changed since the last
+     *     call.
+     */
+    KeysetHandle load() throws GeneralSecurityException, IOException;
+  }
+
+  /** A primitive that is rebuilt whenever the keyset it was created for is reloaded. */
+  public static final class ReloadingPrimitive<P> {
+    private final PrimitiveWrapper<P> wrapper;
+    private final KeyManager<P> customManager;
+    private volatile PrimitiveSet<P> primitives;
+    private volatile P primitive;
+
+    private ReloadingPrimitive(PrimitiveWrapper<P> wrapper, KeyManager<P> customManager) {
+      this.wrapper = wrapper;
+      this.customManager = customManager;
+    }
+
+    /** @return the primitive for the latest loaded version of the keyset. */
+    public P get() {
+      return primitive;
+    }
+
+    /** Builds the primitive for {@code handle}, reusing those of {@code previousHandle}, if any. */
+    private Rebuilt<P> rebuild(KeysetHandle handle, KeysetHandle previousHandle)
+        throws GeneralSecurityException {
+      PrimitiveSet<P> newPrimitives =
+          Registry.getPrimitives(handle, customManager, previousHandle, primitives);
+      return new Rebuilt<P>(this, newPrimitives, wrapper.wrap(newPrimitives));
+    }
+  }
+
+  private static final class Rebuilt<P> {
+    final ReloadingPrimitive<P> target;
+    final PrimitiveSet<P> primitives;
+    final P primitive;
+
+    Rebuilt(ReloadingPrimitive<P> target, PrimitiveSet<P> primitives, P primitive) {
+      this.target = target;
+      this.primitives = primitives;
+      this.primitive = primitive;
+    }
+
+    void publish() {
+      target.primitives = primitives;
+      target.primitive = primitive;
+    }
+  }
+
+  private final Loader loader;
+  private final List<ReloadingPrimitive<?>> reloadingPrimitives =
+      new ArrayList<ReloadingPrimitive<?>>();
+  private volatile KeysetHandle keysetHandle;
+  private ScheduledExecutorService poller;
+
+  /**
+   * @return a {@link ReloadingKeysetHandle} that loads keysets with {@code loader}.
+   * @throws GeneralSecurityException if the initial keyset cannot be loaded
+   */
+  public static ReloadingKeysetHandle withLoader(Loader loader)
+      throws GeneralSecurityException, IOException {
+    KeysetHandle initial = loader.load();
+    if (initial == null) {
+      throw new GeneralSecurityException("the loader did not return an initial keyset");
+    }
+    return new ReloadingKeysetHandle(loader, initial);
+  }
+
+  /**
+   * @return a {@link ReloadingKeysetHandle} that reads an encrypted keyset in binary format from
+   *     {@code file}, decrypting it with {@code masterKey}. The keyset is only decrypted again when
+   *     the content of the file has changed.
+   */
+  public static ReloadingKeysetHandle withBinaryFile(File file, Aead masterKey)
+      throws GeneralSecurityException, IOException {
+    return withLoader(new FileLoader(file, masterKey, /* json= */ false));
+  }
+
+  /**
+   * @return a {@link ReloadingKeysetHandle} that reads an encrypted keyset in JSON format from
+   *     {@code file}, decrypting it with {@code masterKey}. The keyset is only decrypted again when
+   *     the content of the file has changed.
+   */
+  public static ReloadingKeysetHandle withJsonFile(File file, Aead masterKey)
+      throws GeneralSecurityException, IOException {
+    return withLoader(new FileLoader(file, masterKey, /* json= */ true));
+  }
+
+  private static final class FileLoader implements Loader {
+    private final File file;
+    private final Aead masterKey;
+    private final boolean json;
+    // The SHA-256 digest of the content of the file when it was last loaded.
+    private byte[] digest;
+
+    FileLoader(File file, Aead masterKey, boolean json) {
+      this.file = file;
+      this.masterKey = masterKey;
+      this.json = json;
+    }
+
+    @Override
+    public KeysetHandle load() throws GeneralSecurityException, IOException {
+      // The size and modification time of the file do not reliably tell whether it has changed,
+      // e.g., if it is rewritten within the granularity of the modification time. Keyset files
+      // are small, so the content is compared instead, and only decrypted again if it differs.
+      byte[] content = Files.readAllBytes(file.toPath());
+      byte[] newDigest = EngineFactory.MESSAGE_DIGEST.getInstance("SHA-256").digest(content);
+      if (digest != null && Bytes.equal(newDigest, digest)) {
+        return null;
+      }
+      KeysetReader reader =
+          json ? JsonKeysetReader.withBytes(content) : BinaryKeysetReader.withBytes(content);
+      KeysetHandle handle = KeysetHandle.read(reader, masterKey);
+      digest = newDigest;
+      return handle;
+    }
+  }
+
+  private ReloadingKeysetHandle(Loader loader, KeysetHandle initial) {
+    this.loader = loader;
+    this.keysetHandle = initial;
+  }
+
+  /** @return the latest loaded version of the keyset. */
+  public KeysetHandle getKeysetHandle() {
+    return keysetHandle;
+  }
+
+  /**
+   * @return a primitive built with {@code wrapper} from the primitives of the current keyset, which
+   *     is rebuilt on every reload.
+   */
+  public <P> ReloadingPrimitive<P> newPrimitive(PrimitiveWrapper<P> wrapper)
+      throws GeneralSecurityException {
+    return newPrimitive(wrapper, /* customManager= */ null);
+  }
+
+  /**
+   * Like {@link #newPrimitive(PrimitiveWrapper)}, but uses {@code customManager} instead of the
+   * key manager in the {@link Registry} for the keys that it supports.
+   */
+  public synchronized <P> ReloadingPrimitive<P> newPrimitive(
+      PrimitiveWrapper<P> wrapper, KeyManager<P> customManager) throws GeneralSecurityException {
+    ReloadingPrimitive<P> reloading = new ReloadingPrimitive<P>(wrapper, customManager);
+    reloading.rebuild(keysetHandle, /* previousHandle= */ null).publish();
+    reloadingPrimitives.add(reloading);
+    return reloading;
+  }
+
+  /**
+   * Loads the current version of the keyset and rebuilds all primitives obtained from {@link
+   * #newPrimitive}.
+   *
+   * @return true if a new version of the keyset was loaded, false if it has not changed
+   * @throws GeneralSecurityException if the new keyset cannot be loaded or its primitives cannot be
+   *     instantiated; the previous keyset and primitives then remain in use
+   */
+  public synchronized boolean reload() throws GeneralSecurityException, IOException {
+    KeysetHandle newHandle = loader.load();
+    if (newHandle == null) {
+      return false;
+    }
+    Keyset newKeyset = newHandle.getKeyset();
+    if (newKeyset.equals(keysetHandle.getKeyset())) {
+      return false;
+    }
+    List<Rebuilt<?>> rebuilt = new ArrayList<Rebuilt<?>>(reloadingPrimitives.size());
+    for (ReloadingPrimitive<?> reloading : reloadingPrimitives) {
+      rebuilt.add(reloading.rebuild(newHandle, keysetHandle));
+    }
+    keysetHandle = newHandle;
+    for (Rebuilt<?> r : rebuilt) {
+      r.publish();
+    }
+    return true;
+  }
+
+  /**
+   * Calls {@link #reload} every {@code period} on a background thread, until {@link #close} is
+   * called. Failed reloads are logged and retried at the next period.
+   */
+  public synchronized void startPolling(long period, TimeUnit unit) {
+    if (poller != null) {
+      throw new IllegalStateException("already polling");
+    }
+    poller =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "tink-keyset-reloader");
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+    poller.scheduleWithFixedDelay(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              reload();
+            } catch (GeneralSecurityException | IOException | RuntimeException e) {
+              logger.log(Level.WARNING, "cannot reload keyset", e);
+            }
+          }
+        },
+        period,
+        period,
+        unit);
+  }
+
+  /** Stops polling for new versions of the keyset. */
+  @Override
+  public synchronized void close() {
+    if (poller != null) {
+      poller.shutdownNow();
+      poller = null;
+    }
+  }
+}
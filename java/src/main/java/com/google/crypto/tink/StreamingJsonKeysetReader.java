@@ -0,0 +1,296 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.proto.EncryptedKeyset;
+import com.google.crypto.tink.proto.KeyData;
+import com.google.crypto.tink.proto.Keyset;
+import com.google.crypto.tink.proto.Keyset.Key;
+import com.google.crypto.tink.proto.KeysetInfo;
+import com.google.crypto.tink.proto.KeysetInfo.KeyInfo;
+import com.google.crypto.tink.subtle.Base64;
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import org.json.JSONException;
+
+/**
+ * A {@link KeysetReader} that reads cleartext or encrypted keysets in the same proto JSON format as
+ * {@link JsonKeysetReader}, but parses its input incrementally instead of building a {@link
+ * org.json.JSONObject} first.
+ *
+ * <p>The input is read in small chunks, and base64 encoded values are decoded directly from the
+ * input bytes. With {@link #readKeys}, each key is passed on as soon as it has been parsed, so that
+ * a large keyset does not have to be held in memory as a whole.
+ *
+ * <p>Unlike {@link JsonKeysetReader}, a {@link StreamingJsonKeysetReader} consumes its input, and
+ * can only be read once.
+ */
+@Alpha
+public final class StreamingJsonKeysetReader implements KeysetReader {
+  /** Receives the keys of a keyset as they are read. */
+  public interface KeyListener {
+    void onKey(Keyset.Key key) throws IOException;
+  }
+
+  private final InputStream inputStream;
+  private boolean urlSafeBase64 = false;
+  private boolean used = false;
+
+  private StreamingJsonKeysetReader(InputStream stream) {
+    inputStream = stream;
+  }
+
+  public static StreamingJsonKeysetReader withInputStream(InputStream stream) {
+    return new StreamingJsonKeysetReader(stream);
+  }
+
+  public static StreamingJsonKeysetReader withBytes(final byte[] bytes) {
+    return new StreamingJsonKeysetReader(new ByteArrayInputStream(bytes));
+  }
+
+  public static StreamingJsonKeysetReader withFile(File file) throws IOException {
+    return new StreamingJsonKeysetReader(new FileInputStream(file));
+  }
+
+  public static StreamingJsonKeysetReader withPath(Path path) throws IOException {
+    return withFile(path.toFile());
+  }
+
+  public StreamingJsonKeysetReader withUrlSafeBase64() {
+    this.urlSafeBase64 = true;
+    return this;
+  }
+
+  @Override
+  public Keyset read() throws IOException {
+    final Keyset.Builder builder = Keyset.newBuilder();
+    int primaryKeyId =
+        readKeys(
+            new KeyListener() {
+              @Override
+              public void onKey(Keyset.Key key) {
+                builder.addKey(key);
+              }
+            });
+    return builder.setPrimaryKeyId(primaryKeyId).build();
+  }
+
+  /**
+   * Reads a cleartext keyset, and passes each of its keys to {@code listener} as soon as it has
+   * been read.
+   *
+   * @return the primary key id of the keyset, or 0 if it has none
+   */
+  public int readKeys(KeyListener listener) throws IOException {
+    JsonTokenizer json = newTokenizer();
+    try {
+      return readKeys(json, listener);
+    } catch (JSONException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public EncryptedKeyset readEncrypted() throws IOException {
+    JsonTokenizer json = newTokenizer();
+    try {
+      return readEncrypted(json);
+    } catch (JSONException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private int readKeys(JsonTokenizer json, KeyListener listener) throws IOException {
+    int primaryKeyId = 0;
+    boolean hasKeys = false;
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      if (name.equals("primaryKeyId")) {
+        primaryKeyId = json.nextUInt32();
+      } else if (name.equals("key")) {
+        json.beginArray();
+        while (json.hasNext()) {
+          listener.onKey(readKey(json));
+          hasKeys = true;
+        }
+        json.endArray();
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    json.endDocument();
+    if (!hasKeys) {
+      throw new IOException("invalid keyset");
+    }
+    return primaryKeyId;
+  }
+
+  private EncryptedKeyset readEncrypted(JsonTokenizer json) throws IOException {
+    EncryptedKeyset.Builder builder = EncryptedKeyset.newBuilder();
+    boolean hasEncryptedKeyset = false;
+    boolean hasKeysetInfo = false;
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      if (name.equals("encryptedKeyset")) {
+        builder.setEncryptedKeyset(ByteString.copyFrom(json.nextBase64(base64Flags())));
+        hasEncryptedKeyset = true;
+      } else if (name.equals("keysetInfo")) {
+        builder.setKeysetInfo(readKeysetInfo(json));
+        hasKeysetInfo = true;
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    json.endDocument();
+    if (!hasEncryptedKeyset) {
+      throw new IOException("invalid encrypted keyset");
+    }
+    if (!hasKeysetInfo) {
+      throw new IOException("invalid encrypted keyset: no keysetInfo");
+    }
+    return builder.build();
+  }
+
+  private JsonTokenizer newTokenizer() throws IOException {
+    if (used) {
+      throw new IOException("a StreamingJsonKeysetReader can only be read once");
+    }
+    used = true;
+    return new JsonTokenizer(inputStream);
+  }
+
+  private int base64Flags() {
+    return urlSafeBase64
+        ? Base64.DEFAULT | Base64.NO_WRAP | Base64.URL_SAFE
+        : Base64.DEFAULT | Base64.NO_WRAP;
+  }
+
+  private Key readKey(JsonTokenizer json) throws IOException {
+    Key.Builder builder = Key.newBuilder();
+    int fields = 0;
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      if (name.equals("keyData")) {
+        builder.setKeyData(readKeyData(json));
+        fields |= 1;
+      } else if (name.equals("status")) {
+        builder.setStatus(JsonKeysetReader.getStatus(json.nextString()));
+        fields |= 2;
+      } else if (name.equals("keyId")) {
+        builder.setKeyId(json.nextUInt32());
+        fields |= 4;
+      } else if (name.equals("outputPrefixType")) {
+        builder.setOutputPrefixType(JsonKeysetReader.getOutputPrefixType(json.nextString()));
+        fields |= 8;
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    if (fields != 15) {
+      throw new IOException("invalid key");
+    }
+    return builder.build();
+  }
+
+  private KeyData readKeyData(JsonTokenizer json) throws IOException {
+    KeyData.Builder builder = KeyData.newBuilder();
+    int fields = 0;
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      if (name.equals("typeUrl")) {
+        builder.setTypeUrl(json.nextString());
+        fields |= 1;
+      } else if (name.equals("value")) {
+        builder.setValue(ByteString.copyFrom(json.nextBase64(base64Flags())));
+        fields |= 2;
+      } else if (name.equals("keyMaterialType")) {
+        builder.setKeyMaterialType(JsonKeysetReader.getKeyMaterialType(json.nextString()));
+        fields |= 4;
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    if (fields != 7) {
+      throw new IOException("invalid keyData");
+    }
+    return builder.build();
+  }
+
+  private KeysetInfo readKeysetInfo(JsonTokenizer json) throws IOException {
+    KeysetInfo.Builder builder = KeysetInfo.newBuilder();
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      if (name.equals("primaryKeyId")) {
+        builder.setPrimaryKeyId(json.nextUInt32());
+      } else if (name.equals("keyInfo")) {
+        json.beginArray();
+        while (json.hasNext()) {
+          builder.addKeyInfo(readKeyInfo(json));
+        }
+        json.endArray();
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    return builder.build();
+  }
+
+  private KeyInfo readKeyInfo(JsonTokenizer json) throws IOException {
+    KeyInfo.Builder builder = KeyInfo.newBuilder();
+    int fields = 0;
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      if (name.equals("typeUrl")) {
+        builder.setTypeUrl(json.nextString());
+        fields |= 1;
+      } else if (name.equals("status")) {
+        builder.setStatus(JsonKeysetReader.getStatus(json.nextString()));
+        fields |= 2;
+      } else if (name.equals("keyId")) {
+        builder.setKeyId(json.nextUInt32());
+        fields |= 4;
+      } else if (name.equals("outputPrefixType")) {
+        builder.setOutputPrefixType(JsonKeysetReader.getOutputPrefixType(json.nextString()));
+        fields |= 8;
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    if (fields != 15) {
+      throw new IOException("invalid keyInfo");
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,220 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.proto.EncryptedKeyset;
+import com.google.crypto.tink.proto.KeyData;
+import com.google.crypto.tink.proto.Keyset;
+import com.google.crypto.tink.proto.Keyset.Key;
+import com.google.crypto.tink.proto.KeysetInfo;
+import com.google.crypto.tink.proto.KeysetInfo.KeyInfo;
+import com.google.crypto.tink.subtle.Base64;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * A {@link KeysetWriter} that writes cleartext or encrypted keysets in the same proto JSON format
+ * as {@link JsonKeysetWriter}, but writes them directly to its output instead of building a {@link
+ * org.json.JSONObject} and a {@link String} first.
+ *
+ * <p>The output can be read with {@link JsonKeysetReader} as well as with {@link
+ * StreamingJsonKeysetReader}.
+ */
+@Alpha
+public final class StreamingJsonKeysetWriter implements KeysetWriter {
+  private static final int BASE64_FLAGS = Base64.DEFAULT | Base64.NO_WRAP;
+  private static final byte[] HEX = "0123456789abcdef".getBytes(UTF_8);
+
+  private final OutputStream outputStream;
+
+  private StreamingJsonKeysetWriter(OutputStream stream) {
+    outputStream = stream;
+  }
+
+  public static KeysetWriter withOutputStream(OutputStream stream) {
+    return new StreamingJsonKeysetWriter(stream);
+  }
+
+  public static KeysetWriter withFile(File file) throws IOException {
+    return new StreamingJsonKeysetWriter(new FileOutputStream(file));
+  }
+
+  public static KeysetWriter withPath(Path path) throws IOException {
+    return withFile(path.toFile());
+  }
+
+  @Override
+  public void write(Keyset keyset) throws IOException {
+    OutputStream out = new BufferedOutputStream(outputStream);
+    out.write('{');
+    writeName(out, 1, "primaryKeyId");
+    writeUInt32(out, keyset.getPrimaryKeyId());
+    out.write(',');
+    writeName(out, 1, "key");
+    out.write('[');
+    for (int i = 0; i < keyset.getKeyCount(); i++) {
+      if (i > 0) {
+        out.write(',');
+      }
+      newLine(out, 2);
+      writeKey(out, 2, keyset.getKey(i));
+    }
+    newLine(out, 1);
+    out.write(']');
+    newLine(out, 0);
+    out.write('}');
+    out.flush();
+  }
+
+  @Override
+  public void write(EncryptedKeyset keyset) throws IOException {
+    OutputStream out = new BufferedOutputStream(outputStream);
+    out.write('{');
+    writeName(out, 1, "encryptedKeyset");
+    writeBase64(out, keyset.getEncryptedKeyset().toByteArray());
+    out.write(',');
+    writeName(out, 1, "keysetInfo");
+    writeKeysetInfo(out, 1, keyset.getKeysetInfo());
+    newLine(out, 0);
+    out.write('}');
+    out.flush();
+  }
+
+  private static void writeKey(OutputStream out, int indent, Key key) throws IOException {
+    out.write('{');
+    writeName(out, indent + 1, "keyData");
+    writeKeyData(out, indent + 1, key.getKeyData());
+    out.write(',');
+    writeName(out, indent + 1, "status");
+    writeString(out, key.getStatus().toString());
+    out.write(',');
+    writeName(out, indent + 1, "keyId");
+    writeUInt32(out, key.getKeyId());
+    out.write(',');
+    writeName(out, indent + 1, "outputPrefixType");
+    writeString(out, key.getOutputPrefixType().toString());
+    newLine(out, indent);
+    out.write('}');
+  }
+
+  private static void writeKeyData(OutputStream out, int indent, KeyData keyData)
+      throws IOException {
+    out.write('{');
+    writeName(out, indent + 1, "typeUrl");
+    writeString(out, keyData.getTypeUrl());
+    out.write(',');
+    writeName(out, indent + 1, "value");
+    writeBase64(out, keyData.getValue().toByteArray());
+    out.write(',');
+    writeName(out, indent + 1, "keyMaterialType");
+    writeString(out, keyData.getKeyMaterialType().toString());
+    newLine(out, indent);
+    out.write('}');
+  }
+
+  private static void writeKeysetInfo(OutputStream out, int indent, KeysetInfo keysetInfo)
+      throws IOException {
+    out.write('{');
+    writeName(out, indent + 1, "primaryKeyId");
+    writeUInt32(out, keysetInfo.getPrimaryKeyId());
+    out.write(',');
+    writeName(out, indent + 1, "keyInfo");
+    out.write('[');
+    for (int i = 0; i < keysetInfo.getKeyInfoCount(); i++) {
+      if (i > 0) {
+        out.write(',');
+      }
+      newLine(out, indent + 2);
+      writeKeyInfo(out, indent + 2, keysetInfo.getKeyInfo(i));
+    }
+    newLine(out, indent + 1);
+    out.write(']');
+    newLine(out, indent);
+    out.write('}');
+  }
+
+  private static void writeKeyInfo(OutputStream out, int indent, KeyInfo keyInfo)
+      throws IOException {
+    out.write('{');
+    writeName(out, indent + 1, "typeUrl");
+    writeString(out, keyInfo.getTypeUrl());
+    out.write(',');
+    writeName(out, indent + 1, "status");
+    writeString(out, keyInfo.getStatus().toString());
+    out.write(',');
+    writeName(out, indent + 1, "keyId");
+    writeUInt32(out, keyInfo.getKeyId());
+    out.write(',');
+    writeName(out, indent + 1, "outputPrefixType");
+    writeString(out, keyInfo.getOutputPrefixType().toString());
+    newLine(out, indent);
+    out.write('}');
+  }
+
+  private static void newLine(OutputStream out, int indent) throws IOException {
+    out.write('\n');
+    for (int i = 0; i < 4 * indent; i++) {
+      out.write(' ');
+    }
+  }
+
+  private static void writeName(OutputStream out, int indent, String name) throws IOException {
+    newLine(out, indent);
+    writeString(out, name);
+    out.write(':');
+    out.write(' ');
+  }
+
+  /** Writes {@code value} as an unsigned number, like {@code JsonFormat} does for uint32 fields. */
+  private static void writeUInt32(OutputStream out, int value) throws IOException {
+    out.write(Long.toString(value & 0xffffffffL).getBytes(UTF_8));
+  }
+
+  private static void writeBase64(OutputStream out, byte[] value) throws IOException {
+    out.write('"');
+    out.write(Base64.encode(value, BASE64_FLAGS));
+    out.write('"');
+  }
+
+  private static void writeString(OutputStream out, String value) throws IOException {
+    out.write('"');
+    for (byte b : value.getBytes(UTF_8)) {
+      int c = b & 0xff;
+      if (c == '"' || c == '\\') {
+        out.write('\\');
+        out.write(c);
+      } else if (c < ' ') {
+        out.write('\\');
+        out.write('u');
+        out.write('0');
+        out.write('0');
+        out.write(HEX[c >> 4]);
+        out.write(HEX[c & 0xf]);
+      } else {
+        out.write(c);
+      }
+    }
+    out.write('"');
+  }
+}
@@ -17,16 +17,27 @@
 package com.google.crypto.tink.aead;
 
 import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.BatchAead;
+import com.google.crypto.tink.BatchResult;
+import com.google.crypto.tink.ByteBufferAead;
 import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeyManager;
 import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.OffsetAead;
 import com.google.crypto.tink.PrimitiveSet;
+import com.google.crypto.tink.PrimitiveWrapper;
 import com.google.crypto.tink.Registry;
-import com.google.crypto.tink.subtle.Bytes;
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.monitoring.KeyUsageReport;
+import com.google.crypto.tink.monitoring.KeyUsageSource;
+import com.google.crypto.tink.monitoring.Monitoring;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor;
+import com.google.crypto.tink.subtle.Parallel;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.concurrent.Executor;
 
 /**
  * Static methods for obtaining {@link Aead} instances.
@@ -46,9 +57,16 @@ import java.util.logging.Logger;
  * with the primary key. To decrypt, the primitive uses the prefix of the ciphertext to efficiently
  * select the right key in the set. If the keys associated with the prefix do not work, the
  * primitive tries all keys with {@link com.google.crypto.tink.proto.OutputPrefixType#RAW}.
+ *
+ * <p>The returned primitive is also a {@link BatchAead}, which encrypts or decrypts many messages
+ * in parallel. All operations are reported to the {@link
+ * com.google.crypto.tink.monitoring.PrimitiveMonitor} set with {@link Monitoring#setMonitor}, and
+ * the successful ones are counted per key, see {@link KeyUsageSource}.
  */
 public final class AeadFactory {
-  private static final Logger logger = Logger.getLogger(AeadFactory.class.getName());
+  private static final PrimitiveMonitor.Primitive AEAD = PrimitiveMonitor.Primitive.AEAD;
+  private static final PrimitiveMonitor.Operation ENCRYPT = PrimitiveMonitor.Operation.ENCRYPT;
+  private static final PrimitiveMonitor.Operation DECRYPT = PrimitiveMonitor.Operation.DECRYPT;
 
   /**
    * @return a Aead primitive from a {@code keysetHandle}.
@@ -59,51 +77,576 @@ public final class AeadFactory {
   }
 
   /**
-   * @return a Aead primitive from a {@code keysetHandle} and a custom {@code keyManager}.
+   * @return a Aead primitive from a {@code keysetHandle} and a custom {@code keyManager}. If the
+   *     primitive of the primary key is a {@link ByteBufferAead}, so is the returned primitive.
    * @throws GeneralSecurityException
    */
   public static Aead getPrimitive(KeysetHandle keysetHandle, final KeyManager<Aead> keyManager)
       throws GeneralSecurityException {
-    final PrimitiveSet<Aead> primitives = Registry.getPrimitives(keysetHandle, keyManager);
-    return new Aead() {
-      @Override
-      public byte[] encrypt(final byte[] plaintext, final byte[] associatedData)
-          throws GeneralSecurityException {
-        return Bytes.concat(
-            primitives.getPrimary().getIdentifier(),
-            primitives.getPrimary().getPrimitive().encrypt(plaintext, associatedData));
-      }
-
-      @Override
-      public byte[] decrypt(final byte[] ciphertext, final byte[] associatedData)
-          throws GeneralSecurityException {
-        if (ciphertext.length > CryptoFormat.NON_RAW_PREFIX_SIZE) {
-          byte[] prefix = Arrays.copyOfRange(ciphertext, 0, CryptoFormat.NON_RAW_PREFIX_SIZE);
-          byte[] ciphertextNoPrefix =
-              Arrays.copyOfRange(ciphertext, CryptoFormat.NON_RAW_PREFIX_SIZE, ciphertext.length);
-          List<PrimitiveSet.Entry<Aead>> entries = primitives.getPrimitive(prefix);
-          for (PrimitiveSet.Entry<Aead> entry : entries) {
-            try {
-              return entry.getPrimitive().decrypt(ciphertextNoPrefix, associatedData);
-            } catch (GeneralSecurityException e) {
-              logger.info("ciphertext prefix matches a key, but cannot decrypt: " + e.toString());
-              continue;
+    return new Wrapper().wrap(Registry.getPrimitives(keysetHandle, keyManager, Aead.class));
+  }
+
+  /**
+   * @return the {@link PrimitiveWrapper} that {@link #getPrimitive} uses to combine the primitives
+   *     of a keyset into a single {@link Aead}.
+   */
+  @Alpha
+  public static PrimitiveWrapper<Aead> getWrapper() {
+    return new Wrapper();
+  }
+
+  private static class Wrapper implements PrimitiveWrapper<Aead> {
+    @Override
+    public Aead wrap(PrimitiveSet<Aead> primitives) {
+      if (primitives.getPrimary().getPrimitive() instanceof ByteBufferAead) {
+        return new WrappedByteBufferAead(primitives);
+      }
+      return new WrappedAead(primitives);
+    }
+  }
+
+  private static class WrappedAead implements BatchAead, KeyUsageSource {
+    final PrimitiveSet<Aead> primitives;
+
+    WrappedAead(PrimitiveSet<Aead> primitives) {
+      this.primitives = primitives;
+    }
+
+    @Override
+    public KeyUsageReport getKeyUsageReport() {
+      return primitives.getKeyUsageReport();
+    }
+
+    @Override
+    public byte[] encrypt(final byte[] plaintext, final byte[] associatedData)
+        throws GeneralSecurityException {
+      PrimitiveSet.Entry<Aead> primary = primitives.getPrimary();
+      Aead aead = primary.getPrimitive();
+      long start = Monitoring.start();
+      byte[] ciphertext;
+      try {
+        if (aead instanceof OffsetAead) {
+          // The primitive leaves room for the prefix, so the ciphertext is not copied.
+          ciphertext =
+              ((OffsetAead) aead)
+                  .encrypt(plaintext, associatedData, primary.getIdentifierLength());
+          primary.copyIdentifierTo(ciphertext, 0);
+        } else {
+          byte[] rawCiphertext = aead.encrypt(plaintext, associatedData);
+          int prefixLength = primary.getIdentifierLength();
+          if (prefixLength == 0) {
+            ciphertext = rawCiphertext;
+          } else {
+            ciphertext = new byte[prefixLength + rawCiphertext.length];
+            primary.copyIdentifierTo(ciphertext, 0);
+            System.arraycopy(rawCiphertext, 0, ciphertext, prefixLength, rawCiphertext.length);
+          }
+        }
+      } catch (GeneralSecurityException e) {
+        Monitoring.record(AEAD, ENCRYPT, primary.getUsage(), plaintext.length, false, start);
+        throw e;
+      }
+      Monitoring.record(AEAD, ENCRYPT, primary.getUsage(), plaintext.length, true, start);
+      return ciphertext;
+    }
+
+    @Override
+    public byte[] decrypt(final byte[] ciphertext, final byte[] associatedData)
+        throws GeneralSecurityException {
+      if (ciphertext.length > CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        List<PrimitiveSet.Entry<Aead>> entries =
+            primitives.getPrimitiveWithOutputPrefix(ciphertext);
+        // Only primitives that cannot decrypt at an offset need a copy without the prefix, which
+        // is shared by all of them.
+        byte[] ciphertextNoPrefix = null;
+        for (PrimitiveSet.Entry<Aead> entry : entries) {
+          long start = Monitoring.start();
+          try {
+            Aead aead = entry.getPrimitiveOrThrow();
+            byte[] plaintext;
+            if (aead instanceof OffsetAead) {
+              plaintext =
+                  decryptAt(
+                      (OffsetAead) aead,
+                      ciphertext,
+                      CryptoFormat.NON_RAW_PREFIX_SIZE,
+                      associatedData);
+            } else {
+              if (ciphertextNoPrefix == null) {
+                ciphertextNoPrefix =
+                    Arrays.copyOfRange(
+                        ciphertext, CryptoFormat.NON_RAW_PREFIX_SIZE, ciphertext.length);
+              }
+              plaintext = aead.decrypt(ciphertextNoPrefix, associatedData);
             }
+            Monitoring.record(AEAD, DECRYPT, entry.getUsage(), ciphertext.length, true, start);
+            return plaintext;
+          } catch (GeneralSecurityException e) {
+            Monitoring.record(AEAD, DECRYPT, entry.getUsage(), ciphertext.length, false, start);
+            continue;
           }
         }
+      }
+
+      // Let's try all RAW keys.
+      List<PrimitiveSet.Entry<Aead>> entries = primitives.getRawPrimitives();
+      for (PrimitiveSet.Entry<Aead> entry : entries) {
+        long start = Monitoring.start();
+        try {
+          byte[] plaintext = entry.getPrimitiveOrThrow().decrypt(ciphertext, associatedData);
+          Monitoring.record(AEAD, DECRYPT, entry.getUsage(), ciphertext.length, true, start);
+          return plaintext;
+        } catch (GeneralSecurityException e) {
+          Monitoring.record(AEAD, DECRYPT, entry.getUsage(), ciphertext.length, false, start);
+          continue;
+        }
+      }
+      // nothing works.
+      recordNoKeyWorked(ciphertext.length);
+      throw new GeneralSecurityException("decryption failed");
+    }
+
+    /**
+     * Decrypts the bytes of {@code ciphertext} after the first {@code prefixSize} with {@code
+     * aead}, without copying them.
+     *
+     * @return the plaintext, in an array of its size.
+     */
+    private static byte[] decryptAt(
+        OffsetAead aead, final byte[] ciphertext, int prefixSize, final byte[] associatedData)
+        throws GeneralSecurityException {
+      int length = ciphertext.length - prefixSize;
+      // Sizes the plaintext from the overhead of the primitive, if that does not depend on the
+      // size of the plaintext, and otherwise from the ciphertext.
+      int overhead = aead.ciphertextSize(0);
+      int plaintextLength = length;
+      if (overhead >= 0 && overhead <= length && aead.ciphertextSize(length - overhead) == length) {
+        plaintextLength = length - overhead;
+      }
+      byte[] plaintext = new byte[plaintextLength];
+      int written =
+          aead.decrypt(
+              ciphertext, prefixSize, length, associatedData, plaintext, /* outputOffset= */ 0);
+      return written == plaintext.length ? plaintext : Arrays.copyOf(plaintext, written);
+    }
 
-        // Let's try all RAW keys.
-        List<PrimitiveSet.Entry<Aead>> entries = primitives.getRawPrimitives();
+    /**
+     * Decrypts like {@link #decrypt(byte[], byte[])}, but writes the plaintext to {@code output},
+     * starting at {@code outputOffset}, which must have room for at least {@code
+     * ciphertext.length} bytes.
+     *
+     * @return the size of the plaintext.
+     */
+    private int decrypt(
+        final byte[] ciphertext, final byte[] associatedData, byte[] output, int outputOffset)
+        throws GeneralSecurityException {
+      if (ciphertext.length > CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        List<PrimitiveSet.Entry<Aead>> entries =
+            primitives.getPrimitiveWithOutputPrefix(ciphertext);
         for (PrimitiveSet.Entry<Aead> entry : entries) {
+          long start = Monitoring.start();
           try {
-            return entry.getPrimitive().decrypt(ciphertext, associatedData);
+            int length =
+                decryptWith(
+                    entry.getPrimitiveOrThrow(),
+                    ciphertext,
+                    CryptoFormat.NON_RAW_PREFIX_SIZE,
+                    associatedData,
+                    output,
+                    outputOffset);
+            Monitoring.record(AEAD, DECRYPT, entry.getUsage(), ciphertext.length, true, start);
+            return length;
           } catch (GeneralSecurityException e) {
+            Monitoring.record(AEAD, DECRYPT, entry.getUsage(), ciphertext.length, false, start);
             continue;
           }
         }
-        // nothing works.
-        throw new GeneralSecurityException("decryption failed");
       }
-    };
+
+      // Let's try all RAW keys.
+      List<PrimitiveSet.Entry<Aead>> entries = primitives.getRawPrimitives();
+      for (PrimitiveSet.Entry<Aead> entry : entries) {
+        long start = Monitoring.start();
+        try {
+          int length =
+              decryptWith(
+                  entry.getPrimitiveOrThrow(), ciphertext, 0, associatedData, output, outputOffset);
+          Monitoring.record(AEAD, DECRYPT, entry.getUsage(), ciphertext.length, true, start);
+          return length;
+        } catch (GeneralSecurityException e) {
+          Monitoring.record(AEAD, DECRYPT, entry.getUsage(), ciphertext.length, false, start);
+          continue;
+        }
+      }
+      // nothing works.
+      recordNoKeyWorked(ciphertext.length);
+      throw new GeneralSecurityException("decryption failed");
+    }
+
+    /**
+     * Decrypts the bytes of {@code ciphertext} after the first {@code prefixSize} with {@code
+     * aead}, and writes the plaintext to {@code output}, starting at {@code outputOffset}.
+     */
+    private static int decryptWith(
+        Aead aead,
+        final byte[] ciphertext,
+        int prefixSize,
+        final byte[] associatedData,
+        byte[] output,
+        int outputOffset)
+        throws GeneralSecurityException {
+      int length = ciphertext.length - prefixSize;
+      if (aead instanceof OffsetAead) {
+        return ((OffsetAead) aead)
+            .decrypt(ciphertext, prefixSize, length, associatedData, output, outputOffset);
+      }
+      byte[] plaintext =
+          aead.decrypt(
+              prefixSize == 0
+                  ? ciphertext
+                  : Arrays.copyOfRange(ciphertext, prefixSize, ciphertext.length),
+              associatedData);
+      if (outputOffset + plaintext.length > output.length) {
+        throw new GeneralSecurityException("output array too small");
+      }
+      System.arraycopy(plaintext, 0, output, outputOffset, plaintext.length);
+      return plaintext.length;
+    }
+
+    @Override
+    public BatchResult encryptBatch(byte[][] plaintexts, byte[][] associatedData)
+        throws GeneralSecurityException {
+      return encryptBatch(plaintexts, associatedData, /* executor= */ null);
+    }
+
+    /**
+     * If the primary primitive is an {@link OffsetAead} that knows its ciphertext sizes up front,
+     * encrypts directly into one array, sized with {@link OffsetAead#ciphertextSize}, without
+     * allocating per-message ciphertexts.
+     */
+    @Override
+    public BatchResult encryptBatch(
+        final byte[][] plaintexts, final byte[][] associatedData, Executor executor)
+        throws GeneralSecurityException {
+      checkBatchSize(plaintexts, associatedData);
+      final PrimitiveSet.Entry<Aead> primary = primitives.getPrimary();
+      if (!(primary.getPrimitive() instanceof OffsetAead)
+          || ((OffsetAead) primary.getPrimitive()).ciphertextSize(0) < 0) {
+        final byte[][] ciphertexts = new byte[plaintexts.length][];
+        Parallel.forRange(
+            plaintexts.length,
+            Parallel.MIN_BATCH_CHUNK_SIZE,
+            executor,
+            new Parallel.RangeTask() {
+              @Override
+              public void run(int from, int to) throws GeneralSecurityException {
+                for (int i = from; i < to; i++) {
+                  ciphertexts[i] = encrypt(plaintexts[i], associatedData[i]);
+                }
+              }
+            });
+        return BatchResult.concat(ciphertexts);
+      }
+      final OffsetAead aead = (OffsetAead) primary.getPrimitive();
+      final int prefixLength = primary.getIdentifierLength();
+      final int[] offsets = new int[plaintexts.length];
+      final int[] lengths = new int[plaintexts.length];
+      long total = 0;
+      for (int i = 0; i < plaintexts.length; i++) {
+        if (plaintexts[i].length > Integer.MAX_VALUE - prefixLength - aead.ciphertextSize(0)) {
+          throw new GeneralSecurityException("plaintext too long");
+        }
+        offsets[i] = (int) total;
+        lengths[i] = prefixLength + aead.ciphertextSize(plaintexts[i].length);
+        total += lengths[i];
+        if (total > Integer.MAX_VALUE) {
+          throw new GeneralSecurityException("batch output too large");
+        }
+      }
+      final byte[] buffer = new byte[(int) total];
+      Parallel.forRange(
+          plaintexts.length,
+          Parallel.MIN_BATCH_CHUNK_SIZE,
+          executor,
+          new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) throws GeneralSecurityException {
+              for (int i = from; i < to; i++) {
+                long start = Monitoring.start();
+                try {
+                  primary.copyIdentifierTo(buffer, offsets[i]);
+                  int unusedWritten =
+                      aead.encrypt(
+                          plaintexts[i], associatedData[i], buffer, offsets[i] + prefixLength);
+                } catch (GeneralSecurityException e) {
+                  Monitoring.record(
+                      AEAD, ENCRYPT, primary.getUsage(), plaintexts[i].length, false, start);
+                  throw e;
+                }
+                Monitoring.record(
+                    AEAD, ENCRYPT, primary.getUsage(), plaintexts[i].length, true, start);
+              }
+            }
+          });
+      return new BatchResult(buffer, offsets, lengths);
+    }
+
+    @Override
+    public BatchResult decryptBatch(byte[][] ciphertexts, byte[][] associatedData)
+        throws GeneralSecurityException {
+      return decryptBatch(ciphertexts, associatedData, /* executor= */ null);
+    }
+
+    /**
+     * Decrypts directly into one array, in which each plaintext gets a slot as large as its
+     * ciphertext.
+     */
+    @Override
+    public BatchResult decryptBatch(
+        final byte[][] ciphertexts, final byte[][] associatedData, Executor executor)
+        throws GeneralSecurityException {
+      checkBatchSize(ciphertexts, associatedData);
+      final int[] offsets = new int[ciphertexts.length];
+      final int[] lengths = new int[ciphertexts.length];
+      long total = 0;
+      for (int i = 0; i < ciphertexts.length; i++) {
+        offsets[i] = (int) total;
+        total += ciphertexts[i].length;
+        if (total > Integer.MAX_VALUE) {
+          throw new GeneralSecurityException("batch output too large");
+        }
+      }
+      final byte[] buffer = new byte[(int) total];
+      Parallel.forRange(
+          ciphertexts.length,
+          Parallel.MIN_BATCH_CHUNK_SIZE,
+          executor,
+          new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) throws GeneralSecurityException {
+              for (int i = from; i < to; i++) {
+                lengths[i] = decrypt(ciphertexts[i], associatedData[i], buffer, offsets[i]);
+              }
+            }
+          });
+      return new BatchResult(buffer, offsets, lengths);
+    }
+  }
+
+  private static void recordNoKeyWorked(long ciphertextSize) {
+    Monitoring.record(AEAD, DECRYPT, /* usage= */ null, ciphertextSize, false, Monitoring.start());
+  }
+
+  private static void checkBatchSize(byte[][] inputs, byte[][] associatedData)
+      throws GeneralSecurityException {
+    if (inputs.length != associatedData.length) {
+      throw new GeneralSecurityException(
+          "batch has " + inputs.length + " inputs but " + associatedData.length
+              + " associated data");
+    }
+  }
+
+  /**
+   * A {@link ByteBufferAead} for keysets whose primary primitive is a {@link ByteBufferAead}. The
+   * ciphertext prefix is written to and read from the buffers directly. Non-primary keys whose
+   * primitive only implements {@link Aead} can still decrypt, at the cost of copying through
+   * arrays.
+   */
+  private static final class WrappedByteBufferAead extends WrappedAead implements ByteBufferAead {
+    WrappedByteBufferAead(PrimitiveSet<Aead> primitives) {
+      super(primitives);
+    }
+
+    @Override
+    public int ciphertextSize(int plaintextSize) {
+      PrimitiveSet.Entry<Aead> primary = primitives.getPrimary();
+      return primary.getIdentifierLength()
+          + ((ByteBufferAead) primary.getPrimitive()).ciphertextSize(plaintextSize);
+    }
+
+    @Override
+    public void encrypt(ByteBuffer plaintext, ByteBuffer associatedData, ByteBuffer ciphertext)
+        throws GeneralSecurityException {
+      encrypt(new ByteBuffer[] {plaintext}, associatedData, ciphertext);
+    }
+
+    @Override
+    public void encrypt(ByteBuffer[] plaintext, ByteBuffer associatedData, ByteBuffer ciphertext)
+        throws GeneralSecurityException {
+      PrimitiveSet.Entry<Aead> primary = primitives.getPrimary();
+      if (ciphertext.remaining() < primary.getIdentifierLength()) {
+        throw new GeneralSecurityException("output buffer too small");
+      }
+      ByteBuffer out = ciphertext.duplicate();
+      primary.copyIdentifierTo(out);
+      long size = 0;
+      for (ByteBuffer part : plaintext) {
+        size += part.remaining();
+      }
+      long start = Monitoring.start();
+      try {
+        ((ByteBufferAead) primary.getPrimitive()).encrypt(plaintext, associatedData, out);
+      } catch (GeneralSecurityException e) {
+        Monitoring.record(AEAD, ENCRYPT, primary.getUsage(), size, false, start);
+        throw e;
+      }
+      Monitoring.record(AEAD, ENCRYPT, primary.getUsage(), size, true, start);
+      ciphertext.position(out.position());
+    }
+
+    @Override
+    public void decrypt(ByteBuffer ciphertext, ByteBuffer associatedData, ByteBuffer plaintext)
+        throws GeneralSecurityException {
+      int position = ciphertext.position();
+      int size = ciphertext.remaining();
+      if (size > CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        List<PrimitiveSet.Entry<Aead>> entries =
+            primitives.getPrimitiveWithOutputPrefix(ciphertext);
+        for (PrimitiveSet.Entry<Aead> entry : entries) {
+          ByteBuffer ciphertextNoPrefix = ciphertext.duplicate();
+          ciphertextNoPrefix.position(position + CryptoFormat.NON_RAW_PREFIX_SIZE);
+          long start = Monitoring.start();
+          try {
+            decryptWith(
+                entry.getPrimitiveOrThrow(),
+                ciphertextNoPrefix,
+                associatedData.duplicate(),
+                plaintext);
+          } catch (GeneralSecurityException e) {
+            Monitoring.record(AEAD, DECRYPT, entry.getUsage(), size, false, start);
+            continue;
+          }
+          Monitoring.record(AEAD, DECRYPT, entry.getUsage(), size, true, start);
+          ciphertext.position(ciphertext.limit());
+          associatedData.position(associatedData.limit());
+          return;
+        }
+      }
+
+      // Let's try all RAW keys.
+      List<PrimitiveSet.Entry<Aead>> entries = primitives.getRawPrimitives();
+      for (PrimitiveSet.Entry<Aead> entry : entries) {
+        long start = Monitoring.start();
+        try {
+          decryptWith(
+              entry.getPrimitiveOrThrow(),
+              ciphertext.duplicate(),
+              associatedData.duplicate(),
+              plaintext);
+        } catch (GeneralSecurityException e) {
+          Monitoring.record(AEAD, DECRYPT, entry.getUsage(), size, false, start);
+          continue;
+        }
+        Monitoring.record(AEAD, DECRYPT, entry.getUsage(), size, true, start);
+        ciphertext.position(ciphertext.limit());
+        associatedData.position(associatedData.limit());
+        return;
+      }
+      // nothing works.
+      recordNoKeyWorked(size);
+      throw new GeneralSecurityException("decryption failed");
+    }
+
+    /**
+     * Encrypts directly into one array, sized up front with {@link #ciphertextSize}, without
+     * allocating per-message ciphertexts.
+     */
+    @Override
+    public BatchResult encryptBatch(
+        final byte[][] plaintexts, final byte[][] associatedData, Executor executor)
+        throws GeneralSecurityException {
+      checkBatchSize(plaintexts, associatedData);
+      final int[] offsets = new int[plaintexts.length];
+      final int[] lengths = new int[plaintexts.length];
+      long total = 0;
+      for (int i = 0; i < plaintexts.length; i++) {
+        offsets[i] = (int) total;
+        lengths[i] = ciphertextSize(plaintexts[i].length);
+        total += lengths[i];
+        if (total > Integer.MAX_VALUE) {
+          throw new GeneralSecurityException("batch output too large");
+        }
+      }
+      final byte[] buffer = new byte[(int) total];
+      Parallel.forRange(
+          plaintexts.length,
+          Parallel.MIN_BATCH_CHUNK_SIZE,
+          executor,
+          new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) throws GeneralSecurityException {
+              for (int i = from; i < to; i++) {
+                encrypt(
+                    ByteBuffer.wrap(plaintexts[i]),
+                    wrapAssociatedData(associatedData[i]),
+                    ByteBuffer.wrap(buffer, offsets[i], lengths[i]));
+              }
+            }
+          });
+      return new BatchResult(buffer, offsets, lengths);
+    }
+
+    /**
+     * Decrypts directly into one array, in which each plaintext gets a slot as large as its
+     * ciphertext.
+     */
+    @Override
+    public BatchResult decryptBatch(
+        final byte[][] ciphertexts, final byte[][] associatedData, Executor executor)
+        throws GeneralSecurityException {
+      checkBatchSize(ciphertexts, associatedData);
+      final int[] offsets = new int[ciphertexts.length];
+      final int[] lengths = new int[ciphertexts.length];
+      long total = 0;
+      for (int i = 0; i < ciphertexts.length; i++) {
+        offsets[i] = (int) total;
+        total += ciphertexts[i].length;
+        if (total > Integer.MAX_VALUE) {
+          throw new GeneralSecurityException("batch output too large");
+        }
+      }
+      final byte[] buffer = new byte[(int) total];
+      Parallel.forRange(
+          ciphertexts.length,
+          Parallel.MIN_BATCH_CHUNK_SIZE,
+          executor,
+          new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) throws GeneralSecurityException {
+              for (int i = from; i < to; i++) {
+                ByteBuffer plaintext =
+                    ByteBuffer.wrap(buffer, offsets[i], ciphertexts[i].length);
+                decrypt(
+                    ByteBuffer.wrap(ciphertexts[i]),
+                    wrapAssociatedData(associatedData[i]),
+                    plaintext);
+                lengths[i] = plaintext.position() - offsets[i];
+              }
+            }
+          });
+      return new BatchResult(buffer, offsets, lengths);
+    }
+
+    private static ByteBuffer wrapAssociatedData(byte[] associatedData) {
+      return associatedData == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(associatedData);
+    }
+
+    private static void decryptWith(
+        Aead aead, ByteBuffer ciphertext, ByteBuffer associatedData, ByteBuffer plaintext)
+        throws GeneralSecurityException {
+      if (aead instanceof ByteBufferAead) {
+        ((ByteBufferAead) aead).decrypt(ciphertext, associatedData, plaintext);
+        return;
+      }
+      byte[] ciphertextBytes = new byte[ciphertext.remaining()];
+      ciphertext.get(ciphertextBytes);
+      byte[] associatedDataBytes = new byte[associatedData.remaining()];
+      associatedData.get(associatedDataBytes);
+      byte[] plaintextBytes = aead.decrypt(ciphertextBytes, associatedDataBytes);
+      if (plaintext.remaining() < plaintextBytes.length) {
+        throw new GeneralSecurityException("output buffer too small");
+      }
+      plaintext.put(plaintextBytes);
+    }
   }
 }
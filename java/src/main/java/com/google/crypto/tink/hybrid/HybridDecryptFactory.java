@@ -20,11 +20,17 @@ import com.google.crypto.tink.HybridDecrypt;
 import com.google.crypto.tink.KeyManager;
 import com.google.crypto.tink.KeysetHandle;
 import com.google.crypto.tink.PrimitiveSet;
+import com.google.crypto.tink.PrimitiveWrapper;
 import com.google.crypto.tink.Registry;
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.monitoring.KeyUsageCounter;
+import com.google.crypto.tink.monitoring.KeyUsageReport;
+import com.google.crypto.tink.monitoring.KeyUsageSource;
+import com.google.crypto.tink.monitoring.Monitoring;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
  * Static methods for obtaining {@link HybridDecrypt} instances.
@@ -42,10 +48,14 @@ import java.util.logging.Logger;
  * <p>The returned primitive works with a keyset (rather than a single key). To decrypt, the
  * primitive uses the prefix of the ciphertext to efficiently select the right key in the set. If
  * the keys associated with the prefix do not work, the primitive tries all keys with {@link
- * com.google.crypto.tink.proto.OutputPrefixType#RAW}.
+ * com.google.crypto.tink.proto.OutputPrefixType#RAW}. All operations are reported to the {@link
+ * PrimitiveMonitor} set with {@link Monitoring#setMonitor}, and the successful ones are counted per
+ * key, see {@link KeyUsageSource}.
  */
 public final class HybridDecryptFactory {
-  private static final Logger logger = Logger.getLogger(HybridDecryptFactory.class.getName());
+  private static final PrimitiveMonitor.Primitive HYBRID_DECRYPT =
+      PrimitiveMonitor.Primitive.HYBRID_DECRYPT;
+  private static final PrimitiveMonitor.Operation DECRYPT = PrimitiveMonitor.Operation.DECRYPT;
 
   /**
    * @return a HybridDecrypt primitive from a {@code keysetHandle}.
@@ -62,37 +72,83 @@ public final class HybridDecryptFactory {
   public static HybridDecrypt getPrimitive(
       KeysetHandle keysetHandle, final KeyManager<HybridDecrypt> keyManager)
       throws GeneralSecurityException {
-    final PrimitiveSet<HybridDecrypt> primitives = Registry.getPrimitives(keysetHandle, keyManager);
-    return new HybridDecrypt() {
-      @Override
-      public byte[] decrypt(final byte[] ciphertext, final byte[] contextInfo)
-          throws GeneralSecurityException {
-        if (ciphertext.length > CryptoFormat.NON_RAW_PREFIX_SIZE) {
-          byte[] prefix = Arrays.copyOfRange(ciphertext, 0, CryptoFormat.NON_RAW_PREFIX_SIZE);
-          byte[] ciphertextNoPrefix =
-              Arrays.copyOfRange(ciphertext, CryptoFormat.NON_RAW_PREFIX_SIZE, ciphertext.length);
-          List<PrimitiveSet.Entry<HybridDecrypt>> entries = primitives.getPrimitive(prefix);
-          for (PrimitiveSet.Entry<HybridDecrypt> entry : entries) {
-            try {
-              return entry.getPrimitive().decrypt(ciphertextNoPrefix, contextInfo);
-            } catch (GeneralSecurityException e) {
-              logger.info("ciphertext prefix matches a key, but cannot decrypt: " + e.toString());
-              continue;
-            }
-          }
-        }
-        // Let's try all RAW keys.
-        List<PrimitiveSet.Entry<HybridDecrypt>> entries = primitives.getRawPrimitives();
+    return new Wrapper()
+        .wrap(Registry.getPrimitives(keysetHandle, keyManager, HybridDecrypt.class));
+  }
+
+  /**
+   * @return the {@link PrimitiveWrapper} that {@link #getPrimitive} uses to combine the primitives
+   *     of a keyset into a single {@link HybridDecrypt}.
+   */
+  @Alpha
+  public static PrimitiveWrapper<HybridDecrypt> getWrapper() {
+    return new Wrapper();
+  }
+
+  private static void record(
+      KeyUsageCounter usage, long ciphertextSize, boolean success, long start) {
+    Monitoring.record(HYBRID_DECRYPT, DECRYPT, usage, ciphertextSize, success, start);
+  }
+
+  private static class Wrapper implements PrimitiveWrapper<HybridDecrypt> {
+    @Override
+    public HybridDecrypt wrap(PrimitiveSet<HybridDecrypt> primitives) {
+      return new WrappedHybridDecrypt(primitives);
+    }
+  }
+
+  private static final class WrappedHybridDecrypt implements HybridDecrypt, KeyUsageSource {
+    private final PrimitiveSet<HybridDecrypt> primitives;
+
+    WrappedHybridDecrypt(PrimitiveSet<HybridDecrypt> primitives) {
+      this.primitives = primitives;
+    }
+
+    @Override
+    public byte[] decrypt(final byte[] ciphertext, final byte[] contextInfo)
+        throws GeneralSecurityException {
+      if (ciphertext.length > CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        List<PrimitiveSet.Entry<HybridDecrypt>> entries =
+            primitives.getPrimitiveWithOutputPrefix(ciphertext);
+        byte[] ciphertextNoPrefix =
+            entries.isEmpty()
+                ? null
+                : Arrays.copyOfRange(
+                    ciphertext, CryptoFormat.NON_RAW_PREFIX_SIZE, ciphertext.length);
         for (PrimitiveSet.Entry<HybridDecrypt> entry : entries) {
+          long start = Monitoring.start();
           try {
-            return entry.getPrimitive().decrypt(ciphertext, contextInfo);
+            byte[] plaintext =
+                entry.getPrimitiveOrThrow().decrypt(ciphertextNoPrefix, contextInfo);
+            record(entry.getUsage(), ciphertext.length, true, start);
+            return plaintext;
           } catch (GeneralSecurityException e) {
+            record(entry.getUsage(), ciphertext.length, false, start);
             continue;
           }
         }
-        // nothing works.
-        throw new GeneralSecurityException("decryption failed");
       }
-    };
+      // Let's try all RAW keys.
+      List<PrimitiveSet.Entry<HybridDecrypt>> entries = primitives.getRawPrimitives();
+      for (PrimitiveSet.Entry<HybridDecrypt> entry : entries) {
+        long start = Monitoring.start();
+        try {
+          byte[] plaintext = entry.getPrimitiveOrThrow().decrypt(ciphertext, contextInfo);
+          record(entry.getUsage(), ciphertext.length, true, start);
+          return plaintext;
+        } catch (GeneralSecurityException e) {
+          record(entry.getUsage(), ciphertext.length, false, start);
+          continue;
+        }
+      }
+      // nothing works.
+      record(/* usage= */ null, ciphertext.length, false, Monitoring.start());
+      throw new GeneralSecurityException("decryption failed");
+    }
+
+    @Override
+    public KeyUsageReport getKeyUsageReport() {
+      return primitives.getKeyUsageReport();
+    }
   }
 }
@@ -19,10 +19,15 @@ import com.google.crypto.tink.HybridEncrypt;
 import com.google.crypto.tink.KeyManager;
 import com.google.crypto.tink.KeysetHandle;
 import com.google.crypto.tink.PrimitiveSet;
+import com.google.crypto.tink.PrimitiveWrapper;
 import com.google.crypto.tink.Registry;
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.monitoring.KeyUsageReport;
+import com.google.crypto.tink.monitoring.KeyUsageSource;
+import com.google.crypto.tink.monitoring.Monitoring;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor;
 import com.google.crypto.tink.subtle.Bytes;
 import java.security.GeneralSecurityException;
-import java.util.logging.Logger;
 
 /**
  * Static methods for obtaining {@link HybridEncrypt} instances.
@@ -39,10 +44,13 @@ import java.util.logging.Logger;
  *
  * <p>The returned primitive works with a keyset (rather than a single key). To encrypt a plaintext,
  * it uses the primary key in the keyset, and prepends to the ciphertext a certain prefix associated
- * with the primary key.
+ * with the primary key. All operations are reported to the {@link PrimitiveMonitor} set with {@link
+ * Monitoring#setMonitor}, and the successful ones are counted per key, see {@link KeyUsageSource}.
  */
 public final class HybridEncryptFactory {
-  private static final Logger logger = Logger.getLogger(HybridEncryptFactory.class.getName());
+  private static final PrimitiveMonitor.Primitive HYBRID_ENCRYPT =
+      PrimitiveMonitor.Primitive.HYBRID_ENCRYPT;
+  private static final PrimitiveMonitor.Operation ENCRYPT = PrimitiveMonitor.Operation.ENCRYPT;
 
   /**
    * @return a HybridEncrypt primitive from a {@code keysetHandle}.
@@ -60,15 +68,54 @@ public final class HybridEncryptFactory {
   public static HybridEncrypt getPrimitive(
       KeysetHandle keysetHandle, final KeyManager<HybridEncrypt> keyManager)
       throws GeneralSecurityException {
-    final PrimitiveSet<HybridEncrypt> primitives = Registry.getPrimitives(keysetHandle, keyManager);
-    return new HybridEncrypt() {
-      @Override
-      public byte[] encrypt(final byte[] plaintext, final byte[] contextInfo)
-          throws GeneralSecurityException {
-        return Bytes.concat(
-            primitives.getPrimary().getIdentifier(),
-            primitives.getPrimary().getPrimitive().encrypt(plaintext, contextInfo));
+    return new Wrapper()
+        .wrap(Registry.getPrimitives(keysetHandle, keyManager, HybridEncrypt.class));
+  }
+
+  /**
+   * @return the {@link PrimitiveWrapper} that {@link #getPrimitive} uses to combine the primitives
+   *     of a keyset into a single {@link HybridEncrypt}.
+   */
+  @Alpha
+  public static PrimitiveWrapper<HybridEncrypt> getWrapper() {
+    return new Wrapper();
+  }
+
+  private static class Wrapper implements PrimitiveWrapper<HybridEncrypt> {
+    @Override
+    public HybridEncrypt wrap(PrimitiveSet<HybridEncrypt> primitives) {
+      return new WrappedHybridEncrypt(primitives);
+    }
+  }
+
+  private static final class WrappedHybridEncrypt implements HybridEncrypt, KeyUsageSource {
+    private final PrimitiveSet<HybridEncrypt> primitives;
+
+    WrappedHybridEncrypt(PrimitiveSet<HybridEncrypt> primitives) {
+      this.primitives = primitives;
+    }
+
+    @Override
+    public byte[] encrypt(final byte[] plaintext, final byte[] contextInfo)
+        throws GeneralSecurityException {
+      PrimitiveSet.Entry<HybridEncrypt> primary = primitives.getPrimary();
+      long start = Monitoring.start();
+      byte[] ciphertext;
+      try {
+        ciphertext = primary.getPrimitive().encrypt(plaintext, contextInfo);
+      } catch (GeneralSecurityException e) {
+        Monitoring.record(
+            HYBRID_ENCRYPT, ENCRYPT, primary.getUsage(), plaintext.length, false, start);
+        throw e;
       }
-    };
+      Monitoring.record(
+          HYBRID_ENCRYPT, ENCRYPT, primary.getUsage(), plaintext.length, true, start);
+      return Bytes.concat(primary.getIdentifier(), ciphertext);
+    }
+
+    @Override
+    public KeyUsageReport getKeyUsageReport() {
+      return primitives.getKeyUsageReport();
+    }
   }
 }
@@ -16,18 +16,28 @@
 
 package com.google.crypto.tink.mac;
 
+import com.google.crypto.tink.BatchMac;
+import com.google.crypto.tink.BatchResult;
 import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeyManager;
 import com.google.crypto.tink.KeysetHandle;
 import com.google.crypto.tink.Mac;
+import com.google.crypto.tink.OffsetMac;
 import com.google.crypto.tink.PrimitiveSet;
+import com.google.crypto.tink.PrimitiveWrapper;
 import com.google.crypto.tink.Registry;
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.monitoring.KeyUsageReport;
+import com.google.crypto.tink.monitoring.KeyUsageSource;
+import com.google.crypto.tink.monitoring.Monitoring;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor;
 import com.google.crypto.tink.proto.OutputPrefixType;
 import com.google.crypto.tink.subtle.Bytes;
+import com.google.crypto.tink.subtle.Parallel;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.concurrent.Executor;
 
 /**
  * Static methods for obtaining {@link Mac} instances.
@@ -47,9 +57,18 @@ import java.util.logging.Logger;
  * the primary key. To verify a tag, the primitive uses the prefix of the tag to efficiently select
  * the right key in the set. If the keys associated with the prefix do not validate the tag, the
  * primitive tries all keys with {@link com.google.crypto.tink.proto.OutputPrefixType#RAW}.
+ *
+ * <p>The returned primitive is also a {@link BatchMac}, which computes or verifies many MACs in
+ * parallel. All operations are reported to the {@link
+ * com.google.crypto.tink.monitoring.PrimitiveMonitor} set with {@link Monitoring#setMonitor}, and
+ * the successful ones are counted per key, see {@link KeyUsageSource}.
  */
 public final class MacFactory {
-  private static final Logger logger = Logger.getLogger(MacFactory.class.getName());
+  private static final PrimitiveMonitor.Primitive MAC = PrimitiveMonitor.Primitive.MAC;
+  private static final PrimitiveMonitor.Operation COMPUTE_MAC =
+      PrimitiveMonitor.Operation.COMPUTE_MAC;
+  private static final PrimitiveMonitor.Operation VERIFY_MAC =
+      PrimitiveMonitor.Operation.VERIFY_MAC;
 
   /**
    * @return a Mac primitive from a {@code keysetHandle}.
@@ -65,60 +84,208 @@ public final class MacFactory {
    */
   public static Mac getPrimitive(KeysetHandle keysetHandle, final KeyManager<Mac> keyManager)
       throws GeneralSecurityException {
-    final PrimitiveSet<Mac> primitives = Registry.getPrimitives(keysetHandle, keyManager);
-    final byte[] formatVersion = new byte[] {CryptoFormat.LEGACY_START_BYTE};
-    return new Mac() {
-      @Override
-      public byte[] computeMac(final byte[] data) throws GeneralSecurityException {
-        if (primitives.getPrimary().getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
-          return Bytes.concat(
-              primitives.getPrimary().getIdentifier(),
-              primitives.getPrimary().getPrimitive().computeMac(Bytes.concat(data, formatVersion)));
+    return new Wrapper().wrap(Registry.getPrimitives(keysetHandle, keyManager, Mac.class));
+  }
+
+  /**
+   * @return the {@link PrimitiveWrapper} that {@link #getPrimitive} uses to combine the primitives
+   *     of a keyset into a single {@link Mac}.
+   */
+  @Alpha
+  public static PrimitiveWrapper<Mac> getWrapper() {
+    return new Wrapper();
+  }
+
+  private static void recordNoKeyWorked(long dataSize) {
+    Monitoring.record(MAC, VERIFY_MAC, /* usage= */ null, dataSize, false, Monitoring.start());
+  }
+
+  private static class Wrapper implements PrimitiveWrapper<Mac> {
+    @Override
+    public Mac wrap(PrimitiveSet<Mac> primitives) {
+      return new WrappedMac(primitives);
+    }
+  }
+
+  private static final class WrappedMac implements BatchMac, KeyUsageSource {
+    private final PrimitiveSet<Mac> primitives;
+    private final byte[] formatVersion = new byte[] {CryptoFormat.LEGACY_START_BYTE};
+
+    WrappedMac(PrimitiveSet<Mac> primitives) {
+      this.primitives = primitives;
+    }
+
+    @Override
+    public byte[] computeMac(final byte[] data) throws GeneralSecurityException {
+      PrimitiveSet.Entry<Mac> primary = primitives.getPrimary();
+      long start = Monitoring.start();
+      byte[] tag;
+      try {
+        if (primary.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
+          tag = primary.getPrimitive().computeMac(Bytes.concat(data, formatVersion));
+        } else {
+          tag = primary.getPrimitive().computeMac(data);
         }
-        return Bytes.concat(
-            primitives.getPrimary().getIdentifier(),
-            primitives.getPrimary().getPrimitive().computeMac(data));
+      } catch (GeneralSecurityException e) {
+        Monitoring.record(MAC, COMPUTE_MAC, primary.getUsage(), data.length, false, start);
+        throw e;
       }
+      Monitoring.record(MAC, COMPUTE_MAC, primary.getUsage(), data.length, true, start);
+      return Bytes.concat(primary.getIdentifier(), tag);
+    }
 
-      @Override
-      public void verifyMac(final byte[] mac, final byte[] data) throws GeneralSecurityException {
-        if (mac.length <= CryptoFormat.NON_RAW_PREFIX_SIZE) {
-          // This also rejects raw MAC with size of 4 bytes or fewer. Those MACs are
-          // clearly insecure, thus should be discouraged.
-          throw new GeneralSecurityException("tag too short");
-        }
-        byte[] prefix = Arrays.copyOfRange(mac, 0, CryptoFormat.NON_RAW_PREFIX_SIZE);
-        byte[] macNoPrefix = Arrays.copyOfRange(mac, CryptoFormat.NON_RAW_PREFIX_SIZE, mac.length);
-        List<PrimitiveSet.Entry<Mac>> entries = primitives.getPrimitive(prefix);
-        for (PrimitiveSet.Entry<Mac> entry : entries) {
-          try {
-            if (entry.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
-              entry.getPrimitive().verifyMac(macNoPrefix, Bytes.concat(data, formatVersion));
-            } else {
-              entry.getPrimitive().verifyMac(macNoPrefix, data);
-            }
-            // If there is no exception, the MAC is valid and we can return.
-            return;
-          } catch (GeneralSecurityException e) {
-            logger.info("tag prefix matches a key, but cannot verify: " + e.toString());
-            // Ignored as we want to continue verification with the remaining keys.
+    @Override
+    public void verifyMac(final byte[] mac, final byte[] data) throws GeneralSecurityException {
+      if (mac.length <= CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        // This also rejects raw MAC with size of 4 bytes or fewer. Those MACs are
+        // clearly insecure, thus should be discouraged.
+        recordNoKeyWorked(data.length);
+        throw new GeneralSecurityException("tag too short");
+      }
+      List<PrimitiveSet.Entry<Mac>> entries = primitives.getPrimitiveWithOutputPrefix(mac);
+      byte[] macNoPrefix =
+          entries.isEmpty()
+              ? null
+              : Arrays.copyOfRange(mac, CryptoFormat.NON_RAW_PREFIX_SIZE, mac.length);
+      for (PrimitiveSet.Entry<Mac> entry : entries) {
+        long start = Monitoring.start();
+        try {
+          if (entry.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
+            entry
+                .getPrimitiveOrThrow()
+                .verifyMac(macNoPrefix, Bytes.concat(data, formatVersion));
+          } else {
+            entry.getPrimitiveOrThrow().verifyMac(macNoPrefix, data);
           }
+          // If there is no exception, the MAC is valid and we can return.
+          Monitoring.record(MAC, VERIFY_MAC, entry.getUsage(), data.length, true, start);
+          return;
+        } catch (GeneralSecurityException e) {
+          Monitoring.record(MAC, VERIFY_MAC, entry.getUsage(), data.length, false, start);
+          // Ignored as we want to continue verification with the remaining keys.
         }
+      }
 
-        // None "non-raw" key matched, so let's try the raw keys (if any exist).
-        entries = primitives.getRawPrimitives();
-        for (PrimitiveSet.Entry<Mac> entry : entries) {
-          try {
-            entry.getPrimitive().verifyMac(mac, data);
-            // If there is no exception, the MAC is valid and we can return.
-            return;
-          } catch (GeneralSecurityException ignored) {
-            // Ignored as we want to continue verification with other raw keys.
-          }
+      // None "non-raw" key matched, so let's try the raw keys (if any exist).
+      entries = primitives.getRawPrimitives();
+      for (PrimitiveSet.Entry<Mac> entry : entries) {
+        long start = Monitoring.start();
+        try {
+          entry.getPrimitiveOrThrow().verifyMac(mac, data);
+          // If there is no exception, the MAC is valid and we can return.
+          Monitoring.record(MAC, VERIFY_MAC, entry.getUsage(), data.length, true, start);
+          return;
+        } catch (GeneralSecurityException ignored) {
+          Monitoring.record(MAC, VERIFY_MAC, entry.getUsage(), data.length, false, start);
+          // Ignored as we want to continue verification with other raw keys.
         }
-        // nothing works.
-        throw new GeneralSecurityException("invalid MAC");
       }
-    };
+      // nothing works.
+      recordNoKeyWorked(data.length);
+      throw new GeneralSecurityException("invalid MAC");
+    }
+
+    @Override
+    public BatchResult computeMacBatch(byte[][] data) throws GeneralSecurityException {
+      return computeMacBatch(data, /* executor= */ null);
+    }
+
+    /**
+     * If the primary primitive is an {@link OffsetMac}, writes the MACs directly into one
+     * array, without allocating per-message MACs.
+     */
+    @Override
+    public BatchResult computeMacBatch(final byte[][] data, Executor executor)
+        throws GeneralSecurityException {
+      final PrimitiveSet.Entry<Mac> primary = primitives.getPrimary();
+      if (!(primary.getPrimitive() instanceof OffsetMac)) {
+        final byte[][] macs = new byte[data.length][];
+        Parallel.forRange(
+            data.length,
+            Parallel.MIN_BATCH_CHUNK_SIZE,
+            executor,
+            new Parallel.RangeTask() {
+              @Override
+              public void run(int from, int to) throws GeneralSecurityException {
+                for (int i = from; i < to; i++) {
+                  macs[i] = computeMac(data[i]);
+                }
+              }
+            });
+        return BatchResult.concat(macs);
+      }
+      final OffsetMac mac = (OffsetMac) primary.getPrimitive();
+      final boolean legacy = primary.getOutputPrefixType().equals(OutputPrefixType.LEGACY);
+      final int prefixLength = primary.getIdentifierLength();
+      final int macLength = prefixLength + mac.macSize();
+      if ((long) macLength * data.length > Integer.MAX_VALUE) {
+        throw new GeneralSecurityException("batch output too large");
+      }
+      final int[] offsets = new int[data.length];
+      final int[] lengths = new int[data.length];
+      for (int i = 0; i < data.length; i++) {
+        offsets[i] = i * macLength;
+        lengths[i] = macLength;
+      }
+      final byte[] buffer = new byte[macLength * data.length];
+      Parallel.forRange(
+          data.length,
+          Parallel.MIN_BATCH_CHUNK_SIZE,
+          executor,
+          new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) throws GeneralSecurityException {
+              for (int i = from; i < to; i++) {
+                long start = Monitoring.start();
+                try {
+                  primary.copyIdentifierTo(buffer, offsets[i]);
+                  int unusedWritten =
+                      mac.computeMac(
+                          legacy ? Bytes.concat(data[i], formatVersion) : data[i],
+                          buffer,
+                          offsets[i] + prefixLength);
+                } catch (GeneralSecurityException e) {
+                  Monitoring.record(
+                      MAC, COMPUTE_MAC, primary.getUsage(), data[i].length, false, start);
+                  throw e;
+                }
+                Monitoring.record(
+                    MAC, COMPUTE_MAC, primary.getUsage(), data[i].length, true, start);
+              }
+            }
+          });
+      return new BatchResult(buffer, offsets, lengths);
+    }
+
+    @Override
+    public void verifyMacBatch(byte[][] macs, byte[][] data) throws GeneralSecurityException {
+      verifyMacBatch(macs, data, /* executor= */ null);
+    }
+
+    @Override
+    public void verifyMacBatch(final byte[][] macs, final byte[][] data, Executor executor)
+        throws GeneralSecurityException {
+      if (macs.length != data.length) {
+        throw new GeneralSecurityException(
+            "batch has " + macs.length + " MACs but " + data.length + " inputs");
+      }
+      Parallel.forRange(
+          data.length,
+          Parallel.MIN_BATCH_CHUNK_SIZE,
+          executor,
+          new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) throws GeneralSecurityException {
+              for (int i = from; i < to; i++) {
+                verifyMac(macs[i], data[i]);
+              }
+            }
+          });
+    }
+
+    @Override
+    public KeyUsageReport getKeyUsageReport() {
+      return primitives.getKeyUsageReport();
+    }
   }
 }
@@ -0,0 +1,311 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.monitoring;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link PrimitiveMonitor} that keeps counters and latency histograms in memory, per primitive,
+ * operation and key id, e.g., to be exported periodically to a monitoring system.
+ *
+ * <p>Once a (primitive, operation, key id) combination has been seen, recording does not allocate
+ * or lock, except when a stripe is added. The counters are striped: threads update separate cells,
+ * which are only summed up by {@link #getStats}. A combination starts with a single stripe, and
+ * more stripes are only added when concurrent updates of the same stripe are observed.
+ *
+ * <p>Keysets that share a key id are counted together. The usage of the keys of a single keyset is
+ * counted by its primitive instead, see {@link KeyUsageSource}.
+ *
+ * <p>Latencies are counted in buckets of powers of two: bucket 0 counts operations that took 0
+ * nanoseconds, bucket {@code i > 0} those that took at least {@code 2^(i - 1)} and less than {@code
+ * 2^i} nanoseconds, and the last bucket also all longer ones.
+ */
+@Alpha
+public final class InMemoryMonitor implements PrimitiveMonitor {
+  /** The number of latency buckets. */
+  public static final int LATENCY_BUCKETS = 40;
+
+  // The layout of the cells of a stripe.
+  private static final int SUCCESS_COUNT = 0;
+  private static final int FAILURE_COUNT = 1;
+  private static final int BYTES = 2;
+  private static final int TOTAL_NANOS = 3;
+  private static final int LAST_USED_MILLIS = 4;
+  private static final int FIRST_BUCKET = 5;
+
+  /** The counters of one (primitive, operation, key id) combination. */
+  private static final class Counters extends StripedCells {
+    final long key;
+
+    Counters(long key) {
+      super(FIRST_BUCKET + LATENCY_BUCKETS);
+      this.key = key;
+    }
+
+    void record(long bytes, boolean success, long elapsedNanos) {
+      AtomicLongArray cells = increment(success ? SUCCESS_COUNT : FAILURE_COUNT);
+      cells.addAndGet(BYTES, bytes);
+      cells.addAndGet(TOTAL_NANOS, elapsedNanos);
+      cells.incrementAndGet(FIRST_BUCKET + bucket(elapsedNanos));
+      if (success) {
+        cells.lazySet(LAST_USED_MILLIS, System.currentTimeMillis());
+      }
+    }
+  }
+
+  /**
+   * An open addressing hash table of the counters. Counters are added without copying the table,
+   * which is only replaced by one of twice the capacity when it is half full.
+   */
+  private static final class Table {
+    final AtomicReferenceArray<Counters> slots;
+    // The number of counters in the table, guarded by the InMemoryMonitor.
+    int size;
+
+    Table(int capacity) {
+      this.slots = new AtomicReferenceArray<Counters>(capacity);
+    }
+
+    /** @return the counters of {@code key}, or null if there are none. */
+    Counters get(long key) {
+      int mask = slots.length() - 1;
+      for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+        Counters counters = slots.get(i);
+        if (counters == null || counters.key == key) {
+          return counters;
+        }
+      }
+    }
+
+    /** Adds {@code counters}, whose key must not be in the table yet. */
+    void put(Counters counters) {
+      int mask = slots.length() - 1;
+      int i = hash(counters.key) & mask;
+      while (slots.get(i) != null) {
+        i = (i + 1) & mask;
+      }
+      slots.set(i, counters);
+      size++;
+    }
+
+    private static int hash(long key) {
+      long h = key * 0x9e3779b97f4a7c15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private volatile Table table = new Table(INITIAL_CAPACITY);
+
+  private static long key(Primitive primitive, Operation operation, int keyId) {
+    return ((long) primitive.ordinal() << 40)
+        | ((long) operation.ordinal() << 32)
+        | (keyId & 0xffffffffL);
+  }
+
+  static int bucket(long elapsedNanos) {
+    if (elapsedNanos <= 0) {
+      return 0;
+    }
+    return Math.min(64 - Long.numberOfLeadingZeros(elapsedNanos), LATENCY_BUCKETS - 1);
+  }
+
+  @Override
+  public void record(
+      Primitive primitive,
+      Operation operation,
+      int keyId,
+      long bytes,
+      boolean success,
+      long elapsedNanos) {
+    long key = key(primitive, operation, keyId);
+    Counters counters = table.get(key);
+    if (counters == null) {
+      counters = add(key);
+    }
+    counters.record(bytes, success, elapsedNanos);
+  }
+
+  private synchronized Counters add(long key) {
+    Table current = table;
+    Counters counters = current.get(key);
+    if (counters != null) {
+      return counters;
+    }
+    if ((current.size + 1) * 2 > current.slots.length()) {
+      Table grown = new Table(current.slots.length() * 2);
+      for (int i = 0; i < current.slots.length(); i++) {
+        Counters existing = current.slots.get(i);
+        if (existing != null) {
+          grown.put(existing);
+        }
+      }
+      table = current = grown;
+    }
+    counters = new Counters(key);
+    current.put(counters);
+    return counters;
+  }
+
+  /**
+   * @return the current values of the counters of {@code primitive}, {@code operation} and {@code
+   *     keyId}, or null if no such operation has been recorded.
+   */
+  public Stats getStats(Primitive primitive, Operation operation, int keyId) {
+    Counters counters = table.get(key(primitive, operation, keyId));
+    return counters != null ? new Stats(counters) : null;
+  }
+
+  /** @return the current values of all counters, ordered by primitive, operation and key id. */
+  public List<Stats> getAllStats() {
+    AtomicReferenceArray<Counters> slots = table.slots;
+    List<Counters> all = new ArrayList<Counters>();
+    for (int i = 0; i < slots.length(); i++) {
+      Counters counters = slots.get(i);
+      if (counters != null) {
+        all.add(counters);
+      }
+    }
+    Collections.sort(
+        all,
+        new Comparator<Counters>() {
+          @Override
+          public int compare(Counters a, Counters b) {
+            return a.key < b.key ? -1 : (a.key == b.key ? 0 : 1);
+          }
+        });
+    List<Stats> result = new ArrayList<Stats>(all.size());
+    for (Counters counters : all) {
+      result.add(new Stats(counters));
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /** Discards all counters. Operations that are recorded concurrently may be lost. */
+  public synchronized void reset() {
+    table = new Table(INITIAL_CAPACITY);
+  }
+
+  /**
+   * A snapshot of the counters of one (primitive, operation, key id) combination. As the counters
+   * are read one at a time, the values of a snapshot taken during concurrent updates may be
+   * slightly inconsistent with each other.
+   */
+  public static final class Stats {
+    private final Primitive primitive;
+    private final Operation operation;
+    private final int keyId;
+    private final long successCount;
+    private final long failureCount;
+    private final long bytes;
+    private final long totalNanos;
+    private final long lastUsedMillis;
+    private final long[] latencyHistogram;
+
+    private Stats(Counters counters) {
+      this.primitive = Primitive.values()[(int) (counters.key >>> 40)];
+      this.operation = Operation.values()[(int) (counters.key >>> 32) & 0xff];
+      this.keyId = (int) counters.key;
+      this.successCount = counters.sum(SUCCESS_COUNT);
+      this.failureCount = counters.sum(FAILURE_COUNT);
+      this.bytes = counters.sum(BYTES);
+      this.totalNanos = counters.sum(TOTAL_NANOS);
+      this.lastUsedMillis = counters.max(LAST_USED_MILLIS);
+      this.latencyHistogram = new long[LATENCY_BUCKETS];
+      for (int i = 0; i < LATENCY_BUCKETS; i++) {
+        latencyHistogram[i] = counters.sum(FIRST_BUCKET + i);
+      }
+    }
+
+    public Primitive getPrimitive() {
+      return primitive;
+    }
+
+    public Operation getOperation() {
+      return operation;
+    }
+
+    public int getKeyId() {
+      return keyId;
+    }
+
+    public long getSuccessCount() {
+      return successCount;
+    }
+
+    public long getFailureCount() {
+      return failureCount;
+    }
+
+    /** @return the total size of the inputs of all operations. */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /** @return the total duration of all operations, in nanoseconds. */
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    /**
+     * @return the time of the last successful operation, in milliseconds since the epoch, or 0 if
+     *     there has been none.
+     */
+    public long getLastUsedMillis() {
+      return lastUsedMillis;
+    }
+
+    /** @return the number of operations per latency bucket, see {@link InMemoryMonitor}. */
+    public long[] getLatencyHistogram() {
+      return Arrays.copyOf(latencyHistogram, latencyHistogram.length);
+    }
+
+    /**
+     * @return an upper bound of the given percentile of the latencies in nanoseconds, i.e., the end
+     *     of the bucket that contains it, or 0 if there are no operations.
+     */
+    public long getLatencyPercentileNanos(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("percentile must be between 0 and 100");
+      }
+      long count = 0;
+      for (long bucketCount : latencyHistogram) {
+        count += bucketCount;
+      }
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < LATENCY_BUCKETS - 1; i++) {
+        seen += latencyHistogram[i];
+        if (seen >= rank) {
+          return 1L << i;
+        }
+      }
+      return Long.MAX_VALUE;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.monitoring;
+
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor.Operation;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the successful operations with one key of a keyset, and keeps the time of the last one
+ * to within a second. Every entry of a {@link com.google.crypto.tink.PrimitiveSet} has one, which
+ * the primitive factories update whether or not a {@link PrimitiveMonitor} is installed.
+ *
+ * <p>Counting does not allocate or lock, except when a stripe is added, see {@link
+ * InMemoryMonitor}. The time is only written when it has moved on by a second, so that most
+ * operations only read it.
+ */
+@Alpha
+public final class KeyUsageCounter {
+  private static final int LAST_USED_MILLIS = Operation.values().length;
+  private static final long LAST_USED_RESOLUTION_MILLIS = 1000;
+
+  private final int keyId;
+  private final StripedCells cells = new StripedCells(LAST_USED_MILLIS + 1);
+
+  public KeyUsageCounter(int keyId) {
+    this.keyId = keyId;
+  }
+
+  public int getKeyId() {
+    return keyId;
+  }
+
+  /** Counts a successful {@code operation}. */
+  public void recordSuccess(Operation operation) {
+    AtomicLongArray stripe = cells.increment(operation.ordinal());
+    long now = System.currentTimeMillis();
+    if (now - stripe.get(LAST_USED_MILLIS) >= LAST_USED_RESOLUTION_MILLIS) {
+      stripe.lazySet(LAST_USED_MILLIS, now);
+    }
+  }
+
+  /** @return the number of successful {@code operation}s. */
+  public long getCount(Operation operation) {
+    return cells.sum(operation.ordinal());
+  }
+
+  /**
+   * @return the time of the last successful operation, in milliseconds since the epoch and up to a
+   *     second early, or 0 if there has been none.
+   */
+  public long getLastUsedMillis() {
+    return cells.max(LAST_USED_MILLIS);
+  }
+}
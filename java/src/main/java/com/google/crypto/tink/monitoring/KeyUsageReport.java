@@ -0,0 +1,226 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.monitoring;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor.Operation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * An immutable report of how often each key has been used successfully, and when it was last used,
+ * e.g., to check that no traffic uses a key any more before it is disabled or destroyed.
+ *
+ * <p>Reports are created by the primitives of keysets, see {@link KeyUsageSource}, and can be
+ * written to and read from JSON of the form
+ *
+ * <pre>{@code
+ * {
+ *     "keys": [{
+ *         "keyId": 1234567,
+ *         "lastUsedMillis": 1500000000000,
+ *         "operations": {"ENCRYPT": 10, "DECRYPT": 25}
+ *     }]
+ * }
+ * }</pre>
+ *
+ * <p>where key ids are written unsigned, like in the output of Tinkey. Reports of several processes
+ * can be combined with {@link #merge}.
+ */
+@Alpha
+public final class KeyUsageReport {
+  /** The usage of one key. */
+  public static final class KeyUsage {
+    private final int keyId;
+    private final long[] counts;
+    private final long lastUsedMillis;
+
+    private KeyUsage(int keyId, long[] counts, long lastUsedMillis) {
+      this.keyId = keyId;
+      this.counts = counts;
+      this.lastUsedMillis = lastUsedMillis;
+    }
+
+    public int getKeyId() {
+      return keyId;
+    }
+
+    /** @return the number of successful {@code operation}s with this key. */
+    public long getCount(Operation operation) {
+      return counts[operation.ordinal()];
+    }
+
+    /** @return the number of successful operations with this key. */
+    public long getTotalCount() {
+      long total = 0;
+      for (long count : counts) {
+        total += count;
+      }
+      return total;
+    }
+
+    /**
+     * @return the time of the last successful operation with this key, in milliseconds since the
+     *     epoch.
+     */
+    public long getLastUsedMillis() {
+      return lastUsedMillis;
+    }
+  }
+
+  private static final KeyUsageReport EMPTY =
+      new KeyUsageReport(new TreeMap<Integer, KeyUsage>());
+
+  private final Map<Integer, KeyUsage> usages;
+
+  private KeyUsageReport(Map<Integer, KeyUsage> usages) {
+    this.usages = usages;
+  }
+
+  /** @return a report in which no key has been used. */
+  public static KeyUsageReport empty() {
+    return EMPTY;
+  }
+
+  /** @return a report of the keys of {@code counters} that have been used. */
+  public static KeyUsageReport fromCounters(Iterable<KeyUsageCounter> counters) {
+    Map<Integer, KeyUsage> usages = new TreeMap<Integer, KeyUsage>();
+    for (KeyUsageCounter counter : counters) {
+      long[] counts = new long[Operation.values().length];
+      long total = 0;
+      for (Operation operation : Operation.values()) {
+        counts[operation.ordinal()] = counter.getCount(operation);
+        total += counts[operation.ordinal()];
+      }
+      if (total != 0) {
+        add(usages, new KeyUsage(counter.getKeyId(), counts, counter.getLastUsedMillis()));
+      }
+    }
+    return new KeyUsageReport(usages);
+  }
+
+  private static void add(Map<Integer, KeyUsage> usages, KeyUsage usage) {
+    KeyUsage existing = usages.get(usage.keyId);
+    if (existing == null) {
+      usages.put(usage.keyId, usage);
+      return;
+    }
+    long[] counts = new long[existing.counts.length];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = existing.counts[i] + usage.counts[i];
+    }
+    usages.put(
+        usage.keyId,
+        new KeyUsage(
+            usage.keyId, counts, Math.max(existing.lastUsedMillis, usage.lastUsedMillis)));
+  }
+
+  /** @return the usage of all keys that have been used, sorted by key id. */
+  public List<KeyUsage> getKeyUsages() {
+    return Collections.unmodifiableList(new ArrayList<KeyUsage>(usages.values()));
+  }
+
+  /** @return the usage of the key with id {@code keyId}, or null if it has not been used. */
+  public KeyUsage getKeyUsage(int keyId) {
+    return usages.get(keyId);
+  }
+
+  /**
+   * @return a report with the counts of this report and {@code other} added up, and the later of
+   *     their last use times.
+   */
+  public KeyUsageReport merge(KeyUsageReport other) {
+    Map<Integer, KeyUsage> merged = new TreeMap<Integer, KeyUsage>(usages);
+    for (KeyUsage usage : other.usages.values()) {
+      add(merged, usage);
+    }
+    return new KeyUsageReport(merged);
+  }
+
+  /** Writes this report as JSON to {@code outputStream}. */
+  public void writeTo(OutputStream outputStream) throws IOException {
+    try {
+      JSONArray keys = new JSONArray();
+      for (KeyUsage usage : usages.values()) {
+        JSONObject operations = new JSONObject();
+        for (Operation operation : Operation.values()) {
+          if (usage.getCount(operation) != 0) {
+            operations.put(operation.name(), usage.getCount(operation));
+          }
+        }
+        keys.put(
+            new JSONObject()
+                .put("keyId", usage.keyId & 0xffffffffL)
+                .put("lastUsedMillis", usage.lastUsedMillis)
+                .put("operations", operations));
+      }
+      outputStream.write(new JSONObject().put("keys", keys).toString(4).getBytes(UTF_8));
+    } catch (JSONException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Reads a report that has been written with {@link #writeTo}. Operations that are not known to
+   * this version are ignored.
+   *
+   * @throws IOException if the input is not a valid report
+   */
+  public static KeyUsageReport readFrom(InputStream inputStream) throws IOException {
+    try {
+      JSONObject json = new JSONObject(new JSONTokener(new InputStreamReader(inputStream, UTF_8)));
+      JSONArray keys = json.getJSONArray("keys");
+      Map<Integer, KeyUsage> usages = new TreeMap<Integer, KeyUsage>();
+      for (int i = 0; i < keys.length(); i++) {
+        JSONObject key = keys.getJSONObject(i);
+        long keyId = key.getLong("keyId");
+        if (keyId < Integer.MIN_VALUE || keyId > 0xffffffffL) {
+          throw new IOException("invalid key id: " + keyId);
+        }
+        long[] counts = new long[Operation.values().length];
+        JSONObject operations = key.getJSONObject("operations");
+        Iterator<String> names = operations.keys();
+        while (names.hasNext()) {
+          String name = names.next();
+          for (Operation operation : Operation.values()) {
+            if (operation.name().equals(name)) {
+              counts[operation.ordinal()] = operations.getLong(name);
+            }
+          }
+        }
+        add(usages, new KeyUsage((int) keyId, counts, key.getLong("lastUsedMillis")));
+      }
+      return new KeyUsageReport(usages);
+    } catch (JSONException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.monitoring;
+
+import com.google.crypto.tink.annotations.Alpha;
+
+/**
+ * Implemented by the primitives that the primitive factories return, e.g., {@link
+ * com.google.crypto.tink.aead.AeadFactory#getPrimitive}, to report how often the keys of their
+ * keyset have been used. Unlike an {@link InMemoryMonitor}, which counts by key id only, this
+ * tells apart keysets that share a key id.
+ *
+ * <pre>{@code
+ * Aead aead = AeadFactory.getPrimitive(keysetHandle);
+ * ...
+ * KeyUsageReport report = ((KeyUsageSource) aead).getKeyUsageReport();
+ * }</pre>
+ */
+@Alpha
+public interface KeyUsageSource {
+  /** @return the usage of the keys of this primitive since it has been created. */
+  KeyUsageReport getKeyUsageReport();
+}
@@ -0,0 +1,87 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.monitoring;
+
+import com.google.crypto.tink.annotations.Alpha;
+
+/**
+ * Holds the {@link PrimitiveMonitor} that the primitive factories report to.
+ *
+ * <p>The factories bracket every operation with {@link #start} and {@link #record}. While the
+ * monitor is the {@link NoOpMonitor}, this costs a volatile read and a comparison per call; in
+ * particular, the clock is not read.
+ */
+@Alpha
+public final class Monitoring {
+  /** The value of {@link #start} while monitoring is disabled. */
+  public static final long NOT_MONITORED = Long.MIN_VALUE;
+
+  private static volatile PrimitiveMonitor monitor = NoOpMonitor.INSTANCE;
+
+  private Monitoring() {}
+
+  /** Sets the monitor for all primitives, including those that have already been created. */
+  public static void setMonitor(PrimitiveMonitor newMonitor) {
+    if (newMonitor == null) {
+      throw new NullPointerException("monitor must not be null, use NoOpMonitor.INSTANCE");
+    }
+    monitor = newMonitor;
+  }
+
+  public static PrimitiveMonitor getMonitor() {
+    return monitor;
+  }
+
+  /**
+   * @return the start time of an operation, to be passed to {@link #record}, or {@link
+   *     #NOT_MONITORED} if monitoring is disabled.
+   */
+  public static long start() {
+    if (monitor == NoOpMonitor.INSTANCE) {
+      return NOT_MONITORED;
+    }
+    long now = System.nanoTime();
+    // A clock reading that equals the sentinel is off by a nanosecond, rather than lost.
+    return now != NOT_MONITORED ? now : now + 1;
+  }
+
+  /**
+   * Counts a successful operation in {@code usage}, and reports an operation that began at {@code
+   * start}, as returned by {@link #start}, to the current monitor. Operations that started while
+   * monitoring was disabled are only counted.
+   *
+   * @param usage the counter of the key that was used, or null for the failure of an operation as
+   *     a whole, which is reported with key id 0
+   */
+  public static void record(
+      PrimitiveMonitor.Primitive primitive,
+      PrimitiveMonitor.Operation operation,
+      KeyUsageCounter usage,
+      long bytes,
+      boolean success,
+      long start) {
+    if (success && usage != null) {
+      usage.recordSuccess(operation);
+    }
+    PrimitiveMonitor current = monitor;
+    if (current == NoOpMonitor.INSTANCE || start == NOT_MONITORED) {
+      return;
+    }
+    int keyId = usage != null ? usage.getKeyId() : 0;
+    current.record(primitive, operation, keyId, bytes, success, System.nanoTime() - start);
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.monitoring;
+
+import com.google.crypto.tink.annotations.Alpha;
+
+/**
+ * Receives an event for every operation of the primitives returned by the primitive factories,
+ * e.g., {@link com.google.crypto.tink.aead.AeadFactory}. Install one with {@link
+ * Monitoring#setMonitor}.
+ *
+ * <p>{@link #record} is called on the thread that performs the operation, right after it
+ * completes, so implementations must be thread-safe and fast. When a decryption or verification
+ * tries several keys, e.g., a keyset with more than one {@code RAW} key, there is one event per key
+ * tried. If none of them succeeds, or no key matches at all, there is an additional failure event
+ * with key id 0 for the operation as a whole.
+ */
+@Alpha
+public interface PrimitiveMonitor {
+  /** The primitive that performed an operation. */
+  enum Primitive {
+    AEAD,
+    MAC,
+    HYBRID_ENCRYPT,
+    HYBRID_DECRYPT,
+    PUBLIC_KEY_SIGN,
+    PUBLIC_KEY_VERIFY,
+  }
+
+  /** The kind of an operation. */
+  enum Operation {
+    ENCRYPT,
+    DECRYPT,
+    COMPUTE_MAC,
+    VERIFY_MAC,
+    SIGN,
+    VERIFY,
+  }
+
+  /**
+   * Records an operation.
+   *
+   * @param keyId the id of the key that was used, or 0 for the failure of an operation as a whole
+   * @param bytes the size of the input, i.e., the plaintext, ciphertext, or data to authenticate,
+   *     sign or verify
+   * @param success whether the operation succeeded with this key
+   * @param elapsedNanos the duration of the operation in nanoseconds
+   */
+  void record(
+      Primitive primitive,
+      Operation operation,
+      int keyId,
+      long bytes,
+      boolean success,
+      long elapsedNanos);
+}
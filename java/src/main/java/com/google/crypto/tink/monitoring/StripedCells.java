@@ -0,0 +1,86 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.monitoring;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters that threads update in separate stripes, which are only summed up when they are read.
+ * Like {@code java.util.concurrent.atomic.LongAdder}, which is not available on Java 7, there is a
+ * single stripe at first, and more stripes are only added when concurrent updates of the same
+ * stripe are observed.
+ */
+class StripedCells {
+  private static final int MAX_STRIPES =
+      Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+  private final int stripeSize;
+  // The number of stripes is a power of two, and is doubled when a stripe is contended.
+  private volatile AtomicLongArray[] stripes;
+
+  StripedCells(int cells) {
+    // Rounded up to a multiple of 8 longs, i.e., of 64 byte cache lines.
+    this.stripeSize = (cells + 7) & ~7;
+    this.stripes = new AtomicLongArray[] {new AtomicLongArray(stripeSize)};
+  }
+
+  /**
+   * Increments {@code cell} in the stripe of the calling thread, and adds stripes if another thread
+   * updates the same stripe concurrently.
+   *
+   * @return the stripe, for further updates by the calling thread
+   */
+  AtomicLongArray increment(int cell) {
+    AtomicLongArray[] current = stripes;
+    AtomicLongArray cells = current[(int) Thread.currentThread().getId() & (current.length - 1)];
+    long value = cells.get(cell);
+    if (!cells.compareAndSet(cell, value, value + 1)) {
+      cells.incrementAndGet(cell);
+      grow(current);
+    }
+    return cells;
+  }
+
+  private synchronized void grow(AtomicLongArray[] contended) {
+    if (stripes != contended || contended.length >= MAX_STRIPES) {
+      return;
+    }
+    // The existing stripes are kept, so that concurrent updates of them are not lost.
+    AtomicLongArray[] grown = Arrays.copyOf(contended, contended.length * 2);
+    for (int i = contended.length; i < grown.length; i++) {
+      grown[i] = new AtomicLongArray(stripeSize);
+    }
+    stripes = grown;
+  }
+
+  long sum(int cell) {
+    long sum = 0;
+    for (AtomicLongArray cells : stripes) {
+      sum += cells.get(cell);
+    }
+    return sum;
+  }
+
+  long max(int cell) {
+    long max = 0;
+    for (AtomicLongArray cells : stripes) {
+      max = Math.max(max, cells.get(cell));
+    }
+    return max;
+  }
+}
@@ -20,8 +20,14 @@ import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeyManager;
 import com.google.crypto.tink.KeysetHandle;
 import com.google.crypto.tink.PrimitiveSet;
+import com.google.crypto.tink.PrimitiveWrapper;
 import com.google.crypto.tink.PublicKeySign;
 import com.google.crypto.tink.Registry;
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.monitoring.KeyUsageReport;
+import com.google.crypto.tink.monitoring.KeyUsageSource;
+import com.google.crypto.tink.monitoring.Monitoring;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor;
 import com.google.crypto.tink.proto.OutputPrefixType;
 import com.google.crypto.tink.subtle.Bytes;
 import java.security.GeneralSecurityException;
@@ -40,9 +46,14 @@ import java.security.GeneralSecurityException;
  *
  * <p>The returned primitive works with a keyset (rather than a single key). To sign a message, it
  * uses the primary key in the keyset, and prepends to the signature a certain prefix associated
- * with the primary key.
+ * with the primary key. All operations are reported to the {@link PrimitiveMonitor} set with {@link
+ * Monitoring#setMonitor}, and the successful ones are counted per key, see {@link KeyUsageSource}.
  */
 public final class PublicKeySignFactory {
+  private static final PrimitiveMonitor.Primitive PUBLIC_KEY_SIGN =
+      PrimitiveMonitor.Primitive.PUBLIC_KEY_SIGN;
+  private static final PrimitiveMonitor.Operation SIGN = PrimitiveMonitor.Operation.SIGN;
+
   /**
    * @return a PublicKeySign primitive from a {@code keysetHandle}.
    * @throws GeneralSecurityException
@@ -59,20 +70,56 @@ public final class PublicKeySignFactory {
   public static PublicKeySign getPrimitive(
       KeysetHandle keysetHandle, final KeyManager<PublicKeySign> keyManager)
       throws GeneralSecurityException {
-    final PrimitiveSet<PublicKeySign> primitives = Registry.getPrimitives(keysetHandle, keyManager);
-    return new PublicKeySign() {
-      @Override
-      public byte[] sign(final byte[] data) throws GeneralSecurityException {
-        if (primitives.getPrimary().getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
+    return new Wrapper()
+        .wrap(Registry.getPrimitives(keysetHandle, keyManager, PublicKeySign.class));
+  }
+
+  /**
+   * @return the {@link PrimitiveWrapper} that {@link #getPrimitive} uses to combine the primitives
+   *     of a keyset into a single {@link PublicKeySign}.
+   */
+  @Alpha
+  public static PrimitiveWrapper<PublicKeySign> getWrapper() {
+    return new Wrapper();
+  }
+
+  private static class Wrapper implements PrimitiveWrapper<PublicKeySign> {
+    @Override
+    public PublicKeySign wrap(PrimitiveSet<PublicKeySign> primitives) {
+      return new WrappedPublicKeySign(primitives);
+    }
+  }
+
+  private static final class WrappedPublicKeySign implements PublicKeySign, KeyUsageSource {
+    private final PrimitiveSet<PublicKeySign> primitives;
+
+    WrappedPublicKeySign(PrimitiveSet<PublicKeySign> primitives) {
+      this.primitives = primitives;
+    }
+
+    @Override
+    public byte[] sign(final byte[] data) throws GeneralSecurityException {
+      PrimitiveSet.Entry<PublicKeySign> primary = primitives.getPrimary();
+      long start = Monitoring.start();
+      byte[] signature;
+      try {
+        if (primary.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
           byte[] formatVersion = new byte[] {CryptoFormat.LEGACY_START_BYTE};
-          return Bytes.concat(
-              primitives.getPrimary().getIdentifier(),
-              primitives.getPrimary().getPrimitive().sign(Bytes.concat(data, formatVersion)));
+          signature = primary.getPrimitive().sign(Bytes.concat(data, formatVersion));
+        } else {
+          signature = primary.getPrimitive().sign(data);
         }
-        return Bytes.concat(
-            primitives.getPrimary().getIdentifier(),
-            primitives.getPrimary().getPrimitive().sign(data));
+      } catch (GeneralSecurityException e) {
+        Monitoring.record(PUBLIC_KEY_SIGN, SIGN, primary.getUsage(), data.length, false, start);
+        throw e;
       }
-    };
+      Monitoring.record(PUBLIC_KEY_SIGN, SIGN, primary.getUsage(), data.length, true, start);
+      return Bytes.concat(primary.getIdentifier(), signature);
+    }
+
+    @Override
+    public KeyUsageReport getKeyUsageReport() {
+      return primitives.getKeyUsageReport();
+    }
   }
 }
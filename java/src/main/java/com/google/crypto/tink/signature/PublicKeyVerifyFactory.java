@@ -20,14 +20,20 @@ import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeyManager;
 import com.google.crypto.tink.KeysetHandle;
 import com.google.crypto.tink.PrimitiveSet;
+import com.google.crypto.tink.PrimitiveWrapper;
 import com.google.crypto.tink.PublicKeyVerify;
 import com.google.crypto.tink.Registry;
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.monitoring.KeyUsageCounter;
+import com.google.crypto.tink.monitoring.KeyUsageReport;
+import com.google.crypto.tink.monitoring.KeyUsageSource;
+import com.google.crypto.tink.monitoring.Monitoring;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor;
 import com.google.crypto.tink.proto.OutputPrefixType;
 import com.google.crypto.tink.subtle.Bytes;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
  * Static methods for obtaining {@link PublicKeyVerify} instances.
@@ -43,10 +49,14 @@ import java.util.logging.Logger;
  * <p>The returned primitive works with a keyset (rather than a single key). To verify a signature,
  * the primitive uses the prefix of the signature to efficiently select the right key in the set. If
  * there is no key associated with the prefix or if the keys associated with the prefix do not work,
- * the primitive tries all keys with {@link com.google.crypto.tink.proto.OutputPrefixType#RAW}.
+ * the primitive tries all keys with {@link com.google.crypto.tink.proto.OutputPrefixType#RAW}. All
+ * operations are reported to the {@link PrimitiveMonitor} set with {@link Monitoring#setMonitor},
+ * and the successful ones are counted per key, see {@link KeyUsageSource}.
  */
 public final class PublicKeyVerifyFactory {
-  private static final Logger logger = Logger.getLogger(PublicKeyVerifyFactory.class.getName());
+  private static final PrimitiveMonitor.Primitive PUBLIC_KEY_VERIFY =
+      PrimitiveMonitor.Primitive.PUBLIC_KEY_VERIFY;
+  private static final PrimitiveMonitor.Operation VERIFY = PrimitiveMonitor.Operation.VERIFY;
 
   /**
    * @return a PublicKeyVerify primitive from a {@code keysetHandle}.
@@ -65,52 +75,94 @@ public final class PublicKeyVerifyFactory {
   public static PublicKeyVerify getPrimitive(
       KeysetHandle keysetHandle, final KeyManager<PublicKeyVerify> keyManager)
       throws GeneralSecurityException {
-    final PrimitiveSet<PublicKeyVerify> primitives =
-        Registry.getPrimitives(keysetHandle, keyManager);
-    return new PublicKeyVerify() {
-      @Override
-      public void verify(final byte[] signature, final byte[] data)
-          throws GeneralSecurityException {
-        if (signature.length <= CryptoFormat.NON_RAW_PREFIX_SIZE) {
-          // This also rejects raw signatures with size of 4 bytes or fewer. We're not aware of any
-          // schemes that output signatures that small.
-          throw new GeneralSecurityException("signature too short");
-        }
-        byte[] prefix = Arrays.copyOfRange(signature, 0, CryptoFormat.NON_RAW_PREFIX_SIZE);
-        byte[] sigNoPrefix =
-            Arrays.copyOfRange(signature, CryptoFormat.NON_RAW_PREFIX_SIZE, signature.length);
-        List<PrimitiveSet.Entry<PublicKeyVerify>> entries = primitives.getPrimitive(prefix);
-        for (PrimitiveSet.Entry<PublicKeyVerify> entry : entries) {
-          try {
-            if (entry.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
-              final byte[] formatVersion = new byte[] {CryptoFormat.LEGACY_START_BYTE};
-              final byte[] dataWithFormatVersion = Bytes.concat(data, formatVersion);
-              entry.getPrimitive().verify(sigNoPrefix, dataWithFormatVersion);
-            } else {
-              entry.getPrimitive().verify(sigNoPrefix, data);
-            }
-            // If there is no exception, the signature is valid and we can return.
-            return;
-          } catch (GeneralSecurityException e) {
-            logger.info("signature prefix matches a key, but cannot verify: " + e.toString());
-            // Ignored as we want to continue verification with the remaining keys.
+    return new Wrapper()
+        .wrap(Registry.getPrimitives(keysetHandle, keyManager, PublicKeyVerify.class));
+  }
+
+  /**
+   * @return the {@link PrimitiveWrapper} that {@link #getPrimitive} uses to combine the primitives
+   *     of a keyset into a single {@link PublicKeyVerify}.
+   */
+  @Alpha
+  public static PrimitiveWrapper<PublicKeyVerify> getWrapper() {
+    return new Wrapper();
+  }
+
+  private static void record(KeyUsageCounter usage, long dataSize, boolean success, long start) {
+    Monitoring.record(PUBLIC_KEY_VERIFY, VERIFY, usage, dataSize, success, start);
+  }
+
+  private static class Wrapper implements PrimitiveWrapper<PublicKeyVerify> {
+    @Override
+    public PublicKeyVerify wrap(PrimitiveSet<PublicKeyVerify> primitives) {
+      return new WrappedPublicKeyVerify(primitives);
+    }
+  }
+
+  private static final class WrappedPublicKeyVerify implements PublicKeyVerify, KeyUsageSource {
+    private final PrimitiveSet<PublicKeyVerify> primitives;
+
+    WrappedPublicKeyVerify(PrimitiveSet<PublicKeyVerify> primitives) {
+      this.primitives = primitives;
+    }
+
+    @Override
+    public void verify(final byte[] signature, final byte[] data)
+        throws GeneralSecurityException {
+      if (signature.length <= CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        // This also rejects raw signatures with size of 4 bytes or fewer. We're not aware of
+        // any schemes that output signatures that small.
+        record(/* usage= */ null, data.length, false, Monitoring.start());
+        throw new GeneralSecurityException("signature too short");
+      }
+      List<PrimitiveSet.Entry<PublicKeyVerify>> entries =
+          primitives.getPrimitiveWithOutputPrefix(signature);
+      byte[] sigNoPrefix =
+          entries.isEmpty()
+              ? null
+              : Arrays.copyOfRange(
+                  signature, CryptoFormat.NON_RAW_PREFIX_SIZE, signature.length);
+      for (PrimitiveSet.Entry<PublicKeyVerify> entry : entries) {
+        long start = Monitoring.start();
+        try {
+          if (entry.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
+            final byte[] formatVersion = new byte[] {CryptoFormat.LEGACY_START_BYTE};
+            final byte[] dataWithFormatVersion = Bytes.concat(data, formatVersion);
+            entry.getPrimitiveOrThrow().verify(sigNoPrefix, dataWithFormatVersion);
+          } else {
+            entry.getPrimitiveOrThrow().verify(sigNoPrefix, data);
           }
+          // If there is no exception, the signature is valid and we can return.
+          record(entry.getUsage(), data.length, true, start);
+          return;
+        } catch (GeneralSecurityException e) {
+          record(entry.getUsage(), data.length, false, start);
+          // Ignored as we want to continue verification with the remaining keys.
         }
+      }
 
-        // None "non-raw" key matched, so let's try the raw keys (if any exist).
-        entries = primitives.getRawPrimitives();
-        for (PrimitiveSet.Entry<PublicKeyVerify> entry : entries) {
-          try {
-            entry.getPrimitive().verify(signature, data);
-            // If there is no exception, the signature is valid and we can return.
-            return;
-          } catch (GeneralSecurityException e) {
-            // Ignored as we want to continue verification with raw keys.
-          }
+      // None "non-raw" key matched, so let's try the raw keys (if any exist).
+      entries = primitives.getRawPrimitives();
+      for (PrimitiveSet.Entry<PublicKeyVerify> entry : entries) {
+        long start = Monitoring.start();
+        try {
+          entry.getPrimitiveOrThrow().verify(signature, data);
+          // If there is no exception, the signature is valid and we can return.
+          record(entry.getUsage(), data.length, true, start);
+          return;
+        } catch (GeneralSecurityException e) {
+          record(entry.getUsage(), data.length, false, start);
+          // Ignored as we want to continue verification with raw keys.
         }
-        // nothing works.
-        throw new GeneralSecurityException("invalid signature");
       }
-    };
+      // nothing works.
+      record(/* usage= */ null, data.length, false, Monitoring.start());
+      throw new GeneralSecurityException("invalid signature");
+    }
+
+    @Override
+    public KeyUsageReport getKeyUsageReport() {
+      return primitives.getKeyUsageReport();
+    }
   }
 }
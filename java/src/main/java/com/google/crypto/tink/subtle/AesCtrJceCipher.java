@@ -17,6 +17,8 @@
 package com.google.crypto.tink.subtle;
 
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -26,7 +28,7 @@ import javax.crypto.spec.SecretKeySpec;
  * chosen-plaintext attacks, but does not provide ciphertext integrity, thus is unsafe against
  * chosen-ciphertext attacks.
  */
-public final class AesCtrJceCipher implements IndCpaCipher {
+public final class AesCtrJceCipher implements OffsetIndCpaCipher {
   private static final String KEY_ALGORITHM = "AES";
   private static final String CIPHER_ALGORITHM = "AES/CTR/NoPadding";
 
@@ -39,13 +41,39 @@ public final class AesCtrJceCipher implements IndCpaCipher {
   // 2^-33 (i.e., less than one in eight billion).
   private static final int MIN_IV_SIZE_IN_BYTES = 12;
 
+  // With an executor, messages of at least this size are split into chunks of at least
+  // PARALLEL_CHUNK_SIZE_IN_BYTES, which are encrypted or decrypted on the threads of the executor,
+  // each starting at the counter of its first block.
+  static final int PARALLEL_THRESHOLD_IN_BYTES = 4 * 1024 * 1024;
+  static final int PARALLEL_CHUNK_SIZE_IN_BYTES = 1024 * 1024;
+
   private final SecretKeySpec keySpec;
   private final int ivSize;
   private final int blockSize;
+  // The executor that processes large messages in parallel, or null to use the calling thread.
+  private final Executor executor;
+
+  // Each thread keeps a cipher that is only initialized with this key, so that initializing it for
+  // a new message only sets the counter, and providers such as SunJCE do not expand the key again.
+  private final EngineFactory.ThreadLocalEngine<Cipher> localCipher =
+      EngineFactory.CIPHER.newThreadLocalEngine(CIPHER_ALGORITHM);
 
   public AesCtrJceCipher(final byte[] key, int ivSize) throws GeneralSecurityException {
+    this(key, ivSize, /* executor= */ null);
+  }
+
+  /**
+   * Like {@link #AesCtrJceCipher(byte[], int)}, but messages of at least 4 MB are split into chunks
+   * that are encrypted or decrypted in parallel on the threads of {@code executor}, e.g., {@link
+   * Parallel#defaultExecutor}. The calling thread takes part in the work. Messages whose input and
+   * output overlap at different offsets of the same array are still processed on the calling
+   * thread.
+   */
+  public AesCtrJceCipher(final byte[] key, int ivSize, Executor executor)
+      throws GeneralSecurityException {
+    this.executor = executor;
     this.keySpec = new SecretKeySpec(key, KEY_ALGORITHM);
-    this.blockSize = EngineFactory.CIPHER.getInstance(CIPHER_ALGORITHM).getBlockSize();
+    this.blockSize = localCipher.get().getBlockSize();
     if (ivSize < MIN_IV_SIZE_IN_BYTES || ivSize > blockSize) {
       throw new GeneralSecurityException("invalid IV size");
     }
@@ -66,12 +94,26 @@ public final class AesCtrJceCipher implements IndCpaCipher {
           "plaintext length can not exceed " + (Integer.MAX_VALUE - ivSize));
     }
     byte[] ciphertext = new byte[ivSize + plaintext.length];
-    byte[] iv = Random.randBytes(ivSize);
-    System.arraycopy(iv, 0, ciphertext, 0, ivSize);
-    doCtr(plaintext, 0, plaintext.length, ciphertext, ivSize, iv, true);
+    int unusedWritten = encrypt(plaintext, ciphertext, 0);
     return ciphertext;
   }
 
+  @Override
+  public int ciphertextSize(int plaintextSize) {
+    return ivSize + plaintextSize;
+  }
+
+  @Override
+  public int encrypt(final byte[] plaintext, byte[] output, int offset)
+      throws GeneralSecurityException {
+    if (offset < 0 || (long) offset + ivSize + plaintext.length > output.length) {
+      throw new GeneralSecurityException("output too small");
+    }
+    Random.randBytes(output, offset, ivSize);
+    doCtr(plaintext, 0, plaintext.length, output, offset + ivSize, output, offset, true);
+    return ivSize + plaintext.length;
+  }
+
   /**
    * Decrypts the ciphertext with counter mode decryption. The ciphertext format is iv || raw
    * ciphertext.
@@ -81,30 +123,116 @@ public final class AesCtrJceCipher implements IndCpaCipher {
    */
   @Override
   public byte[] decrypt(final byte[] ciphertext) throws GeneralSecurityException {
-    if (ciphertext.length < ivSize) {
+    return decrypt(ciphertext, 0, ciphertext.length);
+  }
+
+  @Override
+  public byte[] decrypt(final byte[] ciphertext, int offset, int length)
+      throws GeneralSecurityException {
+    if (offset < 0 || length < 0 || (long) offset + length > ciphertext.length) {
+      throw new GeneralSecurityException("invalid offset or length");
+    }
+    if (length < ivSize) {
       throw new GeneralSecurityException("ciphertext too short");
     }
-    byte[] iv = new byte[ivSize];
-    System.arraycopy(ciphertext, 0, iv, 0, ivSize);
-    byte[] plaintext = new byte[ciphertext.length - ivSize];
-    doCtr(ciphertext, ivSize, ciphertext.length - ivSize, plaintext, 0, iv, false);
+    byte[] plaintext = new byte[length - ivSize];
+    int unusedWritten = decrypt(ciphertext, offset, length, plaintext, 0);
     return plaintext;
   }
 
+  @Override
+  public int decrypt(
+      final byte[] ciphertext, int offset, int length, byte[] output, int outputOffset)
+      throws GeneralSecurityException {
+    if (offset < 0 || length < 0 || (long) offset + length > ciphertext.length) {
+      throw new GeneralSecurityException("invalid offset or length");
+    }
+    if (length < ivSize) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    if (outputOffset < 0 || (long) outputOffset + length - ivSize > output.length) {
+      throw new GeneralSecurityException("output too small");
+    }
+    doCtr(
+        ciphertext,
+        offset + ivSize,
+        length - ivSize,
+        output,
+        outputOffset,
+        ciphertext,
+        offset,
+        /* encrypt= */ false);
+    return length - ivSize;
+  }
+
+  /** Runs AES-CTR with the IV in the {@code ivSize} bytes of {@code iv} at {@code ivOffset}. */
   private void doCtr(
+      final byte[] input,
+      final int inputOffset,
+      final int inputLen,
+      final byte[] output,
+      final int outputOffset,
+      final byte[] iv,
+      int ivOffset,
+      final boolean encrypt)
+      throws GeneralSecurityException {
+    // The counter is big-endian. The counter is composed of iv and (blockSize - ivSize) of zeros.
+    final byte[] counter = new byte[blockSize];
+    System.arraycopy(iv, ivOffset, counter, 0, ivSize);
+    if (executor == null
+        || inputLen < PARALLEL_THRESHOLD_IN_BYTES
+        || overlapsShifted(input, inputOffset, output, outputOffset, inputLen)) {
+      doCtrChunk(input, inputOffset, inputLen, output, outputOffset, counter, encrypt);
+      return;
+    }
+    final int blocks = (inputLen + blockSize - 1) / blockSize;
+    Parallel.forRange(
+        blocks,
+        PARALLEL_CHUNK_SIZE_IN_BYTES / blockSize,
+        executor,
+        new Parallel.RangeTask() {
+          @Override
+          public void run(int from, int to) throws GeneralSecurityException {
+            int start = from * blockSize;
+            int end = to == blocks ? inputLen : to * blockSize;
+            doCtrChunk(
+                input,
+                inputOffset + start,
+                end - start,
+                output,
+                outputOffset + start,
+                addToCounter(counter, from),
+                encrypt);
+          }
+        });
+  }
+
+  /**
+   * @return whether the {@code length} bytes of {@code input} at {@code inputOffset} and those of
+   *     {@code output} at {@code outputOffset} are the same array and overlap at different offsets.
+   *     A chunk could then overwrite the input of another before it is read, so only a single JCE
+   *     cipher, which handles such overlaps, may process them. Chunks of the very same range only
+   *     ever read and write their own bytes.
+   */
+  private static boolean overlapsShifted(
+      final byte[] input, int inputOffset, final byte[] output, int outputOffset, int length) {
+    return input == output
+        && inputOffset != outputOffset
+        && inputOffset < outputOffset + length
+        && outputOffset < inputOffset + length;
+  }
+
+  /** Runs AES-CTR on one thread, starting with the counter block {@code counter}. */
+  private void doCtrChunk(
       final byte[] input,
       int inputOffset,
       int inputLen,
       byte[] output,
       int outputOffset,
-      final byte[] iv,
+      final byte[] counter,
       boolean encrypt)
       throws GeneralSecurityException {
-    Cipher cipher = EngineFactory.CIPHER.getInstance(CIPHER_ALGORITHM);
-    // The counter is big-endian. The counter is composed of iv and (blockSize - ivSize) of zeros.
-    byte[] counter = new byte[blockSize];
-    System.arraycopy(iv, 0, counter, 0, ivSize);
-
+    Cipher cipher = localCipher.get();
     IvParameterSpec paramSpec = new IvParameterSpec(counter);
     if (encrypt) {
       cipher.init(Cipher.ENCRYPT_MODE, keySpec, paramSpec);
@@ -116,4 +244,19 @@ public final class AesCtrJceCipher implements IndCpaCipher {
       throw new GeneralSecurityException("stored output's length does not match input's length");
     }
   }
+
+  /**
+   * @return the counter block {@code blocks} blocks after {@code counter}, i.e., {@code counter +
+   *     blocks} as big-endian integers, modulo 2^(8 * blockSize), like the JCE increments it.
+   */
+  static byte[] addToCounter(final byte[] counter, int blocks) {
+    byte[] result = Arrays.copyOf(counter, counter.length);
+    long carry = blocks & 0xffffffffL;
+    for (int i = result.length - 1; i >= 0 && carry != 0; i--) {
+      long sum = (result[i] & 0xff) + carry;
+      result[i] = (byte) sum;
+      carry = sum >>> 8;
+    }
+    return result;
+  }
 }
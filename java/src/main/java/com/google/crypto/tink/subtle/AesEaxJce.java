@@ -16,13 +16,13 @@
 
 package com.google.crypto.tink.subtle;
 
-import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.ByteBufferAead;
+import com.google.crypto.tink.OffsetAead;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import javax.crypto.AEADBadTagException;
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -39,14 +39,21 @@ import javax.crypto.spec.SecretKeySpec;
  *   <li>Nonces are chosen by the implementation at random. Their size is 12 or 16 bytes.
  * </ul>
  *
- * <p>Plans: The current implementation is slow since it uses JCA and only assumes that the
- * encryption modes "AES/ECB/NOPADDING" and "AES/CTR/NOPADDING" are implemented. Our plan is to
- * implement a native version of EAX.
+ * <p>The implementation only assumes that the encryption modes "AES/CBC/NOPADDING" and
+ * "AES/CTR/NOPADDING" are implemented. The OMACs are computed with AES-CBC over many blocks at a
+ * time. Each thread reuses its own AES-CBC and AES-CTR ciphers of this instance, which every
+ * operation initializes with the key, and scratch arrays, so that encrypting and decrypting allocate
+ * little besides their output.
  */
-public final class AesEaxJce implements Aead {
+public final class AesEaxJce implements ByteBufferAead, OffsetAead {
   static final int BLOCK_SIZE_IN_BYTES = 16;
   static final int TAG_SIZE_IN_BYTES = 16;
 
+  // The OMACs pass the data to AES-CBC in chunks of this size, and discard the output.
+  private static final int OMAC_CHUNK_SIZE = 4096;
+
+  private static final IvParameterSpec ZERO_IV = new IvParameterSpec(new byte[BLOCK_SIZE_IN_BYTES]);
+
   // The constants B and P derived from the key. These constants are used for computing an OMAC.
   private final byte[] b;
   private final byte[] p;
@@ -54,31 +61,46 @@ public final class AesEaxJce implements Aead {
   private final SecretKeySpec keySpec;
   private final int ivSizeInBytes;
 
-  @SuppressWarnings("InsecureCryptoUsage")
+  // The ciphers of each thread are owned by this instance, so that they only ever hold its key, and
+  // do not keep it reachable after the instance is dropped.
+  private final EngineFactory.ThreadLocalEngine<Cipher> localCbc =
+      EngineFactory.CIPHER.newThreadLocalEngine("AES/CBC/NOPADDING");
+  private final EngineFactory.ThreadLocalEngine<Cipher> localCtr =
+      EngineFactory.CIPHER.newThreadLocalEngine("AES/CTR/NOPADDING");
+
+  /** The arrays that a thread uses during one operation. */
+  private static final class Scratch {
+    final byte[] input = new byte[OMAC_CHUNK_SIZE];
+    final byte[] output = new byte[OMAC_CHUNK_SIZE];
+    final byte[] block = new byte[BLOCK_SIZE_IN_BYTES];
+    final byte[] iv = new byte[BLOCK_SIZE_IN_BYTES];
+    final byte[] n = new byte[BLOCK_SIZE_IN_BYTES];
+    final byte[] h = new byte[BLOCK_SIZE_IN_BYTES];
+    final byte[] t = new byte[BLOCK_SIZE_IN_BYTES];
+  }
+
+  private static final ThreadLocal<Scratch> localScratch =
+      new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+          return new Scratch();
+        }
+      };
+
   public AesEaxJce(final byte[] key, int ivSizeInBytes) throws GeneralSecurityException {
     if (ivSizeInBytes != 12 && ivSizeInBytes != 16) {
       throw new IllegalArgumentException("IV size should be either 12 or 16 bytes");
     }
     this.ivSizeInBytes = ivSizeInBytes;
     keySpec = new SecretKeySpec(key, "AES");
-    Cipher ecb = Cipher.getInstance("AES/ECB/NOPADDING");
-    ecb.init(Cipher.ENCRYPT_MODE, keySpec);
-    byte[] block = ecb.doFinal(new byte[BLOCK_SIZE_IN_BYTES]);
+    // AES-CBC with a zero IV encrypts a single block like AES-ECB.
+    Cipher cbc = localCbc.get();
+    cbc.init(Cipher.ENCRYPT_MODE, keySpec, ZERO_IV);
+    byte[] block = cbc.doFinal(new byte[BLOCK_SIZE_IN_BYTES]);
     b = multiplyByX(block);
     p = multiplyByX(b);
   }
 
-  /** Computes the xor of two byte arrays of equal size. */
-  private static byte[] xor(final byte[] x, final byte[] y) {
-    assert x.length == y.length;
-    int len = x.length;
-    byte[] res = new byte[len];
-    for (int i = 0; i < len; i++) {
-      res[i] = (byte) (x[i] ^ y[i]);
-    }
-    return res;
-  }
-
   /**
    * Multiplies an element of the field GF(2)[x]/(x^128+x^7+x^2+x+1) by x.
    *
@@ -96,90 +118,175 @@ public final class AesEaxJce implements Aead {
     return res;
   }
 
+  /** @return the size of the last block of an OMAC over {@code length} > 0 bytes, 1 .. 16. */
+  private static int lastBlockLength(int length) {
+    return (length - 1) % BLOCK_SIZE_IN_BYTES + 1;
+  }
+
   /**
-   * Pads the last block for OMAC. If the last block is smaller than 16 bytes then a bitstring
-   * starting with 1 and followed by 0's is appended and the result is XORed with p. If the last
-   * block is 16 bytes long then the last block is XORed with b.
+   * Starts an OMAC: initializes the CBC cipher with a zero IV, and writes the block that holds
+   * {@code tag} (0 for nonce, 1 for aad, 2 for ciphertext) to {@code scratch.input}.
+   */
+  private Cipher startOmac(Scratch scratch, int tag) throws GeneralSecurityException {
+    assert 0 <= tag && tag <= 3;
+    Cipher cbc = localCbc.get();
+    cbc.init(Cipher.ENCRYPT_MODE, keySpec, ZERO_IV);
+    Arrays.fill(scratch.input, 0, BLOCK_SIZE_IN_BYTES, (byte) 0);
+    scratch.input[BLOCK_SIZE_IN_BYTES - 1] = (byte) tag;
+    return cbc;
+  }
+
+  /** Passes {@code length} bytes, a multiple of the block size, to the CBC cipher of an OMAC. */
+  private static void updateOmac(
+      Cipher cbc, Scratch scratch, final byte[] data, int offset, int length)
+      throws GeneralSecurityException {
+    for (int done = 0; done < length; ) {
+      int chunk = Math.min(OMAC_CHUNK_SIZE, length - done);
+      int unusedWritten = cbc.update(data, offset + done, chunk, scratch.output, 0);
+      done += chunk;
+    }
+  }
+
+  /**
+   * Finishes an OMAC with its last block, of 1 .. 16 bytes. If the last block is smaller than 16
+   * bytes then a bitstring starting with 1 and followed by 0's is appended and the result is XORed
+   * with p. If the last block is 16 bytes long then the last block is XORed with b.
    *
-   * @param data A block or partial block of size 1 .. 16 bytes.
-   * @return The padded block.
+   * @param result receives the 16 byte long OMAC.
    */
-  private byte[] pad(final byte[] data) {
-    if (data.length == BLOCK_SIZE_IN_BYTES) {
-      return xor(data, b);
+  private void finishOmac(
+      Cipher cbc, Scratch scratch, final byte[] last, int offset, int length, byte[] result)
+      throws GeneralSecurityException {
+    byte[] block = scratch.block;
+    if (length == BLOCK_SIZE_IN_BYTES) {
+      for (int i = 0; i < BLOCK_SIZE_IN_BYTES; i++) {
+        block[i] = (byte) (last[offset + i] ^ b[i]);
+      }
     } else {
-      byte[] res = Arrays.copyOf(p, BLOCK_SIZE_IN_BYTES);
-      for (int i = 0; i < data.length; i++) {
-        res[i] ^= data[i];
+      System.arraycopy(p, 0, block, 0, BLOCK_SIZE_IN_BYTES);
+      for (int i = 0; i < length; i++) {
+        block[i] ^= last[offset + i];
       }
-      res[data.length] = (byte) (res[data.length] ^ 0x80);
-      return res;
+      block[length] = (byte) (block[length] ^ 0x80);
     }
+    int unusedWritten = cbc.doFinal(block, 0, BLOCK_SIZE_IN_BYTES, scratch.output, 0);
+    System.arraycopy(scratch.output, 0, result, 0, BLOCK_SIZE_IN_BYTES);
   }
 
   /**
    * Computes an OMAC.
    *
-   * @param ecb A cipher initialized with the key of this class using AES/ECB/NOPadding and
-   *     encryption mode.
    * @param tag The OMAC tag (0 for nonce, 1 for aad, 2 for ciphertext)
    * @param data The array containing the data to MAC.
    * @param offset The start of the data to MAC.
    * @param length The length of the data to MAC.
-   * @return The 16 byte long OMAC
-   * @throws IllegalBlockSizeException, BadPaddingException This should not happen.
+   * @param result receives the 16 byte long OMAC.
    */
-  private byte[] omac(Cipher ecb, int tag, final byte[] data, int offset, int length)
-      throws IllegalBlockSizeException, BadPaddingException {
+  private void omac(
+      Scratch scratch, int tag, final byte[] data, int offset, int length, byte[] result)
+      throws GeneralSecurityException {
     assert length >= 0;
-    assert 0 <= tag && tag <= 3;
-    byte[] block = new byte[BLOCK_SIZE_IN_BYTES];
-    block[BLOCK_SIZE_IN_BYTES - 1] = (byte) tag;
+    Cipher cbc = startOmac(scratch, tag);
     if (length == 0) {
-      return ecb.doFinal(xor(block, b));
+      finishOmac(cbc, scratch, scratch.input, 0, BLOCK_SIZE_IN_BYTES, result);
+      return;
     }
-    block = ecb.doFinal(block);
-    int position = 0;
-    while (length - position > BLOCK_SIZE_IN_BYTES) {
-      for (int i = 0; i < BLOCK_SIZE_IN_BYTES; i++) {
-        block[i] ^= data[offset + position + i];
-      }
-      block = ecb.doFinal(block);
-      position += BLOCK_SIZE_IN_BYTES;
+    int unusedWritten = cbc.update(scratch.input, 0, BLOCK_SIZE_IN_BYTES, scratch.output, 0);
+    int fullLength = length - lastBlockLength(length);
+    updateOmac(cbc, scratch, data, offset, fullLength);
+    finishOmac(cbc, scratch, data, offset + fullLength, length - fullLength, result);
+  }
+
+  /**
+   * Computes an OMAC over the remaining bytes of {@code data}. The position of {@code data} is not
+   * changed.
+   */
+  private void omac(Scratch scratch, int tag, final ByteBuffer data, byte[] result)
+      throws GeneralSecurityException {
+    if (data.hasArray()) {
+      omac(
+          scratch,
+          tag,
+          data.array(),
+          data.arrayOffset() + data.position(),
+          data.remaining(),
+          result);
+      return;
+    }
+    int length = data.remaining();
+    Cipher cbc = startOmac(scratch, tag);
+    if (length == 0) {
+      finishOmac(cbc, scratch, scratch.input, 0, BLOCK_SIZE_IN_BYTES, result);
+      return;
+    }
+    int unusedWritten = cbc.update(scratch.input, 0, BLOCK_SIZE_IN_BYTES, scratch.output, 0);
+    // The data is copied to the scratch array chunk by chunk, as the JCE would do anyway.
+    ByteBuffer in = data.duplicate();
+    int fullLength = length - lastBlockLength(length);
+    for (int done = 0; done < fullLength; ) {
+      int chunk = Math.min(OMAC_CHUNK_SIZE, fullLength - done);
+      in.get(scratch.input, 0, chunk);
+      updateOmac(cbc, scratch, scratch.input, 0, chunk);
+      done += chunk;
     }
-    byte[] padded = pad(Arrays.copyOfRange(data, offset + position, offset + length));
-    block = xor(block, padded);
-    return ecb.doFinal(block);
+    int lastLength = in.remaining();
+    in.get(scratch.input, 0, lastLength);
+    finishOmac(cbc, scratch, scratch.input, 0, lastLength, result);
+  }
+
+  /** @return the CTR cipher, initialized with the counter {@code n}. */
+  private Cipher ctr(final byte[] n) throws GeneralSecurityException {
+    Cipher ctr = localCtr.get();
+    ctr.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(n));
+    return ctr;
   }
 
-  @SuppressWarnings("InsecureCryptoUsage")
   @Override
   public byte[] encrypt(final byte[] plaintext, final byte[] associatedData)
       throws GeneralSecurityException {
+    return encrypt(plaintext, associatedData, 0);
+  }
+
+  @Override
+  public byte[] encrypt(final byte[] plaintext, final byte[] associatedData, int offset)
+      throws GeneralSecurityException {
+    if (offset < 0) {
+      throw new GeneralSecurityException("negative offset");
+    }
     // Check that ciphertext is not longer than the max. size of a Java array.
-    if (plaintext.length > Integer.MAX_VALUE - ivSizeInBytes - TAG_SIZE_IN_BYTES) {
+    if (plaintext.length > Integer.MAX_VALUE - ivSizeInBytes - TAG_SIZE_IN_BYTES - offset) {
       throw new GeneralSecurityException("plaintext too long");
     }
-    byte[] ciphertext = new byte[ivSizeInBytes + plaintext.length + TAG_SIZE_IN_BYTES];
-    byte[] iv = Random.randBytes(ivSizeInBytes);
-    System.arraycopy(iv, 0, ciphertext, 0, ivSizeInBytes);
+    byte[] ciphertext = new byte[offset + ciphertextSize(plaintext.length)];
+    int unusedWritten = encrypt(plaintext, associatedData, ciphertext, offset);
+    return ciphertext;
+  }
 
-    Cipher ecb = Cipher.getInstance("AES/ECB/NOPADDING");
-    ecb.init(Cipher.ENCRYPT_MODE, keySpec);
-    byte[] n = omac(ecb, 0, iv, 0, iv.length);
-    byte[] h = omac(ecb, 1, associatedData, 0, associatedData.length);
-    Cipher ctr = Cipher.getInstance("AES/CTR/NOPADDING");
-    ctr.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(n));
-    ctr.doFinal(plaintext, 0, plaintext.length, ciphertext, ivSizeInBytes);
-    byte[] t = omac(ecb, 2, ciphertext, ivSizeInBytes, plaintext.length);
-    int offset = plaintext.length + ivSizeInBytes;
+  @Override
+  public int encrypt(
+      final byte[] plaintext, final byte[] associatedData, byte[] output, int outputOffset)
+      throws GeneralSecurityException {
+    if (outputOffset < 0
+        || (long) outputOffset + ivSizeInBytes + plaintext.length + TAG_SIZE_IN_BYTES
+            > output.length) {
+      throw new GeneralSecurityException("output array too small");
+    }
+    Random.randBytes(output, outputOffset, ivSizeInBytes);
+
+    Scratch scratch = localScratch.get();
+    int ciphertextOffset = outputOffset + ivSizeInBytes;
+    omac(scratch, 0, output, outputOffset, ivSizeInBytes, scratch.n);
+    omac(scratch, 1, associatedData, 0, associatedData.length, scratch.h);
+    int unusedWritten =
+        ctr(scratch.n).doFinal(plaintext, 0, plaintext.length, output, ciphertextOffset);
+    omac(scratch, 2, output, ciphertextOffset, plaintext.length, scratch.t);
+    int tagOffset = ciphertextOffset + plaintext.length;
     for (int i = 0; i < TAG_SIZE_IN_BYTES; i++) {
-      ciphertext[offset + i] = (byte) (h[i] ^ n[i] ^ t[i]);
+      output[tagOffset + i] = (byte) (scratch.h[i] ^ scratch.n[i] ^ scratch.t[i]);
     }
-    return ciphertext;
+    return ciphertextSize(plaintext.length);
   }
 
-  @SuppressWarnings("InsecureCryptoUsage")
   @Override
   public byte[] decrypt(final byte[] ciphertext, final byte[] associatedData)
       throws GeneralSecurityException {
@@ -187,21 +294,131 @@ public final class AesEaxJce implements Aead {
     if (plaintextLength < 0) {
       throw new GeneralSecurityException("ciphertext too short");
     }
-    Cipher ecb = Cipher.getInstance("AES/ECB/NOPADDING");
-    ecb.init(Cipher.ENCRYPT_MODE, keySpec);
-    byte[] n = omac(ecb, 0, ciphertext, 0, ivSizeInBytes);
-    byte[] h = omac(ecb, 1, associatedData, 0, associatedData.length);
-    byte[] t = omac(ecb, 2, ciphertext, ivSizeInBytes, plaintextLength);
+    byte[] plaintext = new byte[plaintextLength];
+    int unusedLength = decrypt(ciphertext, 0, ciphertext.length, associatedData, plaintext, 0);
+    return plaintext;
+  }
+
+  @Override
+  public int decrypt(
+      final byte[] ciphertext,
+      int offset,
+      int length,
+      final byte[] associatedData,
+      byte[] output,
+      int outputOffset)
+      throws GeneralSecurityException {
+    if (offset < 0 || length < 0 || (long) offset + length > ciphertext.length) {
+      throw new GeneralSecurityException("invalid offset or length");
+    }
+    int plaintextLength = length - ivSizeInBytes - TAG_SIZE_IN_BYTES;
+    if (plaintextLength < 0) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    if (outputOffset < 0 || (long) outputOffset + plaintextLength > output.length) {
+      throw new GeneralSecurityException("output array too small");
+    }
+    int ciphertextOffset = offset + ivSizeInBytes;
+    Scratch scratch = localScratch.get();
+    omac(scratch, 0, ciphertext, offset, ivSizeInBytes, scratch.n);
+    omac(scratch, 1, associatedData, 0, associatedData.length, scratch.h);
+    omac(scratch, 2, ciphertext, ciphertextOffset, plaintextLength, scratch.t);
     byte res = 0;
-    int offset = ciphertext.length - TAG_SIZE_IN_BYTES;
+    int tagOffset = ciphertextOffset + plaintextLength;
     for (int i = 0; i < TAG_SIZE_IN_BYTES; i++) {
-      res = (byte) (res | (ciphertext[offset + i] ^ h[i] ^ n[i] ^ t[i]));
+      res =
+          (byte) (res | (ciphertext[tagOffset + i] ^ scratch.h[i] ^ scratch.n[i] ^ scratch.t[i]));
     }
     if (res != 0) {
       throw new AEADBadTagException("tag mismatch");
     }
-    Cipher ctr = Cipher.getInstance("AES/CTR/NOPADDING");
-    ctr.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(n));
-    return ctr.doFinal(ciphertext, ivSizeInBytes, plaintextLength);
+    return ctr(scratch.n)
+        .doFinal(ciphertext, ciphertextOffset, plaintextLength, output, outputOffset);
+  }
+
+  @Override
+  public int ciphertextSize(int plaintextSize) {
+    return ivSizeInBytes + plaintextSize + TAG_SIZE_IN_BYTES;
+  }
+
+  @Override
+  public void encrypt(ByteBuffer plaintext, ByteBuffer associatedData, ByteBuffer ciphertext)
+      throws GeneralSecurityException {
+    encrypt(new ByteBuffer[] {plaintext}, associatedData, ciphertext);
+  }
+
+  @Override
+  public void encrypt(ByteBuffer[] plaintext, ByteBuffer associatedData, ByteBuffer ciphertext)
+      throws GeneralSecurityException {
+    long plaintextLength = 0;
+    for (ByteBuffer part : plaintext) {
+      plaintextLength += part.remaining();
+    }
+    if (plaintextLength > Integer.MAX_VALUE - ivSizeInBytes - TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("plaintext too long");
+    }
+    if (ciphertext.remaining() < ciphertextSize((int) plaintextLength)) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    Scratch scratch = localScratch.get();
+    Random.randBytes(scratch.iv, 0, ivSizeInBytes);
+    omac(scratch, 0, scratch.iv, 0, ivSizeInBytes, scratch.n);
+    omac(scratch, 1, associatedData, scratch.h);
+    associatedData.position(associatedData.limit());
+    ByteBuffer out = ciphertext.duplicate();
+    out.put(scratch.iv, 0, ivSizeInBytes);
+    int ciphertextStart = out.position();
+    Cipher ctr = ctr(scratch.n);
+    for (int i = 0; i < plaintext.length - 1; i++) {
+      int unusedWritten = ctr.update(plaintext[i], out);
+    }
+    int unusedWritten =
+        ctr.doFinal(
+            plaintext.length == 0 ? ByteBuffer.allocate(0) : plaintext[plaintext.length - 1], out);
+    ByteBuffer rawCiphertext = out.duplicate();
+    rawCiphertext.limit(out.position());
+    rawCiphertext.position(ciphertextStart);
+    omac(scratch, 2, rawCiphertext, scratch.t);
+    for (int i = 0; i < TAG_SIZE_IN_BYTES; i++) {
+      out.put((byte) (scratch.h[i] ^ scratch.n[i] ^ scratch.t[i]));
+    }
+    ciphertext.position(out.position());
+  }
+
+  @Override
+  public void decrypt(ByteBuffer ciphertext, ByteBuffer associatedData, ByteBuffer plaintext)
+      throws GeneralSecurityException {
+    int plaintextLength = ciphertext.remaining() - ivSizeInBytes - TAG_SIZE_IN_BYTES;
+    if (plaintextLength < 0) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    if (plaintext.remaining() < plaintextLength) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    int start = ciphertext.position();
+    ByteBuffer iv = ciphertext.duplicate();
+    iv.limit(start + ivSizeInBytes);
+    ByteBuffer rawCiphertext = ciphertext.duplicate();
+    rawCiphertext.limit(start + ivSizeInBytes + plaintextLength);
+    rawCiphertext.position(start + ivSizeInBytes);
+    Scratch scratch = localScratch.get();
+    omac(scratch, 0, iv, scratch.n);
+    omac(scratch, 1, associatedData, scratch.h);
+    omac(scratch, 2, rawCiphertext, scratch.t);
+    byte res = 0;
+    int offset = ciphertext.limit() - TAG_SIZE_IN_BYTES;
+    for (int i = 0; i < TAG_SIZE_IN_BYTES; i++) {
+      res =
+          (byte)
+              (res | (ciphertext.get(offset + i) ^ scratch.h[i] ^ scratch.n[i] ^ scratch.t[i]));
+    }
+    if (res != 0) {
+      throw new AEADBadTagException("tag mismatch");
+    }
+    associatedData.position(associatedData.limit());
+    ByteBuffer out = plaintext.duplicate();
+    int unusedWritten = ctr(scratch.n).doFinal(rawCiphertext, out);
+    plaintext.position(out.position());
+    ciphertext.position(ciphertext.limit());
   }
 }
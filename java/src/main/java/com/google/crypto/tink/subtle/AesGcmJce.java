@@ -16,47 +16,111 @@
 
 package com.google.crypto.tink.subtle;
 
-import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.ByteBufferAead;
+import com.google.crypto.tink.OffsetAead;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.util.Arrays;
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 /** This primitive implements AesGcm using JCE. */
-public final class AesGcmJce implements Aead {
+public final class AesGcmJce implements ByteBufferAead, OffsetAead {
 
   // All instances of this class use a 12 byte IV and a 16 byte tag.
   private static final int IV_SIZE_IN_BYTES = 12;
   private static final int TAG_SIZE_IN_BYTES = 16;
 
+  // In-place operations pass the data through the cipher in chunks of this size. Providers may copy
+  // input that overlaps the output, and the chunks bound the size of these copies, so that they do
+  // not grow with the size of the message.
+  private static final int IN_PLACE_CHUNK_SIZE = 16 * 1024;
+
+  // Ciphers may buffer up to a block of input, and output it with the next chunk.
+  private static final int SCRATCH_SIZE = IN_PLACE_CHUNK_SIZE + 2 * 16;
+
+  /** The arrays that a thread uses during one in-place decryption. */
+  private static final class Scratch {
+    final byte[] plaintext = new byte[SCRATCH_SIZE];
+    final byte[] ciphertext = new byte[SCRATCH_SIZE];
+  }
+
+  private static final ThreadLocal<Scratch> localScratch =
+      new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+          return new Scratch();
+        }
+      };
+
   private final SecretKey keySpec;
 
+  private static final String GCM_ALGORITHM = "AES/GCM/NoPadding";
+  private static final String CTR_ALGORITHM = "AES/CTR/NoPadding";
+
   public AesGcmJce(final byte[] key) {
     keySpec = new SecretKeySpec(key, "AES");
   }
 
-  private static Cipher instance() throws GeneralSecurityException {
-    return EngineFactory.CIPHER.getInstance("AES/GCM/NoPadding");
+  // Each thread keeps ciphers that are only initialized with this key, so that initializing them
+  // for a new message only sets the IV, and providers such as SunJCE do not expand the key again.
+  // Every operation initializes the cipher with the IV of its message first. Providers refuse to
+  // encrypt with the key and IV of the previous encryption of a GCM cipher. With random IVs, that
+  // only happens if an IV repeats, and then failing is right. decryptInPlace has to encrypt with
+  // the IV of the ciphertext, so it uses a new cipher if the provider refuses.
+  private final EngineFactory.ThreadLocalEngine<Cipher> localGcm =
+      EngineFactory.CIPHER.newThreadLocalEngine(GCM_ALGORITHM);
+  private final EngineFactory.ThreadLocalEngine<Cipher> localCtr =
+      EngineFactory.CIPHER.newThreadLocalEngine(CTR_ALGORITHM);
+
+  private Cipher instance() throws GeneralSecurityException {
+    return localGcm.get();
   }
 
   @Override
   public byte[] encrypt(final byte[] plaintext, final byte[] aad) throws GeneralSecurityException {
+    return encrypt(plaintext, aad, 0);
+  }
+
+  @Override
+  public byte[] encrypt(final byte[] plaintext, final byte[] aad, int offset)
+      throws GeneralSecurityException {
     // Check that ciphertext is not longer than the max. size of a Java array.
-    if (plaintext.length > Integer.MAX_VALUE - IV_SIZE_IN_BYTES - TAG_SIZE_IN_BYTES) {
+    if (offset < 0) {
+      throw new GeneralSecurityException("negative offset");
+    }
+    if (plaintext.length > Integer.MAX_VALUE - IV_SIZE_IN_BYTES - TAG_SIZE_IN_BYTES - offset) {
       throw new GeneralSecurityException("plaintext too long");
     }
-    byte[] ciphertext = new byte[IV_SIZE_IN_BYTES + plaintext.length + TAG_SIZE_IN_BYTES];
-    byte[] iv = Random.randBytes(IV_SIZE_IN_BYTES);
-    System.arraycopy(iv, 0, ciphertext, 0, IV_SIZE_IN_BYTES);
+    byte[] ciphertext = new byte[offset + ciphertextSize(plaintext.length)];
+    int unusedWritten = encrypt(plaintext, aad, ciphertext, offset);
+    return ciphertext;
+  }
+
+  @Override
+  public int encrypt(final byte[] plaintext, final byte[] aad, byte[] output, int outputOffset)
+      throws GeneralSecurityException {
+    if (outputOffset < 0
+        || (long) outputOffset + IV_SIZE_IN_BYTES + plaintext.length + TAG_SIZE_IN_BYTES
+            > output.length) {
+      throw new GeneralSecurityException("output array too small");
+    }
+    Random.randBytes(output, outputOffset, IV_SIZE_IN_BYTES);
 
     Cipher cipher = instance();
-    GCMParameterSpec params = new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, iv);
+    GCMParameterSpec params =
+        new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, output, outputOffset, IV_SIZE_IN_BYTES);
     cipher.init(Cipher.ENCRYPT_MODE, keySpec, params);
     cipher.updateAAD(aad);
     int unusedWritten =
-        cipher.doFinal(plaintext, 0, plaintext.length, ciphertext, IV_SIZE_IN_BYTES);
-    return ciphertext;
+        cipher.doFinal(
+            plaintext, 0, plaintext.length, output, outputOffset + IV_SIZE_IN_BYTES);
+    return ciphertextSize(plaintext.length);
   }
 
   @Override
@@ -71,4 +135,265 @@ public final class AesGcmJce implements Aead {
     cipher.updateAAD(aad);
     return cipher.doFinal(ciphertext, IV_SIZE_IN_BYTES, ciphertext.length - IV_SIZE_IN_BYTES);
   }
+
+  @Override
+  public int decrypt(
+      final byte[] ciphertext,
+      int offset,
+      int length,
+      final byte[] aad,
+      byte[] output,
+      int outputOffset)
+      throws GeneralSecurityException {
+    if (offset < 0 || length < 0 || (long) offset + length > ciphertext.length) {
+      throw new GeneralSecurityException("invalid offset or length");
+    }
+    if (length < IV_SIZE_IN_BYTES + TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    int plaintextLength = length - IV_SIZE_IN_BYTES - TAG_SIZE_IN_BYTES;
+    if (outputOffset < 0 || (long) outputOffset + plaintextLength > output.length) {
+      throw new GeneralSecurityException("output array too small");
+    }
+    GCMParameterSpec params =
+        new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, ciphertext, offset, IV_SIZE_IN_BYTES);
+    Cipher cipher = instance();
+    cipher.init(Cipher.DECRYPT_MODE, keySpec, params);
+    cipher.updateAAD(aad);
+    return cipher.doFinal(
+        ciphertext, offset + IV_SIZE_IN_BYTES, length - IV_SIZE_IN_BYTES, output, outputOffset);
+  }
+
+  /**
+   * Encrypts in place: the {@code plaintextLength} bytes of plaintext at {@code offset} of {@code
+   * buffer} are overwritten with the ciphertext, which takes the {@link #ciphertextSize} bytes
+   * starting at {@code offset}. Unlike {@link #encrypt}, this does not allocate an array of the
+   * size of the plaintext.
+   *
+   * @return the size of the ciphertext.
+   * @throws GeneralSecurityException if {@code buffer} has less than {@link #ciphertextSize} bytes
+   *     starting at {@code offset}
+   */
+  public int encryptInPlace(byte[] buffer, int offset, int plaintextLength, final byte[] aad)
+      throws GeneralSecurityException {
+    if (offset < 0 || plaintextLength < 0) {
+      throw new GeneralSecurityException("negative offset or length");
+    }
+    if ((long) offset + plaintextLength + IV_SIZE_IN_BYTES + TAG_SIZE_IN_BYTES > buffer.length) {
+      throw new GeneralSecurityException("buffer too small");
+    }
+    int ciphertextOffset = offset + IV_SIZE_IN_BYTES;
+    System.arraycopy(buffer, offset, buffer, ciphertextOffset, plaintextLength);
+    Random.randBytes(buffer, offset, IV_SIZE_IN_BYTES);
+    Cipher cipher = instance();
+    cipher.init(
+        Cipher.ENCRYPT_MODE,
+        keySpec,
+        new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, buffer, offset, IV_SIZE_IN_BYTES));
+    cipher.updateAAD(aad);
+    int written = updateInPlace(cipher, buffer, ciphertextOffset, plaintextLength);
+    int unusedWritten = cipher.doFinal(buffer, ciphertextOffset + written);
+    return ciphertextSize(plaintextLength);
+  }
+
+  /**
+   * Decrypts in place: the tag of the {@code ciphertextLength} bytes of ciphertext at {@code
+   * offset} of {@code buffer} is verified, and only then is the ciphertext overwritten with the
+   * plaintext, starting at {@code offset}. The bytes of the ciphertext after the plaintext are left
+   * unspecified. If the tag is invalid, {@code buffer} is not modified.
+   *
+   * <p>No unverified plaintext is written to {@code buffer}. Providers only release the plaintext
+   * of AES-GCM once they have buffered the whole ciphertext, so the tag is recomputed instead: each
+   * chunk of the ciphertext is decrypted with AES-CTR into a scratch chunk of the calling thread,
+   * and encrypted again with AES-GCM. Once the tag has been verified, the ciphertext is decrypted
+   * with AES-CTR in a second pass, chunk by chunk, and written back to {@code buffer}. This is two
+   * to three times slower than {@link #decrypt}, but it does not allocate arrays that grow with
+   * the size of the ciphertext.
+   *
+   * @return the size of the plaintext.
+   * @throws GeneralSecurityException if the ciphertext is invalid
+   */
+  public int decryptInPlace(byte[] buffer, int offset, int ciphertextLength, final byte[] aad)
+      throws GeneralSecurityException {
+    if (offset < 0 || ciphertextLength < 0 || (long) offset + ciphertextLength > buffer.length) {
+      throw new GeneralSecurityException("invalid offset or length");
+    }
+    if (ciphertextLength < IV_SIZE_IN_BYTES + TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    int ciphertextOffset = offset + IV_SIZE_IN_BYTES;
+    int plaintextLength = ciphertextLength - IV_SIZE_IN_BYTES - TAG_SIZE_IN_BYTES;
+    int tagOffset = ciphertextOffset + plaintextLength;
+    Scratch scratch = localScratch.get();
+
+    Cipher ctr = localCtr.get();
+    IvParameterSpec counter = new IvParameterSpec(gcmInitialCounter(buffer, offset));
+    ctr.init(Cipher.DECRYPT_MODE, keySpec, counter);
+    GCMParameterSpec params =
+        new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, buffer, offset, IV_SIZE_IN_BYTES);
+    Cipher gcm = instance();
+    try {
+      gcm.init(Cipher.ENCRYPT_MODE, keySpec, params);
+    } catch (InvalidAlgorithmParameterException e) {
+      // The thread-local cipher may just have encrypted this very ciphertext.
+      gcm = EngineFactory.CIPHER.getInstance(GCM_ALGORITHM);
+      gcm.init(Cipher.ENCRYPT_MODE, keySpec, params);
+    }
+    gcm.updateAAD(aad);
+    int tagEnd;
+    try {
+      for (int done = 0; done < plaintextLength; ) {
+        int chunk = Math.min(IN_PLACE_CHUNK_SIZE, plaintextLength - done);
+        int decrypted = ctr.update(buffer, ciphertextOffset + done, chunk, scratch.plaintext, 0);
+        int unusedEncrypted = gcm.update(scratch.plaintext, 0, decrypted, scratch.ciphertext, 0);
+        done += chunk;
+      }
+      int decrypted = ctr.doFinal(scratch.plaintext, 0);
+      int encrypted = gcm.update(scratch.plaintext, 0, decrypted, scratch.ciphertext, 0);
+      // The tag follows the rest of the ciphertext.
+      tagEnd = encrypted + gcm.doFinal(scratch.ciphertext, encrypted);
+    } finally {
+      Arrays.fill(scratch.plaintext, (byte) 0);
+    }
+    int diff = 0;
+    for (int i = 0; i < TAG_SIZE_IN_BYTES; i++) {
+      diff |= buffer[tagOffset + i] ^ scratch.ciphertext[tagEnd - TAG_SIZE_IN_BYTES + i];
+    }
+    if (diff != 0) {
+      throw new AEADBadTagException("tag mismatch");
+    }
+
+    // The plaintext is written IV_SIZE_IN_BYTES before the ciphertext it is decrypted from, which
+    // has already been read by then.
+    ctr.init(Cipher.DECRYPT_MODE, keySpec, counter);
+    try {
+      int written = 0;
+      for (int done = 0; done < plaintextLength; ) {
+        int chunk = Math.min(IN_PLACE_CHUNK_SIZE, plaintextLength - done);
+        int decrypted = ctr.update(buffer, ciphertextOffset + done, chunk, scratch.plaintext, 0);
+        System.arraycopy(scratch.plaintext, 0, buffer, offset + written, decrypted);
+        written += decrypted;
+        done += chunk;
+      }
+      int unusedWritten = ctr.doFinal(buffer, offset + written);
+    } finally {
+      Arrays.fill(scratch.plaintext, (byte) 0);
+    }
+    return plaintextLength;
+  }
+
+  /**
+   * Passes the {@code length} bytes of {@code buffer} at {@code offset} through {@code cipher}, and
+   * writes the output back to {@code buffer} at {@code offset}.
+   *
+   * @return the number of bytes written, which may be less than {@code length} if the cipher
+   *     buffers some input until it is finished.
+   */
+  private static int updateInPlace(Cipher cipher, byte[] buffer, int offset, int length)
+      throws GeneralSecurityException {
+    int written = 0;
+    for (int done = 0; done < length; ) {
+      int chunk = Math.min(IN_PLACE_CHUNK_SIZE, length - done);
+      written += cipher.update(buffer, offset + done, chunk, buffer, offset + written);
+      done += chunk;
+    }
+    return written;
+  }
+
+  /**
+   * @return the counter block with which GCM encrypts the first block of plaintext, for the 12 byte
+   *     IV at {@code offset} of {@code buffer}: {@code iv || 0x00000002}.
+   */
+  private static byte[] gcmInitialCounter(final byte[] buffer, int offset) {
+    byte[] counter = Arrays.copyOfRange(buffer, offset, offset + IV_SIZE_IN_BYTES + 4);
+    counter[IV_SIZE_IN_BYTES] = 0;
+    counter[IV_SIZE_IN_BYTES + 1] = 0;
+    counter[IV_SIZE_IN_BYTES + 2] = 0;
+    counter[IV_SIZE_IN_BYTES + 3] = 2;
+    return counter;
+  }
+
+  @Override
+  public int ciphertextSize(int plaintextSize) {
+    return IV_SIZE_IN_BYTES + plaintextSize + TAG_SIZE_IN_BYTES;
+  }
+
+  @Override
+  public void encrypt(ByteBuffer plaintext, ByteBuffer aad, ByteBuffer ciphertext)
+      throws GeneralSecurityException {
+    encrypt(new ByteBuffer[] {plaintext}, aad, ciphertext);
+  }
+
+  // The buffer methods pass the buffers to the JCE as they are, so that direct buffers are not
+  // copied to the heap.
+  @Override
+  public void encrypt(ByteBuffer[] plaintext, ByteBuffer aad, ByteBuffer ciphertext)
+      throws GeneralSecurityException {
+    long plaintextLength = 0;
+    for (ByteBuffer part : plaintext) {
+      plaintextLength += part.remaining();
+    }
+    if (plaintextLength > Integer.MAX_VALUE - IV_SIZE_IN_BYTES - TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("plaintext too long");
+    }
+    if (ciphertext.remaining() < ciphertextSize((int) plaintextLength)) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    ByteBuffer out = ciphertext.duplicate();
+    GCMParameterSpec params;
+    if (out.hasArray()) {
+      // Writes the IV straight into the output array.
+      int ivOffset = out.arrayOffset() + out.position();
+      Random.randBytes(out.array(), ivOffset, IV_SIZE_IN_BYTES);
+      params = new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, out.array(), ivOffset, IV_SIZE_IN_BYTES);
+      out.position(out.position() + IV_SIZE_IN_BYTES);
+    } else {
+      byte[] iv = Random.randBytes(IV_SIZE_IN_BYTES);
+      params = new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, iv);
+      out.put(iv);
+    }
+    Cipher cipher = instance();
+    cipher.init(Cipher.ENCRYPT_MODE, keySpec, params);
+    cipher.updateAAD(aad);
+    for (int i = 0; i < plaintext.length - 1; i++) {
+      int unusedWritten = cipher.update(plaintext[i], out);
+    }
+    int unusedWritten =
+        cipher.doFinal(
+            plaintext.length == 0 ? ByteBuffer.allocate(0) : plaintext[plaintext.length - 1], out);
+    ciphertext.position(out.position());
+  }
+
+  @Override
+  public void decrypt(ByteBuffer ciphertext, ByteBuffer aad, ByteBuffer plaintext)
+      throws GeneralSecurityException {
+    if (ciphertext.remaining() < IV_SIZE_IN_BYTES + TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    if (plaintext.remaining() < ciphertext.remaining() - IV_SIZE_IN_BYTES - TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    GCMParameterSpec params;
+    if (ciphertext.hasArray()) {
+      // Reads the IV straight from the input array.
+      params =
+          new GCMParameterSpec(
+              8 * TAG_SIZE_IN_BYTES,
+              ciphertext.array(),
+              ciphertext.arrayOffset() + ciphertext.position(),
+              IV_SIZE_IN_BYTES);
+      ciphertext.position(ciphertext.position() + IV_SIZE_IN_BYTES);
+    } else {
+      byte[] iv = new byte[IV_SIZE_IN_BYTES];
+      ciphertext.get(iv);
+      params = new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, iv);
+    }
+    Cipher cipher = instance();
+    cipher.init(Cipher.DECRYPT_MODE, keySpec, params);
+    cipher.updateAAD(aad);
+    // The JCE only releases plaintext once the tag has been verified.
+    ByteBuffer out = plaintext.duplicate();
+    int unusedWritten = cipher.doFinal(ciphertext, out);
+    plaintext.position(out.position());
+  }
 };
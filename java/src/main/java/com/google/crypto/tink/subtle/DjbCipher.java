@@ -19,6 +19,7 @@ package com.google.crypto.tink.subtle;
 import static com.google.crypto.tink.subtle.Poly1305.MAC_KEY_SIZE_IN_BYTES;
 
 import com.google.crypto.tink.annotations.Alpha;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
@@ -31,7 +32,7 @@ import java.util.Arrays;
  * <p>Class of Djb's ciphers that are meant to be used to construct an AEAD with Poly1305.
  */
 @Alpha
-public abstract class DjbCipher implements IndCpaCipher {
+public abstract class DjbCipher implements OffsetIndCpaCipher {
 
   static final int BLOCK_SIZE_IN_INTS = 16;
   public static final int BLOCK_SIZE_IN_BYTES = BLOCK_SIZE_IN_INTS * 4;
@@ -40,6 +41,9 @@ public abstract class DjbCipher implements IndCpaCipher {
 
   private static final byte[] ZERO_16_BYTES = new byte[16];
 
+  // Direct buffers are processed through a scratch array of this size, in whole blocks.
+  private static final int PROCESS_CHUNK_SIZE_IN_BYTES = 64 * BLOCK_SIZE_IN_BYTES;
+
   static final int[] SIGMA =
       toIntArray(
           ByteBuffer.wrap(
@@ -97,13 +101,33 @@ public abstract class DjbCipher implements IndCpaCipher {
     return ret;
   }
 
+  static int loadLittleEndian(final byte[] in, int offset) {
+    return (in[offset] & 0xff)
+        | (in[offset + 1] & 0xff) << 8
+        | (in[offset + 2] & 0xff) << 16
+        | in[offset + 3] << 24;
+  }
+
+  static void storeLittleEndian(byte[] out, int offset, int value) {
+    out[offset] = (byte) value;
+    out[offset + 1] = (byte) (value >>> 8);
+    out[offset + 2] = (byte) (value >>> 16);
+    out[offset + 3] = (byte) (value >>> 24);
+  }
+
   int[] shuffleAdd(int[] state) {
-    int[] x = Arrays.copyOf(state, state.length);
-    shuffle(x);
+    int[] x = new int[state.length];
+    shuffleAdd(state, x);
+    return x;
+  }
+
+  /** Writes the key stream block of {@code state} to {@code block}, without allocating. */
+  void shuffleAdd(final int[] state, int[] block) {
+    System.arraycopy(state, 0, block, 0, state.length);
+    shuffle(block);
     for (int i = 0; i < state.length; i++) {
-      x[i] += state[i];
+      block[i] += state[i];
     }
-    return x;
   }
 
   /** Returns a one-time authenticator key as part of an AEAD algorithm (e.g., Poly1305). */
@@ -138,6 +162,8 @@ public abstract class DjbCipher implements IndCpaCipher {
     // The blocks that is returned, can be unaligned from the actual key stream blocks if first is
     // called before next.
     private int[] keyStreamBlockReturn;
+    // The index of the first unused int of keyStreamBlock; BLOCK_SIZE_IN_INTS once xor has used up
+    // the block.
     private int currentPosInBlock;
     private boolean readCalled;
 
@@ -146,7 +172,8 @@ public abstract class DjbCipher implements IndCpaCipher {
       keyStreamBlockReturn = new int[BLOCK_SIZE_IN_INTS];
       currentPosInBlock = 0;
       state = djbCipher.initialState(nonce, counter);
-      keyStreamBlock = djbCipher.shuffleAdd(state);
+      keyStreamBlock = new int[BLOCK_SIZE_IN_INTS];
+      djbCipher.shuffleAdd(state, keyStreamBlock);
       readCalled = false;
     }
 
@@ -178,7 +205,7 @@ public abstract class DjbCipher implements IndCpaCipher {
           0,
           BLOCK_SIZE_IN_INTS - currentPosInBlock);
       djbCipher.incrementCounter(state);
-      keyStreamBlock = djbCipher.shuffleAdd(state);
+      djbCipher.shuffleAdd(state, keyStreamBlock);
       System.arraycopy(
           keyStreamBlock,
           0,
@@ -187,21 +214,92 @@ public abstract class DjbCipher implements IndCpaCipher {
           currentPosInBlock);
       return keyStreamBlockReturn;
     }
+
+    /**
+     * XORs the next {@code length} bytes of the key stream with the bytes of {@code input} at
+     * {@code inputOffset}, and writes the result to {@code output} at {@code outputOffset}. The key
+     * stream is consumed in whole ints, so only the last call may have a length that is not a
+     * multiple of 4. {@code input} and {@code output} may be the same region of the same array, or
+     * {@code output} may start before {@code input} in the same array, since each int of input is
+     * read before the output that may overwrite it is written. They must not overlap otherwise.
+     */
+    void xor(final byte[] input, int inputOffset, byte[] output, int outputOffset, int length) {
+      readCalled = true;
+      int[] block = keyStreamBlock;
+      int done = 0;
+      while (done < length) {
+        if (currentPosInBlock == BLOCK_SIZE_IN_INTS) {
+          djbCipher.incrementCounter(state);
+          djbCipher.shuffleAdd(state, block);
+          currentPosInBlock = 0;
+        }
+        int ints = Math.min(BLOCK_SIZE_IN_INTS - currentPosInBlock, (length - done) / 4);
+        if (ints == 0) {
+          // Fewer than 4 bytes are left.
+          int key = block[currentPosInBlock++];
+          for (; done < length; done++, key >>>= 8) {
+            output[outputOffset + done] = (byte) (input[inputOffset + done] ^ key);
+          }
+          return;
+        }
+        for (int i = currentPosInBlock; i < currentPosInBlock + ints; i++, done += 4) {
+          storeLittleEndian(
+              output, outputOffset + done, loadLittleEndian(input, inputOffset + done) ^ block[i]);
+        }
+        currentPosInBlock += ints;
+      }
+    }
   }
 
-  private void process(ByteBuffer output, ByteBuffer input, KeyStream keyStream) {
-    // xor the underlying cipher stream with the input.
-    ByteBuffer buf = ByteBuffer.allocate(BLOCK_SIZE_IN_BYTES).order(ByteOrder.LITTLE_ENDIAN);
-    int todo;
+  private static void process(ByteBuffer output, ByteBuffer input, KeyStream keyStream) {
+    int length = input.remaining();
+    if (output.remaining() < length) {
+      throw new BufferOverflowException();
+    }
+    if (input.hasArray() && output.hasArray()) {
+      keyStream.xor(
+          input.array(),
+          input.arrayOffset() + input.position(),
+          output.array(),
+          output.arrayOffset() + output.position(),
+          length);
+      input.position(input.limit());
+      output.position(output.position() + length);
+      return;
+    }
+    byte[] chunk = new byte[Math.min(length, PROCESS_CHUNK_SIZE_IN_BYTES)];
     while (input.hasRemaining()) {
-      todo = input.remaining() < BLOCK_SIZE_IN_BYTES ? input.remaining() : BLOCK_SIZE_IN_BYTES;
-      buf.asIntBuffer().put(keyStream.next());
-      for (int j = 0; j < todo; j++) {
-        output.put((byte) (input.get() ^ buf.get(j)));
-      }
+      int todo = Math.min(chunk.length, input.remaining());
+      input.get(chunk, 0, todo);
+      keyStream.xor(chunk, 0, chunk, 0, todo);
+      output.put(chunk, 0, todo);
     }
   }
 
+  /**
+   * XORs the key stream for {@code nonce} with the {@code length} bytes of {@code input} at {@code
+   * inputOffset}, and writes the result to {@code output} at {@code outputOffset}, i.e., encrypts
+   * or decrypts them. {@code input} and {@code output} may be the same region of the same array,
+   * or {@code output} may start before {@code input} in the same array.
+   */
+  void process(
+      final byte[] input,
+      int inputOffset,
+      byte[] output,
+      int outputOffset,
+      int length,
+      final byte[] nonce) {
+    getKeyStream(nonce).xor(input, inputOffset, output, outputOffset, length);
+  }
+
+  /**
+   * XORs the key stream for {@code nonce} into the {@code length} bytes of {@code buffer} at
+   * {@code offset}, i.e., encrypts or decrypts them in place.
+   */
+  void processInPlace(byte[] buffer, int offset, int length, final byte[] nonce) {
+    process(buffer, offset, buffer, offset, length, nonce);
+  }
+
   // TestOnly
   void process(ByteBuffer output, ByteBuffer input, byte[] nonce, int counter) {
     process(output, input, new KeyStream(this, nonce, counter));
@@ -209,37 +307,115 @@ public abstract class DjbCipher implements IndCpaCipher {
 
   @Override
   public byte[] encrypt(final byte[] plaintext) throws GeneralSecurityException {
-    ByteBuffer ciphertext = ByteBuffer.allocate(nonceSizeInBytes() + plaintext.length);
-    encrypt(ciphertext, plaintext);
-    return ciphertext.array();
+    if (plaintext.length > Integer.MAX_VALUE - nonceSizeInBytes()) {
+      throw new GeneralSecurityException("plaintext too long");
+    }
+    byte[] ciphertext = new byte[nonceSizeInBytes() + plaintext.length];
+    int unused = encrypt(plaintext, ciphertext, 0);
+    return ciphertext;
+  }
+
+  @Override
+  public int ciphertextSize(int plaintextSize) {
+    return nonceSizeInBytes() + plaintextSize;
+  }
+
+  @Override
+  public int encrypt(final byte[] plaintext, byte[] output, int offset)
+      throws GeneralSecurityException {
+    if (offset < 0 || (long) offset + nonceSizeInBytes() + plaintext.length > output.length) {
+      throw new GeneralSecurityException("output too small");
+    }
+    int nonceSize = nonceSizeInBytes();
+    Random.randBytes(output, offset, nonceSize);
+    byte[] nonce = Arrays.copyOfRange(output, offset, offset + nonceSize);
+    process(plaintext, 0, output, offset + nonceSize, plaintext.length, nonce);
+    return nonceSizeInBytes() + plaintext.length;
   }
 
   void encrypt(ByteBuffer output, final byte[] plaintext) throws GeneralSecurityException {
-    if (plaintext.length > Integer.MAX_VALUE - nonceSizeInBytes()) {
+    encrypt(output, ByteBuffer.wrap(plaintext));
+  }
+
+  /**
+   * Encrypts the remaining bytes of {@code plaintext} and writes {@code nonce || ciphertext} to
+   * {@code output}. {@code plaintext} may be a view of the region of {@code output} right after
+   * the nonce, in which case the encryption happens in place.
+   */
+  void encrypt(ByteBuffer output, ByteBuffer plaintext) throws GeneralSecurityException {
+    if (plaintext.remaining() > Integer.MAX_VALUE - nonceSizeInBytes()) {
       throw new GeneralSecurityException("plaintext too long");
     }
-    if (output.remaining() < plaintext.length + nonceSizeInBytes()) {
+    if (output.remaining() < plaintext.remaining() + nonceSizeInBytes()) {
       throw new IllegalArgumentException("Given ByteBuffer output is too small");
     }
-    byte[] nonce = Random.randBytes(nonceSizeInBytes());
-    output.put(nonce);
-    process(output, ByteBuffer.wrap(plaintext), getKeyStream(nonce));
+    byte[] nonce;
+    if (output.hasArray()) {
+      int nonceSize = nonceSizeInBytes();
+      int nonceOffset = output.arrayOffset() + output.position();
+      Random.randBytes(output.array(), nonceOffset, nonceSize);
+      nonce = Arrays.copyOfRange(output.array(), nonceOffset, nonceOffset + nonceSize);
+      output.position(output.position() + nonceSize);
+    } else {
+      nonce = Random.randBytes(nonceSizeInBytes());
+      output.put(nonce);
+    }
+    process(output, plaintext, getKeyStream(nonce));
   }
 
-  byte[] decrypt(ByteBuffer ciphertext) throws GeneralSecurityException {
+  /**
+   * Decrypts the remaining bytes of {@code ciphertext}, which has the format {@code nonce ||
+   * ciphertext}, into {@code plaintext}.
+   */
+  void decrypt(ByteBuffer ciphertext, ByteBuffer plaintext) throws GeneralSecurityException {
     if (ciphertext.remaining() < nonceSizeInBytes()) {
       throw new GeneralSecurityException("ciphertext too short");
     }
+    if (plaintext.remaining() < ciphertext.remaining() - nonceSizeInBytes()) {
+      throw new IllegalArgumentException("Given ByteBuffer output is too small");
+    }
     byte[] nonce = new byte[nonceSizeInBytes()];
     ciphertext.get(nonce);
-    ByteBuffer plaintext = ByteBuffer.allocate(ciphertext.remaining());
     process(plaintext, ciphertext, getKeyStream(nonce));
-    return plaintext.array();
   }
 
   @Override
   public byte[] decrypt(final byte[] ciphertext) throws GeneralSecurityException {
-    return decrypt(ByteBuffer.wrap(ciphertext));
+    return decrypt(ciphertext, 0, ciphertext.length);
+  }
+
+  @Override
+  public byte[] decrypt(final byte[] ciphertext, int offset, int length)
+      throws GeneralSecurityException {
+    if (offset < 0 || length < 0 || (long) offset + length > ciphertext.length) {
+      throw new GeneralSecurityException("invalid offset or length");
+    }
+    int nonceSize = nonceSizeInBytes();
+    if (length < nonceSize) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    byte[] plaintext = new byte[length - nonceSize];
+    int unusedWritten = decrypt(ciphertext, offset, length, plaintext, 0);
+    return plaintext;
+  }
+
+  @Override
+  public int decrypt(
+      final byte[] ciphertext, int offset, int length, byte[] output, int outputOffset)
+      throws GeneralSecurityException {
+    if (offset < 0 || length < 0 || (long) offset + length > ciphertext.length) {
+      throw new GeneralSecurityException("invalid offset or length");
+    }
+    int nonceSize = nonceSizeInBytes();
+    if (length < nonceSize) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    if (outputOffset < 0 || (long) outputOffset + length - nonceSize > output.length) {
+      throw new GeneralSecurityException("output too small");
+    }
+    byte[] nonce = Arrays.copyOfRange(ciphertext, offset, offset + nonceSize);
+    process(ciphertext, offset + nonceSize, output, outputOffset, length - nonceSize, nonce);
+    return length - nonceSize;
   }
 
   abstract static class ChaCha20Base extends DjbCipher {
@@ -259,17 +435,111 @@ public abstract class DjbCipher implements IndCpaCipher {
       x[b] = rotateLeft(x[b] ^ x[c], 7);
     }
 
+    /**
+     * Runs the 20 rounds of ChaCha20 on {@code state}. The quarter rounds are those of {@link
+     * #quarterRound}, written out on local variables so that the state stays in registers.
+     */
     static void shuffleInternal(final int[] state) {
+      int x0 = state[0];
+      int x1 = state[1];
+      int x2 = state[2];
+      int x3 = state[3];
+      int x4 = state[4];
+      int x5 = state[5];
+      int x6 = state[6];
+      int x7 = state[7];
+      int x8 = state[8];
+      int x9 = state[9];
+      int x10 = state[10];
+      int x11 = state[11];
+      int x12 = state[12];
+      int x13 = state[13];
+      int x14 = state[14];
+      int x15 = state[15];
       for (int i = 0; i < 10; i++) {
-        quarterRound(state, 0, 4, 8, 12);
-        quarterRound(state, 1, 5, 9, 13);
-        quarterRound(state, 2, 6, 10, 14);
-        quarterRound(state, 3, 7, 11, 15);
-        quarterRound(state, 0, 5, 10, 15);
-        quarterRound(state, 1, 6, 11, 12);
-        quarterRound(state, 2, 7, 8, 13);
-        quarterRound(state, 3, 4, 9, 14);
+        // Column round.
+        x0 += x4;
+        x12 = rotateLeft(x12 ^ x0, 16);
+        x8 += x12;
+        x4 = rotateLeft(x4 ^ x8, 12);
+        x0 += x4;
+        x12 = rotateLeft(x12 ^ x0, 8);
+        x8 += x12;
+        x4 = rotateLeft(x4 ^ x8, 7);
+        x1 += x5;
+        x13 = rotateLeft(x13 ^ x1, 16);
+        x9 += x13;
+        x5 = rotateLeft(x5 ^ x9, 12);
+        x1 += x5;
+        x13 = rotateLeft(x13 ^ x1, 8);
+        x9 += x13;
+        x5 = rotateLeft(x5 ^ x9, 7);
+        x2 += x6;
+        x14 = rotateLeft(x14 ^ x2, 16);
+        x10 += x14;
+        x6 = rotateLeft(x6 ^ x10, 12);
+        x2 += x6;
+        x14 = rotateLeft(x14 ^ x2, 8);
+        x10 += x14;
+        x6 = rotateLeft(x6 ^ x10, 7);
+        x3 += x7;
+        x15 = rotateLeft(x15 ^ x3, 16);
+        x11 += x15;
+        x7 = rotateLeft(x7 ^ x11, 12);
+        x3 += x7;
+        x15 = rotateLeft(x15 ^ x3, 8);
+        x11 += x15;
+        x7 = rotateLeft(x7 ^ x11, 7);
+        // Diagonal round.
+        x0 += x5;
+        x15 = rotateLeft(x15 ^ x0, 16);
+        x10 += x15;
+        x5 = rotateLeft(x5 ^ x10, 12);
+        x0 += x5;
+        x15 = rotateLeft(x15 ^ x0, 8);
+        x10 += x15;
+        x5 = rotateLeft(x5 ^ x10, 7);
+        x1 += x6;
+        x12 = rotateLeft(x12 ^ x1, 16);
+        x11 += x12;
+        x6 = rotateLeft(x6 ^ x11, 12);
+        x1 += x6;
+        x12 = rotateLeft(x12 ^ x1, 8);
+        x11 += x12;
+        x6 = rotateLeft(x6 ^ x11, 7);
+        x2 += x7;
+        x13 = rotateLeft(x13 ^ x2, 16);
+        x8 += x13;
+        x7 = rotateLeft(x7 ^ x8, 12);
+        x2 += x7;
+        x13 = rotateLeft(x13 ^ x2, 8);
+        x8 += x13;
+        x7 = rotateLeft(x7 ^ x8, 7);
+        x3 += x4;
+        x14 = rotateLeft(x14 ^ x3, 16);
+        x9 += x14;
+        x4 = rotateLeft(x4 ^ x9, 12);
+        x3 += x4;
+        x14 = rotateLeft(x14 ^ x3, 8);
+        x9 += x14;
+        x4 = rotateLeft(x4 ^ x9, 7);
       }
+      state[0] = x0;
+      state[1] = x1;
+      state[2] = x2;
+      state[3] = x3;
+      state[4] = x4;
+      state[5] = x5;
+      state[6] = x6;
+      state[7] = x7;
+      state[8] = x8;
+      state[9] = x9;
+      state[10] = x10;
+      state[11] = x11;
+      state[12] = x12;
+      state[13] = x13;
+      state[14] = x14;
+      state[15] = x15;
     }
 
     @Override
@@ -439,11 +709,79 @@ public abstract class DjbCipher implements IndCpaCipher {
       quarterRound(state, 15, 12, 13, 14);
     }
 
+    /**
+     * Runs the 20 rounds of Salsa20 on {@code state}, i.e., 10 times {@link #columnRound} and
+     * {@link #rowRound}, written out on local variables so that the state stays in registers.
+     */
     private static void shuffleInternal(final int[] state) {
+      int x0 = state[0];
+      int x1 = state[1];
+      int x2 = state[2];
+      int x3 = state[3];
+      int x4 = state[4];
+      int x5 = state[5];
+      int x6 = state[6];
+      int x7 = state[7];
+      int x8 = state[8];
+      int x9 = state[9];
+      int x10 = state[10];
+      int x11 = state[11];
+      int x12 = state[12];
+      int x13 = state[13];
+      int x14 = state[14];
+      int x15 = state[15];
       for (int i = 0; i < 10; i++) {
-        columnRound(state);
-        rowRound(state);
+        // Column round.
+        x4 ^= rotateLeft(x0 + x12, 7);
+        x8 ^= rotateLeft(x4 + x0, 9);
+        x12 ^= rotateLeft(x8 + x4, 13);
+        x0 ^= rotateLeft(x12 + x8, 18);
+        x9 ^= rotateLeft(x5 + x1, 7);
+        x13 ^= rotateLeft(x9 + x5, 9);
+        x1 ^= rotateLeft(x13 + x9, 13);
+        x5 ^= rotateLeft(x1 + x13, 18);
+        x14 ^= rotateLeft(x10 + x6, 7);
+        x2 ^= rotateLeft(x14 + x10, 9);
+        x6 ^= rotateLeft(x2 + x14, 13);
+        x10 ^= rotateLeft(x6 + x2, 18);
+        x3 ^= rotateLeft(x15 + x11, 7);
+        x7 ^= rotateLeft(x3 + x15, 9);
+        x11 ^= rotateLeft(x7 + x3, 13);
+        x15 ^= rotateLeft(x11 + x7, 18);
+        // Row round.
+        x1 ^= rotateLeft(x0 + x3, 7);
+        x2 ^= rotateLeft(x1 + x0, 9);
+        x3 ^= rotateLeft(x2 + x1, 13);
+        x0 ^= rotateLeft(x3 + x2, 18);
+        x6 ^= rotateLeft(x5 + x4, 7);
+        x7 ^= rotateLeft(x6 + x5, 9);
+        x4 ^= rotateLeft(x7 + x6, 13);
+        x5 ^= rotateLeft(x4 + x7, 18);
+        x11 ^= rotateLeft(x10 + x9, 7);
+        x8 ^= rotateLeft(x11 + x10, 9);
+        x9 ^= rotateLeft(x8 + x11, 13);
+        x10 ^= rotateLeft(x9 + x8, 18);
+        x12 ^= rotateLeft(x15 + x14, 7);
+        x13 ^= rotateLeft(x12 + x15, 9);
+        x14 ^= rotateLeft(x13 + x12, 13);
+        x15 ^= rotateLeft(x14 + x13, 18);
       }
+      state[0] = x0;
+      state[1] = x1;
+      state[2] = x2;
+      state[3] = x3;
+      state[4] = x4;
+      state[5] = x5;
+      state[6] = x6;
+      state[7] = x7;
+      state[8] = x8;
+      state[9] = x9;
+      state[10] = x10;
+      state[11] = x11;
+      state[12] = x12;
+      state[13] = x13;
+      state[14] = x14;
+      state[15] = x15;
     }
 
     @Override
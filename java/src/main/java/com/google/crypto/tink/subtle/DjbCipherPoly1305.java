@@ -18,11 +18,13 @@ package com.google.crypto.tink.subtle;
 
 import static com.google.crypto.tink.subtle.Poly1305.MAC_TAG_SIZE_IN_BYTES;
 
-import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.ByteBufferAead;
+import com.google.crypto.tink.OffsetAead;
 import com.google.crypto.tink.annotations.Alpha;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 
 /**
  * an {@code Aead} construction with a {@link DjbCipher} and Poly1305.
@@ -44,7 +46,7 @@ import java.security.GeneralSecurityException;
  * (https://github.com/floodyberry/poly1305-donna) and released as public domain.
  */
 @Alpha
-public abstract class DjbCipherPoly1305 implements Aead {
+public abstract class DjbCipherPoly1305 implements ByteBufferAead, OffsetAead {
 
   private final DjbCipher djbCipher;
 
@@ -62,19 +64,39 @@ public abstract class DjbCipherPoly1305 implements Aead {
     }
 
     @Override
-    byte[] macData(byte[] aad, ByteBuffer ciphertext) {
-      int aadCeilLen = blockSizeMultipleCeil(aad.length);
-      int ciphertextLen = ciphertext.remaining();
-      int ciphertextCeilLen = blockSizeMultipleCeil(ciphertextLen);
-      ByteBuffer macData =
-          ByteBuffer.allocate(aadCeilLen + ciphertextCeilLen + 16).order(ByteOrder.LITTLE_ENDIAN);
-      macData.put(aad);
-      macData.position(aadCeilLen);
-      macData.put(ciphertext);
-      macData.position(aadCeilLen + ciphertextCeilLen);
-      macData.putLong(aad.length);
-      macData.putLong(ciphertextLen);
-      return macData.array();
+    byte[] computeTag(byte[] macKey, ByteBuffer aad, ByteBuffer ciphertext) {
+      Poly1305.Accumulator accumulator = new Poly1305.Accumulator(macKey);
+      long aadLength = aad.remaining();
+      long ciphertextLength = ciphertext.remaining();
+      accumulator.update(aad, /* padded= */ true);
+      accumulator.update(ciphertext, /* padded= */ true);
+      byte[] lengths =
+          ByteBuffer.allocate(16)
+              .order(ByteOrder.LITTLE_ENDIAN)
+              .putLong(aadLength)
+              .putLong(ciphertextLength)
+              .array();
+      accumulator.update(lengths, 0, lengths.length, /* padded= */ true);
+      return accumulator.finish();
+    }
+
+    @Override
+    byte[] computeTag(
+        byte[] macKey, byte[] aad, byte[] buffer, int ciphertextOffset, int ciphertextLength) {
+      Poly1305.Accumulator accumulator = new Poly1305.Accumulator(macKey);
+      if (aad == null) {
+        aad = new byte[0];
+      }
+      accumulator.update(aad, 0, aad.length, /* padded= */ true);
+      accumulator.update(buffer, ciphertextOffset, ciphertextLength, /* padded= */ true);
+      byte[] lengths =
+          ByteBuffer.allocate(16)
+              .order(ByteOrder.LITTLE_ENDIAN)
+              .putLong(aad.length)
+              .putLong(ciphertextLength)
+              .array();
+      accumulator.update(lengths, 0, lengths.length, /* padded= */ true);
+      return accumulator.finish();
     }
   }
 
@@ -86,10 +108,18 @@ public abstract class DjbCipherPoly1305 implements Aead {
     }
 
     @Override
-    byte[] macData(byte[] aad, ByteBuffer ciphertext) {
-      byte[] macData = new byte[ciphertext.remaining()];
-      ciphertext.get(macData);
-      return macData;
+    byte[] computeTag(byte[] macKey, ByteBuffer aad, ByteBuffer ciphertext) {
+      Poly1305.Accumulator accumulator = new Poly1305.Accumulator(macKey);
+      accumulator.update(ciphertext, /* padded= */ false);
+      return accumulator.finish();
+    }
+
+    @Override
+    byte[] computeTag(
+        byte[] macKey, byte[] aad, byte[] buffer, int ciphertextOffset, int ciphertextLength) {
+      Poly1305.Accumulator accumulator = new Poly1305.Accumulator(macKey);
+      accumulator.update(buffer, ciphertextOffset, ciphertextLength, /* padded= */ false);
+      return accumulator.finish();
     }
   }
 
@@ -125,11 +155,23 @@ public abstract class DjbCipherPoly1305 implements Aead {
     return new DjbCipherPoly1305Ietf(DjbCipher.xChaCha20(key));
   }
 
-  private static int blockSizeMultipleCeil(int x) {
-    return ((x + MAC_TAG_SIZE_IN_BYTES - 1) / MAC_TAG_SIZE_IN_BYTES) * MAC_TAG_SIZE_IN_BYTES;
+  /** NaCl ignores the additional data, so callers may pass null. */
+  private static ByteBuffer wrapAad(final byte[] additionalData) {
+    return additionalData == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(additionalData);
   }
 
-  abstract byte[] macData(byte[] aad, ByteBuffer ciphertext);
+  /**
+   * Returns the tag of the remaining bytes of {@code ciphertext} with the remaining bytes of {@code
+   * aad} as associated data. Both buffers are consumed, but the ciphertext is not copied.
+   */
+  abstract byte[] computeTag(byte[] macKey, ByteBuffer aad, ByteBuffer ciphertext);
+
+  /**
+   * Returns the tag of the {@code ciphertextLength} bytes of {@code buffer} at {@code
+   * ciphertextOffset} with {@code aad} as associated data, without copying the ciphertext.
+   */
+  abstract byte[] computeTag(
+      byte[] macKey, byte[] aad, byte[] buffer, int ciphertextOffset, int ciphertextLength);
 
   public int nonceSizeInBytes() {
     return djbCipher.nonceSizeInBytes();
@@ -152,29 +194,236 @@ public abstract class DjbCipherPoly1305 implements Aead {
   @Override
   public byte[] encrypt(final byte[] plaintext, final byte[] additionalData)
       throws GeneralSecurityException {
-    ByteBuffer ciphertext =
-        ByteBuffer.allocate(nonceSizeInBytes() + plaintext.length + MAC_TAG_SIZE_IN_BYTES);
-    encrypt(ciphertext, plaintext, additionalData);
-    return ciphertext.array();
+    return encrypt(plaintext, additionalData, 0);
+  }
+
+  @Override
+  public byte[] encrypt(final byte[] plaintext, final byte[] additionalData, int offset)
+      throws GeneralSecurityException {
+    if (offset < 0) {
+      throw new GeneralSecurityException("negative offset");
+    }
+    int overhead = nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES;
+    if (plaintext.length > Integer.MAX_VALUE - overhead - offset) {
+      throw new GeneralSecurityException("plaintext too long");
+    }
+    byte[] ciphertext = new byte[offset + overhead + plaintext.length];
+    int unusedWritten = encrypt(plaintext, additionalData, ciphertext, offset);
+    return ciphertext;
+  }
+
+  @Override
+  public int encrypt(
+      final byte[] plaintext, final byte[] additionalData, byte[] output, int outputOffset)
+      throws GeneralSecurityException {
+    if (outputOffset < 0
+        || (long) outputOffset + ciphertextSize(0) + plaintext.length > output.length) {
+      throw new GeneralSecurityException("output array too small");
+    }
+    int ciphertextOffset = outputOffset + nonceSizeInBytes();
+    Random.randBytes(output, outputOffset, nonceSizeInBytes());
+    byte[] nonce = Arrays.copyOfRange(output, outputOffset, ciphertextOffset);
+    djbCipher.process(plaintext, 0, output, ciphertextOffset, plaintext.length, nonce);
+    byte[] tag =
+        computeTag(
+            djbCipher.getAuthenticatorKey(nonce),
+            additionalData,
+            output,
+            ciphertextOffset,
+            plaintext.length);
+    System.arraycopy(tag, 0, output, ciphertextOffset + plaintext.length, MAC_TAG_SIZE_IN_BYTES);
+    return ciphertextSize(plaintext.length);
   }
 
   void encrypt(ByteBuffer output, final byte[] plaintext, final byte[] additionalData)
       throws GeneralSecurityException {
-    if (output.remaining() < plaintext.length + nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES) {
+    encryptInternal(output, ByteBuffer.wrap(plaintext), wrapAad(additionalData));
+  }
+
+  private void encryptInternal(
+      ByteBuffer output, ByteBuffer plaintext, ByteBuffer additionalData)
+      throws GeneralSecurityException {
+    if (output.remaining() < plaintext.remaining() + nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES) {
       throw new IllegalArgumentException("Given ByteBuffer output is too small");
     }
     int firstPosition = output.position();
     djbCipher.encrypt(output, plaintext);
-    output.position(firstPosition);
+    ByteBuffer ciphertext = output.duplicate();
+    ciphertext.limit(output.position());
+    ciphertext.position(firstPosition);
     byte[] nonce = new byte[djbCipher.nonceSizeInBytes()];
-    output.get(nonce);
-    output.limit(output.limit() - MAC_TAG_SIZE_IN_BYTES);
-    byte[] tag =
-        Poly1305.computeMac(djbCipher.getAuthenticatorKey(nonce), macData(additionalData, output));
-    output.limit(output.limit() + MAC_TAG_SIZE_IN_BYTES);
+    ciphertext.get(nonce);
+    byte[] tag = computeTag(djbCipher.getAuthenticatorKey(nonce), additionalData, ciphertext);
     output.put(tag);
   }
 
+  /**
+   * Encrypts in place: the {@code plaintextLength} bytes of plaintext at {@code offset} of {@code
+   * buffer} are overwritten with the ciphertext {@code nonce || actual_ciphertext || tag}, which
+   * takes the {@link #ciphertextSize} bytes starting at {@code offset}. Unlike {@link #encrypt},
+   * this does not allocate an array of the size of the plaintext.
+   *
+   * @return the size of the ciphertext.
+   * @throws GeneralSecurityException if {@code buffer} has less than {@link #ciphertextSize} bytes
+   *     starting at {@code offset}
+   */
+  public int encryptInPlace(
+      byte[] buffer, int offset, int plaintextLength, final byte[] additionalData)
+      throws GeneralSecurityException {
+    int nonceSize = nonceSizeInBytes();
+    if (offset < 0 || plaintextLength < 0) {
+      throw new GeneralSecurityException("negative offset or length");
+    }
+    if ((long) offset + plaintextLength + nonceSize + MAC_TAG_SIZE_IN_BYTES > buffer.length) {
+      throw new GeneralSecurityException("buffer too small");
+    }
+    int ciphertextOffset = offset + nonceSize;
+    System.arraycopy(buffer, offset, buffer, ciphertextOffset, plaintextLength);
+    Random.randBytes(buffer, offset, nonceSize);
+    byte[] nonce = Arrays.copyOfRange(buffer, offset, ciphertextOffset);
+    djbCipher.processInPlace(buffer, ciphertextOffset, plaintextLength, nonce);
+    byte[] tag =
+        computeTag(
+            djbCipher.getAuthenticatorKey(nonce),
+            additionalData,
+            buffer,
+            ciphertextOffset,
+            plaintextLength);
+    System.arraycopy(tag, 0, buffer, ciphertextOffset + plaintextLength, MAC_TAG_SIZE_IN_BYTES);
+    return ciphertextSize(plaintextLength);
+  }
+
+  /**
+   * Decrypts in place: the tag of the {@code ciphertextLength} bytes of ciphertext at {@code
+   * offset} of {@code buffer} is verified, and only then is the ciphertext overwritten with the
+   * plaintext, starting at {@code offset}. The key stream output is written straight to {@code
+   * offset}, so the bytes of the ciphertext after the plaintext only hold the end of the ciphertext
+   * and the tag. If the tag is invalid, {@code buffer} is not modified.
+   *
+   * @return the size of the plaintext.
+   * @throws GeneralSecurityException if the ciphertext is invalid
+   */
+  public int decryptInPlace(
+      byte[] buffer, int offset, int ciphertextLength, final byte[] additionalData)
+      throws GeneralSecurityException {
+    int nonceSize = nonceSizeInBytes();
+    if (offset < 0 || ciphertextLength < 0 || (long) offset + ciphertextLength > buffer.length) {
+      throw new GeneralSecurityException("invalid offset or length");
+    }
+    if (ciphertextLength < nonceSize + MAC_TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    int ciphertextOffset = offset + nonceSize;
+    int plaintextLength = ciphertextLength - nonceSize - MAC_TAG_SIZE_IN_BYTES;
+    byte[] nonce = Arrays.copyOfRange(buffer, offset, ciphertextOffset);
+    verifyTag(nonce, additionalData, buffer, ciphertextOffset, plaintextLength);
+    djbCipher.process(buffer, ciphertextOffset, buffer, offset, plaintextLength, nonce);
+    return plaintextLength;
+  }
+
+  /**
+   * Verifies the tag that follows the {@code ciphertextLength} bytes of ciphertext at {@code
+   * ciphertextOffset} of {@code buffer}.
+   *
+   * @throws GeneralSecurityException if the tag is invalid
+   */
+  private void verifyTag(
+      final byte[] nonce,
+      final byte[] additionalData,
+      final byte[] buffer,
+      int ciphertextOffset,
+      int ciphertextLength)
+      throws GeneralSecurityException {
+    int tagOffset = ciphertextOffset + ciphertextLength;
+    byte[] expectedTag =
+        computeTag(
+            djbCipher.getAuthenticatorKey(nonce),
+            additionalData,
+            buffer,
+            ciphertextOffset,
+            ciphertextLength);
+    if (!Bytes.equal(
+        expectedTag, Arrays.copyOfRange(buffer, tagOffset, tagOffset + MAC_TAG_SIZE_IN_BYTES))) {
+      throw new GeneralSecurityException("invalid MAC");
+    }
+  }
+
+  @Override
+  public int ciphertextSize(int plaintextSize) {
+    return nonceSizeInBytes() + plaintextSize + MAC_TAG_SIZE_IN_BYTES;
+  }
+
+  @Override
+  public void encrypt(ByteBuffer plaintext, ByteBuffer additionalData, ByteBuffer ciphertext)
+      throws GeneralSecurityException {
+    encrypt(new ByteBuffer[] {plaintext}, additionalData, ciphertext);
+  }
+
+  @Override
+  public void encrypt(ByteBuffer[] plaintext, ByteBuffer additionalData, ByteBuffer ciphertext)
+      throws GeneralSecurityException {
+    long plaintextLength = 0;
+    for (ByteBuffer part : plaintext) {
+      plaintextLength += part.remaining();
+    }
+    if (plaintextLength > Integer.MAX_VALUE - nonceSizeInBytes() - MAC_TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("plaintext too long");
+    }
+    if (ciphertext.remaining() < ciphertextSize((int) plaintextLength)) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    ByteBuffer out = ciphertext.duplicate();
+    if (plaintext.length == 1) {
+      encryptInternal(out, plaintext[0], additionalData);
+    } else {
+      // The key stream is consumed in whole blocks, so gather the parts into the output first and
+      // encrypt them there in place.
+      ByteBuffer gathered = out.duplicate();
+      gathered.position(out.position() + nonceSizeInBytes());
+      for (ByteBuffer part : plaintext) {
+        gathered.put(part);
+      }
+      gathered.limit(gathered.position());
+      gathered.position(out.position() + nonceSizeInBytes());
+      encryptInternal(out, gathered, additionalData);
+    }
+    additionalData.position(additionalData.limit());
+    ciphertext.position(out.position());
+  }
+
+  @Override
+  public void decrypt(ByteBuffer ciphertext, ByteBuffer additionalData, ByteBuffer plaintext)
+      throws GeneralSecurityException {
+    if (ciphertext.remaining() < djbCipher.nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    int plaintextLength =
+        ciphertext.remaining() - djbCipher.nonceSizeInBytes() - MAC_TAG_SIZE_IN_BYTES;
+    if (plaintext.remaining() < plaintextLength) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    int firstPosition = ciphertext.position();
+    int tagPosition = ciphertext.limit() - MAC_TAG_SIZE_IN_BYTES;
+    byte[] tag = new byte[MAC_TAG_SIZE_IN_BYTES];
+    ByteBuffer view = ciphertext.duplicate();
+    view.position(tagPosition);
+    view.get(tag);
+    // rewind to read ciphertext and compute tag.
+    view.limit(tagPosition);
+    view.position(firstPosition);
+    byte[] nonce = new byte[djbCipher.nonceSizeInBytes()];
+    view.get(nonce);
+    byte[] expectedTag = computeTag(djbCipher.getAuthenticatorKey(nonce), additionalData, view);
+    if (!Bytes.equal(expectedTag, tag)) {
+      throw new GeneralSecurityException("invalid MAC");
+    }
+    additionalData.position(additionalData.limit());
+    // rewind to decrypt the ciphertext.
+    view.position(firstPosition);
+    djbCipher.decrypt(view, plaintext);
+    ciphertext.position(ciphertext.limit());
+  }
+
   /**
    * Decryptes {@code ciphertext} with the following format: {@code nonce || actual_ciphertext ||
    * tag}
@@ -189,38 +438,56 @@ public abstract class DjbCipherPoly1305 implements Aead {
   @Override
   public byte[] decrypt(final byte[] ciphertext, final byte[] additionalData)
       throws GeneralSecurityException {
-    return decrypt(ByteBuffer.wrap(ciphertext), additionalData);
+    return decrypt(ciphertext, 0, ciphertext.length, additionalData);
   }
 
   /**
-   * Decryptes {@code ciphertext} with the following format: {@code nonce || actual_ciphertext ||
-   * tag}
+   * Decryptes the {@code length} bytes of {@code ciphertext} at {@code offset}, which have the
+   * format {@code nonce || actual_ciphertext || tag}.
    *
-   * @param ciphertext with format {@code nonce || actual_ciphertext || tag}
-   * @param additionalData additional data
    * @return plaintext if authentication is successful.
-   * @throws GeneralSecurityException when ciphertext is shorter than nonce size + tag size or when
-   *     computed tag based on {@code ciphertext} and {@code additionalData} does not match the tag
-   *     given in {@code ciphertext}.
+   * @throws GeneralSecurityException when the ciphertext is shorter than nonce size + tag size or
+   *     when computed tag based on the ciphertext and {@code additionalData} does not match the tag
+   *     given in the ciphertext.
    */
-  byte[] decrypt(ByteBuffer ciphertext, final byte[] additionalData)
+  byte[] decrypt(final byte[] ciphertext, int offset, int length, final byte[] additionalData)
       throws GeneralSecurityException {
-    if (ciphertext.remaining() < djbCipher.nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES) {
+    if (length < nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES) {
       throw new GeneralSecurityException("ciphertext too short");
     }
-    int firstPosition = ciphertext.position();
-    byte[] tag = new byte[MAC_TAG_SIZE_IN_BYTES];
-    ciphertext.position(ciphertext.limit() - MAC_TAG_SIZE_IN_BYTES);
-    ciphertext.get(tag);
-    // rewind to read ciphertext and compute tag.
-    ciphertext.position(firstPosition);
-    ciphertext.limit(ciphertext.limit() - MAC_TAG_SIZE_IN_BYTES);
-    byte[] nonce = new byte[djbCipher.nonceSizeInBytes()];
-    ciphertext.get(nonce);
-    Poly1305.verifyMac(
-        djbCipher.getAuthenticatorKey(nonce), macData(additionalData, ciphertext), tag);
-    // rewind to decrypt the ciphertext.
-    ciphertext.position(firstPosition);
-    return djbCipher.decrypt(ciphertext);
+    byte[] plaintext = new byte[length - nonceSizeInBytes() - MAC_TAG_SIZE_IN_BYTES];
+    int unusedLength = decrypt(ciphertext, offset, length, additionalData, plaintext, 0);
+    return plaintext;
+  }
+
+  /**
+   * Decryptes like {@link #decrypt(byte[], int, int, byte[])}, but writes the plaintext to {@code
+   * output}, starting at {@code outputOffset}. Nothing is written if the tag is invalid.
+   */
+  @Override
+  public int decrypt(
+      final byte[] ciphertext,
+      int offset,
+      int length,
+      final byte[] additionalData,
+      byte[] output,
+      int outputOffset)
+      throws GeneralSecurityException {
+    int nonceSize = nonceSizeInBytes();
+    if (offset < 0 || length < 0 || (long) offset + length > ciphertext.length) {
+      throw new GeneralSecurityException("invalid offset or length");
+    }
+    if (length < nonceSize + MAC_TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    int ciphertextOffset = offset + nonceSize;
+    int plaintextLength = length - nonceSize - MAC_TAG_SIZE_IN_BYTES;
+    if (outputOffset < 0 || (long) outputOffset + plaintextLength > output.length) {
+      throw new GeneralSecurityException("output array too small");
+    }
+    byte[] nonce = Arrays.copyOfRange(ciphertext, offset, ciphertextOffset);
+    verifyTag(nonce, additionalData, ciphertext, ciphertextOffset, plaintextLength);
+    djbCipher.process(ciphertext, ciphertextOffset, output, outputOffset, plaintextLength, nonce);
+    return plaintextLength;
   }
 }
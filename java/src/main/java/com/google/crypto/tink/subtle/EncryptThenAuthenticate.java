@@ -16,11 +16,13 @@
 
 package com.google.crypto.tink.subtle;
 
-import com.google.crypto.tink.Aead;
 import com.google.crypto.tink.Mac;
+import com.google.crypto.tink.OffsetAead;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This primitive performs an encrypt-then-Mac operation on plaintext and additional authenticated
@@ -29,16 +31,44 @@ import java.util.Arrays;
  * implementation is based on <a
  * href="http://tools.ietf.org/html/draft-mcgrew-aead-aes-cbc-hmac-sha2-05">Authenticated Encryption
  * with AES-CBC and HMAC-SHA</a>.
+ *
+ * <p>By default, {@link #decrypt(byte[], byte[])} verifies the MAC before it decrypts anything. An
+ * instance constructed with an {@link Executor} gives up this verify-before-decrypt order for large
+ * ciphertexts: it decrypts them while it verifies their MAC, and wipes the plaintext if the MAC is
+ * invalid.
  */
-public final class EncryptThenAuthenticate implements Aead {
+public final class EncryptThenAuthenticate implements OffsetAead {
+  // With an executor, ciphertexts of at least this size are decrypted while their MAC is verified
+  // on another thread. The plaintext is only returned if the MAC is valid.
+  static final int CONCURRENT_DECRYPT_THRESHOLD_IN_BYTES = 4 * 1024 * 1024;
+  // Marks the plaintext of a failed concurrent decryption as wiped.
+  private static final byte[] WIPED = new byte[0];
+
   private final IndCpaCipher cipher;
   private final Mac mac;
   private final int macLength;
+  // The executor that decrypts large ciphertexts while their MAC is verified, or null to verify the
+  // MAC before decrypting.
+  private final Executor executor;
 
   public EncryptThenAuthenticate(final IndCpaCipher cipher, final Mac mac, int macLength) {
+    this(cipher, mac, macLength, /* executor= */ null);
+  }
+
+  /**
+   * Like {@link #EncryptThenAuthenticate(IndCpaCipher, Mac, int)}, but {@link #decrypt(byte[],
+   * byte[])} decrypts ciphertexts of at least 4 MB on {@code executor} while it verifies their MAC,
+   * which almost halves its latency if a thread of {@code executor} is idle. The plaintext is still
+   * only returned if the MAC is valid, but a forged ciphertext then costs a decryption as well as
+   * the MAC. Without an executor, the MAC is verified first, and invalid ciphertexts are never
+   * decrypted.
+   */
+  public EncryptThenAuthenticate(
+      final IndCpaCipher cipher, final Mac mac, int macLength, Executor executor) {
     this.cipher = cipher;
     this.mac = mac;
     this.macLength = macLength;
+    this.executor = executor;
   }
 
   /**
@@ -54,11 +84,83 @@ public final class EncryptThenAuthenticate implements Aead {
    */
   @Override
   public byte[] encrypt(final byte[] plaintext, final byte[] aad) throws GeneralSecurityException {
+    return encrypt(plaintext, aad, 0);
+  }
+
+  @Override
+  public byte[] encrypt(final byte[] plaintext, final byte[] aad, int offset)
+      throws GeneralSecurityException {
+    if (offset < 0) {
+      throw new GeneralSecurityException("negative offset");
+    }
+    if (cipher instanceof OffsetIndCpaCipher) {
+      if (plaintext.length > Integer.MAX_VALUE - ciphertextSize(0) - offset) {
+        throw new GeneralSecurityException("plaintext too long");
+      }
+      byte[] output = new byte[offset + ciphertextSize(plaintext.length)];
+      int unusedWritten = encrypt(plaintext, aad, output, offset);
+      return output;
+    }
+    // The size of the ind-cpa ciphertext is only known once the plaintext is encrypted.
     byte[] ciphertext = cipher.encrypt(plaintext);
-    byte[] aadLengthInBits =
-        Arrays.copyOf(ByteBuffer.allocate(8).putLong(8L * aad.length).array(), 8);
-    byte[] macValue = mac.computeMac(Bytes.concat(aad, ciphertext, aadLengthInBits));
-    return Bytes.concat(ciphertext, macValue);
+    if (ciphertext.length > Integer.MAX_VALUE - macLength - offset) {
+      throw new GeneralSecurityException("plaintext too long");
+    }
+    byte[] output = new byte[offset + ciphertext.length + macLength];
+    System.arraycopy(ciphertext, 0, output, offset, ciphertext.length);
+    appendMac(aad, output, offset, ciphertext.length);
+    return output;
+  }
+
+  /**
+   * @return the size of the ciphertext of a plaintext of {@code plaintextSize} bytes, or -1 if the
+   *     ind-cpa cipher is not an {@link OffsetIndCpaCipher}, in which case the size is only known
+   *     once the plaintext is encrypted.
+   */
+  @Override
+  public int ciphertextSize(int plaintextSize) {
+    if (!(cipher instanceof OffsetIndCpaCipher)) {
+      return -1;
+    }
+    return ((OffsetIndCpaCipher) cipher).ciphertextSize(plaintextSize) + macLength;
+  }
+
+  @Override
+  public int encrypt(final byte[] plaintext, final byte[] aad, byte[] output, int outputOffset)
+      throws GeneralSecurityException {
+    if (outputOffset < 0) {
+      throw new GeneralSecurityException("negative offset");
+    }
+    int ciphertextSize;
+    if (cipher instanceof OffsetIndCpaCipher) {
+      OffsetIndCpaCipher offsetCipher = (OffsetIndCpaCipher) cipher;
+      if ((long) outputOffset + offsetCipher.ciphertextSize(0) + plaintext.length + macLength
+          > output.length) {
+        throw new GeneralSecurityException("output array too small");
+      }
+      // The ind-cpa ciphertext is written to its place in the output, and the MAC is computed over
+      // it there.
+      ciphertextSize = offsetCipher.encrypt(plaintext, output, outputOffset);
+    } else {
+      byte[] ciphertext = cipher.encrypt(plaintext);
+      ciphertextSize = ciphertext.length;
+      if ((long) outputOffset + ciphertextSize + macLength > output.length) {
+        throw new GeneralSecurityException("output array too small");
+      }
+      System.arraycopy(ciphertext, 0, output, outputOffset, ciphertextSize);
+    }
+    appendMac(aad, output, outputOffset, ciphertextSize);
+    return ciphertextSize + macLength;
+  }
+
+  /**
+   * Computes the MAC of the {@code ciphertextSize} bytes of ind-cpa ciphertext at {@code offset} of
+   * {@code output}, and writes it right after them.
+   */
+  private void appendMac(final byte[] aad, byte[] output, int offset, int ciphertextSize)
+      throws GeneralSecurityException {
+    byte[] macValue = computeMac(aad, output, offset, ciphertextSize);
+    System.arraycopy(macValue, 0, output, offset + ciphertextSize, macLength);
   }
 
   /**
@@ -76,12 +178,135 @@ public final class EncryptThenAuthenticate implements Aead {
     if (ciphertext.length < macLength) {
       throw new GeneralSecurityException("ciphertext too short");
     }
-    byte[] rawCiphertext = Arrays.copyOfRange(ciphertext, 0, ciphertext.length - macLength);
-    byte[] macValue =
-        Arrays.copyOfRange(ciphertext, ciphertext.length - macLength, ciphertext.length);
-    byte[] aadLengthInBits =
-        Arrays.copyOf(ByteBuffer.allocate(8).putLong(8L * aad.length).array(), 8);
-    mac.verifyMac(macValue, Bytes.concat(aad, rawCiphertext, aadLengthInBits));
-    return cipher.decrypt(rawCiphertext);
+    final int rawCiphertextLength = ciphertext.length - macLength;
+    if (executor == null || rawCiphertextLength < CONCURRENT_DECRYPT_THRESHOLD_IN_BYTES) {
+      verifyMac(
+          computeMac(aad, ciphertext, 0, rawCiphertextLength), ciphertext, rawCiphertextLength);
+      return decryptCiphertext(ciphertext, rawCiphertextLength);
+    }
+    final byte[][] macValue = new byte[1][];
+    // The plaintext is handed over through this reference, so that it is wiped on every failure,
+    // even by a decryption that is still running when forRange gives up waiting for it.
+    final AtomicReference<byte[]> plaintext = new AtomicReference<byte[]>();
+    boolean verified = false;
+    try {
+      Parallel.forRange(
+          2,
+          1,
+          executor,
+          new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) throws GeneralSecurityException {
+              for (int i = from; i < to; i++) {
+                if (i == 0) {
+                  macValue[0] = computeMac(aad, ciphertext, 0, rawCiphertextLength);
+                } else {
+                  byte[] decrypted = decryptCiphertext(ciphertext, rawCiphertextLength);
+                  if (!plaintext.compareAndSet(null, decrypted)) {
+                    Arrays.fill(decrypted, (byte) 0);
+                  }
+                }
+              }
+            }
+          });
+      verifyMac(macValue[0], ciphertext, rawCiphertextLength);
+      verified = true;
+    } finally {
+      if (!verified) {
+        byte[] unauthenticated = plaintext.getAndSet(WIPED);
+        if (unauthenticated != null) {
+          Arrays.fill(unauthenticated, (byte) 0);
+        }
+      }
+    }
+    return plaintext.get();
+  }
+
+  /**
+   * Decrypts like {@link #decrypt(byte[], byte[])}. The MAC is verified before anything is written
+   * to {@code output}.
+   */
+  @Override
+  public int decrypt(
+      final byte[] ciphertext,
+      int offset,
+      int length,
+      final byte[] aad,
+      byte[] output,
+      int outputOffset)
+      throws GeneralSecurityException {
+    if (offset < 0 || length < 0 || (long) offset + length > ciphertext.length) {
+      throw new GeneralSecurityException("invalid offset or length");
+    }
+    if (length < macLength) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    int rawCiphertextLength = length - macLength;
+    verifyMac(
+        computeMac(aad, ciphertext, offset, rawCiphertextLength),
+        ciphertext,
+        offset + rawCiphertextLength);
+    if (cipher instanceof OffsetIndCpaCipher) {
+      return ((OffsetIndCpaCipher) cipher)
+          .decrypt(ciphertext, offset, rawCiphertextLength, output, outputOffset);
+    }
+    byte[] plaintext =
+        cipher.decrypt(Arrays.copyOfRange(ciphertext, offset, offset + rawCiphertextLength));
+    if (outputOffset < 0 || (long) outputOffset + plaintext.length > output.length) {
+      throw new GeneralSecurityException("output array too small");
+    }
+    System.arraycopy(plaintext, 0, output, outputOffset, plaintext.length);
+    return plaintext.length;
+  }
+
+  /** Decrypts the first {@code length} bytes of {@code ciphertext} with {@link #cipher}. */
+  private byte[] decryptCiphertext(final byte[] ciphertext, int length)
+      throws GeneralSecurityException {
+    if (cipher instanceof OffsetIndCpaCipher) {
+      return ((OffsetIndCpaCipher) cipher).decrypt(ciphertext, 0, length);
+    }
+    return cipher.decrypt(Arrays.copyOf(ciphertext, length));
+  }
+
+  /**
+   * Checks that {@code macValue} matches the MAC at {@code macOffset} of {@code ciphertext}, in
+   * constant time like {@link Bytes#equal}.
+   */
+  private void verifyMac(final byte[] macValue, final byte[] ciphertext, int macOffset)
+      throws GeneralSecurityException {
+    int diff = 0;
+    for (int i = 0; i < macLength; i++) {
+      diff |= macValue[i] ^ ciphertext[macOffset + i];
+    }
+    if (diff != 0) {
+      throw new GeneralSecurityException("invalid MAC");
+    }
+  }
+
+  /**
+   * Computes the MAC over (aad || ciphertext || t), where ciphertext is the {@code length} bytes of
+   * {@code data} at {@code offset}. With a {@link MacJce}, the parts are passed to the MAC one by
+   * one instead of being concatenated first.
+   *
+   * @return the MAC, of at least {@code macLength} bytes.
+   */
+  private byte[] computeMac(final byte[] aad, final byte[] data, int offset, int length)
+      throws GeneralSecurityException {
+    byte[] aadLengthInBits = ByteBuffer.allocate(8).putLong(8L * aad.length).array();
+    byte[] macValue;
+    if (mac instanceof MacJce) {
+      javax.crypto.Mac engine = ((MacJce) mac).newEngine();
+      engine.update(aad);
+      engine.update(data, offset, length);
+      engine.update(aadLengthInBits);
+      macValue = engine.doFinal();
+    } else {
+      byte[] ciphertext = Arrays.copyOfRange(data, offset, offset + length);
+      macValue = mac.computeMac(Bytes.concat(aad, ciphertext, aadLengthInBits));
+    }
+    if (macValue.length < macLength) {
+      throw new GeneralSecurityException("MAC shorter than expected");
+    }
+    return macValue;
   }
 }
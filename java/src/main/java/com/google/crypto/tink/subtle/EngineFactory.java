@@ -24,7 +24,12 @@ import java.security.Provider;
 import java.security.Security;
 import java.security.Signature;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import javax.crypto.Cipher;
 import javax.crypto.KeyAgreement;
@@ -36,6 +41,15 @@ import javax.crypto.Mac;
  * <p>This class contains a lot of static factories and static functions returning factories: these
  * allow customization and hide the typing complexity in this class. To use this class, import it,
  * and replace your `Cipher.getInstance(...` with `EngineFactory.CIPHER.getInstance(...`.
+ *
+ * <p>The provider chosen for an algorithm is remembered, so that later calls do not need to try the
+ * providers of the policy again. Engines themselves are not pooled: {@link #getInstance} creates a
+ * new engine every time. The only engines that are kept are the per-thread {@code Cipher} engines
+ * of the primitives of this package, e.g. {@link AesGcmJce}, which each primitive owns and only
+ * initializes with its own key; see {@link #newThreadLocalEngine}.
+ *
+ * <p>Factories that use the default policy first try the provider that {@link
+ * #setPreferredProviders} has set for an algorithm, if any; see {@link ProviderSelector}.
  */
 public final class EngineFactory<T_WRAPPER extends EngineWrapper<T_ENGINE>, T_ENGINE> {
   private static final Logger logger = Logger.getLogger(EngineFactory.class.getName());
@@ -56,6 +70,12 @@ public final class EngineFactory<T_WRAPPER extends EngineWrapper<T_ENGINE>, T_EN
     }
   }
 
+  // Replaced as a whole whenever the preferences change, so that the factories can tell by its
+  // identity whether their caches are up to date. Like the policy, this must be initialized before
+  // the static factories below.
+  private static volatile Preferences preferences =
+      new Preferences(Collections.<String, String>emptyMap());
+
   public static final EngineFactory<EngineWrapper.TCipher, Cipher> CIPHER =
       new EngineFactory<>(new EngineWrapper.TCipher());
 
@@ -133,47 +153,228 @@ public final class EngineFactory<T_WRAPPER extends EngineWrapper<T_ENGINE>, T_EN
     return providers;
   }
 
+  /** The preferred providers, as set by {@link #setPreferredProviders}. Immutable. */
+  private static final class Preferences {
+    // The preferred provider names, keyed by service type and algorithm, e.g. "Cipher.AES".
+    final Map<String, String> providers;
+    // The same, keyed in upper case: like the JCA, lookups ignore the case of algorithm names.
+    final Map<String, String> normalized;
+
+    Preferences(Map<String, String> providers) {
+      Map<String, String> normalized = new HashMap<String, String>();
+      for (Map.Entry<String, String> entry : providers.entrySet()) {
+        normalized.put(preferenceKey(entry.getKey()), entry.getValue());
+      }
+      this.providers = Collections.unmodifiableMap(new HashMap<String, String>(providers));
+      this.normalized = normalized;
+    }
+  }
+
+  /**
+   * Sets the provider to try first for some algorithms, in all factories that use the default
+   * policy. The keys of {@code providers} are the service type and the algorithm, e.g. {@code
+   * "Cipher.AES/GCM/NoPadding"} or {@code "KeyAgreement.ECDH"}, the values the provider names. If a
+   * preferred provider is not installed or does not support the algorithm, the default policy is
+   * used as before. Like the JCA, the keys are not case-sensitive, so that {@code
+   * "Mac.HMACSHA256"} also applies to a factory that is asked for {@code "HmacSha256"}.
+   */
+  public static void setPreferredProviders(Map<String, String> providers) {
+    preferences = new Preferences(providers);
+  }
+
+  /** @return the key under which the preference for {@code typeAndAlgorithm} is stored. */
+  private static String preferenceKey(String typeAndAlgorithm) {
+    return typeAndAlgorithm.toUpperCase(Locale.ROOT);
+  }
+
+  /** @return the providers set by {@link #setPreferredProviders}. */
+  public static Map<String, String> getPreferredProviders() {
+    return preferences.providers;
+  }
+
+  /**
+   * @return the type of the JCA services that {@code instanceBuilder} creates, e.g. "Cipher", or
+   *     null for unknown wrappers.
+   */
+  static String serviceType(EngineWrapper<?> instanceBuilder) {
+    if (instanceBuilder instanceof EngineWrapper.TCipher) {
+      return "Cipher";
+    } else if (instanceBuilder instanceof EngineWrapper.TMac) {
+      return "Mac";
+    } else if (instanceBuilder instanceof EngineWrapper.TSignature) {
+      return "Signature";
+    } else if (instanceBuilder instanceof EngineWrapper.TMessageDigest) {
+      return "MessageDigest";
+    } else if (instanceBuilder instanceof EngineWrapper.TKeyAgreement) {
+      return "KeyAgreement";
+    } else if (instanceBuilder instanceof EngineWrapper.TKeyPairGenerator) {
+      return "KeyPairGenerator";
+    } else if (instanceBuilder instanceof EngineWrapper.TKeyFactory) {
+      return "KeyFactory";
+    }
+    return null;
+  }
+
   public EngineFactory(T_WRAPPER instanceBuilder) {
     this.instanceBuilder = instanceBuilder;
     this.policy = defaultPolicy;
     this.letFallback = DEFAULT_LET_FALLBACK;
+    this.preferencePrefix = serviceType(instanceBuilder) + ".";
   }
 
   public EngineFactory(T_WRAPPER instanceBuilder, List<Provider> policy) {
     this.instanceBuilder = instanceBuilder;
     this.policy = policy;
     this.letFallback = DEFAULT_LET_FALLBACK;
+    this.preferencePrefix = null;
   }
 
   public EngineFactory(T_WRAPPER instanceBuilder, List<Provider> policy, boolean letFallback) {
     this.instanceBuilder = instanceBuilder;
     this.policy = policy;
     this.letFallback = letFallback;
+    this.preferencePrefix = null;
   }
 
   public T_ENGINE getInstance(String algorithm) throws GeneralSecurityException {
+    // The providers are resolved with the preferences of the cache they are stored in, even if the
+    // preferences change in the meantime: the next call then replaces the whole cache.
+    ProviderCache cache = providerCache();
+    ResolvedProvider resolved = cache.resolved.get(algorithm);
+    if (resolved != null) {
+      return this.instanceBuilder.getInstance(algorithm, resolved.provider);
+    }
+    if (preferencePrefix != null) {
+      String preferred =
+          cache.preferences.normalized.get(preferenceKey(preferencePrefix + algorithm));
+      Provider p = preferred == null ? null : Security.getProvider(preferred);
+      T_ENGINE engine = p == null ? null : tryProvider(algorithm, p);
+      if (engine != null) {
+        cache.resolved.put(algorithm, new ResolvedProvider(p));
+        return engine;
+      }
+    }
     for (Provider p : this.policy) {
-      if (tryProvider(algorithm, p)) {
-        return this.instanceBuilder.getInstance(algorithm, p);
+      T_ENGINE engine = tryProvider(algorithm, p);
+      if (engine != null) {
+        cache.resolved.put(algorithm, new ResolvedProvider(p));
+        return engine;
       }
     }
     if (letFallback) {
-      return this.instanceBuilder.getInstance(algorithm, null);
+      T_ENGINE engine = this.instanceBuilder.getInstance(algorithm, null);
+      // Only the decision to fall back is remembered: the JCE still chooses the provider each time.
+      cache.resolved.put(algorithm, new ResolvedProvider(null));
+      return engine;
     }
     throw new GeneralSecurityException("No good Provider found.");
   }
 
+  /**
+   * Returns a new set of engines for {@code algorithm}, one per thread, which are only used by the
+   * owner of the returned object.
+   *
+   * <p>A primitive can use them to keep engines that only ever see its own key: providers such as
+   * SunJCE then skip the key setup, e.g. the AES key expansion, when an engine is initialized with
+   * the same key again. The engines and the key in them are referenced from the owner's {@code
+   * ThreadLocal}: once the owner is unreachable, each thread drops its engine when it next cleans
+   * up stale thread-local entries, or when it ends.
+   *
+   * <p>Every call in the same thread returns the same engine, so it may still hold the state of its
+   * previous use: callers must initialize it before using it, and must not keep it beyond the
+   * current operation, nor call code that may use the same engine in the meantime.
+   */
+  ThreadLocalEngine<T_ENGINE> newThreadLocalEngine(String algorithm) {
+    return new ThreadLocalEngine<T_ENGINE>(this, algorithm);
+  }
+
+  /** Engines of one algorithm, one per thread. See {@link #newThreadLocalEngine}. */
+  static final class ThreadLocalEngine<T_ENGINE> {
+    private final EngineFactory<?, T_ENGINE> factory;
+    private final String algorithm;
+    private volatile Engines<T_ENGINE> engines = new Engines<T_ENGINE>(preferences);
+
+    /** The engines created while {@code preferences} were in effect. */
+    private static final class Engines<T_ENGINE> {
+      final Preferences preferences;
+      final ThreadLocal<T_ENGINE> local = new ThreadLocal<T_ENGINE>();
+
+      Engines(Preferences preferences) {
+        this.preferences = preferences;
+      }
+    }
+
+    private ThreadLocalEngine(EngineFactory<?, T_ENGINE> factory, String algorithm) {
+      this.factory = factory;
+      this.algorithm = algorithm;
+    }
+
+    /** @return the engine of the calling thread, creating it on the first call in this thread. */
+    T_ENGINE get() throws GeneralSecurityException {
+      Preferences current = preferences;
+      Engines<T_ENGINE> set = engines;
+      if (set.preferences != current) {
+        // The preferred providers have changed: the engines are created again.
+        set = new Engines<T_ENGINE>(current);
+        engines = set;
+      }
+      T_ENGINE engine = set.local.get();
+      if (engine == null) {
+        engine = factory.getInstance(algorithm);
+        set.local.set(engine);
+      }
+      return engine;
+    }
+  }
+
   private T_WRAPPER instanceBuilder;
   private List<Provider> policy;
   private boolean letFallback;
+  // The prefix of the keys of preferredProviders for this factory, or null to ignore them.
+  private final String preferencePrefix;
+
+  /** The provider to use for an algorithm; null to let the JCE choose. */
+  private static final class ResolvedProvider {
+    final Provider provider;
+
+    ResolvedProvider(Provider provider) {
+      this.provider = provider;
+    }
+  }
+
+  /**
+   * The providers resolved for the algorithms of this factory, with the preferences they were
+   * resolved with. Replaced as a whole when the preferences change, so that a provider resolved
+   * with old preferences never ends up in the cache of new ones.
+   */
+  private static final class ProviderCache {
+    final Preferences preferences;
+    final ConcurrentHashMap<String, ResolvedProvider> resolved =
+        new ConcurrentHashMap<String, ResolvedProvider>();
+
+    ProviderCache(Preferences preferences) {
+      this.preferences = preferences;
+    }
+  }
+
+  private volatile ProviderCache providerCache = new ProviderCache(preferences);
+
+  /** @return the cache of resolved providers, replacing it if the preferences have changed. */
+  private ProviderCache providerCache() {
+    Preferences current = preferences;
+    ProviderCache cache = providerCache;
+    if (cache.preferences != current) {
+      cache = new ProviderCache(current);
+      providerCache = cache;
+    }
+    return cache;
+  }
 
-  private boolean tryProvider(String algorithm, Provider provider) {
+  private T_ENGINE tryProvider(String algorithm, Provider provider) {
     try {
-      this.instanceBuilder.getInstance(algorithm, provider);
-      ;
-      return true;
+      return this.instanceBuilder.getInstance(algorithm, provider);
     } catch (Exception e) { // Don't care which one specifically.
-      return false;
+      return null;
     }
   }
 }
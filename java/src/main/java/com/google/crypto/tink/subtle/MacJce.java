@@ -16,11 +16,11 @@
 
 package com.google.crypto.tink.subtle;
 
-import com.google.crypto.tink.Mac;
+import com.google.crypto.tink.OffsetMac;
 import java.security.GeneralSecurityException;
 
 /** Mac implementations in JCE. */
-public final class MacJce implements Mac {
+public final class MacJce implements OffsetMac {
   private javax.crypto.Mac mac;
   private final int digestSize;
   private final String algorithm;
@@ -35,8 +35,11 @@ public final class MacJce implements Mac {
     mac.init(key);
   }
 
-  @Override
-  public byte[] computeMac(final byte[] data) throws GeneralSecurityException {
+  /**
+   * @return an engine initialized with the key, for computing one MAC over data that is passed to
+   *     it in pieces. Its output is not truncated to the digest size of this {@code MacJce}.
+   */
+  javax.crypto.Mac newEngine() throws GeneralSecurityException {
     javax.crypto.Mac tmp;
     try {
       // Cloning a mac is frequently fast and thread-safe.
@@ -46,12 +49,39 @@ public final class MacJce implements Mac {
       tmp = EngineFactory.MAC.getInstance(this.algorithm);
       tmp.init(this.key);
     }
+    return tmp;
+  }
+
+  @Override
+  public byte[] computeMac(final byte[] data) throws GeneralSecurityException {
+    javax.crypto.Mac tmp = newEngine();
     tmp.update(data);
     byte[] digest = new byte[digestSize];
     System.arraycopy(tmp.doFinal(), 0, digest, 0, digestSize);
     return digest;
   }
 
+  @Override
+  public int macSize() {
+    return digestSize;
+  }
+
+  @Override
+  public int computeMac(final byte[] data, byte[] output, int outputOffset)
+      throws GeneralSecurityException {
+    if (outputOffset < 0 || (long) outputOffset + digestSize > output.length) {
+      throw new GeneralSecurityException("output array too small");
+    }
+    javax.crypto.Mac tmp = newEngine();
+    tmp.update(data);
+    if (tmp.getMacLength() == digestSize) {
+      tmp.doFinal(output, outputOffset);
+    } else {
+      System.arraycopy(tmp.doFinal(), 0, output, outputOffset, digestSize);
+    }
+    return digestSize;
+  }
+
   @Override
   public void verifyMac(final byte[] mac, final byte[] data) throws GeneralSecurityException {
     if (!Bytes.equal(computeMac(data), mac)) {
@@ -16,15 +16,13 @@
 
 package com.google.crypto.tink.subtle;
 
-import static com.google.crypto.tink.subtle.Poly1305.MAC_TAG_SIZE_IN_BYTES;
-
 import com.google.crypto.tink.HybridDecrypt;
 import com.google.crypto.tink.HybridEncrypt;
 import com.google.crypto.tink.annotations.Alpha;
 import com.google.crypto.tink.subtle.DjbCipher.ChaCha20Base;
 import com.google.crypto.tink.subtle.DjbCipher.XSalsa20;
-import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 
 /**
  * DjbCipher (e.g., ChaCha20, XChaCha20, or XSalsa20) encryption/decryption with Poly1305 for AEAD
@@ -188,12 +186,9 @@ public final class NaClCryptoBox {
      */
     @Override
     public byte[] encrypt(byte[] plaintext, byte[] contextInfo) throws GeneralSecurityException {
-      ByteBuffer output = ByteBuffer.allocate(
-          Curve25519.FIELD_LEN + djbCipherPoly1305.nonceSizeInBytes() + plaintext.length
-              + MAC_TAG_SIZE_IN_BYTES);
-      output.put(ephemeralPublicKey.getBytes());
-      djbCipherPoly1305.encrypt(output, plaintext, EMPTY_AAD);
-      return output.array();
+      byte[] output = djbCipherPoly1305.encrypt(plaintext, EMPTY_AAD, Curve25519.FIELD_LEN);
+      System.arraycopy(ephemeralPublicKey.getBytes(), 0, output, 0, Curve25519.FIELD_LEN);
+      return output;
     }
   }
 
@@ -218,11 +213,14 @@ public final class NaClCryptoBox {
      */
     @Override
     public byte[] decrypt(byte[] ciphertext, byte[] contextInfo) throws GeneralSecurityException {
-      ByteBuffer ciphertextBuf = ByteBuffer.wrap(ciphertext);
-      final byte[] peerPublicKey = new byte[Curve25519.FIELD_LEN];
-      ciphertextBuf.get(peerPublicKey);
-      return factory.constructWithKem(privateKey.getBytes(), peerPublicKey).decrypt(
-          ciphertextBuf, EMPTY_AAD);
+      if (ciphertext.length < Curve25519.FIELD_LEN) {
+        throw new GeneralSecurityException("ciphertext too short");
+      }
+      final byte[] peerPublicKey = Arrays.copyOf(ciphertext, Curve25519.FIELD_LEN);
+      DjbCipherPoly1305 djbCipherPoly1305 =
+          factory.constructWithKem(privateKey.getBytes(), peerPublicKey);
+      return djbCipherPoly1305.decrypt(
+          ciphertext, Curve25519.FIELD_LEN, ciphertext.length - Curve25519.FIELD_LEN, EMPTY_AAD);
     }
   }
 }
@@ -0,0 +1,60 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * An {@link IndCpaCipher} that also writes and reads ciphertexts at an offset of a larger array,
+ * so that {@link EncryptThenAuthenticate} can encrypt into its output and decrypt without copying
+ * the ciphertext first.
+ */
+interface OffsetIndCpaCipher extends IndCpaCipher {
+  /**
+   * @return the size of the ciphertext of a plaintext of {@code plaintextSize} bytes, i.e., the
+   *     number of bytes {@link #encrypt(byte[], byte[], int)} writes.
+   */
+  int ciphertextSize(int plaintextSize);
+
+  /**
+   * Encrypts {@code plaintext} like {@link #encrypt(byte[])}, but writes the ciphertext to {@code
+   * output}, starting at {@code offset}, rather than to a new array.
+   *
+   * @return the number of bytes written.
+   * @throws GeneralSecurityException if {@code output} has less than {@link #ciphertextSize} bytes
+   *     starting at {@code offset}
+   */
+  int encrypt(final byte[] plaintext, byte[] output, int offset) throws GeneralSecurityException;
+
+  /**
+   * Decrypts the {@code length} bytes of {@code ciphertext} starting at {@code offset}, like {@link
+   * #decrypt(byte[])}, but without copying them out of {@code ciphertext} first.
+   *
+   * @return the resulting plaintext.
+   */
+  byte[] decrypt(final byte[] ciphertext, int offset, int length) throws GeneralSecurityException;
+
+  /**
+   * Decrypts like {@link #decrypt(byte[], int, int)}, but writes the plaintext to {@code output},
+   * starting at {@code outputOffset}, rather than to a new array.
+   *
+   * @return the number of bytes written.
+   * @throws GeneralSecurityException if the plaintext does not fit in {@code output}
+   */
+  int decrypt(final byte[] ciphertext, int offset, int length, byte[] output, int outputOffset)
+      throws GeneralSecurityException;
+}
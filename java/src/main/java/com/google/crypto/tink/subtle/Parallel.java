@@ -0,0 +1,162 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Helpers for splitting work on a range of indices across threads. */
+public final class Parallel {
+  /** A unit of work on the indices {@code [from, to)}. */
+  public interface RangeTask {
+    void run(int from, int to) throws GeneralSecurityException;
+  }
+
+  /**
+   * The minimum chunk size for batches of messages: messages are handed to other threads in chunks
+   * of at least this many, so that small batches are not slowed down by the cost of scheduling.
+   */
+  public static final int MIN_BATCH_CHUNK_SIZE = 16;
+
+  private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+  // Splitting into a few more chunks than threads evens out chunks that take longer than others.
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private Parallel() {}
+
+  private static class DefaultExecutorHolder {
+    // ForkJoinPool worker threads are daemon threads, so this pool does not keep the JVM alive.
+    static final ForkJoinPool INSTANCE = new ForkJoinPool(PARALLELISM);
+  }
+
+  /**
+   * @return the executor used when callers do not supply one: a shared {@link ForkJoinPool} with
+   *     one thread per available processor.
+   */
+  public static Executor defaultExecutor() {
+    return DefaultExecutorHolder.INSTANCE;
+  }
+
+  /**
+   * Runs {@code task} over the indices {@code [0, count)}, split into contiguous chunks of at least
+   * {@code minChunkSize} indices that run on {@code executor}, or on {@link #defaultExecutor} if
+   * {@code executor} is null. The calling thread runs one of the chunks itself, as well as any
+   * chunks that the executor has not started yet when it is done with its own, and returns once
+   * all chunks are done. So calls may be nested, e.g., a task may call this method again with the
+   * same executor, without waiting for threads of the executor that are themselves waiting.
+   *
+   * @throws GeneralSecurityException the first exception thrown by any chunk, or if the calling
+   *     thread is interrupted while waiting.
+   */
+  public static void forRange(
+      int count, int minChunkSize, Executor executor, final RangeTask task)
+      throws GeneralSecurityException {
+    if (count <= 0) {
+      return;
+    }
+    long maxChunks = (count + (long) minChunkSize - 1) / minChunkSize;
+    int chunks = (int) Math.min(maxChunks, PARALLELISM * CHUNKS_PER_THREAD);
+    if (chunks <= 1) {
+      task.run(0, count);
+      return;
+    }
+    if (executor == null) {
+      executor = defaultExecutor();
+    }
+    final CountDownLatch done = new CountDownLatch(chunks - 1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Chunk[] submitted = new Chunk[chunks - 1];
+    for (int i = 0; i < chunks - 1; i++) {
+      int from = (int) ((long) count * i / chunks);
+      int to = (int) ((long) count * (i + 1) / chunks);
+      submitted[i] = new Chunk(task, from, to, failure, done);
+      try {
+        executor.execute(submitted[i]);
+      } catch (RejectedExecutionException e) {
+        submitted[i].run();
+      }
+    }
+    try {
+      task.run((int) ((long) count * (chunks - 1) / chunks), count);
+    } catch (GeneralSecurityException e) {
+      failure.compareAndSet(null, e);
+    } catch (RuntimeException e) {
+      failure.compareAndSet(null, e);
+    }
+    // Runs the chunks that no thread of the executor has picked up yet, from the last submitted.
+    for (int i = chunks - 2; i >= 0; i--) {
+      submitted[i].run();
+    }
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GeneralSecurityException("interrupted while waiting for parallel tasks", e);
+    }
+    Throwable t = failure.get();
+    if (t instanceof GeneralSecurityException) {
+      throw (GeneralSecurityException) t;
+    } else if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    }
+  }
+
+  /** A chunk of a {@link #forRange} call, which runs once, on whichever thread gets to it first. */
+  private static final class Chunk implements Runnable {
+    private final RangeTask task;
+    private final int from;
+    private final int to;
+    private final AtomicReference<Throwable> failure;
+    private final CountDownLatch done;
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+    Chunk(
+        RangeTask task,
+        int from,
+        int to,
+        AtomicReference<Throwable> failure,
+        CountDownLatch done) {
+      this.task = task;
+      this.from = from;
+      this.to = to;
+      this.failure = failure;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      if (!claimed.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        task.run(from, to);
+      } catch (Throwable t) {
+        failure.compareAndSet(null, t);
+      } finally {
+        done.countDown();
+      }
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.google.crypto.tink.subtle;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 
@@ -51,61 +52,122 @@ class Poly1305 {
     }
   }
 
-  private static void copyBlockSize(byte[] output, byte[] in, int idx) {
-    int copyCount = Math.min(MAC_TAG_SIZE_IN_BYTES, in.length - idx);
-    System.arraycopy(in, idx, output, 0, copyCount);
-    output[copyCount] = 1;
-    if (copyCount != MAC_TAG_SIZE_IN_BYTES) {
-      Arrays.fill(output, copyCount + 1, output.length, (byte) 0);
-    }
+  static byte[] computeMac(final byte[] key, byte[] data) {
+    Accumulator accumulator = new Accumulator(key);
+    accumulator.update(data, 0, data.length, /* padded= */ false);
+    return accumulator.finish();
   }
 
-  static byte[] computeMac(final byte[] key, byte[] data) {
-    if (key.length != MAC_KEY_SIZE_IN_BYTES) {
-      throw new IllegalArgumentException("The key length in bytes must be 32.");
+  /**
+   * Computes a tag over data that is given in parts, e.g., the associated data and the ciphertext
+   * of an AEAD, without concatenating the parts first. It is not thread-safe.
+   */
+  static final class Accumulator {
+    private static final int CHUNK_SIZE = 256 * MAC_TAG_SIZE_IN_BYTES;
+
+    private final byte[] key;
+    private final long r0;
+    private final long r1;
+    private final long r2;
+    private final long r3;
+    private final long r4;
+    private final long s1;
+    private final long s2;
+    private final long s3;
+    private final long s4;
+    private long h0 = 0;
+    private long h1 = 0;
+    private long h2 = 0;
+    private long h3 = 0;
+    private long h4 = 0;
+    // The last block of data whose length is not a multiple of the block size.
+    private final byte[] buf = new byte[MAC_TAG_SIZE_IN_BYTES + 1];
+    private boolean finalBlockSeen = false;
+
+    Accumulator(final byte[] key) {
+      if (key.length != MAC_KEY_SIZE_IN_BYTES) {
+        throw new IllegalArgumentException("The key length in bytes must be 32.");
+      }
+      this.key = key;
+      // r &= 0xffffffc0ffffffc0ffffffc0fffffff
+      r0 = load26(key, 0, 0) & 0x3ffffff;
+      r1 = load26(key, 3, 2) & 0x3ffff03;
+      r2 = load26(key, 6, 4) & 0x3ffc0ff;
+      r3 = load26(key, 9, 6) & 0x3f03fff;
+      r4 = load26(key, 12, 8) & 0x00fffff;
+      s1 = r1 * 5;
+      s2 = r2 * 5;
+      s3 = r3 * 5;
+      s4 = r4 * 5;
     }
-    long h0 = 0;
-    long h1 = 0;
-    long h2 = 0;
-    long h3 = 0;
-    long h4 = 0;
-    long d0;
-    long d1;
-    long d2;
-    long d3;
-    long d4;
-    long c;
-
-    // r &= 0xffffffc0ffffffc0ffffffc0fffffff
-    long r0 = load26(key, 0, 0) & 0x3ffffff;
-    long r1 = load26(key, 3, 2) & 0x3ffff03;
-    long r2 = load26(key, 6, 4) & 0x3ffc0ff;
-    long r3 = load26(key, 9, 6) & 0x3f03fff;
-    long r4 = load26(key, 12, 8) & 0x00fffff;
-
-    long s1 = r1 * 5;
-    long s2 = r2 * 5;
-    long s3 = r3 * 5;
-    long s4 = r4 * 5;
-
-    byte[] buf = new byte[MAC_TAG_SIZE_IN_BYTES + 1];
-    for (int i = 0; i < data.length; i += MAC_TAG_SIZE_IN_BYTES) {
-      copyBlockSize(buf, data, i);
-      h0 += load26(buf, 0, 0);
-      h1 += load26(buf, 3, 2);
-      h2 += load26(buf, 6, 4);
-      h3 += load26(buf, 9, 6);
-      h4 += load26(buf, 12, 8) | (buf[MAC_TAG_SIZE_IN_BYTES] << 24);
+
+    /**
+     * Adds {@code length} bytes of {@code data} at {@code offset}. If {@code padded} is true, a
+     * last block shorter than the block size is padded with zeros to a full block, like the parts
+     * of the AEAD construction of RFC 7539, section 2.8. Otherwise it is the final block of the
+     * message, and no more data may be added.
+     */
+    void update(byte[] data, int offset, int length, boolean padded) {
+      if (finalBlockSeen) {
+        throw new IllegalStateException("the final block has already been added");
+      }
+      int end = offset + length;
+      int i = offset;
+      for (; i + MAC_TAG_SIZE_IN_BYTES <= end; i += MAC_TAG_SIZE_IN_BYTES) {
+        processBlock(data, i, 1);
+      }
+      if (i < end) {
+        int remaining = end - i;
+        System.arraycopy(data, i, buf, 0, remaining);
+        Arrays.fill(buf, remaining, buf.length, (byte) 0);
+        if (padded) {
+          processBlock(buf, 0, 1);
+        } else {
+          buf[remaining] = 1;
+          processBlock(buf, 0, 0);
+          finalBlockSeen = true;
+        }
+      }
+    }
+
+    /**
+     * Adds the remaining bytes of {@code data}, like {@link #update(byte[], int, int, boolean)},
+     * and consumes them. Direct buffers are copied in bounded chunks rather than as a whole.
+     */
+    void update(ByteBuffer data, boolean padded) {
+      if (data.hasArray()) {
+        int length = data.remaining();
+        update(data.array(), data.arrayOffset() + data.position(), length, padded);
+        data.position(data.limit());
+        return;
+      }
+      byte[] chunk = new byte[Math.min(data.remaining(), CHUNK_SIZE)];
+      while (data.remaining() > chunk.length) {
+        // CHUNK_SIZE is a multiple of the block size, so no padding is added here.
+        data.get(chunk);
+        update(chunk, 0, chunk.length, /* padded= */ true);
+      }
+      int length = data.remaining();
+      data.get(chunk, 0, length);
+      update(chunk, 0, length, padded);
+    }
+
+    private void processBlock(byte[] block, int offset, int hibit) {
+      h0 += load26(block, offset, 0);
+      h1 += load26(block, offset + 3, 2);
+      h2 += load26(block, offset + 6, 4);
+      h3 += load26(block, offset + 9, 6);
+      h4 += load26(block, offset + 12, 8) | (hibit << 24);
 
       // d = r * h
-      d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
-      d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
-      d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
-      d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
-      d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+      long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+      long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+      long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+      long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+      long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
 
       // Partial reduction mod 2^130-5, resulting h1 might not be 26bits.
-      c = d0 >> 26;
+      long c = d0 >> 26;
       h0 = d0 & 0x3ffffff;
       d1 += c;
       c = d1 >> 26;
@@ -124,75 +186,84 @@ class Poly1305 {
       h0 = h0 & 0x3ffffff;
       h1 += c;
     }
-    // Do final reduction mod 2^130-5
-    c = h1 >> 26;
-    h1 = h1 & 0x3ffffff;
-    h2 += c;
-    c = h2 >> 26;
-    h2 = h2 & 0x3ffffff;
-    h3 += c;
-    c = h3 >> 26;
-    h3 = h3 & 0x3ffffff;
-    h4 += c;
-    c = h4 >> 26;
-    h4 = h4 & 0x3ffffff;
-    h0 += c * 5; // c * 5 can be at most 5
-    c = h0 >> 26;
-    h0 = h0 & 0x3ffffff;
-    h1 += c;
-
-    // Compute h - p
-    long g0 = h0 + 5;
-    c = g0 >> 26;
-    g0 &= 0x3ffffff;
-    long g1 = h1 + c;
-    c = g1 >> 26;
-    g1 &= 0x3ffffff;
-    long g2 = h2 + c;
-    c = g2 >> 26;
-    g2 &= 0x3ffffff;
-    long g3 = h3 + c;
-    c = g3 >> 26;
-    g3 &= 0x3ffffff;
-    long g4 = h4 + c - (1 << 26);
-
-    // Select h if h < p, or h - p if h >= p
-    long mask = g4 >> 63; // mask is either 0 (h >= p) or -1 (h < p)
-    h0 &= mask;
-    h1 &= mask;
-    h2 &= mask;
-    h3 &= mask;
-    h4 &= mask;
-    mask = ~mask;
-    h0 |= g0 & mask;
-    h1 |= g1 & mask;
-    h2 |= g2 & mask;
-    h3 |= g3 & mask;
-    h4 |= g4 & mask;
-
-    // h = h % (2^128)
-    h0 = (h0 | (h1 << 26)) & 0xffffffffL;
-    h1 = ((h1 >> 6) | (h2 << 20)) & 0xffffffffL;
-    h2 = ((h2 >> 12) | (h3 << 14)) & 0xffffffffL;
-    h3 = ((h3 >> 18) | (h4 << 8)) & 0xffffffffL;
-
-    // mac = (h + pad) % (2^128)
-    c = h0 + load32(key, 16);
-    h0 = c & 0xffffffffL;
-    c = h1 + load32(key, 20) + (c >> 32);
-    h1 = c & 0xffffffffL;
-    c = h2 + load32(key, 24) + (c >> 32);
-    h2 = c & 0xffffffffL;
-    c = h3 + load32(key, 28) + (c >> 32);
-    h3 = c & 0xffffffffL;
-
-    byte[] mac = new byte[MAC_TAG_SIZE_IN_BYTES];
-    toByteArray(mac, h0, 0);
-    toByteArray(mac, h1, 4);
-    toByteArray(mac, h2, 8);
-    toByteArray(mac, h3, 12);
-
-    return mac;
+
+    /** @return the tag of all data added so far. */
+    byte[] finish() {
+      long h0 = this.h0;
+      long h1 = this.h1;
+      long h2 = this.h2;
+      long h3 = this.h3;
+      long h4 = this.h4;
+      long c;
+      // Do final reduction mod 2^130-5
+      c = h1 >> 26;
+      h1 = h1 & 0x3ffffff;
+      h2 += c;
+      c = h2 >> 26;
+      h2 = h2 & 0x3ffffff;
+      h3 += c;
+      c = h3 >> 26;
+      h3 = h3 & 0x3ffffff;
+      h4 += c;
+      c = h4 >> 26;
+      h4 = h4 & 0x3ffffff;
+      h0 += c * 5; // c * 5 can be at most 5
+      c = h0 >> 26;
+      h0 = h0 & 0x3ffffff;
+      h1 += c;
+
+      // Compute h - p
+      long g0 = h0 + 5;
+      c = g0 >> 26;
+      g0 &= 0x3ffffff;
+      long g1 = h1 + c;
+      c = g1 >> 26;
+      g1 &= 0x3ffffff;
+      long g2 = h2 + c;
+      c = g2 >> 26;
+      g2 &= 0x3ffffff;
+      long g3 = h3 + c;
+      c = g3 >> 26;
+      g3 &= 0x3ffffff;
+      long g4 = h4 + c - (1 << 26);
+
+      // Select h if h < p, or h - p if h >= p
+      long mask = g4 >> 63; // mask is either 0 (h >= p) or -1 (h < p)
+      h0 &= mask;
+      h1 &= mask;
+      h2 &= mask;
+      h3 &= mask;
+      h4 &= mask;
+      mask = ~mask;
+      h0 |= g0 & mask;
+      h1 |= g1 & mask;
+      h2 |= g2 & mask;
+      h3 |= g3 & mask;
+      h4 |= g4 & mask;
+
+      // h = h % (2^128)
+      h0 = (h0 | (h1 << 26)) & 0xffffffffL;
+      h1 = ((h1 >> 6) | (h2 << 20)) & 0xffffffffL;
+      h2 = ((h2 >> 12) | (h3 << 14)) & 0xffffffffL;
+      h3 = ((h3 >> 18) | (h4 << 8)) & 0xffffffffL;
+
+      // mac = (h + pad) % (2^128)
+      c = h0 + load32(key, 16);
+      h0 = c & 0xffffffffL;
+      c = h1 + load32(key, 20) + (c >> 32);
+      h1 = c & 0xffffffffL;
+      c = h2 + load32(key, 24) + (c >> 32);
+      h2 = c & 0xffffffffL;
+      c = h3 + load32(key, 28) + (c >> 32);
+      h3 = c & 0xffffffffL;
+
+      byte[] mac = new byte[MAC_TAG_SIZE_IN_BYTES];
+      toByteArray(mac, h0, 0);
+      toByteArray(mac, h1, 4);
+      toByteArray(mac, h2, 8);
+      toByteArray(mac, h3, 12);
+      return mac;
+    }
   }
 
   static void verifyMac(final byte[] key, byte[] data, byte[] mac) throws GeneralSecurityException {
@@ -0,0 +1,528 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Chooses the fastest installed {@link Provider} for each algorithm that this package gets from
+ * {@link EngineFactory}, by measuring them, and makes the factories that use the default policy
+ * prefer it.
+ *
+ * <p>This is opt-in: call {@link #loadOrSelect} at startup, before the first use of Tink. A
+ * provider is only chosen if its output is the same as that of the JCE default provider. The
+ * measurement takes about a second, so the selection is saved to a file, together with the list
+ * of installed providers and the Java version. Later startups load it from there, unless the
+ * providers or the Java version have changed.
+ */
+@Alpha
+public final class ProviderSelector {
+  private static final Logger logger = Logger.getLogger(ProviderSelector.class.getName());
+
+  /** The time each provider is measured for, per algorithm, after as much time of warm-up. */
+  public static final long DEFAULT_MEASUREMENT_MILLIS = 20;
+
+  private static final String FINGERPRINT = "fingerprint";
+  private static final int DATA_SIZE = 1024;
+
+  private ProviderSelector() {}
+
+  /** A single operation that is measured repeatedly. */
+  private interface Task {
+    /**
+     * Runs the operation for the {@code iteration}-th time. Iteration 0 must return the same
+     * result for every provider.
+     */
+    byte[] run(int iteration) throws GeneralSecurityException;
+  }
+
+  /** The operation of one algorithm of one service type. */
+  private abstract static class Workload {
+    final String serviceType;
+    final String algorithm;
+
+    Workload(String serviceType, String algorithm) {
+      this.serviceType = serviceType;
+      this.algorithm = algorithm;
+    }
+
+    /** @return a task that uses {@code provider}, or the JCE default provider if it is null. */
+    abstract Task newTask(Provider provider) throws GeneralSecurityException;
+  }
+
+  private static byte[] data(int size, int seed) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (i * 31 + seed);
+    }
+    return data;
+  }
+
+  @SuppressWarnings("InsecureCryptoUsage")
+  private static Cipher cipher(String algorithm, Provider provider)
+      throws GeneralSecurityException {
+    return provider == null
+        ? Cipher.getInstance(algorithm)
+        : Cipher.getInstance(algorithm, provider);
+  }
+
+  @SuppressWarnings("InsecureCryptoUsage")
+  private static Mac mac(String algorithm, Provider provider) throws GeneralSecurityException {
+    return provider == null ? Mac.getInstance(algorithm) : Mac.getInstance(algorithm, provider);
+  }
+
+  @SuppressWarnings("InsecureCryptoUsage")
+  private static MessageDigest messageDigest(String algorithm, Provider provider)
+      throws GeneralSecurityException {
+    return provider == null
+        ? MessageDigest.getInstance(algorithm)
+        : MessageDigest.getInstance(algorithm, provider);
+  }
+
+  @SuppressWarnings("InsecureCryptoUsage")
+  private static Signature signature(String algorithm, Provider provider)
+      throws GeneralSecurityException {
+    return provider == null
+        ? Signature.getInstance(algorithm)
+        : Signature.getInstance(algorithm, provider);
+  }
+
+  @SuppressWarnings("InsecureCryptoUsage")
+  private static KeyAgreement keyAgreement(String algorithm, Provider provider)
+      throws GeneralSecurityException {
+    return provider == null
+        ? KeyAgreement.getInstance(algorithm)
+        : KeyAgreement.getInstance(algorithm, provider);
+  }
+
+  private static Workload aesGcm() {
+    return new Workload("Cipher", "AES/GCM/NoPadding") {
+      @Override
+      Task newTask(Provider provider) throws GeneralSecurityException {
+        final Cipher cipher = cipher(algorithm, provider);
+        final SecretKeySpec key = new SecretKeySpec(data(16, 1), "AES");
+        final byte[] iv = data(12, 2);
+        final byte[] aad = data(16, 3);
+        final byte[] plaintext = data(DATA_SIZE, 4);
+        return new Task() {
+          @Override
+          public byte[] run(int iteration) throws GeneralSecurityException {
+            // GCM ciphers refuse to encrypt twice with the same key and IV.
+            iv[0] = (byte) iteration;
+            iv[1] = (byte) (iteration >> 8);
+            iv[2] = (byte) (iteration >> 16);
+            iv[3] = (byte) (iteration >> 24);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+            cipher.updateAAD(aad);
+            return cipher.doFinal(plaintext);
+          }
+        };
+      }
+    };
+  }
+
+  private static Workload aesCtr() {
+    return new Workload("Cipher", "AES/CTR/NoPadding") {
+      @Override
+      Task newTask(Provider provider) throws GeneralSecurityException {
+        final Cipher cipher = cipher(algorithm, provider);
+        final SecretKeySpec key = new SecretKeySpec(data(16, 1), "AES");
+        final IvParameterSpec iv = new IvParameterSpec(data(16, 2));
+        final byte[] plaintext = data(DATA_SIZE, 4);
+        return new Task() {
+          @Override
+          public byte[] run(int iteration) throws GeneralSecurityException {
+            cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+            return cipher.doFinal(plaintext);
+          }
+        };
+      }
+    };
+  }
+
+  private static Workload aesCbc() {
+    // AesEaxJce computes its OMACs with AES-CBC.
+    return new Workload("Cipher", "AES/CBC/NoPadding") {
+      @Override
+      Task newTask(Provider provider) throws GeneralSecurityException {
+        final Cipher cipher = cipher(algorithm, provider);
+        final SecretKeySpec key = new SecretKeySpec(data(16, 1), "AES");
+        final IvParameterSpec iv = new IvParameterSpec(new byte[16]);
+        final byte[] plaintext = data(DATA_SIZE, 4);
+        return new Task() {
+          @Override
+          public byte[] run(int iteration) throws GeneralSecurityException {
+            cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+            return cipher.doFinal(plaintext);
+          }
+        };
+      }
+    };
+  }
+
+  private static Workload hmac(String algorithm) {
+    return new Workload("Mac", algorithm) {
+      @Override
+      Task newTask(Provider provider) throws GeneralSecurityException {
+        final Mac mac = mac(algorithm, provider);
+        final SecretKeySpec key = new SecretKeySpec(data(32, 1), "HMAC");
+        final byte[] input = data(DATA_SIZE, 4);
+        return new Task() {
+          @Override
+          public byte[] run(int iteration) throws GeneralSecurityException {
+            mac.init(key);
+            return mac.doFinal(input);
+          }
+        };
+      }
+    };
+  }
+
+  private static Workload digest(String algorithm) {
+    return new Workload("MessageDigest", algorithm) {
+      @Override
+      Task newTask(Provider provider) throws GeneralSecurityException {
+        final MessageDigest digest = messageDigest(algorithm, provider);
+        final byte[] input = data(DATA_SIZE, 4);
+        return new Task() {
+          @Override
+          public byte[] run(int iteration) throws GeneralSecurityException {
+            return digest.digest(input);
+          }
+        };
+      }
+    };
+  }
+
+  private static Workload ecdh(final KeyPair first, final KeyPair second) {
+    return new Workload("KeyAgreement", "ECDH") {
+      @Override
+      Task newTask(Provider provider) throws GeneralSecurityException {
+        final KeyAgreement keyAgreement = keyAgreement(algorithm, provider);
+        return new Task() {
+          @Override
+          public byte[] run(int iteration) throws GeneralSecurityException {
+            keyAgreement.init(first.getPrivate());
+            keyAgreement.doPhase(second.getPublic(), true);
+            return keyAgreement.generateSecret();
+          }
+        };
+      }
+    };
+  }
+
+  private static Workload ecdsaVerify(String algorithm, final KeyPair keyPair)
+      throws GeneralSecurityException {
+    final byte[] input = data(DATA_SIZE, 4);
+    Signature signer = signature(algorithm, null);
+    signer.initSign(keyPair.getPrivate());
+    signer.update(input);
+    final byte[] signature = signer.sign();
+    return new Workload("Signature", algorithm) {
+      @Override
+      Task newTask(Provider provider) throws GeneralSecurityException {
+        final Signature verifier = signature(algorithm, provider);
+        return new Task() {
+          @Override
+          public byte[] run(int iteration) throws GeneralSecurityException {
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(input);
+            return new byte[] {(byte) (verifier.verify(signature) ? 1 : 0)};
+          }
+        };
+      }
+    };
+  }
+
+  private static Workload ecdsaSign(String algorithm, final KeyPair keyPair)
+      throws GeneralSecurityException {
+    final byte[] input = data(DATA_SIZE, 4);
+    final Signature verifier = signature(algorithm, null);
+    return new Workload("Signature", algorithm) {
+      @Override
+      Task newTask(Provider provider) throws GeneralSecurityException {
+        final Signature signer = signature(algorithm, provider);
+        return new Task() {
+          @Override
+          public byte[] run(int iteration) throws GeneralSecurityException {
+            signer.initSign(keyPair.getPrivate());
+            signer.update(input);
+            byte[] signature = signer.sign();
+            if (iteration != 0) {
+              return signature;
+            }
+            // Signatures are randomized, so iteration 0 checks the signature with the JCE default
+            // provider instead.
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(input);
+            return new byte[] {(byte) (verifier.verify(signature) ? 1 : 0)};
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * @return the workloads of the algorithms that this package uses. Workloads of the same service
+   *     type and algorithm, like ECDSA signing and verifying, share one preference: their times are
+   *     added up, and only providers that pass all of them are chosen.
+   */
+  private static List<Workload> workloads() {
+    List<Workload> workloads = new ArrayList<Workload>();
+    workloads.add(aesGcm());
+    workloads.add(aesCtr());
+    workloads.add(aesCbc());
+    workloads.add(hmac("HMACSHA1"));
+    workloads.add(hmac("HMACSHA256"));
+    workloads.add(hmac("HMACSHA512"));
+    workloads.add(digest("SHA-256"));
+    workloads.add(digest("SHA-512"));
+    try {
+      KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+      keyGen.initialize(EllipticCurves.getNistP256Params());
+      KeyPair first = keyGen.generateKeyPair();
+      KeyPair second = keyGen.generateKeyPair();
+      workloads.add(ecdh(first, second));
+      workloads.add(ecdsaSign("SHA256WithECDSA", first));
+      workloads.add(ecdsaVerify("SHA256WithECDSA", first));
+      workloads.add(ecdsaSign("SHA512WithECDSA", first));
+      workloads.add(ecdsaVerify("SHA512WithECDSA", first));
+    } catch (GeneralSecurityException e) {
+      logger.info("EC is not available, not measuring EC providers: " + e);
+    }
+    return workloads;
+  }
+
+  /**
+   * @return whether {@code provider} offers {@code algorithm}. Providers may register a cipher
+   *     only under its base algorithm, e.g. "AES", and support the modes of {@code
+   *     "AES/CTR/NoPadding"} through attributes.
+   */
+  static boolean supports(Provider provider, String serviceType, String algorithm) {
+    if (provider.getService(serviceType, algorithm) != null) {
+      return true;
+    }
+    int slash = algorithm.indexOf('/');
+    return serviceType.equals("Cipher")
+        && slash > 0
+        && provider.getService(serviceType, algorithm.substring(0, slash)) != null;
+  }
+
+  /** The total time of the workloads of one preference key that a provider has passed. */
+  private static final class Score {
+    double nanos;
+    int workloads;
+  }
+
+  /** @return the average time of one run of {@code task} in nanoseconds. */
+  private static double measure(Task task, long durationNanos) throws GeneralSecurityException {
+    int iteration = 1;
+    long start = System.nanoTime();
+    while (System.nanoTime() - start < durationNanos) {
+      task.run(iteration++);
+    }
+    int runs = 0;
+    start = System.nanoTime();
+    long elapsed;
+    do {
+      task.run(iteration++);
+      runs++;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < durationNanos);
+    return (double) elapsed / runs;
+  }
+
+  /**
+   * Measures each installed provider for each algorithm that this package uses, for {@code
+   * measurementMillis} after as much time of warm-up.
+   *
+   * @return the name of the fastest provider whose output is the same as that of the JCE default
+   *     provider, keyed by service type and algorithm as in {@link
+   *     EngineFactory#setPreferredProviders}
+   */
+  public static Map<String, String> select(long measurementMillis) {
+    long durationNanos = measurementMillis * 1000000;
+    // The number of workloads per preference key, and per key and provider name, the total time of
+    // the workloads the provider has passed; providers that fail any workload are removed.
+    Map<String, Integer> workloadCounts = new HashMap<String, Integer>();
+    Map<String, Map<String, Score>> scores = new HashMap<String, Map<String, Score>>();
+    Set<String> failed = new HashSet<String>();
+    for (Workload workload : workloads()) {
+      byte[] expected;
+      try {
+        expected = workload.newTask(null).run(0);
+      } catch (GeneralSecurityException e) {
+        // Tink cannot use this algorithm either.
+        continue;
+      }
+      String key = workload.serviceType + "." + workload.algorithm;
+      Integer count = workloadCounts.get(key);
+      workloadCounts.put(key, count == null ? 1 : count + 1);
+      Map<String, Score> keyScores = scores.get(key);
+      if (keyScores == null) {
+        keyScores = new HashMap<String, Score>();
+        scores.put(key, keyScores);
+      }
+      for (Provider provider : Security.getProviders()) {
+        if (!supports(provider, workload.serviceType, workload.algorithm)
+            || failed.contains(key + " " + provider.getName())) {
+          continue;
+        }
+        try {
+          Task task = workload.newTask(provider);
+          if (!Arrays.equals(expected, task.run(0))) {
+            logger.warning(
+                String.format(
+                    "%s gives different results for %s %s, not using it",
+                    provider.getName(), workload.serviceType, workload.algorithm));
+            failed.add(key + " " + provider.getName());
+            continue;
+          }
+          double nanos = measure(task, durationNanos);
+          Score score = keyScores.get(provider.getName());
+          if (score == null) {
+            score = new Score();
+            keyScores.put(provider.getName(), score);
+          }
+          score.nanos += nanos;
+          score.workloads++;
+        } catch (GeneralSecurityException | RuntimeException e) {
+          // Providers may reject keys or parameters of other providers.
+          failed.add(key + " " + provider.getName());
+          continue;
+        }
+      }
+    }
+    Map<String, String> selection = new HashMap<String, String>();
+    for (Map.Entry<String, Map<String, Score>> keyScores : scores.entrySet()) {
+      String key = keyScores.getKey();
+      int count = workloadCounts.get(key);
+      String fastest = null;
+      double fastestNanos = Double.MAX_VALUE;
+      for (Map.Entry<String, Score> entry : keyScores.getValue().entrySet()) {
+        Score score = entry.getValue();
+        if (score.workloads == count
+            && !failed.contains(key + " " + entry.getKey())
+            && score.nanos < fastestNanos) {
+          fastest = entry.getKey();
+          fastestNanos = score.nanos;
+        }
+      }
+      if (fastest != null) {
+        selection.put(key, fastest);
+      }
+    }
+    return selection;
+  }
+
+  /**
+   * @return a description of the installed providers and of the Java version, which {@link
+   *     #read} compares to detect that a saved selection is out of date.
+   */
+  static String fingerprint() {
+    StringBuilder result = new StringBuilder();
+    result.append(System.getProperty("java.vendor")).append(' ');
+    result.append(System.getProperty("java.version"));
+    for (Provider provider : Security.getProviders()) {
+      result.append(',').append(provider.getName()).append(':').append(provider.getInfo());
+    }
+    return result.toString();
+  }
+
+  /** Writes {@code selection} and the {@link #fingerprint} to {@code outputStream}. */
+  public static void write(Map<String, String> selection, OutputStream outputStream)
+      throws IOException {
+    Properties properties = new Properties();
+    properties.putAll(selection);
+    properties.setProperty(FINGERPRINT, fingerprint());
+    properties.store(outputStream, "Providers selected by " + ProviderSelector.class.getName());
+  }
+
+  /**
+   * Reads a selection that has been written by {@link #write}.
+   *
+   * @return the selection, or null if it was made for other providers or another Java version
+   */
+  public static Map<String, String> read(InputStream inputStream) throws IOException {
+    Properties properties = new Properties();
+    properties.load(inputStream);
+    if (!fingerprint().equals(properties.getProperty(FINGERPRINT))) {
+      return null;
+    }
+    Map<String, String> selection = new HashMap<String, String>();
+    for (String name : properties.stringPropertyNames()) {
+      if (!name.equals(FINGERPRINT)) {
+        selection.put(name, properties.getProperty(name));
+      }
+    }
+    return Collections.unmodifiableMap(selection);
+  }
+
+  /**
+   * Reads the selection from {@code file}, or if it does not exist or is out of date, measures the
+   * providers with {@link #select} and writes the result to {@code file}. Then passes the selection
+   * to {@link EngineFactory#setPreferredProviders}.
+   *
+   * @return the selection
+   */
+  public static Map<String, String> loadOrSelect(File file) throws IOException {
+    Map<String, String> selection = null;
+    if (file.exists()) {
+      try (FileInputStream inputStream = new FileInputStream(file)) {
+        selection = read(inputStream);
+      }
+    }
+    if (selection == null) {
+      selection = select(DEFAULT_MEASUREMENT_MILLIS);
+      try (FileOutputStream outputStream = new FileOutputStream(file)) {
+        write(selection, outputStream);
+      }
+      logger.info("Selected providers " + selection);
+    }
+    EngineFactory.setPreferredProviders(selection);
+    return selection;
+  }
+}
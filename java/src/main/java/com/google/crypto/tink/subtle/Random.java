@@ -16,16 +16,215 @@
 
 package com.google.crypto.tink.subtle;
 
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
-/** A simple wrapper of SecureRandom. */
+/**
+ * A simple wrapper of SecureRandom.
+ *
+ * <p>Each thread has its own generator, so that threads do not contend for the lock of a shared
+ * {@link SecureRandom}. The generators are NIST SP 800-90A DRBGs: the "DRBG" of the JDK where it is
+ * available (since Java 9), and otherwise an AES-256 CTR_DRBG over the JCE's AES-CTR, which is
+ * seeded from a shared {@link SecureRandom}. Either is reseeded from the shared {@link
+ * SecureRandom} after producing {@link #RESEED_INTERVAL_BYTES} bytes.
+ */
 public final class Random {
-  private static final SecureRandom secureRandom = new SecureRandom();
+  /** The number of bytes a generator produces before it is reseeded. */
+  static final long RESEED_INTERVAL_BYTES = 1 << 20;
+
+  private static final int SEED_SIZE_IN_BYTES = 32;
+
+  // randBytes(byte[], int, int) fills requests up to this size through per-thread scratch arrays,
+  // as SecureRandom only fills whole arrays.
+  private static final int MAX_SCRATCH_SIZE = 64;
+
+  private static final SecureRandom seedSource = new SecureRandom();
+
+  private static final class Generator {
+    final SecureRandom random = newSecureRandom();
+    final byte[][] scratch = new byte[MAX_SCRATCH_SIZE + 1][];
+    long bytesSinceSeed = 0;
+
+    SecureRandom reserve(int size) {
+      bytesSinceSeed += size;
+      if (bytesSinceSeed > RESEED_INTERVAL_BYTES) {
+        byte[] seed = new byte[SEED_SIZE_IN_BYTES];
+        seedSource.nextBytes(seed);
+        // The JDK's DRBG reseeds with the seed as entropy input, AesCtrDrbg with fresh entropy from
+        // seedSource mixed with the seed.
+        random.setSeed(seed);
+        bytesSinceSeed = size;
+      }
+      return random;
+    }
+  }
+
+  private static final ThreadLocal<Generator> localGenerator =
+      new ThreadLocal<Generator>() {
+        @Override
+        protected Generator initialValue() {
+          return new Generator();
+        }
+      };
+
+  private Random() {}
+
+  private static SecureRandom newSecureRandom() {
+    SecureRandom random;
+    try {
+      // Available since Java 9.
+      random = SecureRandom.getInstance("DRBG");
+    } catch (NoSuchAlgorithmException e) {
+      random = newAesCtrDrbg();
+    }
+    // Forces the generator to seed itself now, rather than on first use.
+    random.nextLong();
+    return random;
+  }
+
+  private static SecureRandom newAesCtrDrbg() {
+    final AesCtrDrbg drbg;
+    try {
+      drbg = new AesCtrDrbg(AesCtrDrbg.entropy(/* additionalInput= */ null));
+    } catch (GeneralSecurityException e) {
+      // AES-CTR is available in every JCE, so this should not happen.
+      return new SecureRandom();
+    }
+    return new SecureRandom(drbg, /* provider= */ null) {};
+  }
+
+  /**
+   * A CTR_DRBG of NIST SP 800-90A, with AES-256 and without derivation function, which takes its
+   * entropy from {@code seedSource}. {@link #engineSetSeed} reseeds it with fresh entropy, mixed
+   * with the given seed. It is not thread-safe: each thread has its own.
+   */
+  static final class AesCtrDrbg extends SecureRandomSpi {
+    private static final long serialVersionUID = 1L;
+
+    static final int KEY_SIZE_IN_BYTES = 32;
+    static final int BLOCK_SIZE_IN_BYTES = 16;
+    static final int SEED_SIZE_IN_BYTES = KEY_SIZE_IN_BYTES + BLOCK_SIZE_IN_BYTES;
+    // SP 800-90A allows at most 2^19 bits per request.
+    static final int MAX_REQUEST_SIZE_IN_BYTES = 1 << 16;
+
+    // The DRBG's own cipher: the thread-local one of EngineFactory may be in use by the caller.
+    private final transient Cipher ctr;
+    private final byte[] key = new byte[KEY_SIZE_IN_BYTES];
+    private final byte[] v = new byte[BLOCK_SIZE_IN_BYTES];
+
+    /** Instantiates the DRBG with {@code entropyInput}, of {@link #SEED_SIZE_IN_BYTES} bytes. */
+    AesCtrDrbg(byte[] entropyInput) throws GeneralSecurityException {
+      ctr = EngineFactory.CIPHER.getInstance("AES/CTR/NoPadding");
+      update(entropyInput);
+    }
+
+    /** @return fresh entropy from {@code seedSource}, xored with {@code additionalInput}. */
+    static byte[] entropy(byte[] additionalInput) {
+      byte[] entropy = new byte[SEED_SIZE_IN_BYTES];
+      seedSource.nextBytes(entropy);
+      if (additionalInput != null) {
+        for (int i = 0; i < Math.min(entropy.length, additionalInput.length); i++) {
+          entropy[i] ^= additionalInput[i];
+        }
+      }
+      return entropy;
+    }
+
+    /**
+     * @return {@code E(key, v + 1) || E(key, v + 2) || ...}, which AES-CTR computes as the
+     *     encryption of zeros with counter {@code v + 1}.
+     */
+    private byte[] keyStream(int length) throws GeneralSecurityException {
+      byte[] counter = Arrays.copyOf(v, v.length);
+      for (int i = counter.length - 1; i >= 0 && ++counter[i] == 0; i--) {}
+      ctr.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(counter));
+      return ctr.doFinal(new byte[length]);
+    }
+
+    /** The CTR_DRBG_Update process. */
+    private void update(byte[] providedData) throws GeneralSecurityException {
+      byte[] temp = keyStream(SEED_SIZE_IN_BYTES);
+      for (int i = 0; i < SEED_SIZE_IN_BYTES; i++) {
+        temp[i] ^= providedData[i];
+      }
+      System.arraycopy(temp, 0, key, 0, KEY_SIZE_IN_BYTES);
+      System.arraycopy(temp, KEY_SIZE_IN_BYTES, v, 0, BLOCK_SIZE_IN_BYTES);
+      Arrays.fill(temp, (byte) 0);
+    }
+
+    /** The CTR_DRBG_Generate process, without additional input. */
+    void generate(byte[] output, int offset, int length) throws GeneralSecurityException {
+      int blocks = (length + BLOCK_SIZE_IN_BYTES - 1) / BLOCK_SIZE_IN_BYTES;
+      // The generate process ends with an update with zeros, whose key stream directly follows the
+      // output blocks, so both are computed in one pass.
+      byte[] stream = keyStream(blocks * BLOCK_SIZE_IN_BYTES + SEED_SIZE_IN_BYTES);
+      int next = blocks * BLOCK_SIZE_IN_BYTES;
+      System.arraycopy(stream, 0, output, offset, length);
+      System.arraycopy(stream, next, key, 0, KEY_SIZE_IN_BYTES);
+      System.arraycopy(stream, next + KEY_SIZE_IN_BYTES, v, 0, BLOCK_SIZE_IN_BYTES);
+      Arrays.fill(stream, (byte) 0);
+    }
+
+    @Override
+    protected void engineSetSeed(byte[] seed) {
+      try {
+        update(entropy(seed));
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    protected void engineNextBytes(byte[] bytes) {
+      try {
+        for (int done = 0; done < bytes.length; done += MAX_REQUEST_SIZE_IN_BYTES) {
+          generate(bytes, done, Math.min(MAX_REQUEST_SIZE_IN_BYTES, bytes.length - done));
+        }
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    protected byte[] engineGenerateSeed(int numBytes) {
+      return seedSource.generateSeed(numBytes);
+    }
+  }
 
   /** @return a random byte array of size {@code size}. */
   public static byte[] randBytes(int size) {
     byte[] rand = new byte[size];
-    secureRandom.nextBytes(rand);
+    localGenerator.get().reserve(size).nextBytes(rand);
     return rand;
   }
+
+  /** Fills the {@code length} bytes of {@code dst} starting at {@code offset} with random bytes. */
+  public static void randBytes(byte[] dst, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > dst.length - length) {
+      throw new IndexOutOfBoundsException("invalid offset or length");
+    }
+    Generator generator = localGenerator.get();
+    SecureRandom random = generator.reserve(length);
+    if (offset == 0 && length == dst.length) {
+      random.nextBytes(dst);
+    } else if (length <= MAX_SCRATCH_SIZE) {
+      byte[] scratch = generator.scratch[length];
+      if (scratch == null) {
+        scratch = generator.scratch[length] = new byte[length];
+      }
+      random.nextBytes(scratch);
+      System.arraycopy(scratch, 0, dst, offset, length);
+      Arrays.fill(scratch, (byte) 0);
+    } else {
+      byte[] rand = new byte[length];
+      random.nextBytes(rand);
+      System.arraycopy(rand, 0, dst, offset, length);
+    }
+  }
 }
@@ -0,0 +1,340 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static org.junit.Assume.assumeTrue;
+
+import com.google.crypto.tink.aead.AeadConfig;
+import com.google.crypto.tink.aead.AeadFactory;
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.hybrid.HybridConfig;
+import com.google.crypto.tink.hybrid.HybridDecryptFactory;
+import com.google.crypto.tink.hybrid.HybridEncryptFactory;
+import com.google.crypto.tink.hybrid.HybridKeyTemplates;
+import com.google.crypto.tink.mac.MacConfig;
+import com.google.crypto.tink.mac.MacFactory;
+import com.google.crypto.tink.mac.MacKeyTemplates;
+import com.google.crypto.tink.signature.PublicKeySignFactory;
+import com.google.crypto.tink.signature.PublicKeyVerifyFactory;
+import com.google.crypto.tink.signature.SignatureConfig;
+import com.google.crypto.tink.signature.SignatureKeyTemplates;
+import com.google.crypto.tink.subtle.AesCtrJceCipher;
+import com.google.crypto.tink.subtle.AesEaxJce;
+import com.google.crypto.tink.subtle.AesGcmJce;
+import com.google.crypto.tink.subtle.DjbCipherPoly1305;
+import com.google.crypto.tink.subtle.Ed25519Sign;
+import com.google.crypto.tink.subtle.Ed25519Verify;
+import com.google.crypto.tink.subtle.EncryptThenAuthenticate;
+import com.google.crypto.tink.subtle.MacJce;
+import com.google.crypto.tink.subtle.Random;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests that the hot paths of the primitives stay within a budget of bytes allocated per
+ * operation, so that changes that add allocations or copies do not go unnoticed.
+ *
+ * <p>The budgets of the symmetric primitives are counted in copies of the {@link #MESSAGE_SIZE}
+ * bytes message, which is large enough that the fixed allocations of any JDK fit in the slack of
+ * one copy: an operation that returns a new array may allocate less than two copies, and one that
+ * does not may allocate less than one. The public key primitives allocate mostly for their
+ * arithmetic, which depends on the JDK, so their budgets are the numbers measured on a JDK with
+ * some headroom, and are only checked when the system property {@value #ABSOLUTE_BUDGETS_PROPERTY}
+ * is set to true, e.g. with {@code bazel test //java:AllocationBudgetTest
+ * --jvmopt=-Dtink.test.absoluteAllocationBudgets=true}. The tests are skipped on JVMs that do not
+ * count allocations per thread.
+ */
+@RunWith(JUnit4.class)
+public class AllocationBudgetTest {
+  private static final int MESSAGE_SIZE = 4096;
+  private static final byte[] MESSAGE = Random.randBytes(MESSAGE_SIZE);
+  private static final byte[] AAD = Random.randBytes(16);
+
+  // Operations on public keys and on large messages take much longer than those on symmetric keys
+  // and small messages, and are measured over fewer runs.
+  private static final int SYMMETRIC_RUNS = 1000;
+  private static final int PUBLIC_KEY_RUNS = 50;
+  private static final int IN_PLACE_RUNS = 5;
+
+  private static final String ABSOLUTE_BUDGETS_PROPERTY = "tink.test.absoluteAllocationBudgets";
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    assumeTrue(TestUtil.isAllocationCountingSupported());
+    Config.register(AeadConfig.TINK_1_0_0);
+    Config.register(MacConfig.TINK_1_0_0);
+    Config.register(HybridConfig.TINK_1_0_0);
+    Config.register(SignatureConfig.TINK_1_0_0);
+  }
+
+  /** @return the budget of an operation that may allocate less than {@code n} message copies. */
+  private static long copies(int n) {
+    return (long) n * MESSAGE_SIZE;
+  }
+
+  private static void assumeAbsoluteBudgets() {
+    assumeTrue(Boolean.getBoolean(ABSOLUTE_BUDGETS_PROPERTY));
+  }
+
+  private static void assertAeadBudgets(
+      String name, final Aead aead, long encryptBudget, long decryptBudget) throws Exception {
+    int runs = SYMMETRIC_RUNS;
+    final byte[] ciphertext = aead.encrypt(MESSAGE, AAD);
+    TestUtil.assertAllocationBudget(
+        name + ".encrypt",
+        encryptBudget,
+        runs,
+        new TestUtil.Operation() {
+          @Override
+          public void run() throws Exception {
+            aead.encrypt(MESSAGE, AAD);
+          }
+        });
+    TestUtil.assertAllocationBudget(
+        name + ".decrypt",
+        decryptBudget,
+        runs,
+        new TestUtil.Operation() {
+          @Override
+          public void run() throws Exception {
+            aead.decrypt(ciphertext, AAD);
+          }
+        });
+  }
+
+  private static void assertMacBudgets(
+      String name, final Mac mac, long computeBudget, long verifyBudget) throws Exception {
+    int runs = SYMMETRIC_RUNS;
+    final byte[] tag = mac.computeMac(MESSAGE);
+    TestUtil.assertAllocationBudget(
+        name + ".computeMac",
+        computeBudget,
+        runs,
+        new TestUtil.Operation() {
+          @Override
+          public void run() throws Exception {
+            mac.computeMac(MESSAGE);
+          }
+        });
+    TestUtil.assertAllocationBudget(
+        name + ".verifyMac",
+        verifyBudget,
+        runs,
+        new TestUtil.Operation() {
+          @Override
+          public void run() throws Exception {
+            mac.verifyMac(tag, MESSAGE);
+          }
+        });
+  }
+
+  private static void assertSignatureBudgets(
+      String name,
+      final PublicKeySign signer,
+      final PublicKeyVerify verifier,
+      long signBudget,
+      long verifyBudget)
+      throws Exception {
+    int runs = PUBLIC_KEY_RUNS;
+    final byte[] signature = signer.sign(MESSAGE);
+    TestUtil.assertAllocationBudget(
+        name + ".sign",
+        signBudget,
+        runs,
+        new TestUtil.Operation() {
+          @Override
+          public void run() throws Exception {
+            signer.sign(MESSAGE);
+          }
+        });
+    TestUtil.assertAllocationBudget(
+        name + ".verify",
+        verifyBudget,
+        runs,
+        new TestUtil.Operation() {
+          @Override
+          public void run() throws Exception {
+            verifier.verify(signature, MESSAGE);
+          }
+        });
+  }
+
+  private static void assertHybridBudgets(
+      String name,
+      final HybridEncrypt encrypter,
+      final HybridDecrypt decrypter,
+      long encryptBudget,
+      long decryptBudget)
+      throws Exception {
+    int runs = PUBLIC_KEY_RUNS;
+    final byte[] ciphertext = encrypter.encrypt(MESSAGE, AAD);
+    TestUtil.assertAllocationBudget(
+        name + ".encrypt",
+        encryptBudget,
+        runs,
+        new TestUtil.Operation() {
+          @Override
+          public void run() throws Exception {
+            encrypter.encrypt(MESSAGE, AAD);
+          }
+        });
+    TestUtil.assertAllocationBudget(
+        name + ".decrypt",
+        decryptBudget,
+        runs,
+        new TestUtil.Operation() {
+          @Override
+          public void run() throws Exception {
+            decrypter.decrypt(ciphertext, AAD);
+          }
+        });
+  }
+
+  @Test
+  public void testAesGcmJce() throws Exception {
+    assertAeadBudgets("AesGcmJce", new AesGcmJce(Random.randBytes(16)), copies(2), copies(2));
+  }
+
+  @Test
+  public void testAesEaxJce() throws Exception {
+    assertAeadBudgets(
+        "AesEaxJce", new AesEaxJce(Random.randBytes(16), 16), copies(2), copies(2));
+  }
+
+  @Test
+  public void testEncryptThenAuthenticate() throws Exception {
+    Aead aead =
+        new EncryptThenAuthenticate(
+            new AesCtrJceCipher(Random.randBytes(16), 16),
+            new MacJce("HMACSHA256", new SecretKeySpec(Random.randBytes(32), "HMAC"), 16),
+            16);
+    assertAeadBudgets("EncryptThenAuthenticate", aead, copies(2), copies(2));
+  }
+
+  @Test
+  public void testChaCha20Poly1305() throws Exception {
+    assertAeadBudgets(
+        "ChaCha20Poly1305",
+        DjbCipherPoly1305.constructChaCha20Poly1305Ietf(Random.randBytes(32)),
+        copies(2),
+        copies(2));
+  }
+
+  @Test
+  public void testInPlace() throws Exception {
+    final int size = 1 << 20;
+    final AesGcmJce gcm = new AesGcmJce(Random.randBytes(16));
+    final byte[] gcmBuffer = new byte[gcm.ciphertextSize(size)];
+    final DjbCipherPoly1305 chaCha =
+        DjbCipherPoly1305.constructChaCha20Poly1305Ietf(Random.randBytes(32));
+    final byte[] chaChaBuffer = new byte[chaCha.ciphertextSize(size)];
+    // Neither direction allocates arrays that grow with the size of the message: decryptInPlace
+    // decrypts into the scratch chunks of the thread, and only allocates cipher parameters, and a
+    // cipher if the thread-local one has just encrypted the same message. Both stay far below a
+    // copy of the message.
+    TestUtil.assertAllocationBudget(
+        "AesGcmJce.encryptInPlace+decryptInPlace",
+        size / 32,
+        IN_PLACE_RUNS,
+        new TestUtil.Operation() {
+          @Override
+          public void run() throws Exception {
+            int length = gcm.encryptInPlace(gcmBuffer, 0, size, AAD);
+            gcm.decryptInPlace(gcmBuffer, 0, length, AAD);
+          }
+        });
+    // DjbCipher only allocates a few small arrays per message, whatever its size.
+    TestUtil.assertAllocationBudget(
+        "ChaCha20Poly1305.encryptInPlace+decryptInPlace",
+        size / 128,
+        IN_PLACE_RUNS,
+        new TestUtil.Operation() {
+          @Override
+          public void run() throws Exception {
+            int length = chaCha.encryptInPlace(chaChaBuffer, 0, size, AAD);
+            chaCha.decryptInPlace(chaChaBuffer, 0, length, AAD);
+          }
+        });
+  }
+
+  @Test
+  public void testMacJce() throws Exception {
+    assertMacBudgets(
+        "MacJce",
+        new MacJce("HMACSHA256", new SecretKeySpec(Random.randBytes(32), "HMAC"), 16),
+        copies(1),
+        copies(1));
+  }
+
+  @Test
+  public void testEd25519() throws Exception {
+    assumeAbsoluteBudgets();
+    Ed25519Sign.KeyPair keyPair = Ed25519Sign.KeyPair.newKeyPair();
+    assertSignatureBudgets(
+        "Ed25519",
+        new Ed25519Sign(keyPair.getPrivateKey()),
+        new Ed25519Verify(keyPair.getPublicKey()),
+        190000,
+        700000);
+  }
+
+  @Test
+  public void testAeadFactory() throws Exception {
+    assertAeadBudgets(
+        "AeadFactory(AES128_GCM)",
+        AeadFactory.getPrimitive(KeysetHandle.generateNew(AeadKeyTemplates.AES128_GCM)),
+        copies(2),
+        copies(2));
+  }
+
+  @Test
+  public void testMacFactory() throws Exception {
+    assertMacBudgets(
+        "MacFactory(HMAC_SHA256_128BITTAG)",
+        MacFactory.getPrimitive(KeysetHandle.generateNew(MacKeyTemplates.HMAC_SHA256_128BITTAG)),
+        copies(1),
+        copies(1));
+  }
+
+  @Test
+  public void testSignatureFactories() throws Exception {
+    assumeAbsoluteBudgets();
+    KeysetHandle privateHandle = KeysetHandle.generateNew(SignatureKeyTemplates.ECDSA_P256);
+    assertSignatureBudgets(
+        "PublicKeySignFactory(ECDSA_P256)",
+        PublicKeySignFactory.getPrimitive(privateHandle),
+        PublicKeyVerifyFactory.getPrimitive(privateHandle.getPublicKeysetHandle()),
+        27000,
+        48000);
+  }
+
+  @Test
+  public void testHybridFactories() throws Exception {
+    assumeAbsoluteBudgets();
+    KeysetHandle privateHandle =
+        KeysetHandle.generateNew(HybridKeyTemplates.ECIES_P256_HKDF_HMAC_SHA256_AES128_GCM);
+    assertHybridBudgets(
+        "HybridEncryptFactory(ECIES_P256_HKDF_HMAC_SHA256_AES128_GCM)",
+        HybridEncryptFactory.getPrimitive(privateHandle.getPublicKeysetHandle()),
+        HybridDecryptFactory.getPrimitive(privateHandle),
+        88000 + copies(2),
+        54000 + copies(2));
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.config.TinkConfig;
+import com.google.crypto.tink.proto.Keyset;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for BinaryKeysetReader. */
+@RunWith(JUnit4.class)
+public class BinaryKeysetReaderTest {
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setUp() throws GeneralSecurityException {
+    Config.register(TinkConfig.TINK_1_0_0);
+  }
+
+  @Test
+  public void testWithByteBuffer_shouldWork() throws Exception {
+    KeysetManager manager =
+        KeysetManager.withEmptyKeyset()
+            .rotate(AeadKeyTemplates.AES128_GCM)
+            .add(AeadKeyTemplates.AES256_EAX);
+    Keyset keyset = TestUtil.getKeyset(manager.getKeysetHandle());
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    CleartextKeysetHandle.write(
+        manager.getKeysetHandle(), BinaryKeysetWriter.withOutputStream(output));
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(output.size());
+    direct.put(output.toByteArray()).flip();
+    KeysetHandle handle = CleartextKeysetHandle.read(BinaryKeysetReader.withByteBuffer(direct));
+    assertEquals(keyset, TestUtil.getKeyset(handle));
+    assertEquals(0, direct.position());
+  }
+
+  @Test
+  public void testWithMappedFile_shouldWork() throws Exception {
+    KeysetHandle original = KeysetHandle.generateNew(AeadKeyTemplates.AES128_GCM);
+    File file = tmpFolder.newFile("keyset.bin");
+    CleartextKeysetHandle.write(original, BinaryKeysetWriter.withFile(file));
+
+    KeysetHandle handle = CleartextKeysetHandle.read(BinaryKeysetReader.withMappedFile(file));
+    assertEquals(TestUtil.getKeyset(original), TestUtil.getKeyset(handle));
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.aead.AeadConfig;
+import com.google.crypto.tink.aead.AeadFactory;
+import com.google.crypto.tink.proto.KeyStatusType;
+import com.google.crypto.tink.proto.Keyset;
+import com.google.crypto.tink.proto.Keyset.Key;
+import com.google.crypto.tink.proto.OutputPrefixType;
+import com.google.crypto.tink.subtle.Random;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for KeysetIndex. */
+@RunWith(JUnit4.class)
+public class KeysetIndexTest {
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setUp() throws GeneralSecurityException {
+    Config.register(AeadConfig.TINK_1_0_0);
+  }
+
+  private static Key newAesGcmKey(int keyId) throws Exception {
+    return TestUtil.createKey(
+        TestUtil.createAesGcmKeyData(Random.randBytes(16)),
+        keyId,
+        KeyStatusType.ENABLED,
+        OutputPrefixType.TINK);
+  }
+
+  private static Keyset newKeyset(int size) throws Exception {
+    Keyset.Builder builder = Keyset.newBuilder();
+    // Key ids are added in an order that is neither sorted by signed nor by unsigned value.
+    for (int i = 0; i < size; i++) {
+      builder.addKey(newAesGcmKey(i % 2 == 0 ? 1000 + i : -1000 - i));
+    }
+    return builder.setPrimaryKeyId(1000).build();
+  }
+
+  @Test
+  public void testGetKeys_shouldWork() throws Exception {
+    Keyset keyset = newKeyset(100);
+    KeysetIndex index = KeysetIndex.withByteBuffer(ByteBuffer.wrap(keyset.toByteArray()));
+
+    assertEquals(100, index.size());
+    assertEquals(1000, index.getPrimaryKeyId());
+    for (Key key : keyset.getKeyList()) {
+      assertThat(index.getKeys(key.getKeyId())).containsExactly(key);
+    }
+    assertThat(index.getKeys(1001)).isEmpty();
+    assertThat(index.getKeys(0)).isEmpty();
+  }
+
+  @Test
+  public void testGetKeys_duplicateKeyIds_shouldReturnAllInOrder() throws Exception {
+    Key key1 = newAesGcmKey(42);
+    Key key2 = newAesGcmKey(7);
+    Key key3 = newAesGcmKey(42);
+    Keyset keyset = TestUtil.createKeyset(key1, key2, key3);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(keyset.getSerializedSize() + 3);
+    buffer.put(new byte[3]).put(keyset.toByteArray()).flip().position(3);
+    KeysetIndex index = KeysetIndex.withByteBuffer(buffer);
+
+    assertEquals(3, buffer.position());
+    assertThat(index.getKeys(42)).containsExactly(key1, key3).inOrder();
+    assertThat(index.getKeys(7)).containsExactly(key2);
+  }
+
+  @Test
+  public void testReaderForKey_withMappedFile_shouldWork() throws Exception {
+    Keyset keyset = newKeyset(10);
+    File file = tmpFolder.newFile("keyset.bin");
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      keyset.writeTo(output);
+    } finally {
+      output.close();
+    }
+    KeysetIndex index = KeysetIndex.withMappedFile(file);
+
+    Key key = keyset.getKey(3);
+    KeysetHandle handle = CleartextKeysetHandle.read(index.readerForKey(key.getKeyId()));
+    Keyset single = TestUtil.getKeyset(handle);
+    assertEquals(key.getKeyId(), single.getPrimaryKeyId());
+    assertThat(single.getKeyList()).containsExactly(key);
+
+    Aead fromIndex = AeadFactory.getPrimitive(handle);
+    Aead fromKeyset = AeadFactory.getPrimitive(TestUtil.createKeysetHandle(keyset));
+    byte[] plaintext = Random.randBytes(20);
+    byte[] associatedData = Random.randBytes(20);
+    assertThat(fromKeyset.decrypt(fromIndex.encrypt(plaintext, associatedData), associatedData))
+        .isEqualTo(plaintext);
+
+    try {
+      index.readerForKey(1).read();
+      fail("Expected IOException");
+    } catch (IOException expected) {
+      // Expected
+    }
+  }
+}
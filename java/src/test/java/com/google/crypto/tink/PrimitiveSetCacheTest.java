@@ -0,0 +1,157 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.aead.AeadConfig;
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.proto.KeyStatusType;
+import com.google.crypto.tink.proto.Keyset;
+import com.google.crypto.tink.proto.OutputPrefixType;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for PrimitiveSetCache. */
+@RunWith(JUnit4.class)
+public class PrimitiveSetCacheTest {
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Config.register(AeadConfig.TINK_1_0_0);
+  }
+
+  private static KeysetHandle newKeysetHandle() throws Exception {
+    Keyset keyset =
+        Keyset.newBuilder()
+            .addKey(
+                Keyset.Key.newBuilder()
+                    .setKeyData(Registry.newKeyData(AeadKeyTemplates.AES128_GCM))
+                    .setKeyId(1)
+                    .setStatus(KeyStatusType.ENABLED)
+                    .setOutputPrefixType(OutputPrefixType.TINK)
+                    .build())
+            .setPrimaryKeyId(1)
+            .build();
+    return KeysetHandle.fromKeyset(keyset);
+  }
+
+  private static PrimitiveSet<Aead> newPrimitiveSet(KeysetHandle handle) throws Exception {
+    return Registry.getPrimitives(handle);
+  }
+
+  private static PrimitiveSetCache.Key keyFor(KeysetHandle handle) throws Exception {
+    return PrimitiveSetCache.keyFor(
+        handle, /* customManager= */ null, Aead.class, /* lazy= */ false);
+  }
+
+  @Test
+  public void testKeys() throws Exception {
+    KeysetHandle handle = newKeysetHandle();
+    PrimitiveSetCache.Key key = keyFor(handle);
+    assertThat(keyFor(handle)).isEqualTo(key);
+    // A handle with the same content has the same key.
+    assertThat(keyFor(KeysetHandle.fromKeyset(handle.getKeyset()))).isEqualTo(key);
+    assertThat(keyFor(newKeysetHandle())).isNotEqualTo(key);
+    assertThat(PrimitiveSetCache.keyFor(handle, null, Mac.class, false)).isNotEqualTo(key);
+    assertThat(PrimitiveSetCache.keyFor(handle, null, null, false)).isNotEqualTo(key);
+    assertThat(PrimitiveSetCache.keyFor(handle, null, Aead.class, true)).isNotEqualTo(key);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws Exception {
+    PrimitiveSetCache cache = new PrimitiveSetCache(2, 60000);
+    KeysetHandle keyset1 = newKeysetHandle();
+    KeysetHandle keyset2 = newKeysetHandle();
+    KeysetHandle keyset3 = newKeysetHandle();
+    PrimitiveSetCache.Key key1 = keyFor(keyset1);
+    PrimitiveSetCache.Key key2 = keyFor(keyset2);
+    PrimitiveSetCache.Key key3 = keyFor(keyset3);
+
+    PrimitiveSet<Aead> set1 = newPrimitiveSet(keyset1);
+    cache.put(key1, set1);
+    cache.put(key2, newPrimitiveSet(keyset2));
+    // The eviction order is based on System.nanoTime, make sure that it advances.
+    Thread.sleep(1);
+    assertThat(cache.get(key1)).isSameAs(set1);
+    // key2 is now the least recently used entry.
+    cache.put(key3, newPrimitiveSet(keyset3));
+    assertThat(cache.get(key2)).isNull();
+    assertThat(cache.get(key1)).isSameAs(set1);
+    assertThat(cache.get(key3)).isNotNull();
+
+    PrimitiveSetCache.Stats stats = cache.stats();
+    assertThat(stats.getHitCount()).isEqualTo(3);
+    assertThat(stats.getMissCount()).isEqualTo(1);
+    assertThat(stats.getEvictionCount()).isEqualTo(1);
+    assertThat(stats.getSize()).isEqualTo(2);
+    assertThat(stats.getHitRate()).isEqualTo(0.75);
+  }
+
+  @Test
+  public void testFullCacheIsShrunkByAnEighth() throws Exception {
+    PrimitiveSetCache cache = new PrimitiveSetCache(16, 60000);
+    KeysetHandle[] keysets = new KeysetHandle[17];
+    for (int i = 0; i < keysets.length; i++) {
+      keysets[i] = newKeysetHandle();
+    }
+    for (int i = 0; i < 16; i++) {
+      cache.put(keyFor(keysets[i]), newPrimitiveSet(keysets[i]));
+    }
+    assertThat(cache.stats().getEvictionCount()).isEqualTo(0);
+    // The eviction order is based on System.nanoTime, make sure that it advances.
+    Thread.sleep(1);
+    PrimitiveSet<?> set0 = cache.get(keyFor(keysets[0]));
+    assertThat(set0).isNotNull();
+
+    cache.put(keyFor(keysets[16]), newPrimitiveSet(keysets[16]));
+    assertThat(cache.stats().getEvictionCount()).isEqualTo(3);
+    assertThat(cache.stats().getSize()).isEqualTo(14);
+    assertThat(cache.get(keyFor(keysets[0]))).isSameAs(set0);
+    assertThat(cache.get(keyFor(keysets[16]))).isNotNull();
+  }
+
+  @Test
+  public void testExpiredEntriesAreEvicted() throws Exception {
+    PrimitiveSetCache cache = new PrimitiveSetCache(10, 1);
+    KeysetHandle keyset = newKeysetHandle();
+    PrimitiveSetCache.Key key = keyFor(keyset);
+    cache.put(key, newPrimitiveSet(keyset));
+    Thread.sleep(10);
+    assertThat(cache.get(key)).isNull();
+    assertThat(cache.stats().getEvictionCount()).isEqualTo(1);
+    assertThat(cache.stats().getSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void testInvalidParameters() throws Exception {
+    try {
+      new PrimitiveSetCache(0, 60000);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+    try {
+      new PrimitiveSetCache(10, 0);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+}
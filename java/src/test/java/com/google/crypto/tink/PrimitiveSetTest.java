@@ -25,7 +25,9 @@ import static org.junit.Assert.fail;
 import com.google.crypto.tink.proto.KeyStatusType;
 import com.google.crypto.tink.proto.Keyset.Key;
 import com.google.crypto.tink.proto.OutputPrefixType;
+import com.google.crypto.tink.subtle.Bytes;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -96,6 +98,11 @@ public class PrimitiveSetTest {
     assertEquals(KeyStatusType.ENABLED, entry.getStatus());
     assertEquals(CryptoFormat.TINK_START_BYTE, entry.getIdentifier()[0]);
     assertArrayEquals(CryptoFormat.getOutputPrefix(key1), entry.getIdentifier());
+    assertEquals(CryptoFormat.NON_RAW_PREFIX_SIZE, entry.getIdentifierLength());
+    byte[] identifier = new byte[1 + entry.getIdentifierLength()];
+    entry.copyIdentifierTo(identifier, 1);
+    assertArrayEquals(
+        CryptoFormat.getOutputPrefix(key1), Arrays.copyOfRange(identifier, 1, identifier.length));
 
     entries = pset.getPrimitive(key2);
     assertEquals(1, entries.size());
@@ -106,6 +113,7 @@ public class PrimitiveSetTest {
     assertEquals(KeyStatusType.ENABLED, entry.getStatus());
     assertEquals(0, entry.getIdentifier().length);
     assertArrayEquals(CryptoFormat.getOutputPrefix(key2), entry.getIdentifier());
+    assertEquals(0, entry.getIdentifierLength());
 
     entries = pset.getPrimitive(key3);
     assertEquals(1, entries.size());
@@ -227,6 +235,97 @@ public class PrimitiveSetTest {
     assertArrayEquals(CryptoFormat.getOutputPrefix(key2), entry.getIdentifier());
   }
 
+  @Test
+  public void testGetPrimitiveWithOutputPrefix() throws Exception {
+    PrimitiveSet<Mac> pset = PrimitiveSet.newPrimitiveSet();
+    // Enough keys to force the index to grow several times.
+    int numKeys = 1000;
+    for (int i = 0; i < numKeys; i++) {
+      Key key =
+          Key.newBuilder()
+              .setKeyId(i * 0x01010101)
+              .setStatus(KeyStatusType.ENABLED)
+              .setOutputPrefixType(i % 2 == 0 ? OutputPrefixType.TINK : OutputPrefixType.LEGACY)
+              .build();
+      pset.addPrimitive(i % 3 == 0 ? new DummyMac1() : new DummyMac2(), key);
+    }
+    for (int i = 0; i < numKeys; i++) {
+      Key key =
+          Key.newBuilder()
+              .setKeyId(i * 0x01010101)
+              .setOutputPrefixType(i % 2 == 0 ? OutputPrefixType.TINK : OutputPrefixType.LEGACY)
+              .build();
+      byte[] output = Bytes.concat(CryptoFormat.getOutputPrefix(key), new byte[] {42, 43});
+      List<PrimitiveSet.Entry<Mac>> entries = pset.getPrimitiveWithOutputPrefix(output);
+      assertEquals(1, entries.size());
+      assertArrayEquals(CryptoFormat.getOutputPrefix(key), entries.get(0).getIdentifier());
+      assertEquals(entries, pset.getPrimitive(CryptoFormat.getOutputPrefix(key)));
+      assertEquals(entries, pset.getPrimitive(output[0], key.getKeyId()));
+      // Only whole output prefixes are identifiers.
+      assertEquals(0, pset.getPrimitive(output).size());
+    }
+    assertEquals(0, pset.getPrimitiveWithOutputPrefix(new byte[] {1, 0, 0, 0}).size());
+    assertEquals(0, pset.getPrimitive(CryptoFormat.TINK_START_BYTE, 1).size());
+    assertEquals(0, pset.getRawPrimitives().size());
+  }
+
+  @Test
+  public void testInvalidUtf8PrefixesDoNotCollide() throws Exception {
+    PrimitiveSet<Mac> pset = PrimitiveSet.newPrimitiveSet();
+    // Both key ids are invalid UTF-8 in their big endian encoding.
+    Key key1 =
+        Key.newBuilder()
+            .setKeyId(0xff000000)
+            .setStatus(KeyStatusType.ENABLED)
+            .setOutputPrefixType(OutputPrefixType.TINK)
+            .build();
+    Key key2 =
+        Key.newBuilder()
+            .setKeyId(0xfe000000)
+            .setStatus(KeyStatusType.ENABLED)
+            .setOutputPrefixType(OutputPrefixType.TINK)
+            .build();
+    pset.addPrimitive(new DummyMac1(), key1);
+    pset.addPrimitive(new DummyMac2(), key2);
+
+    List<PrimitiveSet.Entry<Mac>> entries = pset.getPrimitive(key1);
+    assertEquals(1, entries.size());
+    assertEquals(
+        DummyMac1.class.getSimpleName(),
+        new String(entries.get(0).getPrimitive().computeMac(null), UTF_8));
+    entries = pset.getPrimitive(key2);
+    assertEquals(1, entries.size());
+    assertEquals(
+        DummyMac2.class.getSimpleName(),
+        new String(entries.get(0).getPrimitive().computeMac(null), UTF_8));
+  }
+
+  @Test
+  public void testAddAfterLookupThrows() throws Exception {
+    PrimitiveSet<Mac> pset = PrimitiveSet.newPrimitiveSet();
+    Key key1 =
+        Key.newBuilder()
+            .setKeyId(1)
+            .setStatus(KeyStatusType.ENABLED)
+            .setOutputPrefixType(OutputPrefixType.TINK)
+            .build();
+    PrimitiveSet.Entry<Mac> entry = pset.addPrimitive(new DummyMac1(), key1);
+    assertEquals(1, pset.getPrimitive(key1).size());
+    try {
+      pset.addPrimitive(new DummyMac2(), key1);
+      fail("Expected IllegalStateException.");
+    } catch (IllegalStateException e) {
+      assertExceptionContains(e, "frozen");
+    }
+    try {
+      pset.setPrimary(entry);
+      fail("Expected IllegalStateException.");
+    } catch (IllegalStateException e) {
+      assertExceptionContains(e, "frozen");
+    }
+    assertEquals(1, pset.getPrimitive(key1).size());
+  }
+
   @Test
   public void testAddInvalidKey() throws Exception {
     PrimitiveSet<Mac> pset = PrimitiveSet.newPrimitiveSet();
@@ -22,6 +22,7 @@ import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.TestUtil.DummyAead;
 import com.google.crypto.tink.aead.AeadConfig;
+import com.google.crypto.tink.aead.AeadFactory;
 import com.google.crypto.tink.aead.AeadKeyTemplates;
 import com.google.crypto.tink.config.TinkConfig;
 import com.google.crypto.tink.mac.MacConfig;
@@ -35,8 +36,10 @@ import com.google.crypto.tink.proto.KeyTemplate;
 import com.google.crypto.tink.proto.Keyset;
 import com.google.crypto.tink.proto.OutputPrefixType;
 import com.google.crypto.tink.subtle.AesGcmJce;
+import com.google.crypto.tink.subtle.Bytes;
 import com.google.crypto.tink.subtle.EncryptThenAuthenticate;
 import com.google.crypto.tink.subtle.MacJce;
+import com.google.crypto.tink.subtle.Random;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.MessageLite;
 import java.security.GeneralSecurityException;
@@ -520,4 +523,131 @@ public class RegistryTest {
     assertThat(count).isEqualTo(2);
   }
   // TODO(przydatek): Add more tests for creation of PrimitiveSets.
+
+  private static KeysetHandle newAeadKeysetHandle(KeyData keyData) throws Exception {
+    return KeysetHandle.fromKeyset(
+        Keyset.newBuilder()
+            .addKey(
+                Keyset.Key.newBuilder()
+                    .setKeyData(keyData)
+                    .setKeyId(1)
+                    .setStatus(KeyStatusType.ENABLED)
+                    .setOutputPrefixType(OutputPrefixType.TINK)
+                    .build())
+            .setPrimaryKeyId(1)
+            .build());
+  }
+
+  @Test
+  public void testGetPrimitives_withCache_shouldReuseSets() throws Exception {
+    KeyData keyData1 = Registry.newKeyData(AeadKeyTemplates.AES128_GCM);
+    KeyData keyData2 = Registry.newKeyData(AeadKeyTemplates.AES128_GCM);
+    assertThat(Registry.getPrimitiveSetCacheStats()).isNull();
+    Registry.enablePrimitiveSetCache(10, 60000);
+    try {
+      PrimitiveSet<Aead> set1 = Registry.getPrimitives(newAeadKeysetHandle(keyData1));
+      // A different handle with the same content hits the cache.
+      assertThat(Registry.<Aead>getPrimitives(newAeadKeysetHandle(keyData1))).isSameAs(set1);
+      PrimitiveSet<Aead> set2 = Registry.getPrimitives(newAeadKeysetHandle(keyData2));
+      assertThat(set2).isNotSameAs(set1);
+      // Custom key managers are part of the cache key.
+      PrimitiveSet<Aead> custom =
+          Registry.getPrimitives(newAeadKeysetHandle(keyData1), new CustomAeadKeyManager());
+      assertThat(custom).isNotSameAs(set1);
+      assertThat(custom.getPrimary().getPrimitive()).isInstanceOf(DummyAead.class);
+
+      PrimitiveSetCache.Stats stats = Registry.getPrimitiveSetCacheStats();
+      assertThat(stats.getHitCount()).isEqualTo(1);
+      assertThat(stats.getMissCount()).isEqualTo(3);
+      assertThat(stats.getSize()).isEqualTo(3);
+    } finally {
+      Registry.disablePrimitiveSetCache();
+    }
+    assertThat(Registry.getPrimitiveSetCacheStats()).isNull();
+    // Without the cache every call builds a new set.
+    KeysetHandle handle = newAeadKeysetHandle(keyData1);
+    assertThat(Registry.<Aead>getPrimitives(handle))
+        .isNotSameAs(Registry.<Aead>getPrimitives(handle));
+  }
+
+  @Test
+  public void testGetPrimitives_lazyInstantiation_shouldWork() throws Exception {
+    KeyData valid = Registry.newKeyData(AeadKeyTemplates.AES128_GCM);
+    KeyData invalid = KeyData.newBuilder(valid).setValue(ByteString.copyFromUtf8("junk")).build();
+    KeysetHandle keysetHandle =
+        KeysetHandle.fromKeyset(
+            Keyset.newBuilder()
+                .addKey(
+                    Keyset.Key.newBuilder()
+                        .setKeyData(valid)
+                        .setKeyId(1)
+                        .setStatus(KeyStatusType.ENABLED)
+                        .setOutputPrefixType(OutputPrefixType.TINK)
+                        .build())
+                .addKey(
+                    Keyset.Key.newBuilder()
+                        .setKeyData(valid)
+                        .setKeyId(2)
+                        .setStatus(KeyStatusType.ENABLED)
+                        .setOutputPrefixType(OutputPrefixType.TINK)
+                        .build())
+                .addKey(
+                    Keyset.Key.newBuilder()
+                        .setKeyData(invalid)
+                        .setKeyId(3)
+                        .setStatus(KeyStatusType.ENABLED)
+                        .setOutputPrefixType(OutputPrefixType.TINK)
+                        .build())
+                .setPrimaryKeyId(1)
+                .build());
+    try {
+      Registry.getPrimitives(keysetHandle);
+      fail("Invalid key, should have thrown exception");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+
+    Registry.setLazyInstantiation(true);
+    try {
+      PrimitiveSet<Aead> aeadSet = Registry.getPrimitives(keysetHandle);
+      assertThat(aeadSet.getPrimary().getPrimitive()).isInstanceOf(AesGcmJce.class);
+      PrimitiveSet.Entry<Aead> entry2 =
+          aeadSet.getPrimitive(CryptoFormat.TINK_START_BYTE, 2).get(0);
+      Aead aead2 = entry2.getPrimitive();
+      assertThat(aead2).isInstanceOf(AesGcmJce.class);
+      assertThat(entry2.getPrimitive()).isSameAs(aead2);
+
+      PrimitiveSet.Entry<Aead> entry3 =
+          aeadSet.getPrimitive(CryptoFormat.TINK_START_BYTE, 3).get(0);
+      try {
+        entry3.getPrimitive();
+        fail("Invalid key, should have thrown exception");
+      } catch (IllegalStateException e) {
+        assertThat(e.getCause()).isInstanceOf(GeneralSecurityException.class);
+      }
+      try {
+        entry3.getPrimitiveOrThrow();
+        fail("Invalid key, should have thrown exception");
+      } catch (GeneralSecurityException expected) {
+        // Expected
+      }
+
+      // Decryption skips the key that cannot be instantiated.
+      Aead aead = AeadFactory.getPrimitive(keysetHandle);
+      byte[] plaintext = Random.randBytes(20);
+      byte[] associatedData = Random.randBytes(20);
+      byte[] ciphertext = aead.encrypt(plaintext, associatedData);
+      assertThat(aead.decrypt(ciphertext, associatedData)).isEqualTo(plaintext);
+      byte[] ciphertext3 =
+          Bytes.concat(entry3.getIdentifier(), aead2.encrypt(plaintext, associatedData));
+      try {
+        aead.decrypt(ciphertext3, associatedData);
+        fail("Invalid key, should have thrown exception");
+      } catch (GeneralSecurityException expected) {
+        assertExceptionContains(expected, "decryption failed");
+      }
+    } finally {
+      Registry.setLazyInstantiation(false);
+    }
+  }
 }
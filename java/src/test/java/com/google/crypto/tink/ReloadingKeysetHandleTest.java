@@ -0,0 +1,319 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.aead.AeadConfig;
+import com.google.crypto.tink.aead.AeadFactory;
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.proto.KeyData;
+import com.google.crypto.tink.proto.KeyStatusType;
+import com.google.crypto.tink.proto.Keyset;
+import com.google.crypto.tink.proto.Keyset.Key;
+import com.google.crypto.tink.proto.OutputPrefixType;
+import com.google.crypto.tink.subtle.Random;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.MessageLite;
+import java.io.File;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for ReloadingKeysetHandle. */
+@RunWith(JUnit4.class)
+public class ReloadingKeysetHandleTest {
+  private static final String AES_GCM_TYPE_URL =
+      "type.googleapis.com/google.crypto.tink.AesGcmKey";
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  /** Delegates to the registered AES-GCM key manager and counts the instantiated primitives. */
+  private static class CountingKeyManager implements KeyManager<Aead> {
+    final AtomicInteger instantiated = new AtomicInteger();
+    final KeyManager<Aead> delegate;
+
+    CountingKeyManager() throws GeneralSecurityException {
+      delegate = Registry.getKeyManager(AES_GCM_TYPE_URL);
+    }
+
+    @Override
+    public Aead getPrimitive(ByteString proto) throws GeneralSecurityException {
+      instantiated.incrementAndGet();
+      return delegate.getPrimitive(proto);
+    }
+
+    @Override
+    public Aead getPrimitive(MessageLite proto) throws GeneralSecurityException {
+      instantiated.incrementAndGet();
+      return delegate.getPrimitive(proto);
+    }
+
+    @Override
+    public MessageLite newKey(ByteString template) throws GeneralSecurityException {
+      return delegate.newKey(template);
+    }
+
+    @Override
+    public MessageLite newKey(MessageLite template) throws GeneralSecurityException {
+      return delegate.newKey(template);
+    }
+
+    @Override
+    public KeyData newKeyData(ByteString serialized) throws GeneralSecurityException {
+      return delegate.newKeyData(serialized);
+    }
+
+    @Override
+    public boolean doesSupport(String typeUrl) {
+      return delegate.doesSupport(typeUrl);
+    }
+
+    @Override
+    public String getKeyType() {
+      return delegate.getKeyType();
+    }
+
+    @Override
+    public int getVersion() {
+      return delegate.getVersion();
+    }
+  }
+
+  /** Returns the keyset set by the test, or null if it has not changed. */
+  private static class SettableLoader implements ReloadingKeysetHandle.Loader {
+    KeysetHandle next;
+
+    @Override
+    public KeysetHandle load() {
+      KeysetHandle result = next;
+      next = null;
+      return result;
+    }
+  }
+
+  @BeforeClass
+  public static void setUp() throws GeneralSecurityException {
+    Config.register(AeadConfig.TINK_1_0_0);
+  }
+
+  private static Key newAesGcmKey(int keyId) throws Exception {
+    return TestUtil.createKey(
+        TestUtil.createAesGcmKeyData(Random.randBytes(16)),
+        keyId,
+        KeyStatusType.ENABLED,
+        OutputPrefixType.TINK);
+  }
+
+  @Test
+  public void testReload_onlyInstantiatesChangedKeys() throws Exception {
+    Key key1 = newAesGcmKey(1);
+    Key key2 = newAesGcmKey(2);
+    Key key3 = newAesGcmKey(3);
+    SettableLoader loader = new SettableLoader();
+    loader.next = TestUtil.createKeysetHandle(TestUtil.createKeyset(key1, key2));
+    ReloadingKeysetHandle handle = ReloadingKeysetHandle.withLoader(loader);
+    CountingKeyManager manager = new CountingKeyManager();
+    ReloadingKeysetHandle.ReloadingPrimitive<Aead> aead =
+        handle.newPrimitive(AeadFactory.getWrapper(), manager);
+    assertEquals(2, manager.instantiated.get());
+
+    byte[] plaintext = Random.randBytes(20);
+    byte[] associatedData = Random.randBytes(20);
+    byte[] ciphertext1 = aead.get().encrypt(plaintext, associatedData);
+    assertArrayEquals(CryptoFormat.getOutputPrefix(key1), prefixOf(ciphertext1));
+
+    // Rotate: key 3 is added and becomes primary, key 2 is removed.
+    loader.next = TestUtil.createKeysetHandle(TestUtil.createKeyset(key3, key1));
+    assertTrue(handle.reload());
+    assertEquals(3, manager.instantiated.get());
+    assertEquals(3, handle.getKeysetHandle().getKeysetInfo().getPrimaryKeyId());
+
+    byte[] ciphertext3 = aead.get().encrypt(plaintext, associatedData);
+    assertArrayEquals(CryptoFormat.getOutputPrefix(key3), prefixOf(ciphertext3));
+    assertArrayEquals(plaintext, aead.get().decrypt(ciphertext1, associatedData));
+    assertArrayEquals(plaintext, aead.get().decrypt(ciphertext3, associatedData));
+
+    // Keys that were removed can no longer decrypt.
+    Aead onlyKey2 =
+        AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(key2)));
+    byte[] ciphertext2 = onlyKey2.encrypt(plaintext, associatedData);
+    try {
+      aead.get().decrypt(ciphertext2, associatedData);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+
+    // Changing the status of a key is a modification.
+    Key disabledKey1 = Key.newBuilder(key1).setStatus(KeyStatusType.DISABLED).build();
+    loader.next = TestUtil.createKeysetHandle(TestUtil.createKeyset(key3, disabledKey1));
+    assertTrue(handle.reload());
+    assertEquals(3, manager.instantiated.get());
+    try {
+      aead.get().decrypt(ciphertext1, associatedData);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testReload_keysWithSameId_reusesTheirOwnPrimitives() throws Exception {
+    Key primary = newAesGcmKey(3);
+    Key first = newAesGcmKey(1);
+    Key second = newAesGcmKey(1);
+    SettableLoader loader = new SettableLoader();
+    loader.next = TestUtil.createKeysetHandle(TestUtil.createKeyset(primary, first, second));
+    ReloadingKeysetHandle handle = ReloadingKeysetHandle.withLoader(loader);
+    CountingKeyManager manager = new CountingKeyManager();
+    ReloadingKeysetHandle.ReloadingPrimitive<Aead> aead =
+        handle.newPrimitive(AeadFactory.getWrapper(), manager);
+    assertEquals(3, manager.instantiated.get());
+
+    byte[] plaintext = Random.randBytes(20);
+    byte[] associatedData = Random.randBytes(20);
+    byte[] ciphertextFirst =
+        AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(first)))
+            .encrypt(plaintext, associatedData);
+    byte[] ciphertextSecond =
+        AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(second)))
+            .encrypt(plaintext, associatedData);
+
+    // The first of the two keys is removed, and the second keeps its primitive.
+    loader.next = TestUtil.createKeysetHandle(TestUtil.createKeyset(primary, second));
+    assertTrue(handle.reload());
+    assertEquals(3, manager.instantiated.get());
+    assertArrayEquals(plaintext, aead.get().decrypt(ciphertextSecond, associatedData));
+    try {
+      aead.get().decrypt(ciphertextFirst, associatedData);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testReload_unchangedKeyset_shouldNotRebuild() throws Exception {
+    Keyset keyset = TestUtil.createKeyset(newAesGcmKey(1));
+    SettableLoader loader = new SettableLoader();
+    loader.next = TestUtil.createKeysetHandle(keyset);
+    ReloadingKeysetHandle handle = ReloadingKeysetHandle.withLoader(loader);
+    ReloadingKeysetHandle.ReloadingPrimitive<Aead> aead =
+        handle.newPrimitive(AeadFactory.getWrapper());
+    Aead before = aead.get();
+
+    assertFalse(handle.reload());
+    loader.next = TestUtil.createKeysetHandle(keyset);
+    assertFalse(handle.reload());
+    assertThat(aead.get()).isSameAs(before);
+  }
+
+  @Test
+  public void testReload_invalidKeyset_keepsPreviousPrimitive() throws Exception {
+    Key key1 = newAesGcmKey(1);
+    SettableLoader loader = new SettableLoader();
+    loader.next = TestUtil.createKeysetHandle(TestUtil.createKeyset(key1));
+    ReloadingKeysetHandle handle = ReloadingKeysetHandle.withLoader(loader);
+    ReloadingKeysetHandle.ReloadingPrimitive<Aead> aead =
+        handle.newPrimitive(AeadFactory.getWrapper());
+    Aead before = aead.get();
+
+    KeyData invalid =
+        KeyData.newBuilder(key1.getKeyData()).setValue(ByteString.copyFromUtf8("junk")).build();
+    Key invalidKey = Key.newBuilder(key1).setKeyId(2).setKeyData(invalid).build();
+    loader.next = TestUtil.createKeysetHandle(TestUtil.createKeyset(invalidKey, key1));
+    try {
+      handle.reload();
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+    assertThat(aead.get()).isSameAs(before);
+    assertEquals(1, handle.getKeysetHandle().getKeysetInfo().getPrimaryKeyId());
+  }
+
+  @Test
+  public void testWithJsonFile_reloadsWhenFileChanges() throws Exception {
+    Aead masterKey =
+        AeadFactory.getPrimitive(KeysetHandle.generateNew(AeadKeyTemplates.AES128_GCM));
+    File file = tmpFolder.newFile("keyset.json");
+    writeKeyset(file, masterKey, TestUtil.createKeyset(newAesGcmKey(1)));
+
+    ReloadingKeysetHandle handle = ReloadingKeysetHandle.withJsonFile(file, masterKey);
+    ReloadingKeysetHandle.ReloadingPrimitive<Aead> aead =
+        handle.newPrimitive(AeadFactory.getWrapper());
+    byte[] plaintext = Random.randBytes(20);
+    byte[] ciphertext1 = aead.get().encrypt(plaintext, new byte[0]);
+    assertFalse(handle.reload());
+
+    Key key1 = TestUtil.getKeyset(handle.getKeysetHandle()).getKey(0);
+    Keyset rotated = TestUtil.createKeyset(newAesGcmKey(2), key1);
+    writeKeyset(file, masterKey, rotated);
+    assertTrue(handle.reload());
+    assertEquals(2, handle.getKeysetHandle().getKeysetInfo().getPrimaryKeyId());
+    assertArrayEquals(plaintext, aead.get().decrypt(ciphertext1, new byte[0]));
+    assertFalse(handle.reload());
+    handle.close();
+  }
+
+  @Test
+  public void testWithBinaryFile_reloadsWhenSizeAndModificationTimeAreUnchanged()
+      throws Exception {
+    Aead masterKey =
+        AeadFactory.getPrimitive(KeysetHandle.generateNew(AeadKeyTemplates.AES128_GCM));
+    File file = tmpFolder.newFile("keyset.bin");
+    writeBinaryKeyset(file, masterKey, TestUtil.createKeyset(newAesGcmKey(1)));
+    long modified = file.lastModified();
+    long size = file.length();
+
+    ReloadingKeysetHandle handle = ReloadingKeysetHandle.withBinaryFile(file, masterKey);
+    assertFalse(handle.reload());
+
+    writeBinaryKeyset(file, masterKey, TestUtil.createKeyset(newAesGcmKey(2)));
+    assertTrue(file.setLastModified(modified));
+    assertEquals(size, file.length());
+    assertTrue(handle.reload());
+    assertEquals(2, handle.getKeysetHandle().getKeysetInfo().getPrimaryKeyId());
+    handle.close();
+  }
+
+  private static void writeKeyset(File file, Aead masterKey, Keyset keyset) throws Exception {
+    TestUtil.createKeysetHandle(keyset).write(JsonKeysetWriter.withFile(file), masterKey);
+  }
+
+  private static void writeBinaryKeyset(File file, Aead masterKey, Keyset keyset)
+      throws Exception {
+    TestUtil.createKeysetHandle(keyset).write(BinaryKeysetWriter.withFile(file), masterKey);
+  }
+
+  private static byte[] prefixOf(byte[] ciphertext) {
+    byte[] prefix = new byte[CryptoFormat.NON_RAW_PREFIX_SIZE];
+    System.arraycopy(ciphertext, 0, prefix, 0, prefix.length);
+    return prefix;
+  }
+}
@@ -0,0 +1,235 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.config.TinkConfig;
+import com.google.crypto.tink.mac.MacKeyTemplates;
+import com.google.crypto.tink.proto.KeyTemplate;
+import com.google.crypto.tink.proto.Keyset;
+import com.google.protobuf.util.JsonFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for StreamingJsonKeysetReader. */
+@RunWith(JUnit4.class)
+public class StreamingJsonKeysetReaderTest {
+  private static final String JSON_KEYSET = "{"
+      + "\"primaryKeyId\": 547623039,"
+      + "\"key\": [{"
+      +   "\"keyData\": {"
+      +      "\"typeUrl\": \"type.googleapis.com/google.crypto.tink.HmacKey\","
+      +      "\"keyMaterialType\": \"SYMMETRIC\","
+      +      "\"value\": \"EgQIAxAQGiBYhMkitTWFVefTIBg6kpvac+bwFOGSkENGmU+1EYgocg==\""
+      +   "},"
+      +   "\"outputPrefixType\": \"TINK\","
+      +   "\"keyId\": 547623039,"
+      +   "\"status\": \"ENABLED\""
+      + "}]}";
+
+  private static final String URL_SAFE_JSON_KEYSET = "{"
+      + "\"primaryKeyId\": 547623039,"
+      + "\"key\": [{"
+      +   "\"keyData\": {"
+      +      "\"typeUrl\": \"type.googleapis.com/google.crypto.tink.HmacKey\","
+      +      "\"keyMaterialType\": \"SYMMETRIC\","
+      +      "\"value\": \"EgQIAxAQGiBYhMkitTWFVefTIBg6kpvac-bwFOGSkENGmU-1EYgocg\""
+      +   "},"
+      +   "\"outputPrefixType\": \"TINK\","
+      +   "\"keyId\": 547623039,"
+      +   "\"status\": \"ENABLED\""
+      + "}]}";
+
+  @BeforeClass
+  public static void setUp() throws GeneralSecurityException {
+    Config.register(TinkConfig.TINK_1_0_0);
+  }
+
+  private static Keyset newKeyset(int size) throws Exception {
+    KeyTemplate template = MacKeyTemplates.HMAC_SHA256_128BITTAG;
+    KeysetManager manager = KeysetManager.withEmptyKeyset().rotate(template);
+    for (int i = 1; i < size; i++) {
+      manager.add(template);
+    }
+    return manager.getKeysetHandle().getKeyset();
+  }
+
+  @Test
+  public void testRead_shouldMatchJsonKeysetReader() throws Exception {
+    Keyset expected = JsonKeysetReader.withString(JSON_KEYSET).read();
+
+    assertEquals(expected, StreamingJsonKeysetReader.withBytes(JSON_KEYSET.getBytes(UTF_8)).read());
+    assertEquals(
+        expected,
+        StreamingJsonKeysetReader.withBytes(URL_SAFE_JSON_KEYSET.getBytes(UTF_8))
+            .withUrlSafeBase64()
+            .read());
+  }
+
+  @Test
+  public void testRead_multipleKeys_shouldWork() throws Exception {
+    Keyset keyset = newKeyset(5);
+    String json = JsonFormat.printer().print(keyset);
+
+    assertEquals(keyset, StreamingJsonKeysetReader.withBytes(json.getBytes(UTF_8)).read());
+  }
+
+  @Test
+  public void testReadKeys_shouldReadKeysBeforeTheEndOfTheInput() throws Exception {
+    Keyset keyset = newKeyset(3);
+    byte[] json = JsonFormat.printer().print(keyset).getBytes(UTF_8);
+    final OneByteAtATimeInputStream input = new OneByteAtATimeInputStream(json);
+    final List<Integer> positions = new ArrayList<Integer>();
+    final List<Keyset.Key> keys = new ArrayList<Keyset.Key>();
+
+    int primaryKeyId =
+        StreamingJsonKeysetReader.withInputStream(input)
+            .readKeys(
+                new StreamingJsonKeysetReader.KeyListener() {
+                  @Override
+                  public void onKey(Keyset.Key key) {
+                    keys.add(key);
+                    positions.add(input.position());
+                  }
+                });
+
+    assertEquals(keyset.getPrimaryKeyId(), primaryKeyId);
+    assertEquals(keyset.getKeyList(), keys);
+    assertThat(positions.get(0)).isLessThan(positions.get(1));
+    assertThat(positions.get(1)).isLessThan(positions.get(2));
+    assertThat(positions.get(2)).isLessThan(json.length);
+  }
+
+  @Test
+  public void testRead_escapesAndUnknownFields_shouldWork() throws Exception {
+    String json = "{\"comment\": {\"a\": [1, -2.5e3, true, null, \"\\u00e9\\\"\"]},"
+        + "\"primaryKeyId\": \"42\", \"key\": [{"
+        + "\"keyData\": {\"typeUrl\": \"type.googleapis.com\\/t\\u00e9st\\ud83d\\ude00\","
+        + "\"keyMaterialType\": \"REMOTE\", \"value\": \"AAEC\"},"
+        + "\"outputPrefixType\": \"RAW\", \"keyId\": 4294967295, \"status\": \"DISABLED\","
+        + "\"extra\": []}]}";
+
+    Keyset keyset = StreamingJsonKeysetReader.withBytes(json.getBytes(UTF_8)).read();
+    assertEquals(42, keyset.getPrimaryKeyId());
+    assertEquals(-1, keyset.getKey(0).getKeyId());
+    assertEquals(
+        "type.googleapis.com/t\u00e9st\ud83d\ude00", keyset.getKey(0).getKeyData().getTypeUrl());
+    assertThat(keyset.getKey(0).getKeyData().getValue().toByteArray())
+        .isEqualTo(new byte[] {0, 1, 2});
+  }
+
+  @Test
+  public void testRead_keyIdAboveIntMaxWrittenByJsonKeysetWriter_shouldWork() throws Exception {
+    Keyset keyset = newKeyset(1);
+    keyset =
+        keyset.toBuilder()
+            .setPrimaryKeyId(0xffffffff)
+            .setKey(0, keyset.getKey(0).toBuilder().setKeyId(0xffffffff))
+            .build();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    JsonKeysetWriter.withOutputStream(output).write(keyset);
+
+    Keyset keyset2 = StreamingJsonKeysetReader.withBytes(output.toByteArray()).read();
+    assertEquals(keyset, keyset2);
+    assertEquals(0xffffffff, keyset2.getKey(0).getKeyId());
+  }
+
+  @Test
+  public void testRead_invalidInput_shouldThrowException() throws Exception {
+    String[] invalid = {
+      "",
+      "{",
+      "{\"primaryKeyId\": 1}",
+      "{\"primaryKeyId\": 1, \"key\": []}",
+      JSON_KEYSET.replace("\"keyId\": 547623039,", ""),
+      JSON_KEYSET.replace("ENABLED", "UNKNOWN"),
+      JSON_KEYSET.replace("\"typeUrl\":", "\"typeUrl\""),
+      JSON_KEYSET.replace("547623039,", "547623039,,"),
+      JSON_KEYSET.replace("547623039,", "5476230391234,"),
+      JSON_KEYSET.replace("547623039,", "4294967296,"),
+      JSON_KEYSET.replace("547623039,", "-2147483649,"),
+      JSON_KEYSET.replace("\"TINK\"", "\"UNKNOWN\""),
+      JSON_KEYSET.replace("SYMMETRIC", "UNKNOWN"),
+      JSON_KEYSET.replace("547623039,", "1.5,"),
+      JSON_KEYSET.replace("}]}", "},]}"),
+      JSON_KEYSET.replace("EgQI", "E\u0001gQI"),
+      JSON_KEYSET + "}",
+    };
+    for (String json : invalid) {
+      try {
+        StreamingJsonKeysetReader.withBytes(json.getBytes(UTF_8)).read();
+        fail("Expected IOException for " + json);
+      } catch (IOException expected) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void testReadEncrypted_shouldWork() throws Exception {
+    KeysetHandle handle = KeysetHandle.generateNew(MacKeyTemplates.HMAC_SHA256_128BITTAG);
+    Aead masterKey = Registry.getPrimitive(Registry.newKeyData(AeadKeyTemplates.AES128_GCM));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    handle.write(JsonKeysetWriter.withOutputStream(output), masterKey);
+
+    KeysetHandle handle2 =
+        KeysetHandle.read(StreamingJsonKeysetReader.withBytes(output.toByteArray()), masterKey);
+    assertEquals(handle.getKeyset(), handle2.getKeyset());
+  }
+
+  @Test
+  public void testRead_twice_shouldThrowException() throws Exception {
+    StreamingJsonKeysetReader reader =
+        StreamingJsonKeysetReader.withBytes(JSON_KEYSET.getBytes(UTF_8));
+    reader.read();
+    try {
+      reader.read();
+      fail("Expected IOException");
+    } catch (IOException expected) {
+      // Expected
+    }
+  }
+
+  /** Returns at most one byte per read, and exposes how much has been read. */
+  private static class OneByteAtATimeInputStream extends ByteArrayInputStream {
+    OneByteAtATimeInputStream(byte[] data) {
+      super(data);
+    }
+
+    int position() {
+      return pos;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      return super.read(b, off, Math.min(len, 1));
+    }
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.config.TinkConfig;
+import com.google.crypto.tink.mac.MacKeyTemplates;
+import com.google.crypto.tink.proto.EncryptedKeyset;
+import com.google.crypto.tink.proto.KeyData;
+import com.google.crypto.tink.proto.KeyTemplate;
+import com.google.crypto.tink.proto.Keyset;
+import com.google.protobuf.util.JsonFormat;
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for StreamingJsonKeysetWriter. */
+@RunWith(JUnit4.class)
+public class StreamingJsonKeysetWriterTest {
+  @BeforeClass
+  public static void setUp() throws GeneralSecurityException {
+    Config.register(TinkConfig.TINK_1_0_0);
+  }
+
+  private static KeysetHandle newKeysetHandle() throws Exception {
+    KeyTemplate template = MacKeyTemplates.HMAC_SHA256_128BITTAG;
+    return KeysetManager.withEmptyKeyset()
+        .rotate(template)
+        .add(template)
+        .add(template)
+        .getKeysetHandle();
+  }
+
+  @Test
+  public void testWrite_shouldBeReadableByAllReaders() throws Exception {
+    Keyset keyset = newKeysetHandle().getKeyset();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    StreamingJsonKeysetWriter.withOutputStream(outputStream).write(keyset);
+    byte[] json = outputStream.toByteArray();
+
+    Keyset.Builder builder = Keyset.newBuilder();
+    JsonFormat.parser().merge(new String(json, UTF_8), builder);
+    assertEquals(keyset, builder.build());
+    assertEquals(keyset, JsonKeysetReader.withBytes(json).read());
+    assertEquals(keyset, StreamingJsonKeysetReader.withBytes(json).read());
+  }
+
+  @Test
+  public void testWrite_specialCharactersAndLargeKeyIds_shouldWork() throws Exception {
+    Keyset.Key key = newKeysetHandle().getKeyset().getKey(0);
+    KeyData keyData =
+        KeyData.newBuilder(key.getKeyData()).setTypeUrl("t\"y\\p\u00e9\n\ud83d\ude00").build();
+    Keyset keyset =
+        Keyset.newBuilder()
+            .addKey(Keyset.Key.newBuilder(key).setKeyId(-2).setKeyData(keyData))
+            .setPrimaryKeyId(-2)
+            .build();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    StreamingJsonKeysetWriter.withOutputStream(outputStream).write(keyset);
+    byte[] json = outputStream.toByteArray();
+
+    Keyset.Builder builder = Keyset.newBuilder();
+    JsonFormat.parser().merge(new String(json, UTF_8), builder);
+    assertEquals(keyset, builder.build());
+    assertEquals(keyset, StreamingJsonKeysetReader.withBytes(json).read());
+  }
+
+  @Test
+  public void testWriteEncrypted_shouldWork() throws Exception {
+    KeysetHandle handle = newKeysetHandle();
+    Aead masterKey = Registry.getPrimitive(Registry.newKeyData(AeadKeyTemplates.AES128_GCM));
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    handle.write(StreamingJsonKeysetWriter.withOutputStream(outputStream), masterKey);
+    byte[] json = outputStream.toByteArray();
+
+    EncryptedKeyset.Builder builder = EncryptedKeyset.newBuilder();
+    JsonFormat.parser().merge(new String(json, UTF_8), builder);
+    KeysetHandle handle2 =
+        KeysetHandle.read(BinaryKeysetReader.withBytes(builder.build().toByteArray()), masterKey);
+    assertEquals(handle.getKeyset(), handle2.getKeyset());
+    handle2 = KeysetHandle.read(JsonKeysetReader.withBytes(json), masterKey);
+    assertEquals(handle.getKeyset(), handle2.getKeyset());
+    handle2 = KeysetHandle.read(StreamingJsonKeysetReader.withBytes(json), masterKey);
+    assertEquals(handle.getKeyset(), handle2.getKeyset());
+  }
+}
@@ -19,7 +19,9 @@ package com.google.crypto.tink;
 import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.aead.AeadConfig;
 import com.google.crypto.tink.aead.AeadFactory;
@@ -57,6 +59,7 @@ import com.google.crypto.tink.subtle.Random;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.MessageLite;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.NonWritableChannelException;
@@ -74,6 +77,7 @@ import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.spec.ECParameterSpec;
 import java.security.spec.ECPoint;
+import java.util.Arrays;
 import org.json.JSONObject;
 
 /** Test helpers. */
@@ -506,6 +510,256 @@ public class TestUtil {
     assertArrayEquals(plaintext, decrypted);
   }
 
+  /**
+   * Runs basic tests against a {@link ByteBufferAead}: round trips through heap and direct buffers,
+   * gathered plaintexts, interoperability with the array API, and rejection of modified
+   * ciphertexts.
+   */
+  public static void runBasicByteBufferAeadTests(ByteBufferAead aead) throws Exception {
+    for (int size : new int[] {0, 1, 15, 16, 17, 63, 64, 65, 1000, 5000}) {
+      byte[] plaintext = Random.randBytes(size);
+      byte[] associatedData = Random.randBytes(13);
+      for (boolean direct : new boolean[] {false, true}) {
+        ByteBuffer ciphertext = allocate(aead.ciphertextSize(size) + 3, direct);
+        ciphertext.position(3);
+        ByteBuffer aad = wrap(associatedData, direct);
+        aead.encrypt(wrap(plaintext, direct), aad, ciphertext);
+        assertEquals(ciphertext.limit(), ciphertext.position());
+        assertEquals(aad.limit(), aad.position());
+        ciphertext.position(3);
+        byte[] ciphertextBytes = new byte[ciphertext.remaining()];
+        ciphertext.duplicate().get(ciphertextBytes);
+
+        ByteBuffer decrypted = allocate(size + 2, direct);
+        decrypted.position(1);
+        aead.decrypt(ciphertext, wrap(associatedData, direct), decrypted);
+        assertEquals(1 + size, decrypted.position());
+        assertEquals(ciphertext.limit(), ciphertext.position());
+        byte[] decryptedBytes = new byte[size];
+        decrypted.position(1);
+        decrypted.get(decryptedBytes);
+        assertArrayEquals(plaintext, decryptedBytes);
+        assertArrayEquals(plaintext, aead.decrypt(ciphertextBytes, associatedData));
+
+        // Gathered plaintext.
+        int split = size / 3;
+        ByteBuffer[] parts =
+            new ByteBuffer[] {
+              wrap(Arrays.copyOfRange(plaintext, 0, split), direct),
+              wrap(new byte[0], direct),
+              wrap(Arrays.copyOfRange(plaintext, split, size), direct)
+            };
+        ciphertext = allocate(aead.ciphertextSize(size), direct);
+        aead.encrypt(parts, wrap(associatedData, direct), ciphertext);
+        ciphertext.flip();
+        decrypted = allocate(size, direct);
+        aead.decrypt(ciphertext, wrap(associatedData, direct), decrypted);
+        decrypted.flip();
+        decryptedBytes = new byte[size];
+        decrypted.get(decryptedBytes);
+        assertArrayEquals(plaintext, decryptedBytes);
+
+        // Array ciphertexts can be decrypted through buffers.
+        byte[] arrayCiphertext = aead.encrypt(plaintext, associatedData);
+        decrypted = allocate(size, direct);
+        aead.decrypt(wrap(arrayCiphertext, direct), wrap(associatedData, direct), decrypted);
+        assertEquals(size, decrypted.position());
+
+        // Buffers that are slices, or read-only.
+        ByteBuffer slice = allocate(aead.ciphertextSize(size) + 10, direct);
+        slice.position(4);
+        ciphertext = slice.slice();
+        ciphertext.position(2);
+        aead.encrypt(
+            wrap(plaintext, direct).asReadOnlyBuffer(),
+            wrap(associatedData, direct).asReadOnlyBuffer(),
+            ciphertext);
+        ciphertext.position(2);
+        ciphertext.limit(2 + aead.ciphertextSize(size));
+        byte[] sliceCiphertext = new byte[ciphertext.remaining()];
+        ciphertext.duplicate().get(sliceCiphertext);
+        assertArrayEquals(plaintext, aead.decrypt(sliceCiphertext, associatedData));
+        for (ByteBuffer input : new ByteBuffer[] {ciphertext, ciphertext.asReadOnlyBuffer()}) {
+          slice = allocate(size + 5, direct);
+          slice.position(3);
+          decrypted = slice.slice();
+          aead.decrypt(
+              input.duplicate(), wrap(associatedData, direct).asReadOnlyBuffer(), decrypted);
+          decrypted.flip();
+          decryptedBytes = new byte[size];
+          decrypted.get(decryptedBytes);
+          assertArrayEquals(plaintext, decryptedBytes);
+        }
+
+        // Modified ciphertexts are rejected, and leave the output untouched.
+        for (int i = 0; i < ciphertextBytes.length; i += 7) {
+          byte[] modified = Arrays.copyOf(ciphertextBytes, ciphertextBytes.length);
+          modified[i] ^= 1;
+          decrypted = allocate(size, direct);
+          try {
+            aead.decrypt(wrap(modified, direct), wrap(associatedData, direct), decrypted);
+            fail("Decrypting a modified ciphertext should fail");
+          } catch (GeneralSecurityException ex) {
+            // This is expected.
+          }
+          assertEquals(0, decrypted.position());
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs basic tests against an {@link OffsetAead}: the ciphertext is written after the requested
+   * number of zero bytes, and is the same as one returned by {@link Aead#encrypt}.
+   */
+  public static void runBasicOffsetAeadTests(OffsetAead aead) throws Exception {
+    for (int size : new int[] {0, 1, 16, 17, 1000}) {
+      byte[] plaintext = Random.randBytes(size);
+      byte[] associatedData = Random.randBytes(13);
+      int ciphertextSize = aead.encrypt(plaintext, associatedData).length;
+      for (int offset : new int[] {0, 1, 5, 100}) {
+        byte[] output = aead.encrypt(plaintext, associatedData, offset);
+        assertEquals(offset + ciphertextSize, output.length);
+        for (int i = 0; i < offset; i++) {
+          assertEquals(0, output[i]);
+        }
+        byte[] ciphertext = Arrays.copyOfRange(output, offset, output.length);
+        assertArrayEquals(plaintext, aead.decrypt(ciphertext, associatedData));
+
+        // Encrypting into, and decrypting from and into, caller-supplied arrays. The ciphertext
+        // size may only be known once the plaintext is encrypted.
+        if (aead.ciphertextSize(size) >= 0) {
+          assertEquals(ciphertextSize, aead.ciphertextSize(size));
+        }
+        output = new byte[offset + ciphertextSize + 3];
+        assertEquals(ciphertextSize, aead.encrypt(plaintext, associatedData, output, offset));
+        assertArrayEquals(
+            plaintext,
+            aead.decrypt(
+                Arrays.copyOfRange(output, offset, offset + ciphertextSize), associatedData));
+        byte[] decrypted = new byte[size + 7];
+        assertEquals(
+            size, aead.decrypt(output, offset, ciphertextSize, associatedData, decrypted, 7));
+        assertArrayEquals(plaintext, Arrays.copyOfRange(decrypted, 7, 7 + size));
+        output[offset + ciphertextSize - 1] ^= 1;
+        try {
+          aead.decrypt(output, offset, ciphertextSize, associatedData, decrypted, 7);
+          fail("Decrypting a modified ciphertext should fail");
+        } catch (GeneralSecurityException ex) {
+          // This is expected.
+        }
+      }
+      try {
+        aead.encrypt(plaintext, associatedData, new byte[ciphertextSize + 4], 5);
+        fail("Encrypting into a too small array should fail");
+      } catch (GeneralSecurityException ex) {
+        // This is expected.
+      }
+      byte[] ciphertext = aead.encrypt(plaintext, associatedData);
+      try {
+        aead.decrypt(ciphertext, 0, ciphertext.length, associatedData, new byte[size], 1);
+        fail("Decrypting into a too small array should fail");
+      } catch (GeneralSecurityException ex) {
+        // This is expected.
+      }
+    }
+    try {
+      aead.encrypt(new byte[1], new byte[1], -1);
+      fail("Encrypting at a negative offset should fail");
+    } catch (GeneralSecurityException ex) {
+      // This is expected.
+    }
+  }
+
+  private static ByteBuffer allocate(int size, boolean direct) {
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  private static ByteBuffer wrap(byte[] data, boolean direct) {
+    if (!direct) {
+      return ByteBuffer.wrap(data);
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+    buffer.put(data);
+    buffer.flip();
+    return buffer;
+  }
+
+  /** An operation whose allocations are measured by {@link #allocatedBytesPerOperation}. */
+  public interface Operation {
+    void run() throws Exception;
+  }
+
+  /**
+   * @return the bean that counts the bytes allocated per thread, or null if the JVM does not count
+   *     them, e.g., on Android.
+   */
+  private static com.sun.management.ThreadMXBean allocationCounter() {
+    try {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+        return null;
+      }
+      com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) bean;
+      if (!counter.isThreadAllocatedMemorySupported()) {
+        return null;
+      }
+      counter.setThreadAllocatedMemoryEnabled(true);
+      return counter;
+    } catch (LinkageError | UnsupportedOperationException e) {
+      return null;
+    }
+  }
+
+  /** @return true iff {@link #allocatedBytesPerOperation} works on this JVM. */
+  public static boolean isAllocationCountingSupported() {
+    return allocationCounter() != null;
+  }
+
+  /**
+   * Runs {@code operation} in the calling thread until it is warmed up, and then measures the
+   * average number of bytes it allocates over {@code runs} runs. Of a few rounds of measurement,
+   * the lowest average is returned, as e.g. the JIT compiler may still change the allocations
+   * during the first rounds.
+   */
+  public static long allocatedBytesPerOperation(Operation operation, int runs) throws Exception {
+    final int warmUpRounds = 20;
+    final int rounds = 3;
+    com.sun.management.ThreadMXBean counter = allocationCounter();
+    if (counter == null) {
+      throw new UnsupportedOperationException("the JVM does not count allocations");
+    }
+    long threadId = Thread.currentThread().getId();
+    for (int i = 0; i < warmUpRounds * runs; i++) {
+      operation.run();
+    }
+    long min = Long.MAX_VALUE;
+    for (int round = 0; round < rounds; round++) {
+      long before = counter.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < runs; i++) {
+        operation.run();
+      }
+      long after = counter.getThreadAllocatedBytes(threadId);
+      min = Math.min(min, (after - before) / runs);
+    }
+    return min;
+  }
+
+  /**
+   * Asserts that {@code operation} allocates at most {@code budgetBytes} bytes on average over
+   * {@code runs} runs, see {@link #allocatedBytesPerOperation}.
+   */
+  public static void assertAllocationBudget(
+      String name, long budgetBytes, int runs, Operation operation) throws Exception {
+    long allocated = allocatedBytesPerOperation(operation, runs);
+    if (allocated > budgetBytes) {
+      fail(
+          String.format(
+              "%s allocates %d bytes per operation, more than its budget of %d bytes",
+              name, allocated, budgetBytes));
+    }
+  }
+
   /** Decodes hex string. */
   public static byte[] hexDecode(String hexData) {
     return Hex.decode(hexData);
@@ -19,19 +19,34 @@ package com.google.crypto.tink.aead;
 import static com.google.crypto.tink.TestUtil.assertExceptionContains;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.BatchAead;
+import com.google.crypto.tink.BatchResult;
+import com.google.crypto.tink.ByteBufferAead;
 import com.google.crypto.tink.Config;
 import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeysetHandle;
 import com.google.crypto.tink.TestUtil;
+import com.google.crypto.tink.monitoring.InMemoryMonitor;
+import com.google.crypto.tink.monitoring.KeyUsageReport;
+import com.google.crypto.tink.monitoring.KeyUsageSource;
+import com.google.crypto.tink.monitoring.Monitoring;
+import com.google.crypto.tink.monitoring.NoOpMonitor;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor.Operation;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor.Primitive;
 import com.google.crypto.tink.proto.KeyStatusType;
 import com.google.crypto.tink.proto.Keyset.Key;
 import com.google.crypto.tink.proto.OutputPrefixType;
 import com.google.crypto.tink.subtle.Random;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -197,4 +212,207 @@ public class AeadFactoryTest {
     assertEquals(
         CryptoFormat.RAW_PREFIX_SIZE + plaintext.length + ivSize + tagSize, ciphertext.length);
   }
+
+  @Test
+  public void testByteBufferAead() throws Exception {
+    byte[] aesCtrKeyValue = Random.randBytes(AES_KEY_SIZE);
+    byte[] hmacKeyValue = Random.randBytes(HMAC_KEY_SIZE);
+    int ivSize = 12;
+    int tagSize = 16;
+
+    Key primary =
+        TestUtil.createKey(
+            TestUtil.createAesGcmKeyData(Random.randBytes(AES_KEY_SIZE)),
+            42,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.TINK);
+    Key raw =
+        TestUtil.createKey(
+            TestUtil.createAesCtrHmacAeadKeyData(aesCtrKeyValue, ivSize, hmacKeyValue, tagSize),
+            43,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.RAW);
+    Key legacy =
+        TestUtil.createKey(
+            TestUtil.createAesCtrHmacAeadKeyData(aesCtrKeyValue, ivSize, hmacKeyValue, tagSize),
+            44,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.LEGACY);
+    KeysetHandle keysetHandle =
+        TestUtil.createKeysetHandle(TestUtil.createKeyset(primary, raw, legacy));
+    Aead aead = AeadFactory.getPrimitive(keysetHandle);
+    assertTrue(aead instanceof ByteBufferAead);
+    TestUtil.runBasicByteBufferAeadTests((ByteBufferAead) aead);
+
+    // Keys whose primitives only support arrays can still decrypt through buffers.
+    byte[] plaintext = Random.randBytes(20);
+    byte[] associatedData = Random.randBytes(20);
+    for (Key key : new Key[] {raw, legacy}) {
+      Aead aead2 = AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(key)));
+      assertFalse(aead2 instanceof ByteBufferAead);
+      ByteBuffer decrypted = ByteBuffer.allocate(plaintext.length);
+      ((ByteBufferAead) aead)
+          .decrypt(
+              ByteBuffer.wrap(aead2.encrypt(plaintext, associatedData)),
+              ByteBuffer.wrap(associatedData),
+              decrypted);
+      assertArrayEquals(plaintext, decrypted.array());
+    }
+  }
+
+  @Test
+  public void testBatchAead() throws Exception {
+    byte[] aesCtrKeyValue = Random.randBytes(AES_KEY_SIZE);
+    byte[] hmacKeyValue = Random.randBytes(HMAC_KEY_SIZE);
+    Key aesGcm =
+        TestUtil.createKey(
+            TestUtil.createAesGcmKeyData(Random.randBytes(AES_KEY_SIZE)),
+            42,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.TINK);
+    Key aesCtrHmac =
+        TestUtil.createKey(
+            TestUtil.createAesCtrHmacAeadKeyData(aesCtrKeyValue, 12, hmacKeyValue, 16),
+            43,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.TINK);
+
+    int count = 500;
+    byte[][] plaintexts = new byte[count][];
+    byte[][] associatedData = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      plaintexts[i] = Random.randBytes(i % 67);
+      associatedData[i] = Random.randBytes(i % 13);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      // The first keyset takes the ByteBufferAead path, the second one the OffsetAead path.
+      for (Key key : new Key[] {aesGcm, aesCtrHmac}) {
+        Aead aead =
+            AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(key)));
+        assertTrue(aead instanceof BatchAead);
+        BatchAead batchAead = (BatchAead) aead;
+
+        BatchResult ciphertexts = batchAead.encryptBatch(plaintexts, associatedData);
+        assertEquals(count, ciphertexts.size());
+        byte[][] ciphertextArrays = new byte[count][];
+        for (int i = 0; i < count; i++) {
+          ciphertextArrays[i] = ciphertexts.get(i);
+          assertArrayEquals(plaintexts[i], aead.decrypt(ciphertextArrays[i], associatedData[i]));
+        }
+
+        BatchResult decrypted = batchAead.decryptBatch(ciphertextArrays, associatedData, executor);
+        assertEquals(count, decrypted.size());
+        for (int i = 0; i < count; i++) {
+          assertArrayEquals(plaintexts[i], decrypted.get(i));
+        }
+
+        ciphertexts = batchAead.encryptBatch(plaintexts, associatedData, executor);
+        for (int i = 0; i < count; i++) {
+          assertArrayEquals(plaintexts[i], aead.decrypt(ciphertexts.get(i), associatedData[i]));
+        }
+
+        // A single invalid ciphertext fails the whole batch.
+        ciphertextArrays[count / 2][ciphertextArrays[count / 2].length - 1] ^= 1;
+        try {
+          batchAead.decryptBatch(ciphertextArrays, associatedData);
+          fail("Expected GeneralSecurityException");
+        } catch (GeneralSecurityException expected) {
+          // expected
+        }
+
+        try {
+          batchAead.encryptBatch(plaintexts, new byte[count - 1][]);
+          fail("Expected GeneralSecurityException");
+        } catch (GeneralSecurityException e) {
+          assertExceptionContains(e, "associated data");
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testMonitoring() throws Exception {
+    byte[] aesCtrKeyValue = Random.randBytes(AES_KEY_SIZE);
+    byte[] hmacKeyValue = Random.randBytes(HMAC_KEY_SIZE);
+    Key primary =
+        TestUtil.createKey(
+            TestUtil.createAesCtrHmacAeadKeyData(aesCtrKeyValue, 12, hmacKeyValue, 16),
+            42,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.TINK);
+    Key raw =
+        TestUtil.createKey(
+            TestUtil.createAesCtrHmacAeadKeyData(aesCtrKeyValue, 12, hmacKeyValue, 16),
+            43,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.RAW);
+    Aead aead =
+        AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(primary, raw)));
+    InMemoryMonitor monitor = new InMemoryMonitor();
+    Monitoring.setMonitor(monitor);
+    try {
+      byte[] plaintext = Random.randBytes(20);
+      byte[] associatedData = Random.randBytes(20);
+      byte[] ciphertext = aead.encrypt(plaintext, associatedData);
+      aead.decrypt(ciphertext, associatedData);
+      try {
+        aead.decrypt(ciphertext, Random.randBytes(20));
+        fail("Expected GeneralSecurityException");
+      } catch (GeneralSecurityException e) {
+        // expected.
+      }
+
+      InMemoryMonitor.Stats encrypt = monitor.getStats(Primitive.AEAD, Operation.ENCRYPT, 42);
+      assertEquals(1, encrypt.getSuccessCount());
+      assertEquals(20, encrypt.getBytes());
+      InMemoryMonitor.Stats decrypt = monitor.getStats(Primitive.AEAD, Operation.DECRYPT, 42);
+      assertEquals(1, decrypt.getSuccessCount());
+      assertEquals(1, decrypt.getFailureCount());
+      // The raw key is tried after the prefixed key fails, and then no key is left.
+      assertEquals(1, monitor.getStats(Primitive.AEAD, Operation.DECRYPT, 43).getFailureCount());
+      assertEquals(1, monitor.getStats(Primitive.AEAD, Operation.DECRYPT, 0).getFailureCount());
+    } finally {
+      Monitoring.setMonitor(NoOpMonitor.INSTANCE);
+    }
+  }
+
+  @Test
+  public void testKeyUsageReportIsPerKeyset() throws Exception {
+    Key first =
+        TestUtil.createKey(
+            TestUtil.createAesGcmKeyData(Random.randBytes(AES_KEY_SIZE)),
+            42,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.TINK);
+    Key second =
+        TestUtil.createKey(
+            TestUtil.createAesGcmKeyData(Random.randBytes(AES_KEY_SIZE)),
+            42,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.TINK);
+    Aead firstAead =
+        AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(first)));
+    Aead secondAead =
+        AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(second)));
+    byte[] associatedData = Random.randBytes(20);
+    byte[] ciphertext = firstAead.encrypt(Random.randBytes(20), associatedData);
+    firstAead.decrypt(ciphertext, associatedData);
+    firstAead.encrypt(Random.randBytes(20), associatedData);
+    try {
+      // The key id matches, but the key does not.
+      secondAead.decrypt(ciphertext, associatedData);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException e) {
+      // expected.
+    }
+
+    KeyUsageReport.KeyUsage usage =
+        ((KeyUsageSource) firstAead).getKeyUsageReport().getKeyUsage(42);
+    assertEquals(2, usage.getCount(Operation.ENCRYPT));
+    assertEquals(1, usage.getCount(Operation.DECRYPT));
+    assertTrue(((KeyUsageSource) secondAead).getKeyUsageReport().getKeyUsages().isEmpty());
+  }
 }
@@ -18,8 +18,11 @@ package com.google.crypto.tink.mac;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.crypto.tink.BatchMac;
+import com.google.crypto.tink.BatchResult;
 import com.google.crypto.tink.Config;
 import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeysetHandle;
@@ -162,4 +165,44 @@ public class MacFactoryTest {
       fail("Valid MAC, should not throw exception");
     }
   }
+
+  @Test
+  public void testBatchMac() throws Exception {
+    byte[] keyValue = Random.randBytes(HMAC_KEY_SIZE);
+    int count = 500;
+    byte[][] data = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      data[i] = Random.randBytes(i % 67);
+    }
+    for (OutputPrefixType prefixType :
+        new OutputPrefixType[] {
+          OutputPrefixType.TINK, OutputPrefixType.LEGACY, OutputPrefixType.RAW
+        }) {
+      Key key =
+          TestUtil.createKey(
+              TestUtil.createHmacKeyData(keyValue, 16), 42, KeyStatusType.ENABLED, prefixType);
+      Mac mac = MacFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(key)));
+      assertTrue(mac instanceof BatchMac);
+      BatchMac batchMac = (BatchMac) mac;
+
+      BatchResult macs = batchMac.computeMacBatch(data);
+      assertEquals(count, macs.size());
+      byte[][] macArrays = new byte[count][];
+      for (int i = 0; i < count; i++) {
+        macArrays[i] = macs.get(i);
+        assertArrayEquals(mac.computeMac(data[i]), macArrays[i]);
+        mac.verifyMac(macArrays[i], data[i]);
+      }
+      batchMac.verifyMacBatch(macArrays, data);
+
+      // A single invalid MAC fails the whole batch.
+      macArrays[count / 2][CryptoFormat.NON_RAW_PREFIX_SIZE] ^= 1;
+      try {
+        batchMac.verifyMacBatch(macArrays, data);
+        fail("Invalid MAC, should have thrown exception");
+      } catch (GeneralSecurityException expected) {
+        // Expected
+      }
+    }
+  }
 }
@@ -0,0 +1,192 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.monitoring;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.monitoring.PrimitiveMonitor.Operation;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor.Primitive;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for InMemoryMonitor. */
+@RunWith(JUnit4.class)
+public class InMemoryMonitorTest {
+  @Test
+  public void testRecordAndGetStats() throws Exception {
+    InMemoryMonitor monitor = new InMemoryMonitor();
+    monitor.record(Primitive.AEAD, Operation.ENCRYPT, 42, 100, true, 1000);
+    monitor.record(Primitive.AEAD, Operation.ENCRYPT, 42, 50, true, 3000);
+    monitor.record(Primitive.AEAD, Operation.ENCRYPT, 42, 10, false, 10);
+    monitor.record(Primitive.AEAD, Operation.DECRYPT, 42, 7, true, 10);
+    monitor.record(Primitive.MAC, Operation.COMPUTE_MAC, -1, 7, true, 10);
+
+    InMemoryMonitor.Stats stats = monitor.getStats(Primitive.AEAD, Operation.ENCRYPT, 42);
+    assertEquals(Primitive.AEAD, stats.getPrimitive());
+    assertEquals(Operation.ENCRYPT, stats.getOperation());
+    assertEquals(42, stats.getKeyId());
+    assertEquals(2, stats.getSuccessCount());
+    assertEquals(1, stats.getFailureCount());
+    assertEquals(160, stats.getBytes());
+    assertEquals(4010, stats.getTotalNanos());
+
+    assertEquals(1, monitor.getStats(Primitive.AEAD, Operation.DECRYPT, 42).getSuccessCount());
+    assertEquals(-1, monitor.getStats(Primitive.MAC, Operation.COMPUTE_MAC, -1).getKeyId());
+    assertNull(monitor.getStats(Primitive.AEAD, Operation.DECRYPT, 43));
+    assertNull(monitor.getStats(Primitive.MAC, Operation.VERIFY_MAC, -1));
+    assertThat(monitor.getAllStats()).hasSize(3);
+  }
+
+  @Test
+  public void testManyKeys() throws Exception {
+    InMemoryMonitor monitor = new InMemoryMonitor();
+    int keys = 1000;
+    for (int i = keys - 1; i >= 0; i--) {
+      monitor.record(Primitive.AEAD, Operation.ENCRYPT, i, i, true, 1);
+      monitor.record(Primitive.AEAD, Operation.DECRYPT, -i, i, false, 1);
+    }
+    for (int i = 0; i < keys; i++) {
+      assertEquals(i, monitor.getStats(Primitive.AEAD, Operation.ENCRYPT, i).getBytes());
+      assertEquals(1, monitor.getStats(Primitive.AEAD, Operation.DECRYPT, -i).getFailureCount());
+    }
+    assertNull(monitor.getStats(Primitive.AEAD, Operation.ENCRYPT, keys));
+    List<InMemoryMonitor.Stats> all = monitor.getAllStats();
+    assertThat(all).hasSize(2 * keys);
+    // Ordered by primitive, operation and unsigned key id.
+    assertEquals(Operation.ENCRYPT, all.get(0).getOperation());
+    assertEquals(0, all.get(0).getKeyId());
+    assertEquals(keys - 1, all.get(keys - 1).getKeyId());
+  }
+
+  @Test
+  public void testBucket() throws Exception {
+    assertEquals(0, InMemoryMonitor.bucket(-5));
+    assertEquals(0, InMemoryMonitor.bucket(0));
+    assertEquals(1, InMemoryMonitor.bucket(1));
+    assertEquals(2, InMemoryMonitor.bucket(2));
+    assertEquals(2, InMemoryMonitor.bucket(3));
+    assertEquals(11, InMemoryMonitor.bucket(1024));
+    assertEquals(InMemoryMonitor.LATENCY_BUCKETS - 1, InMemoryMonitor.bucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testLatencyPercentiles() throws Exception {
+    InMemoryMonitor monitor = new InMemoryMonitor();
+    for (int i = 0; i < 99; i++) {
+      monitor.record(Primitive.MAC, Operation.VERIFY_MAC, 1, 0, true, 100);
+    }
+    monitor.record(Primitive.MAC, Operation.VERIFY_MAC, 1, 0, true, 1000000);
+    InMemoryMonitor.Stats stats = monitor.getStats(Primitive.MAC, Operation.VERIFY_MAC, 1);
+
+    long[] histogram = stats.getLatencyHistogram();
+    assertEquals(InMemoryMonitor.LATENCY_BUCKETS, histogram.length);
+    assertEquals(99, histogram[InMemoryMonitor.bucket(100)]);
+    assertEquals(1, histogram[InMemoryMonitor.bucket(1000000)]);
+    // The histogram is a copy.
+    histogram[0] = 1234;
+    assertEquals(0, stats.getLatencyHistogram()[0]);
+
+    assertEquals(128, stats.getLatencyPercentileNanos(50));
+    assertEquals(128, stats.getLatencyPercentileNanos(99));
+    assertThat(stats.getLatencyPercentileNanos(100)).isAtLeast(1000000L);
+    try {
+      stats.getLatencyPercentileNanos(101);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected.
+    }
+  }
+
+  @Test
+  public void testReset() throws Exception {
+    InMemoryMonitor monitor = new InMemoryMonitor();
+    monitor.record(Primitive.PUBLIC_KEY_SIGN, Operation.SIGN, 5, 10, true, 10);
+    monitor.reset();
+    assertNull(monitor.getStats(Primitive.PUBLIC_KEY_SIGN, Operation.SIGN, 5));
+    assertThat(monitor.getAllStats()).isEmpty();
+    monitor.record(Primitive.PUBLIC_KEY_SIGN, Operation.SIGN, 5, 10, true, 10);
+    InMemoryMonitor.Stats stats = monitor.getStats(Primitive.PUBLIC_KEY_SIGN, Operation.SIGN, 5);
+    assertEquals(1, stats.getSuccessCount());
+  }
+
+  @Test
+  public void testConcurrentRecords() throws Exception {
+    final InMemoryMonitor monitor = new InMemoryMonitor();
+    final int threads = 8;
+    final int perThread = 10000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (int t = 0; t < threads; t++) {
+      final int keyId = t % 2;
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              for (int i = 0; i < perThread; i++) {
+                monitor.record(Primitive.AEAD, Operation.DECRYPT, keyId, 1, i % 4 != 0, i);
+              }
+            }
+          });
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+    List<InMemoryMonitor.Stats> all = monitor.getAllStats();
+    assertThat(all).hasSize(2);
+    for (InMemoryMonitor.Stats stats : all) {
+      assertEquals(threads / 2 * perThread * 3 / 4, stats.getSuccessCount());
+      assertEquals(threads / 2 * perThread / 4, stats.getFailureCount());
+      assertEquals(threads / 2 * perThread, stats.getBytes());
+    }
+  }
+
+  @Test
+  public void testMonitoringDefaultsToNoOp() throws Exception {
+    assertThat(Monitoring.getMonitor()).isSameAs(NoOpMonitor.INSTANCE);
+    assertEquals(Monitoring.NOT_MONITORED, Monitoring.start());
+    InMemoryMonitor monitor = new InMemoryMonitor();
+    KeyUsageCounter usage = new KeyUsageCounter(1);
+    Monitoring.setMonitor(monitor);
+    try {
+      long start = Monitoring.start();
+      assertThat(start).isNotEqualTo(Monitoring.NOT_MONITORED);
+      Monitoring.record(Primitive.AEAD, Operation.ENCRYPT, usage, 10, true, start);
+      Monitoring.record(
+          Primitive.AEAD, Operation.ENCRYPT, usage, 10, true, Monitoring.NOT_MONITORED);
+      Monitoring.record(Primitive.AEAD, Operation.DECRYPT, null, 10, false, start);
+    } finally {
+      Monitoring.setMonitor(NoOpMonitor.INSTANCE);
+    }
+    assertEquals(1, monitor.getStats(Primitive.AEAD, Operation.ENCRYPT, 1).getSuccessCount());
+    assertEquals(1, monitor.getStats(Primitive.AEAD, Operation.DECRYPT, 0).getFailureCount());
+    // Key usage is counted whether or not the operation is monitored.
+    assertEquals(2, usage.getCount(Operation.ENCRYPT));
+    try {
+      Monitoring.setMonitor(null);
+      fail("Expected NullPointerException");
+    } catch (NullPointerException e) {
+      // expected.
+    }
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.monitoring;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.monitoring.PrimitiveMonitor.Operation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for KeyUsageReport. */
+@RunWith(JUnit4.class)
+public class KeyUsageReportTest {
+  private static KeyUsageReport roundTrip(KeyUsageReport report) throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    report.writeTo(outputStream);
+    return KeyUsageReport.readFrom(new ByteArrayInputStream(outputStream.toByteArray()));
+  }
+
+  @Test
+  public void testFromCounters() throws Exception {
+    KeyUsageCounter used = new KeyUsageCounter(42);
+    KeyUsageCounter sameKeyId = new KeyUsageCounter(42);
+    KeyUsageCounter unused = new KeyUsageCounter(43);
+    long before = System.currentTimeMillis();
+    used.recordSuccess(Operation.ENCRYPT);
+    used.recordSuccess(Operation.ENCRYPT);
+    used.recordSuccess(Operation.DECRYPT);
+    sameKeyId.recordSuccess(Operation.VERIFY_MAC);
+    long after = System.currentTimeMillis();
+
+    assertEquals(2, used.getCount(Operation.ENCRYPT));
+    assertThat(used.getLastUsedMillis()).isAtLeast(before);
+    assertEquals(0, unused.getLastUsedMillis());
+
+    KeyUsageReport report = KeyUsageReport.fromCounters(Arrays.asList(used, sameKeyId, unused));
+    assertThat(report.getKeyUsages()).hasSize(1);
+    KeyUsageReport.KeyUsage usage = report.getKeyUsage(42);
+    assertEquals(42, usage.getKeyId());
+    assertEquals(2, usage.getCount(Operation.ENCRYPT));
+    assertEquals(1, usage.getCount(Operation.DECRYPT));
+    assertEquals(1, usage.getCount(Operation.VERIFY_MAC));
+    assertEquals(0, usage.getCount(Operation.SIGN));
+    assertEquals(4, usage.getTotalCount());
+    assertThat(usage.getLastUsedMillis()).isAtLeast(before);
+    assertThat(usage.getLastUsedMillis()).isAtMost(after);
+    assertNull(report.getKeyUsage(43));
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    KeyUsageCounter sign = new KeyUsageCounter(7);
+    sign.recordSuccess(Operation.SIGN);
+    KeyUsageCounter verify = new KeyUsageCounter(-2);
+    verify.recordSuccess(Operation.VERIFY);
+    KeyUsageReport report = KeyUsageReport.fromCounters(Arrays.asList(sign, verify));
+
+    KeyUsageReport read = roundTrip(report);
+    assertThat(read.getKeyUsages()).hasSize(2);
+    for (KeyUsageReport.KeyUsage usage : report.getKeyUsages()) {
+      KeyUsageReport.KeyUsage readUsage = read.getKeyUsage(usage.getKeyId());
+      assertEquals(usage.getLastUsedMillis(), readUsage.getLastUsedMillis());
+      for (Operation operation : Operation.values()) {
+        assertEquals(usage.getCount(operation), readUsage.getCount(operation));
+      }
+    }
+    assertThat(roundTrip(KeyUsageReport.empty()).getKeyUsages()).isEmpty();
+  }
+
+  @Test
+  public void testReadUnsignedKeyIdsAndUnknownOperations() throws Exception {
+    String json =
+        "{\"keys\": [{\"keyId\": 4294967295, \"lastUsedMillis\": 1000,"
+            + " \"operations\": {\"ENCRYPT\": 3, \"FROBNICATE\": 5}}]}";
+    KeyUsageReport report =
+        KeyUsageReport.readFrom(new ByteArrayInputStream(json.getBytes(UTF_8)));
+    KeyUsageReport.KeyUsage usage = report.getKeyUsage(-1);
+    assertEquals(3, usage.getCount(Operation.ENCRYPT));
+    assertEquals(3, usage.getTotalCount());
+    assertEquals(1000, usage.getLastUsedMillis());
+  }
+
+  @Test
+  public void testReadInvalid() throws Exception {
+    String[] invalid = {
+      "",
+      "{}",
+      "{\"keys\": [{\"keyId\": 1}]}",
+      "{\"keys\": [{\"keyId\": 4294967296, \"lastUsedMillis\": 1, \"operations\": {}}]}",
+    };
+    for (String json : invalid) {
+      try {
+        KeyUsageReport.readFrom(new ByteArrayInputStream(json.getBytes(UTF_8)));
+        fail("Expected IOException: " + json);
+      } catch (IOException e) {
+        // expected.
+      }
+    }
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    KeyUsageCounter one = new KeyUsageCounter(1);
+    one.recordSuccess(Operation.ENCRYPT);
+    KeyUsageCounter two = new KeyUsageCounter(2);
+    two.recordSuccess(Operation.ENCRYPT);
+    KeyUsageReport first = KeyUsageReport.fromCounters(Arrays.asList(one, two));
+    String json =
+        "{\"keys\": [{\"keyId\": 2, \"lastUsedMillis\": 9000000000000,"
+            + " \"operations\": {\"ENCRYPT\": 3, \"DECRYPT\": 4}},"
+            + " {\"keyId\": 3, \"lastUsedMillis\": 1000, \"operations\": {\"DECRYPT\": 1}}]}";
+    KeyUsageReport second =
+        KeyUsageReport.readFrom(new ByteArrayInputStream(json.getBytes(UTF_8)));
+
+    KeyUsageReport merged = first.merge(second);
+    assertThat(merged.getKeyUsages()).hasSize(3);
+    assertEquals(1, merged.getKeyUsage(1).getTotalCount());
+    assertEquals(4, merged.getKeyUsage(2).getCount(Operation.ENCRYPT));
+    assertEquals(4, merged.getKeyUsage(2).getCount(Operation.DECRYPT));
+    assertEquals(9000000000000L, merged.getKeyUsage(2).getLastUsedMillis());
+    assertEquals(1000, merged.getKeyUsage(3).getLastUsedMillis());
+    // The inputs are unchanged.
+    assertEquals(1, first.getKeyUsage(2).getTotalCount());
+    assertEquals(7, second.getKeyUsage(2).getTotalCount());
+  }
+}
@@ -22,6 +22,9 @@ import static org.junit.Assert.assertFalse;
 
 import com.google.crypto.tink.TestUtil;
 import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -113,4 +116,65 @@ public class AesCtrJceCipherTest {
     byte[] ciphertext = c.encrypt(msg);
     assertArrayEquals(msg, c.decrypt(ciphertext));
   }
+
+  private static String addToCounter(String counter, int blocks) {
+    return Hex.encode(AesCtrJceCipher.addToCounter(Hex.decode(counter), blocks));
+  }
+
+  @Test
+  public void testAddToCounter() throws Exception {
+    assertEquals(
+        "000102030405060708090a0b0c0d0e10", addToCounter("000102030405060708090a0b0c0d0e0f", 1));
+    assertEquals(
+        "00000000000000000000000100000000", addToCounter("000000000000000000000000ffffffff", 1));
+    assertEquals(
+        "00000000000000000000000000000001", addToCounter("ffffffffffffffffffffffffffffffff", 2));
+    assertEquals(
+        "0000000000000000000000017ffffffe",
+        addToCounter("000000000000000000000000ffffffff", Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testLargeMessages() throws Exception {
+    // With an executor, large messages are split into chunks that are processed in parallel. The
+    // result must be the same as that of a single JCE cipher, also where the counter carries across
+    // bytes.
+    byte[] key = Random.randBytes(16);
+    int size = AesCtrJceCipher.PARALLEL_THRESHOLD_IN_BYTES + 37;
+    String[] ivs = {
+      "f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff",
+      "fffffffffffffffffffffffffffff000",
+      Hex.encode(Random.randBytes(16))
+    };
+    for (String iv : ivs) {
+      byte[] ciphertext = new byte[16 + size];
+      System.arraycopy(Hex.decode(iv), 0, ciphertext, 0, 16);
+      System.arraycopy(Random.randBytes(size), 0, ciphertext, 16, size);
+      Cipher jce = Cipher.getInstance("AES/CTR/NoPadding");
+      jce.init(
+          Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(Hex.decode(iv)));
+      byte[] expected = jce.doFinal(ciphertext, 16, size);
+      assertArrayEquals(expected, new AesCtrJceCipher(key, 16).decrypt(ciphertext));
+      assertArrayEquals(
+          expected,
+          new AesCtrJceCipher(key, 16, Parallel.defaultExecutor()).decrypt(ciphertext));
+    }
+    // In place, the plaintext is written ivSize bytes before its ciphertext.
+    AesCtrJceCipher parallelCipher16 = new AesCtrJceCipher(key, 16, Parallel.defaultExecutor());
+    byte[] plaintext16 = Random.randBytes(size);
+    byte[] buffer = parallelCipher16.encrypt(plaintext16);
+    assertEquals(size, parallelCipher16.decrypt(buffer, 0, buffer.length, buffer, 0));
+    assertArrayEquals(plaintext16, Arrays.copyOf(buffer, size));
+    AesCtrJceCipher cipher = new AesCtrJceCipher(key, 12);
+    AesCtrJceCipher parallelCipher = new AesCtrJceCipher(key, 12, Parallel.defaultExecutor());
+    byte[] plaintext = Random.randBytes(size);
+    assertArrayEquals(plaintext, parallelCipher.decrypt(cipher.encrypt(plaintext)));
+    assertArrayEquals(plaintext, cipher.decrypt(parallelCipher.encrypt(plaintext)));
+  }
+
+  @Test
+  public void testEncryptDecryptAtOffset() throws Exception {
+    IndCpaCipherTestUtil.runBasicOffsetTests(new AesCtrJceCipher(Random.randBytes(16), 12));
+    IndCpaCipherTestUtil.runBasicOffsetTests(new AesCtrJceCipher(Random.randBytes(32), 16));
+  }
 }
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.TestUtil;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import javax.crypto.AEADBadTagException;
@@ -324,4 +325,40 @@ public class AesEaxJceTest {
       }
     }
   }
+
+  @Test
+  public void testByteBuffers() throws Exception {
+    for (int ivSizeInBytes : new int[] {12, 16}) {
+      TestUtil.runBasicByteBufferAeadTests(
+          new AesEaxJce(Random.randBytes(KEY_SIZE), ivSizeInBytes));
+    }
+  }
+
+  @Test
+  public void testEncryptAtOffset() throws Exception {
+    for (int ivSizeInBytes : new int[] {12, 16}) {
+      TestUtil.runBasicOffsetAeadTests(new AesEaxJce(Random.randBytes(KEY_SIZE), ivSizeInBytes));
+    }
+  }
+
+  @Test
+  public void testLongMessagesWithDirectBuffers() throws Exception {
+    // The OMACs over direct buffers are computed chunk by chunk, unlike those over arrays.
+    AesEaxJce eax = new AesEaxJce(Random.randBytes(KEY_SIZE), 16);
+    for (int size : new int[] {4095, 4096, 4097, 10000, 65536 + 15}) {
+      byte[] plaintext = Random.randBytes(size);
+      byte[] aad = Random.randBytes(size + 1);
+      byte[] ciphertext = eax.encrypt(plaintext, aad);
+      ByteBuffer directCiphertext = ByteBuffer.allocateDirect(ciphertext.length);
+      directCiphertext.put(ciphertext).flip();
+      ByteBuffer directAad = ByteBuffer.allocateDirect(aad.length);
+      directAad.put(aad).flip();
+      ByteBuffer decrypted = ByteBuffer.allocateDirect(size);
+      eax.decrypt(directCiphertext, directAad, decrypted);
+      decrypted.flip();
+      byte[] result = new byte[size];
+      decrypted.get(result);
+      assertArrayEquals(plaintext, result);
+    }
+  }
 }
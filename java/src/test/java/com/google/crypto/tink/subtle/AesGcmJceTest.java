@@ -321,4 +321,84 @@ public class AesGcmJceTest {
       ciphertexts.add(ctHex);
     }
   }
+
+  @Test
+  public void testByteBuffers() throws Exception {
+    for (int keySize : keySizeInBytes) {
+      TestUtil.runBasicByteBufferAeadTests(new AesGcmJce(Random.randBytes(keySize)));
+    }
+  }
+
+  @Test
+  public void testEncryptDecryptInPlace() throws Exception {
+    byte[] aad = Random.randBytes(13);
+    for (int keySize : keySizeInBytes) {
+      AesGcmJce gcm = new AesGcmJce(Random.randBytes(keySize));
+      // 200000 bytes take several chunks.
+      for (int size : new int[] {0, 1, 15, 16, 17, 1000, 200000}) {
+        byte[] plaintext = Random.randBytes(size);
+        int offset = 3;
+        byte[] buffer = new byte[offset + gcm.ciphertextSize(size) + 2];
+        System.arraycopy(plaintext, 0, buffer, offset, size);
+        assertEquals(gcm.ciphertextSize(size), gcm.encryptInPlace(buffer, offset, size, aad));
+        byte[] ciphertext = Arrays.copyOfRange(buffer, offset, offset + gcm.ciphertextSize(size));
+        assertArrayEquals(plaintext, gcm.decrypt(ciphertext, aad));
+
+        assertEquals(size, gcm.decryptInPlace(buffer, offset, ciphertext.length, aad));
+        assertArrayEquals(plaintext, Arrays.copyOfRange(buffer, offset, offset + size));
+
+        // Ciphertexts from encrypt can be decrypted in place.
+        buffer = gcm.encrypt(plaintext, aad);
+        assertEquals(size, gcm.decryptInPlace(buffer, 0, buffer.length, aad));
+        assertArrayEquals(plaintext, Arrays.copyOf(buffer, size));
+      }
+    }
+  }
+
+  @Test
+  public void testDecryptInPlaceModifiedCiphertext() throws Exception {
+    byte[] aad = Random.randBytes(13);
+    AesGcmJce gcm = new AesGcmJce(Random.randBytes(16));
+    byte[] ciphertext = gcm.encrypt(Random.randBytes(100), aad);
+    for (int i = 0; i < ciphertext.length; i++) {
+      byte[] modified = Arrays.copyOf(ciphertext, ciphertext.length);
+      modified[i] ^= 1;
+      byte[] buffer = Arrays.copyOf(modified, modified.length);
+      try {
+        gcm.decryptInPlace(buffer, 0, buffer.length, aad);
+        fail("Decrypting a modified ciphertext should fail");
+      } catch (AEADBadTagException ex) {
+        // This is expected.
+      }
+      // The buffer is not modified.
+      assertArrayEquals(modified, buffer);
+    }
+    byte[] buffer = Arrays.copyOf(ciphertext, ciphertext.length);
+    try {
+      gcm.decryptInPlace(buffer, 0, buffer.length, Random.randBytes(13));
+      fail("Decrypting with modified associated data should fail");
+    } catch (AEADBadTagException ex) {
+      // This is expected.
+    }
+    assertArrayEquals(ciphertext, buffer);
+  }
+
+  @Test
+  public void testEncryptInPlaceBufferTooSmall() throws Exception {
+    AesGcmJce gcm = new AesGcmJce(Random.randBytes(16));
+    byte[] buffer = new byte[gcm.ciphertextSize(10) - 1];
+    try {
+      gcm.encryptInPlace(buffer, 0, 10, new byte[0]);
+      fail("Encrypting into a too small buffer should fail");
+    } catch (GeneralSecurityException ex) {
+      // This is expected.
+    }
+  }
+
+  @Test
+  public void testEncryptAtOffset() throws Exception {
+    for (int keySize : keySizeInBytes) {
+      TestUtil.runBasicOffsetAeadTests(new AesGcmJce(Random.randBytes(keySize)));
+    }
+  }
 }
@@ -83,6 +83,77 @@ public class DjbCipherPoly1305Test {
       }
     }
 
+    @Test
+    public void testByteBuffers() throws Exception {
+      TestUtil.runBasicByteBufferAeadTests(createInstance(Random.randBytes(KEY_SIZE_IN_BYTES)));
+    }
+
+    @Test
+    public void testEncryptDecryptInPlace() throws Exception {
+      DjbCipherPoly1305 cipher = createInstance(Random.randBytes(KEY_SIZE_IN_BYTES));
+      byte[] aad = Random.randBytes(13);
+      for (int size : new int[] {0, 1, 15, 16, 17, 63, 64, 65, 1000}) {
+        byte[] plaintext = Random.randBytes(size);
+        int offset = 3;
+        byte[] buffer = new byte[offset + cipher.ciphertextSize(size) + 2];
+        System.arraycopy(plaintext, 0, buffer, offset, size);
+        Truth.assertThat(cipher.encryptInPlace(buffer, offset, size, aad))
+            .isEqualTo(cipher.ciphertextSize(size));
+        byte[] ciphertext =
+            Arrays.copyOfRange(buffer, offset, offset + cipher.ciphertextSize(size));
+        Truth.assertThat(cipher.decrypt(ciphertext, aad)).isEqualTo(plaintext);
+
+        Truth.assertThat(cipher.decryptInPlace(buffer, offset, ciphertext.length, aad))
+            .isEqualTo(size);
+        Truth.assertThat(Arrays.copyOfRange(buffer, offset, offset + size)).isEqualTo(plaintext);
+
+        // Ciphertexts from encrypt can be decrypted in place.
+        buffer = cipher.encrypt(plaintext, aad);
+        Truth.assertThat(cipher.decryptInPlace(buffer, 0, buffer.length, aad)).isEqualTo(size);
+        Truth.assertThat(Arrays.copyOf(buffer, size)).isEqualTo(plaintext);
+      }
+    }
+
+    @Test
+    public void testDecryptInPlaceLeavesNoPlaintextInTail() throws Exception {
+      DjbCipherPoly1305 cipher = createInstance(Random.randBytes(KEY_SIZE_IN_BYTES));
+      byte[] aad = Random.randBytes(13);
+      for (int size : new int[] {0, 1, 15, 16, 17, 63, 64, 65, 1000}) {
+        byte[] plaintext = Random.randBytes(size);
+        byte[] ciphertext = cipher.encrypt(plaintext, aad);
+        byte[] buffer = Arrays.copyOf(ciphertext, ciphertext.length);
+        Truth.assertThat(cipher.decryptInPlace(buffer, 0, buffer.length, aad)).isEqualTo(size);
+        // The bytes after the plaintext still hold the end of the ciphertext and the tag.
+        Truth.assertThat(Arrays.copyOfRange(buffer, size, buffer.length))
+            .isEqualTo(Arrays.copyOfRange(ciphertext, size, ciphertext.length));
+      }
+    }
+
+    @Test
+    public void testDecryptInPlaceModifiedCiphertext() throws Exception {
+      DjbCipherPoly1305 cipher = createInstance(Random.randBytes(KEY_SIZE_IN_BYTES));
+      byte[] aad = Random.randBytes(13);
+      byte[] ciphertext = cipher.encrypt(Random.randBytes(100), aad);
+      for (int i = 0; i < ciphertext.length; i++) {
+        byte[] modified = Arrays.copyOf(ciphertext, ciphertext.length);
+        modified[i] ^= 1;
+        byte[] buffer = Arrays.copyOf(modified, modified.length);
+        try {
+          cipher.decryptInPlace(buffer, 0, buffer.length, aad);
+          fail("Decrypting a modified ciphertext should fail");
+        } catch (GeneralSecurityException ex) {
+          // This is expected.
+        }
+        // The buffer is not modified.
+        Truth.assertThat(buffer).isEqualTo(modified);
+      }
+    }
+
+    @Test
+    public void testEncryptAtOffset() throws Exception {
+      TestUtil.runBasicOffsetAeadTests(createInstance(Random.randBytes(KEY_SIZE_IN_BYTES)));
+    }
+
     @Test
     public void testEncryptingEmptyString() throws GeneralSecurityException {
       byte[] aad = Random.randBytes(MAC_TAG_SIZE_IN_BYTES);
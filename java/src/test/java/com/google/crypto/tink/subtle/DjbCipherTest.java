@@ -174,6 +174,48 @@ public class DjbCipherTest {
       }
     }
 
+    /** Returns the first {@code length} bytes of the key stream, read with {@code next}. */
+    private static byte[] keyStreamBytes(KeyStream keyStream, int length) {
+      ByteBuffer buf = ByteBuffer.allocate(length + DjbCipher.BLOCK_SIZE_IN_BYTES);
+      buf.order(ByteOrder.LITTLE_ENDIAN);
+      while (buf.position() < length) {
+        buf.asIntBuffer().put(keyStream.next());
+        buf.position(buf.position() + DjbCipher.BLOCK_SIZE_IN_BYTES);
+      }
+      return Arrays.copyOf(buf.array(), length);
+    }
+
+    @Test
+    public void testXorMatchesNext() {
+      byte[] nonce = Random.randBytes(16);
+      DjbCipher cipher = new MockDjbCipher(new byte[32]);
+      for (int length : new int[] {0, 3, 4, 63, 64, 65, 200}) {
+        byte[] expected = keyStreamBytes(new KeyStream(cipher, nonce, 3), length);
+        // Splits the input at ints, which is allowed for all but the last call.
+        for (int split = 0; split <= length; split += 4) {
+          byte[] output = new byte[length];
+          KeyStream keyStream = new KeyStream(cipher, nonce, 3);
+          keyStream.xor(new byte[length], 0, output, 0, split);
+          keyStream.xor(new byte[length], split, output, split, length - split);
+          assertThat(output).isEqualTo(expected);
+        }
+      }
+    }
+
+    @Test
+    public void testXorAfterFirst() {
+      byte[] nonce = Random.randBytes(16);
+      DjbCipher cipher = new MockDjbCipher(new byte[32]);
+      KeyStream expectedKeyStream = new KeyStream(cipher, nonce, 3);
+      expectedKeyStream.first(32);
+      byte[] expected = keyStreamBytes(expectedKeyStream, 150);
+      KeyStream keyStream = new KeyStream(cipher, nonce, 3);
+      keyStream.first(32);
+      byte[] output = new byte[150];
+      keyStream.xor(new byte[150], 0, output, 0, 150);
+      assertThat(output).isEqualTo(expected);
+    }
+
     @Test
     public void testEncryptWithOutputArgThrowsWhenOutputIsTooShort()
         throws GeneralSecurityException {
@@ -213,6 +255,29 @@ public class DjbCipherTest {
       }
     }
 
+    @Test
+    public void testEncryptDecryptAtOffset() throws Exception {
+      IndCpaCipherTestUtil.runBasicOffsetTests(createInstance(Random.randBytes(32)));
+    }
+
+    @Test
+    public void testDirectBuffers() throws Exception {
+      // Direct buffers are processed in chunks, unlike arrays.
+      DjbCipher cipher = createInstance(Random.randBytes(32));
+      for (int length : new int[] {0, 1, 4095, 4096, 10001}) {
+        byte[] ciphertext = Random.randBytes(cipher.nonceSizeInBytes() + length);
+        byte[] expected = cipher.decrypt(ciphertext);
+        ByteBuffer directCiphertext = ByteBuffer.allocateDirect(ciphertext.length);
+        directCiphertext.put(ciphertext).flip();
+        ByteBuffer directPlaintext = ByteBuffer.allocateDirect(length);
+        cipher.decrypt(directCiphertext, directPlaintext);
+        byte[] output = new byte[length];
+        directPlaintext.flip();
+        directPlaintext.get(output);
+        assertThat(output).isEqualTo(expected);
+      }
+    }
+
     @Test
     public void testNewCipherThrowsIllegalArgExpWhenKeyLenIsLessThan32() {
       try {
@@ -17,6 +17,7 @@
 package com.google.crypto.tink.subtle;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.Aead;
@@ -25,6 +26,7 @@ import com.google.crypto.tink.TestUtil;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -180,6 +182,67 @@ public class EncryptThenAuthenticateTest {
     }
   }
 
+  @Test
+  public void testEncryptAtOffset() throws Exception {
+    TestUtil.runBasicOffsetAeadTests(
+        (EncryptThenAuthenticate)
+            getAead(Random.randBytes(16), Random.randBytes(16), 16, 16, "HMACSHA256"));
+  }
+
+  @Test
+  public void testCipherWithoutOffsets() throws Exception {
+    // An IndCpaCipher that only implements the array methods.
+    final IndCpaCipher ctr = new AesCtrJceCipher(Random.randBytes(16), 16);
+    IndCpaCipher cipher =
+        new IndCpaCipher() {
+          @Override
+          public byte[] encrypt(final byte[] plaintext) throws GeneralSecurityException {
+            return ctr.encrypt(plaintext);
+          }
+
+          @Override
+          public byte[] decrypt(final byte[] ciphertext) throws GeneralSecurityException {
+            return ctr.decrypt(ciphertext);
+          }
+        };
+    Mac mac = new MacJce("HMACSHA256", new SecretKeySpec(Random.randBytes(16), "HMAC"), 16);
+    EncryptThenAuthenticate aead = new EncryptThenAuthenticate(cipher, mac, 16);
+    TestUtil.runBasicOffsetAeadTests(aead);
+    Aead reference = new EncryptThenAuthenticate(ctr, mac, 16);
+    byte[] plaintext = Random.randBytes(100);
+    byte[] aad = Random.randBytes(13);
+    assertArrayEquals(plaintext, reference.decrypt(aead.encrypt(plaintext, aad), aad));
+    assertArrayEquals(plaintext, aead.decrypt(reference.encrypt(plaintext, aad), aad));
+  }
+
+  @Test
+  public void testCipherWithVariableOverhead() throws Exception {
+    // A padded mode, whose ciphertexts are not always the same number of bytes longer than the
+    // plaintext.
+    final SecretKeySpec key = new SecretKeySpec(Random.randBytes(16), "AES");
+    IndCpaCipher cipher =
+        new IndCpaCipher() {
+          @Override
+          public byte[] encrypt(final byte[] plaintext) throws GeneralSecurityException {
+            byte[] iv = Random.randBytes(16);
+            Cipher cbc = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cbc.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+            return Bytes.concat(iv, cbc.doFinal(plaintext));
+          }
+
+          @Override
+          public byte[] decrypt(final byte[] ciphertext) throws GeneralSecurityException {
+            Cipher cbc = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cbc.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(ciphertext, 0, 16));
+            return cbc.doFinal(ciphertext, 16, ciphertext.length - 16);
+          }
+        };
+    Mac mac = new MacJce("HMACSHA256", new SecretKeySpec(Random.randBytes(16), "HMAC"), 16);
+    EncryptThenAuthenticate aead = new EncryptThenAuthenticate(cipher, mac, 16);
+    assertEquals(-1, aead.ciphertextSize(0));
+    TestUtil.runBasicOffsetAeadTests(aead);
+  }
+
   @Test
   public void testTruncation() throws Exception {
     Aead aead = getAead(Random.randBytes(16), Random.randBytes(16), 16, 16, "HMACSHA256");
@@ -197,6 +260,109 @@ public class EncryptThenAuthenticateTest {
     }
   }
 
+  @Test
+  public void testOtherMac() throws Exception {
+    // Macs other than MacJce are passed the concatenated data, with the same result.
+    byte[] hmacKey = Random.randBytes(16);
+    byte[] encKey = Random.randBytes(16);
+    final Mac macJce = new MacJce("HMACSHA256", new SecretKeySpec(hmacKey, "HMAC"), 16);
+    Mac other =
+        new Mac() {
+          @Override
+          public byte[] computeMac(byte[] data) throws GeneralSecurityException {
+            return macJce.computeMac(data);
+          }
+
+          @Override
+          public void verifyMac(byte[] mac, byte[] data) throws GeneralSecurityException {
+            macJce.verifyMac(mac, data);
+          }
+        };
+    Aead aead = getAead(hmacKey, encKey, 16, 16, "HMACSHA256");
+    Aead otherAead = new EncryptThenAuthenticate(new AesCtrJceCipher(encKey, 16), other, 16);
+    byte[] plaintext = Random.randBytes(100);
+    byte[] aad = Random.randBytes(13);
+    assertArrayEquals(plaintext, otherAead.decrypt(aead.encrypt(plaintext, aad), aad));
+    assertArrayEquals(plaintext, aead.decrypt(otherAead.encrypt(plaintext, aad), aad));
+  }
+
+  @Test
+  public void testLargeMessages() throws Exception {
+    // With an executor, the MAC of large ciphertexts is verified while they are decrypted.
+    byte[] encKey = Random.randBytes(16);
+    Mac mac = new MacJce("HMACSHA256", new SecretKeySpec(Random.randBytes(16), "HMAC"), 16);
+    Aead aead = new EncryptThenAuthenticate(new AesCtrJceCipher(encKey, 16), mac, 16);
+    Aead concurrentAead =
+        new EncryptThenAuthenticate(
+            new AesCtrJceCipher(encKey, 16, Parallel.defaultExecutor()),
+            mac,
+            16,
+            Parallel.defaultExecutor());
+    byte[] plaintext =
+        Random.randBytes(EncryptThenAuthenticate.CONCURRENT_DECRYPT_THRESHOLD_IN_BYTES);
+    byte[] aad = Random.randBytes(13);
+    byte[] ciphertext = aead.encrypt(plaintext, aad);
+    assertArrayEquals(plaintext, aead.decrypt(ciphertext, aad));
+    assertArrayEquals(plaintext, concurrentAead.decrypt(ciphertext, aad));
+    assertArrayEquals(plaintext, aead.decrypt(concurrentAead.encrypt(plaintext, aad), aad));
+    for (int i : new int[] {0, ciphertext.length / 2, ciphertext.length - 1}) {
+      byte[] modified = Arrays.copyOf(ciphertext, ciphertext.length);
+      modified[i] ^= 1;
+      for (Aead decrypter : new Aead[] {aead, concurrentAead}) {
+        try {
+          decrypter.decrypt(modified, aad);
+          fail("Invalid ciphertext, should have failed");
+        } catch (GeneralSecurityException expected) {
+          // Expected
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testLargeMessagesWipePlaintextOnMacFailure() throws Exception {
+    final AesCtrJceCipher ctr = new AesCtrJceCipher(Random.randBytes(16), 16);
+    final byte[][] decrypted = new byte[1][];
+    IndCpaCipher cipher =
+        new IndCpaCipher() {
+          @Override
+          public byte[] encrypt(final byte[] plaintext) throws GeneralSecurityException {
+            return ctr.encrypt(plaintext);
+          }
+
+          @Override
+          public byte[] decrypt(final byte[] ciphertext) throws GeneralSecurityException {
+            decrypted[0] = ctr.decrypt(ciphertext);
+            return decrypted[0];
+          }
+        };
+    Mac mac =
+        new Mac() {
+          @Override
+          public byte[] computeMac(final byte[] data) throws GeneralSecurityException {
+            throw new GeneralSecurityException("MAC failed");
+          }
+
+          @Override
+          public void verifyMac(byte[] mac, byte[] data) throws GeneralSecurityException {
+            throw new GeneralSecurityException("MAC failed");
+          }
+        };
+    Aead aead = new EncryptThenAuthenticate(cipher, mac, 16, Parallel.defaultExecutor());
+    byte[] ciphertext =
+        Bytes.concat(
+            ctr.encrypt(
+                Random.randBytes(EncryptThenAuthenticate.CONCURRENT_DECRYPT_THRESHOLD_IN_BYTES)),
+            new byte[16]);
+    try {
+      aead.decrypt(ciphertext, new byte[0]);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+    assertArrayEquals(new byte[decrypted[0].length], decrypted[0]);
+  }
+
   private Aead getAead(byte[] hmacKey, byte[] encKey, int ivSize, int tagLength, String macAlg)
       throws Exception {
     IndCpaCipher cipher = new AesCtrJceCipher(encKey, ivSize);
@@ -16,13 +16,34 @@
 
 package com.google.crypto.tink.subtle;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.HybridDecrypt;
+import com.google.crypto.tink.HybridEncrypt;
 import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.security.Security;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.MacSpi;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -99,4 +120,229 @@ public class EngineFactoryTest {
     EngineFactory.CIPHER.getInstance("AES");
     // didn't throw
   }
+
+  @Test
+  public void testRemembersProvider() throws Exception {
+    if (SubtleUtil.isAndroid()) {
+      return;
+    }
+    EngineFactory<EngineWrapper.TCipher, Cipher> factory =
+        EngineFactory.getCustomCipherProvider(false, "SunEC", "SunJCE");
+    Cipher first = factory.getInstance("AES/GCM/NoPadding");
+    Cipher second = factory.getInstance("AES/GCM/NoPadding");
+    assertNotSame(first, second);
+    assertEquals("SunJCE", first.getProvider().getName());
+    assertEquals("SunJCE", second.getProvider().getName());
+    try {
+      factory.getInstance("I don't exist, no point trying");
+      fail();
+    } catch (GeneralSecurityException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testNewThreadLocalEngine() throws Exception {
+    final EngineFactory.ThreadLocalEngine<Cipher> engines =
+        EngineFactory.CIPHER.newThreadLocalEngine("AES/CTR/NoPadding");
+    final Cipher cipher = engines.get();
+    assertSame(cipher, engines.get());
+    assertNotSame(cipher, EngineFactory.CIPHER.getInstance("AES/CTR/NoPadding"));
+    assertNotSame(cipher, EngineFactory.CIPHER.newThreadLocalEngine("AES/CTR/NoPadding").get());
+
+    final AtomicReference<Cipher> other = new AtomicReference<Cipher>();
+    Thread thread =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              other.set(engines.get());
+            } catch (GeneralSecurityException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+        };
+    thread.start();
+    thread.join();
+    assertNotSame(cipher, other.get());
+    assertEquals("AES/CTR/NoPadding", other.get().getAlgorithm());
+
+    try {
+      EngineFactory.CIPHER.newThreadLocalEngine("I don't exist, no point trying").get();
+      fail();
+    } catch (GeneralSecurityException e) {
+      // expected
+    }
+  }
+
+  /** A MessageDigest that delegates to the default SHA-256 implementation. */
+  public static final class DelegatingSha256 extends MessageDigest {
+    private final MessageDigest delegate;
+
+    public DelegatingSha256() throws NoSuchAlgorithmException {
+      super("SHA-256");
+      delegate = MessageDigest.getInstance("SHA-256");
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+      delegate.update(input);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+      delegate.update(input, offset, len);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+      return delegate.digest();
+    }
+
+    @Override
+    protected void engineReset() {
+      delegate.reset();
+    }
+  }
+
+  /** A Mac that delegates to the default HMAC-SHA256 implementation, and counts its instances. */
+  public static final class DelegatingHmacSha256 extends MacSpi {
+    static final AtomicInteger instances = new AtomicInteger();
+    private final Mac delegate;
+
+    public DelegatingHmacSha256() throws NoSuchAlgorithmException {
+      delegate = Mac.getInstance("HMACSHA256");
+      instances.incrementAndGet();
+    }
+
+    @Override
+    protected int engineGetMacLength() {
+      return delegate.getMacLength();
+    }
+
+    @Override
+    protected void engineInit(Key key, AlgorithmParameterSpec params)
+        throws InvalidKeyException, InvalidAlgorithmParameterException {
+      delegate.init(key, params);
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+      delegate.update(input);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+      delegate.update(input, offset, len);
+    }
+
+    @Override
+    protected byte[] engineDoFinal() {
+      return delegate.doFinal();
+    }
+
+    @Override
+    protected void engineReset() {
+      delegate.reset();
+    }
+  }
+
+  /** A provider with the lowest priority that offers only SHA-256 and HMAC-SHA256. */
+  @SuppressWarnings("serial")
+  static final class TestProvider extends Provider {
+    TestProvider() {
+      super("TinkTestProvider", 1.0, "SHA-256 and HMAC-SHA256 for tests");
+      put("MessageDigest.SHA-256", DelegatingSha256.class.getName());
+      put("Mac.HMACSHA256", DelegatingHmacSha256.class.getName());
+    }
+  }
+
+  @Test
+  public void testPreferredProviders() throws Exception {
+    Provider provider = new TestProvider();
+    Security.addProvider(provider);
+    EngineFactory.ThreadLocalEngine<MessageDigest> engines =
+        EngineFactory.MESSAGE_DIGEST.newThreadLocalEngine("SHA-256");
+    try {
+      String defaultName = MessageDigest.getInstance("SHA-256").getProvider().getName();
+      assertEquals(
+          defaultName,
+          EngineFactory.MESSAGE_DIGEST.getInstance("SHA-256").getProvider().getName());
+      assertEquals(defaultName, engines.get().getProvider().getName());
+
+      EngineFactory.setPreferredProviders(
+          Collections.singletonMap("MessageDigest.SHA-256", provider.getName()));
+      MessageDigest digest = EngineFactory.MESSAGE_DIGEST.getInstance("SHA-256");
+      assertEquals(provider.getName(), digest.getProvider().getName());
+      // Engines created before the preferences changed are replaced.
+      assertEquals(provider.getName(), engines.get().getProvider().getName());
+      // Factories with an explicit policy ignore the preferences.
+      assertEquals(
+          defaultName,
+          EngineFactory.getCustomMessageDigestProvider(false, defaultName)
+              .getInstance("SHA-256")
+              .getProvider()
+              .getName());
+
+      // Providers that are not installed are ignored.
+      EngineFactory.setPreferredProviders(
+          Collections.singletonMap("MessageDigest.SHA-256", "I don't exist"));
+      assertEquals(
+          defaultName,
+          EngineFactory.MESSAGE_DIGEST.getInstance("SHA-256").getProvider().getName());
+    } finally {
+      EngineFactory.setPreferredProviders(Collections.<String, String>emptyMap());
+      Security.removeProvider(provider.getName());
+    }
+  }
+
+  @Test
+  public void testPreferredProvidersApplyToEcies() throws Exception {
+    Provider provider = new TestProvider();
+    Security.addProvider(provider);
+    try {
+      // ECIES asks for "HmacSha256", the selection is keyed by "HMACSHA256".
+      EngineFactory.setPreferredProviders(
+          Collections.singletonMap("Mac.HMACSHA256", provider.getName()));
+      assertEquals(
+          provider.getName(), EngineFactory.MAC.getInstance("HmacSha256").getProvider().getName());
+
+      KeyPair keyPair = EllipticCurves.generateKeyPair(EllipticCurves.CurveType.NIST_P256);
+      byte[] salt = Random.randBytes(8);
+      EciesAeadHkdfDemHelper demHelper =
+          new EciesAeadHkdfDemHelper() {
+            @Override
+            public int getSymmetricKeySizeInBytes() {
+              return 16;
+            }
+
+            @Override
+            public Aead getAead(final byte[] symmetricKeyValue) {
+              return new AesGcmJce(symmetricKeyValue);
+            }
+          };
+      HybridEncrypt encrypter =
+          new EciesAeadHkdfHybridEncrypt(
+              (ECPublicKey) keyPair.getPublic(),
+              salt,
+              "HmacSha256",
+              EllipticCurves.PointFormatType.UNCOMPRESSED,
+              demHelper);
+      HybridDecrypt decrypter =
+          new EciesAeadHkdfHybridDecrypt(
+              (ECPrivateKey) keyPair.getPrivate(),
+              salt,
+              "HmacSha256",
+              EllipticCurves.PointFormatType.UNCOMPRESSED,
+              demHelper);
+      int before = DelegatingHmacSha256.instances.get();
+      byte[] plaintext = Random.randBytes(20);
+      byte[] ciphertext = encrypter.encrypt(plaintext, new byte[0]);
+      assertThat(DelegatingHmacSha256.instances.get()).isGreaterThan(before);
+      assertThat(decrypter.decrypt(ciphertext, new byte[0])).isEqualTo(plaintext);
+    } finally {
+      EngineFactory.setPreferredProviders(Collections.<String, String>emptyMap());
+      Security.removeProvider(provider.getName());
+    }
+  }
 }
@@ -0,0 +1,77 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/** Test helpers for {@link IndCpaCipher} implementations. */
+final class IndCpaCipherTestUtil {
+  private IndCpaCipherTestUtil() {}
+
+  /**
+   * Runs basic tests against an {@link OffsetIndCpaCipher}: ciphertexts written into a larger
+   * array, and decrypted from there, are the same as those of the array methods.
+   */
+  static void runBasicOffsetTests(OffsetIndCpaCipher cipher) throws Exception {
+    for (int size : new int[] {0, 1, 16, 17, 1000}) {
+      byte[] plaintext = Random.randBytes(size);
+      int ciphertextSize = cipher.ciphertextSize(size);
+      assertEquals(cipher.encrypt(plaintext).length, ciphertextSize);
+      for (int offset : new int[] {0, 1, 5, 100}) {
+        byte[] output = new byte[offset + ciphertextSize + 3];
+        assertEquals(ciphertextSize, cipher.encrypt(plaintext, output, offset));
+        for (int i = 0; i < offset; i++) {
+          assertEquals(0, output[i]);
+        }
+        for (int i = offset + ciphertextSize; i < output.length; i++) {
+          assertEquals(0, output[i]);
+        }
+        assertArrayEquals(plaintext, cipher.decrypt(output, offset, ciphertextSize));
+        byte[] decrypted = new byte[size + 2];
+        assertEquals(size, cipher.decrypt(output, offset, ciphertextSize, decrypted, 2));
+        assertArrayEquals(plaintext, Arrays.copyOfRange(decrypted, 2, 2 + size));
+        byte[] ciphertext = Arrays.copyOfRange(output, offset, offset + ciphertextSize);
+        assertArrayEquals(plaintext, cipher.decrypt(ciphertext));
+      }
+      try {
+        cipher.encrypt(plaintext, new byte[ciphertextSize + 4], 5);
+        fail("Encrypting into a too small array should fail");
+      } catch (GeneralSecurityException ex) {
+        // This is expected.
+      }
+      try {
+        cipher.decrypt(cipher.encrypt(plaintext), 0, ciphertextSize, new byte[size], 1);
+        fail("Decrypting into a too small array should fail");
+      } catch (GeneralSecurityException ex) {
+        // This is expected.
+      }
+    }
+    for (int[] range : new int[][] {{-1, 20}, {0, -1}, {5, 20}}) {
+      try {
+        cipher.decrypt(new byte[24], range[0], range[1]);
+        fail("Decrypting an invalid range should fail");
+      } catch (GeneralSecurityException ex) {
+        // This is expected.
+      }
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.google.crypto.tink.subtle;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.Mac;
@@ -87,6 +88,25 @@ public class MacJceTest {
     }
   }
 
+  @Test
+  public void testComputeMacIntoArray() throws Exception {
+    for (int i = 0; i < nistTestVectors.length; i++) {
+      NISTTestVector t = nistTestVectors[i];
+      SecretKeySpec keySpec = new SecretKeySpec(t.key, "HMAC");
+      MacJce mac = new MacJce(t.algName, keySpec, t.tag.length);
+      assertEquals(t.tag.length, mac.macSize());
+      byte[] output = new byte[t.tag.length + 5];
+      assertEquals(t.tag.length, mac.computeMac(t.message, output, 3));
+      assertArrayEquals(t.tag, Arrays.copyOfRange(output, 3, 3 + t.tag.length));
+      try {
+        mac.computeMac(t.message, output, 6);
+        fail("Computing a MAC into a too small array should fail");
+      } catch (GeneralSecurityException expected) {
+        // Expected
+      }
+    }
+  }
+
   @Test
   public void testTagTruncation() throws Exception {
     for (int i = 0; i < nistTestVectors.length; i++) {
@@ -0,0 +1,123 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link Parallel}. */
+@RunWith(JUnit4.class)
+public class ParallelTest {
+
+  /** Counts how often each index is visited. */
+  private static Parallel.RangeTask counting(final AtomicIntegerArray visits) {
+    return new Parallel.RangeTask() {
+      @Override
+      public void run(int from, int to) {
+        for (int i = from; i < to; i++) {
+          visits.incrementAndGet(i);
+        }
+      }
+    };
+  }
+
+  private static void assertVisitedOnce(AtomicIntegerArray visits) {
+    for (int i = 0; i < visits.length(); i++) {
+      assertEquals("index " + i, 1, visits.get(i));
+    }
+  }
+
+  @Test
+  public void testForRange() throws Exception {
+    for (int count : new int[] {0, 1, 2, 7, 100, 10000}) {
+      for (int minChunkSize : new int[] {1, 3, 1000}) {
+        AtomicIntegerArray visits = new AtomicIntegerArray(count);
+        Parallel.forRange(count, minChunkSize, null, counting(visits));
+        assertVisitedOnce(visits);
+      }
+    }
+  }
+
+  @Test
+  public void testNestedForRangeOnSingleThread() throws Exception {
+    // The only thread of the executor waits for the inner calls, so the chunks that they submit
+    // must be run by the threads that wait for them.
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final int outer = 8;
+      final int inner = 50;
+      final AtomicIntegerArray visits = new AtomicIntegerArray(outer * inner);
+      final ExecutorService nested = executor;
+      Parallel.forRange(
+          outer,
+          1,
+          executor,
+          new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) throws GeneralSecurityException {
+              for (int i = from; i < to; i++) {
+                final int base = i * inner;
+                Parallel.forRange(
+                    inner,
+                    1,
+                    nested,
+                    new Parallel.RangeTask() {
+                      @Override
+                      public void run(int innerFrom, int innerTo) {
+                        for (int j = innerFrom; j < innerTo; j++) {
+                          visits.incrementAndGet(base + j);
+                        }
+                      }
+                    });
+              }
+            }
+          });
+      assertVisitedOnce(visits);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testForRangeRethrows() throws Exception {
+    try {
+      Parallel.forRange(
+          100,
+          1,
+          null,
+          new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) throws GeneralSecurityException {
+              if (from == 0) {
+                throw new GeneralSecurityException("first chunk");
+              }
+            }
+          });
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException e) {
+      assertEquals("first chunk", e.getMessage());
+    }
+  }
+}
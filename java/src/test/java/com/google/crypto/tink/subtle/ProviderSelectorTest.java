@@ -0,0 +1,110 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for ProviderSelector. */
+@RunWith(JUnit4.class)
+public class ProviderSelectorTest {
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testSelect() throws Exception {
+    Provider testProvider = new EngineFactoryTest.TestProvider();
+    Security.addProvider(testProvider);
+    try {
+      Map<String, String> selection = ProviderSelector.select(1);
+      assertThat(selection).containsKey("Cipher.AES/GCM/NoPadding");
+      assertThat(selection).containsKey("Cipher.AES/CTR/NoPadding");
+      assertThat(selection).containsKey("Cipher.AES/CBC/NoPadding");
+      assertThat(selection).containsKey("Mac.HMACSHA256");
+      assertThat(selection).containsKey("MessageDigest.SHA-256");
+      for (Map.Entry<String, String> entry : selection.entrySet()) {
+        Provider provider = Security.getProvider(entry.getValue());
+        assertNotNull(entry.getValue(), provider);
+        String[] typeAndAlgorithm = entry.getKey().split("\\.", 2);
+        assertThat(ProviderSelector.supports(provider, typeAndAlgorithm[0], typeAndAlgorithm[1]))
+            .isTrue();
+      }
+    } finally {
+      Security.removeProvider(testProvider.getName());
+    }
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    Map<String, String> selection = new HashMap<String, String>();
+    selection.put("Cipher.AES/GCM/NoPadding", "SomeProvider");
+    selection.put("KeyAgreement.ECDH", "OtherProvider");
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ProviderSelector.write(selection, outputStream);
+    assertEquals(
+        selection,
+        ProviderSelector.read(new ByteArrayInputStream(outputStream.toByteArray())));
+
+    // A selection made for other providers is ignored.
+    Properties properties = new Properties();
+    properties.load(new ByteArrayInputStream(outputStream.toByteArray()));
+    properties.setProperty("fingerprint", "other");
+    outputStream.reset();
+    properties.store(outputStream, null);
+    assertNull(ProviderSelector.read(new ByteArrayInputStream(outputStream.toByteArray())));
+  }
+
+  @Test
+  public void testLoadOrSelect() throws Exception {
+    File file = new File(tmpFolder.getRoot(), "providers.properties");
+    try {
+      Map<String, String> selection = ProviderSelector.loadOrSelect(file);
+      assertThat(file.exists()).isTrue();
+      assertThat(selection).isNotEmpty();
+      assertEquals(selection, EngineFactory.getPreferredProviders());
+
+      // Later calls use the saved selection.
+      Map<String, String> saved = Collections.singletonMap("Mac.HMACSHA256", "SavedProvider");
+      try (FileOutputStream outputStream = new FileOutputStream(file)) {
+        ProviderSelector.write(saved, outputStream);
+      }
+      assertEquals(saved, ProviderSelector.loadOrSelect(file));
+      assertEquals(saved, EngineFactory.getPreferredProviders());
+      // The preferred provider is not installed, so the default is still used.
+      EngineFactory.MAC.getInstance("HMACSHA256");
+    } finally {
+      EngineFactory.setPreferredProviders(Collections.<String, String>emptyMap());
+    }
+  }
+}
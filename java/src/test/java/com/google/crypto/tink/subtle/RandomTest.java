@@ -0,0 +1,204 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link Random}. */
+@RunWith(JUnit4.class)
+public class RandomTest {
+
+  @Test
+  public void testRandBytes() throws Exception {
+    Set<String> values = new HashSet<String>();
+    for (int i = 0; i < 100; i++) {
+      byte[] rand = Random.randBytes(16);
+      assertEquals(16, rand.length);
+      values.add(Hex.encode(rand));
+    }
+    assertEquals(100, values.size());
+    assertEquals(0, Random.randBytes(0).length);
+  }
+
+  @Test
+  public void testRandBytesAtOffset() throws Exception {
+    for (int length : new int[] {0, 1, 12, 64, 65, 1000}) {
+      byte[] buffer = new byte[length + 20];
+      Random.randBytes(buffer, 10, length);
+      for (int i = 0; i < 10; i++) {
+        assertEquals(0, buffer[i]);
+        assertEquals(0, buffer[buffer.length - 1 - i]);
+      }
+      if (length >= 12) {
+        byte[] zeros = new byte[length];
+        byte[] rand = new byte[length];
+        System.arraycopy(buffer, 10, rand, 0, length);
+        assertFalse(Arrays.equals(zeros, rand));
+      }
+    }
+  }
+
+  @Test
+  public void testRandBytesAtOffsetIsFresh() throws Exception {
+    // Requests up to 64 bytes go through a reused per-thread array.
+    byte[] first = new byte[32];
+    byte[] second = new byte[32];
+    Random.randBytes(first, 8, 16);
+    Random.randBytes(second, 8, 16);
+    assertFalse(Arrays.equals(first, second));
+  }
+
+  @Test
+  public void testRandBytesAtOffsetInvalidRange() throws Exception {
+    int[][] ranges = {{-1, 4}, {0, -1}, {4, 13}, {17, 0}, {Integer.MAX_VALUE, 2}};
+    for (int[] range : ranges) {
+      byte[] buffer = new byte[16];
+      try {
+        Random.randBytes(buffer, range[0], range[1]);
+        fail("Expected IndexOutOfBoundsException");
+      } catch (IndexOutOfBoundsException ex) {
+        // expected.
+      }
+      assertArrayEquals(new byte[16], buffer);
+    }
+  }
+
+  @Test
+  public void testRandBytesAcrossReseed() throws Exception {
+    int size = 64 * 1024;
+    Set<String> values = new HashSet<String>();
+    for (long produced = 0; produced < 3 * Random.RESEED_INTERVAL_BYTES; produced += size) {
+      byte[] rand = Random.randBytes(size);
+      byte[] head = new byte[16];
+      System.arraycopy(rand, 0, head, 0, head.length);
+      values.add(Hex.encode(head));
+    }
+    assertEquals(3 * Random.RESEED_INTERVAL_BYTES / size, values.size());
+  }
+
+  @Test
+  public void testRandBytesMultipleThreads() throws Exception {
+    final int threads = 8;
+    final int perThread = 200;
+    final Set<String> values = new HashSet<String>();
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] =
+          new Thread() {
+            @Override
+            public void run() {
+              Set<String> local = new HashSet<String>();
+              for (int j = 0; j < perThread; j++) {
+                local.add(Hex.encode(Random.randBytes(16)));
+              }
+              synchronized (values) {
+                values.addAll(local);
+              }
+            }
+          };
+      workers[i].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertEquals(threads * perThread, values.size());
+  }
+
+  /** A straightforward CTR_DRBG with AES-256 and without derivation function, over AES-ECB. */
+  private static final class ReferenceCtrDrbg {
+    private byte[] key = new byte[32];
+    private byte[] v = new byte[16];
+
+    ReferenceCtrDrbg(byte[] entropyInput) throws Exception {
+      update(entropyInput);
+    }
+
+    private byte[] nextBlock() throws Exception {
+      for (int i = v.length - 1; i >= 0 && ++v[i] == 0; i--) {}
+      Cipher ecb = Cipher.getInstance("AES/ECB/NoPadding");
+      ecb.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+      return ecb.doFinal(v);
+    }
+
+    private void update(byte[] providedData) throws Exception {
+      byte[] temp = Bytes.concat(nextBlock(), nextBlock(), nextBlock());
+      for (int i = 0; i < temp.length; i++) {
+        temp[i] ^= providedData[i];
+      }
+      key = Arrays.copyOf(temp, 32);
+      v = Arrays.copyOfRange(temp, 32, 48);
+    }
+
+    byte[] generate(int length) throws Exception {
+      byte[] output = new byte[0];
+      while (output.length < length) {
+        output = Bytes.concat(output, nextBlock());
+      }
+      update(new byte[48]);
+      return Arrays.copyOf(output, length);
+    }
+  }
+
+  @Test
+  public void testAesCtrDrbgMatchesReference() throws Exception {
+    byte[] entropyInput = Random.randBytes(Random.AesCtrDrbg.SEED_SIZE_IN_BYTES);
+    Random.AesCtrDrbg drbg = new Random.AesCtrDrbg(entropyInput);
+    ReferenceCtrDrbg reference = new ReferenceCtrDrbg(entropyInput);
+    for (int length : new int[] {0, 1, 16, 17, 100, Random.AesCtrDrbg.MAX_REQUEST_SIZE_IN_BYTES}) {
+      byte[] output = new byte[length + 2];
+      drbg.generate(output, 1, length);
+      assertArrayEquals(reference.generate(length), Arrays.copyOfRange(output, 1, length + 1));
+      assertEquals(0, output[0]);
+      assertEquals(0, output[length + 1]);
+    }
+  }
+
+  @Test
+  public void testAesCtrDrbgAsSecureRandom() throws Exception {
+    byte[] entropyInput = Random.randBytes(Random.AesCtrDrbg.SEED_SIZE_IN_BYTES);
+    SecureRandom random1 = new SecureRandom(new Random.AesCtrDrbg(entropyInput), null) {};
+    SecureRandom random2 = new SecureRandom(new Random.AesCtrDrbg(entropyInput), null) {};
+    // Requests larger than the maximum of a single generate are split up.
+    byte[] rand1 = new byte[3 * Random.AesCtrDrbg.MAX_REQUEST_SIZE_IN_BYTES + 5];
+    byte[] rand2 = new byte[rand1.length];
+    random1.nextBytes(rand1);
+    random2.nextBytes(rand2);
+    assertArrayEquals(rand1, rand2);
+    byte[] tail = Arrays.copyOfRange(rand1, rand1.length - 16, rand1.length);
+    assertFalse(Arrays.equals(new byte[16], tail));
+
+    // Reseeding adds fresh entropy, even with the same seed.
+    random1.setSeed(new byte[32]);
+    random2.setSeed(new byte[32]);
+    random1.nextBytes(rand1);
+    random2.nextBytes(rand2);
+    assertFalse(Arrays.equals(rand1, rand2));
+  }
+}
@@ -17,17 +17,24 @@
 package com.google.crypto.tink.tinkey;
 
 import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.monitoring.KeyUsageReport;
+import com.google.crypto.tink.monitoring.PrimitiveMonitor.Operation;
 import com.google.crypto.tink.proto.KeysetInfo;
+import com.google.crypto.tink.proto.KeysetInfo.KeyInfo;
 import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * List keys in a keyset.
  */
-public class ListKeysetCommand extends InOptions implements Command {
+public class ListKeysetCommand extends ListKeysetOptions implements Command {
   @Override
   public void run() throws Exception {
     validate();
-    list(inputStream, inFormat, masterKeyUri, credentialPath);
+    list(inputStream, inFormat, masterKeyUri, credentialPath, usageStream);
   }
 
   /**
@@ -36,9 +43,52 @@ public class ListKeysetCommand extends InOptions implements Command {
    */
   public static void list(InputStream inputStream,
       String inFormat, String masterKeyUri, String credentialPath) throws Exception {
+    list(inputStream, inFormat, masterKeyUri, credentialPath, null);
+  }
+
+  /**
+   * Lists all keys in the keyset in {@code inputStream} (using {@code credentialPath} to
+   * decrypt if it is encrypted), followed by their usage according to the {@link KeyUsageReport}
+   * in {@code usageStream} if it is not null. This command doesn't output actual key material.
+   */
+  public static void list(InputStream inputStream,
+      String inFormat, String masterKeyUri, String credentialPath, InputStream usageStream)
+      throws Exception {
     KeysetHandle handle = TinkeyUtil.getKeysetHandle(inputStream, inFormat, masterKeyUri,
         credentialPath);
     KeysetInfo keysetInfo = handle.getKeysetInfo();
     System.out.println(keysetInfo.toString());
+    if (usageStream != null) {
+      System.out.print(formatUsage(keysetInfo, KeyUsageReport.readFrom(usageStream)));
+    }
+  }
+
+  /**
+   * Returns one line per key in {@code keysetInfo} with the number of successful operations per
+   * type and the time of the last one in UTC according to {@code report}, or "not used" if the
+   * key does not appear in the report.
+   */
+  static String formatUsage(KeysetInfo keysetInfo, KeyUsageReport report) {
+    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+    dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    StringBuilder result = new StringBuilder();
+    for (KeyInfo keyInfo : keysetInfo.getKeyInfoList()) {
+      result.append("key_id: ").append(keyInfo.getKeyId() & 0xffffffffL);
+      KeyUsageReport.KeyUsage usage = report.getKeyUsage(keyInfo.getKeyId());
+      if (usage == null) {
+        result.append(" not used\n");
+        continue;
+      }
+      for (Operation operation : Operation.values()) {
+        if (usage.getCount(operation) != 0) {
+          result.append(' ').append(operation).append(": ").append(usage.getCount(operation));
+        }
+      }
+      result
+          .append(" last_used: ")
+          .append(dateFormat.format(new Date(usage.getLastUsedMillis())))
+          .append('\n');
+    }
+    return result.toString();
   }
 }
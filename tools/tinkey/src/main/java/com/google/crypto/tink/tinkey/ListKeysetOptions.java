@@ -0,0 +1,34 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.tinkey;
+
+import java.io.InputStream;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Args for command to list keys in a keyset.
+ */
+class ListKeysetOptions extends InOptions {
+  @Option(
+      name = "--usage",
+      metaVar = "path/to/usage.json",
+      handler = InputStreamHandler.class,
+      required = false,
+      usage = "A key usage report, as written by KeyUsageReport.writeTo, to show how often and "
+          + "when each key was last used")
+  InputStream usageStream;
+}
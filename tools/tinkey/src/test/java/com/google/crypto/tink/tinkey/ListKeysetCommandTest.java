@@ -0,0 +1,56 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.tinkey;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.crypto.tink.monitoring.KeyUsageReport;
+import com.google.crypto.tink.proto.KeyStatusType;
+import com.google.crypto.tink.proto.KeysetInfo;
+import com.google.crypto.tink.proto.KeysetInfo.KeyInfo;
+import java.io.ByteArrayInputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@code ListKeysetCommand}.
+ */
+@RunWith(JUnit4.class)
+public class ListKeysetCommandTest {
+  @Test
+  public void testFormatUsage_shouldListEveryKey() throws Exception {
+    KeysetInfo keysetInfo = KeysetInfo.newBuilder()
+        .setPrimaryKeyId(1)
+        .addKeyInfo(KeyInfo.newBuilder().setKeyId(1).setStatus(KeyStatusType.ENABLED))
+        .addKeyInfo(KeyInfo.newBuilder().setKeyId(-1).setStatus(KeyStatusType.ENABLED))
+        .addKeyInfo(KeyInfo.newBuilder().setKeyId(2).setStatus(KeyStatusType.ENABLED))
+        .build();
+    String json = "{\"keys\": ["
+        + "{\"keyId\": 1, \"lastUsedMillis\": 0, \"operations\": {\"ENCRYPT\": 3}},"
+        + "{\"keyId\": 4294967295, \"lastUsedMillis\": 1500000000000,"
+        + " \"operations\": {\"DECRYPT\": 5}}]}";
+    KeyUsageReport report =
+        KeyUsageReport.readFrom(new ByteArrayInputStream(json.getBytes(UTF_8)));
+
+    assertThat(ListKeysetCommand.formatUsage(keysetInfo, report)).isEqualTo(
+        "key_id: 1 ENCRYPT: 3 last_used: 1970-01-01T00:00:00Z\n"
+        + "key_id: 4294967295 DECRYPT: 5 last_used: 2017-07-14T02:40:00Z\n"
+        + "key_id: 2 not used\n");
+  }
+}